@@ -0,0 +1,83 @@
+package org.vilutis.lt.revolut.backend.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoJdbcImpl;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AccountDaoJdbcImpl} hot paths against the in-memory H2 configured in <code>prod.db.properties</code>.
+ * Reports throughput and sampled latency percentiles. Run with several thread counts using
+ * {@link ThreadScalingRunner}, or with <code>-t</code>.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountDaoBenchmark {
+
+    private static final Money INITIAL_BALANCE = Money.of(1_000_000_000L);
+
+    private static final Money AMOUNT = Money.of(1);
+
+    @Param({"1000"})
+    int accounts;
+
+    @Param({"uniform", "skewed"})
+    String distribution;
+
+    AccountDao accountDao;
+
+    AccountSelector selector;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        accountDao = new AccountDaoJdbcImpl(new DBStorage("/prod.db.properties"));
+
+        final long[] accountNumbers = new long[accounts];
+        for (int i = 0; i < accounts; i++) {
+            final Account account = accountDao.create("benchmark-" + i);
+            accountDao.deposit(account.getAccountNumber(), INITIAL_BALANCE);
+            accountNumbers[i] = account.getAccountNumber();
+        }
+        selector = AccountSelector.of(distribution, accountNumbers);
+    }
+
+    @Benchmark
+    public void transferBalance() {
+        final long from = selector.next();
+        accountDao.transferBalance(from, selector.nextOtherThan(from), AMOUNT);
+    }
+
+    @Benchmark
+    public Account deposit() {
+        return accountDao.deposit(selector.next(), AMOUNT);
+    }
+
+    @Benchmark
+    public Account withdraw() {
+        return accountDao.withdraw(selector.next(), AMOUNT);
+    }
+
+    @Benchmark
+    public Account findByAccountNumber() {
+        return accountDao.findByAccountNumber(selector.next());
+    }
+}
@@ -0,0 +1,93 @@
+package org.vilutis.lt.revolut.backend.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks account numbers out of a fixed set of accounts, either uniformly or with a Zipfian skew where a few "hot"
+ * accounts get most of the traffic
+ */
+public abstract class AccountSelector {
+
+    protected final long[] accountNumbers;
+
+    private AccountSelector(long[] accountNumbers) {
+        this.accountNumbers = accountNumbers;
+    }
+
+    /**
+     * @param distribution <code>uniform</code> or <code>skewed</code>
+     * @param accountNumbers the accounts to pick from
+     * @return an {@link AccountSelector} for the given distribution
+     */
+    public static AccountSelector of(String distribution, long[] accountNumbers) {
+        switch (distribution) {
+            case "uniform":
+                return new Uniform(accountNumbers);
+            case "skewed":
+                return new Zipfian(accountNumbers, 0.99D);
+            default:
+                throw new IllegalArgumentException("Unknown distribution '" + distribution + "'");
+        }
+    }
+
+    /**
+     * @return a random account number
+     */
+    public long next() {
+        return accountNumbers[nextIndex()];
+    }
+
+    /**
+     * @param other the account number to avoid
+     * @return a random account number different from the given one
+     */
+    public long nextOtherThan(long other) {
+        long next;
+        do {
+            next = next();
+        } while (next == other);
+        return next;
+    }
+
+    protected abstract int nextIndex();
+
+    private static class Uniform extends AccountSelector {
+
+        private Uniform(long[] accountNumbers) {
+            super(accountNumbers);
+        }
+
+        @Override
+        protected int nextIndex() {
+            return ThreadLocalRandom.current().nextInt(accountNumbers.length);
+        }
+    }
+
+    /**
+     * Zipf distribution sampled by a binary search over the precomputed cumulative probabilities
+     */
+    private static class Zipfian extends AccountSelector {
+
+        private final double[] cumulative;
+
+        private Zipfian(long[] accountNumbers, double exponent) {
+            super(accountNumbers);
+            cumulative = new double[accountNumbers.length];
+            double sum = 0;
+            for (int rank = 0; rank < cumulative.length; rank++) {
+                sum += 1D / Math.pow(rank + 1, exponent);
+                cumulative[rank] = sum;
+            }
+            for (int rank = 0; rank < cumulative.length; rank++) {
+                cumulative[rank] /= sum;
+            }
+        }
+
+        @Override
+        protected int nextIndex() {
+            final int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+            return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.vilutis.lt.revolut.backend.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoJdbcImpl;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating {@code accounts} accounts against the in-memory H2 configured in <code>prod.db.properties</code>: one
+ * {@link AccountDaoJdbcImpl#create} call per account versus a single {@link AccountDaoJdbcImpl#createAll} call
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkCreateBenchmark {
+
+    @Param({"100000"})
+    int accounts;
+
+    List<String> accountNames;
+
+    DBStorage dbStorage;
+
+    AccountDaoJdbcImpl accountDao;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        accountNames = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            accountNames.add("benchmark-" + i);
+        }
+        dbStorage = new DBStorage("/prod.db.properties");
+        accountDao = new AccountDaoJdbcImpl(dbStorage);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dbStorage.close();
+    }
+
+    @Benchmark
+    public void createOneByOne(Blackhole blackhole) {
+        for (String accountName : accountNames) {
+            blackhole.consume(accountDao.create(accountName));
+        }
+    }
+
+    @Benchmark
+    public long createAll(Blackhole blackhole) {
+        return accountDao.createAll(accountNames.iterator(), blackhole::consume);
+    }
+}
@@ -0,0 +1,552 @@
+package org.vilutis.lt.revolut.backend.benchmark;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.vilutis.lt.revolut.backend.Application;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import spark.Spark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the REST API with a configurable mix of transfers, deposits, withdrawals and account reads and prints
+ * throughput, latency percentiles and an error breakdown per operation as JSON.
+ *
+ * <p>Unless <code>--url</code> is given the application is started in this JVM with its default settings, i.e.
+ * against an in-memory H2 database. All other environment variables of the application apply as usual, so engines
+ * and storage profiles can be compared with the same workload. After the run the total balance of all accounts is
+ * checked to equal the total before it plus all deposits and minus all withdrawals.</p>
+ *
+ * <p>Two load models are supported:</p>
+ * <ul>
+ *     <li><code>closed</code> ( default ) - every thread sends its next request as soon as the previous one is
+ *     answered, so the request rate follows the response time. Latency is measured from sending the request</li>
+ *     <li><code>open</code> - requests arrive at a fixed <code>--rate</code> per second no matter how fast they are
+ *     answered, <code>--threads</code> being the maximum number of requests in flight. Latency is measured from the
+ *     time a request was due, so time spent waiting for a free thread counts as well</li>
+ * </ul>
+ *
+ * <p>Usage: <code>mvn -P jmh compile exec:java -Dexec.args="[options]"</code> or
+ * <code>java -cp target/benchmarks.jar org.vilutis.lt.revolut.backend.benchmark.LoadGenerator [options]</code></p>
+ * <ul>
+ *     <li><code>--url</code> - base URL of a running application, e.g. <code>http://localhost:4567</code></li>
+ *     <li><code>--accounts</code> - accounts to create, 1000 by default</li>
+ *     <li><code>--initial-balance</code> - deposited to every account before the run, 1000 by default</li>
+ *     <li><code>--mix</code> - relative weights of the <code>transfer</code>, <code>deposit</code>,
+ *     <code>withdraw</code> and <code>get</code> operations, {@value #DEFAULT_MIX} by default</li>
+ *     <li><code>--distribution</code> - account selection, <code>uniform</code> ( default ) or <code>skewed</code>
+ *     ( Zipfian )</li>
+ *     <li><code>--model</code> - <code>closed</code> ( default ) or <code>open</code></li>
+ *     <li><code>--rate</code> - requests per second of the open model, 1000 by default</li>
+ *     <li><code>--threads</code> - concurrent clients, 8 by default</li>
+ *     <li><code>--warmup</code> - seconds of load before measuring, 5 by default</li>
+ *     <li><code>--duration</code> - seconds of measured load, 30 by default</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    enum Operation {
+        TRANSFER, DEPOSIT, WITHDRAW, GET
+    }
+
+    /**
+     * Latencies above one minute are recorded as one minute
+     */
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    static final String DEFAULT_MIX = "transfer=70,deposit=10,withdraw=10,get=10";
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private static final int MAX_ERROR_MESSAGE_LENGTH = 100;
+
+    private final String baseUrl;
+
+    private final Map<String, String> options;
+
+    private final Operation[] mix;
+
+    private final int[] cumulativeWeights;
+
+    private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+
+    private final Map<Operation, LongAdder> successes = new EnumMap<>(Operation.class);
+
+    private final Map<Operation, Map<String, LongAdder>> errors = new EnumMap<>(Operation.class);
+
+    private final AtomicLong deposited = new AtomicLong();
+
+    private final AtomicLong withdrawn = new AtomicLong();
+
+    /**
+     * Deposits and withdrawals which failed without a response, so whether they were applied is not known
+     */
+    private final AtomicLong unknownOutcomes = new AtomicLong();
+
+    private final AtomicLong unknownDeposited = new AtomicLong();
+
+    private final AtomicLong unknownWithdrawn = new AtomicLong();
+
+    private AccountSelector selector;
+
+    LoadGenerator(String baseUrl, Map<String, String> options) {
+        this.baseUrl = baseUrl;
+        this.options = options;
+
+        final Map<Operation, Integer> weights = parseMix(option("mix", DEFAULT_MIX));
+        mix = weights.keySet().toArray(new Operation[0]);
+        cumulativeWeights = new int[mix.length];
+        int sum = 0;
+        for (int i = 0; i < mix.length; i++) {
+            sum += weights.get(mix[i]);
+            cumulativeWeights[i] = sum;
+        }
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new ConcurrentHistogram(1, HIGHEST_TRACKABLE_MICROS, 3));
+            successes.put(operation, new LongAdder());
+            errors.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = parseOptions(args);
+
+        String baseUrl = options.get("url");
+        final boolean embedded = baseUrl == null;
+        if (embedded) {
+            Application.main(new String[0]);
+            Spark.awaitInitialization();
+            baseUrl = "http://localhost:" + Spark.port();
+        }
+
+        final Map<String, Object> report;
+        try {
+            report = new LoadGenerator(baseUrl, options).run();
+        } finally {
+            if (embedded) {
+                Spark.stop();
+                Spark.awaitStop();
+            }
+        }
+        System.out.println(new GsonBuilder().setPrettyPrinting().create().toJson(report));
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> balance = (Map<String, Object>) report.get("balance");
+        if (!Boolean.TRUE.equals(balance.get("conserved"))) {
+            throw new IllegalStateException("total balance is not conserved");
+        }
+    }
+
+    /**
+     * Creates the accounts, drives the load and checks the total balance
+     *
+     * @return the report
+     */
+    Map<String, Object> run() throws Exception {
+        final int accounts = Integer.parseInt(option("accounts", "1000"));
+        final int threads = Integer.parseInt(option("threads", "8"));
+        final long warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "5")));
+        final long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "30")));
+        final String model = option("model", "closed");
+        final double rate = Double.parseDouble(option("rate", "1000"));
+        if (!"closed".equals(model) && !"open".equals(model)) {
+            throw new IllegalArgumentException("Unknown load model '" + model + "'. Use 'closed' or 'open'");
+        }
+        if (accounts < 2) {
+            throw new IllegalArgumentException("at least 2 accounts are needed for transfers");
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            selector = AccountSelector.of(option("distribution", "uniform"),
+                    createAccounts(executor, accounts, Money.parse(option("initial-balance", "1000"))));
+            final long totalBefore = totalBalance();
+
+            final long start = System.nanoTime();
+            final long measureFrom = start + warmupNanos;
+            final long end = measureFrom + durationNanos;
+            final AtomicLong arrivals = new AtomicLong();
+            final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            final List<Future<?>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> {
+                    if ("open".equals(model)) {
+                        runOpen(start, measureFrom, end, arrivals, intervalNanos);
+                    } else {
+                        runClosed(measureFrom, end);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            final long totalAfter = totalBalance();
+
+            final Map<String, Object> report = new LinkedHashMap<>();
+            report.put("options", describeOptions(accounts, threads, model, rate, warmupNanos, durationNanos));
+            report.put("operations", describeOperations(durationNanos));
+            report.put("balance", describeBalance(totalBefore, totalAfter));
+            return report;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void runClosed(long measureFrom, long end) {
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            execute(nextOperation(), now, now >= measureFrom);
+        }
+    }
+
+    private void runOpen(long start, long measureFrom, long end, AtomicLong arrivals, long intervalNanos) {
+        while (true) {
+            final long due = start + arrivals.getAndIncrement() * intervalNanos;
+            if (due >= end) {
+                return;
+            }
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+            execute(nextOperation(), due, due >= measureFrom);
+        }
+    }
+
+    /**
+     * @param startNanos the time the request is measured from
+     * @param measured whether to record the request, requests of the warmup are not
+     */
+    private void execute(Operation operation, long startNanos, boolean measured) {
+        final long from = selector.next();
+        final long amount = 1 + ThreadLocalRandom.current().nextInt(100);
+        final Response response;
+        try {
+            switch (operation) {
+                case TRANSFER:
+                    response = send("POST", "/api/balance/transfer",
+                            "{\"fromAcct\":" + from + ",\"toAcct\":" + selector.nextOtherThan(from)
+                                    + ",\"amount\":" + Money.ofMinorUnits(amount) + "}");
+                    break;
+                case DEPOSIT:
+                    response = send("POST", "/api/balance/deposit",
+                            "{\"toAcct\":" + from + ",\"amount\":" + Money.ofMinorUnits(amount) + "}");
+                    break;
+                case WITHDRAW:
+                    response = send("POST", "/api/balance/withdraw",
+                            "{\"fromAcct\":" + from + ",\"amount\":" + Money.ofMinorUnits(amount) + "}");
+                    break;
+                default:
+                    response = send("GET", "/api/account/" + from, null);
+                    break;
+            }
+        } catch (IOException e) {
+            if (operation == Operation.DEPOSIT) {
+                unknownOutcomes.incrementAndGet();
+                unknownDeposited.addAndGet(amount);
+            } else if (operation == Operation.WITHDRAW) {
+                unknownOutcomes.incrementAndGet();
+                unknownWithdrawn.addAndGet(amount);
+            }
+            record(operation, startNanos, measured, e.getClass().getSimpleName());
+            return;
+        }
+
+        if (response.status == HttpURLConnection.HTTP_OK) {
+            if (operation == Operation.DEPOSIT) {
+                deposited.addAndGet(amount);
+            } else if (operation == Operation.WITHDRAW) {
+                withdrawn.addAndGet(amount);
+            }
+            record(operation, startNanos, measured, null);
+        } else {
+            record(operation, startNanos, measured, response.status + " " + response.message());
+        }
+    }
+
+    /**
+     * @param error the error key, <code>null</code> if the operation succeeded
+     */
+    private void record(Operation operation, long startNanos, boolean measured, String error) {
+        if (!measured) {
+            return;
+        }
+        final long micros = (System.nanoTime() - startNanos) / 1000;
+        latencies.get(operation).recordValue(Math.max(1, Math.min(micros, HIGHEST_TRACKABLE_MICROS)));
+        if (error == null) {
+            successes.get(operation).increment();
+        } else {
+            errors.get(operation).computeIfAbsent(error, key -> new LongAdder()).increment();
+        }
+    }
+
+    private Operation nextOperation() {
+        final int value = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return mix[i];
+            }
+        }
+        return mix[mix.length - 1];
+    }
+
+    /**
+     * Creates the accounts through the API, spread across the given executor, and deposits the initial balance
+     *
+     * @return the account numbers
+     */
+    private long[] createAccounts(ExecutorService executor, int accounts, Money initialBalance) throws Exception {
+        final long[] accountNumbers = new long[accounts];
+        final AtomicInteger next = new AtomicInteger();
+        final List<Future<?>> creators = new ArrayList<>();
+        for (int i = 0; i < Math.min(accounts, 8); i++) {
+            creators.add(executor.submit(() -> {
+                int index;
+                while ((index = next.getAndIncrement()) < accounts) {
+                    final Response created = send("PUT", "/api/account?accountName="
+                            + URLEncoder.encode("load-" + index, "UTF-8"), null);
+                    expectOk(created, "create an account");
+                    accountNumbers[index] = JsonParser.parseString(created.body).getAsJsonObject()
+                            .getAsJsonObject("data").get("accountNumber").getAsLong();
+                    if (initialBalance.getMinorUnits() > 0) {
+                        expectOk(send("POST", "/api/balance/deposit", "{\"toAcct\":" + accountNumbers[index]
+                                + ",\"amount\":" + initialBalance + "}"), "deposit the initial balance");
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> creator : creators) {
+            creator.get();
+        }
+        return accountNumbers;
+    }
+
+    /**
+     * @return the sum of balances of all accounts in minor units, read from the export API
+     */
+    private long totalBalance() throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "/api/account/export")
+                .openConnection();
+        long total = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    total += Money.parse(JsonParser.parseString(line).getAsJsonObject().get("balance").getAsString())
+                            .getMinorUnits();
+                }
+            }
+        }
+        return total;
+    }
+
+    private Response send(String method, String path, String body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Accept", "application/json");
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        final int status = connection.getResponseCode();
+        // reading the whole body lets the connection be reused by the keep-alive cache
+        final InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in == null) {
+            return new Response(status, "");
+        }
+        try (InputStream stream = in) {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            return new Response(status, new String(content.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void expectOk(Response response, String action) {
+        if (response.status != HttpURLConnection.HTTP_OK) {
+            throw new IllegalStateException("failed to " + action + ": " + response.status + " " + response.body);
+        }
+    }
+
+    private Map<String, Object> describeOptions(int accounts, int threads, String model, double rate,
+            long warmupNanos, long durationNanos) {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("url", baseUrl);
+        result.put("accounts", accounts);
+        result.put("distribution", option("distribution", "uniform"));
+        result.put("mix", option("mix", DEFAULT_MIX));
+        result.put("model", model);
+        if ("open".equals(model)) {
+            result.put("ratePerSecond", rate);
+        }
+        result.put("threads", threads);
+        result.put("warmupSeconds", TimeUnit.NANOSECONDS.toSeconds(warmupNanos));
+        result.put("durationSeconds", TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+        return result;
+    }
+
+    private Map<String, Object> describeOperations(long durationNanos) {
+        final double seconds = durationNanos / 1e9;
+        final Histogram total = new Histogram(1, HIGHEST_TRACKABLE_MICROS, 3);
+        long totalSuccesses = 0;
+        final Map<String, Object> result = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            final Histogram histogram = latencies.get(operation);
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            total.add(histogram);
+            totalSuccesses += successes.get(operation).sum();
+            result.put(operation.name().toLowerCase(), describe(histogram, successes.get(operation).sum(),
+                    errors.get(operation), seconds));
+        }
+        final Map<String, LongAdder> allErrors = new HashMap<>();
+        errors.values().forEach(byOperation -> byOperation.forEach((error, count) ->
+                allErrors.computeIfAbsent(error, key -> new LongAdder()).add(count.sum())));
+        result.put("total", describe(total, totalSuccesses, allErrors, seconds));
+        return result;
+    }
+
+    private static Map<String, Object> describe(Histogram histogram, long successes, Map<String, LongAdder> errors,
+            double seconds) {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", histogram.getTotalCount());
+        result.put("ratePerSecond", histogram.getTotalCount() / seconds);
+        result.put("successes", successes);
+        final Map<String, Long> errorCounts = new TreeMap<>();
+        errors.forEach((error, count) -> errorCounts.put(error, count.sum()));
+        result.put("errors", errorCounts);
+        result.put("meanMicros", histogram.getMean());
+        for (double percentile : PERCENTILES) {
+            result.put("p" + String.valueOf(percentile).replace(".0", "").replace(".", "") + "Micros",
+                    histogram.getValueAtPercentile(percentile));
+        }
+        result.put("maxMicros", histogram.getMaxValue());
+        return result;
+    }
+
+    private Map<String, Object> describeBalance(long totalBefore, long totalAfter) {
+        final long expected = totalBefore + deposited.get() - withdrawn.get();
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("before", Money.ofMinorUnits(totalBefore).toString());
+        result.put("deposited", Money.ofMinorUnits(deposited.get()).toString());
+        result.put("withdrawn", Money.ofMinorUnits(withdrawn.get()).toString());
+        result.put("expected", Money.ofMinorUnits(expected).toString());
+        result.put("after", Money.ofMinorUnits(totalAfter).toString());
+        result.put("unknownOutcomes", unknownOutcomes.get());
+        // a deposit or withdrawal without a response may or may not have been applied
+        result.put("conserved", totalAfter >= expected - unknownWithdrawn.get()
+                && totalAfter <= expected + unknownDeposited.get());
+        return result;
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * @param args <code>--name value</code> pairs
+     * @return option values by name
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Invalid option '" + args[i] + "'. Use --name value");
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    /**
+     * @param mix comma separated <code>operation=weight</code> pairs, e.g. <code>transfer=90,get=10</code>
+     * @return the positive weights by operation
+     */
+    static Map<Operation, Integer> parseMix(String mix) {
+        final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            final String[] operationAndWeight = entry.trim().split("=");
+            if (operationAndWeight.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry '" + entry + "'. Use operation=weight");
+            }
+            final int weight = Integer.parseInt(operationAndWeight[1].trim());
+            if (weight > 0) {
+                weights.put(Operation.valueOf(operationAndWeight[0].trim().toUpperCase()), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("mix '" + mix + "' has no operation with a positive weight");
+        }
+        return weights;
+    }
+
+    private static class Response {
+
+        final int status;
+
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        /**
+         * @return the <code>message</code> of a {@link org.vilutis.lt.revolut.backend.api.StandardResponse} body,
+         * shortened, or the body itself if it is not one
+         */
+        String message() {
+            String message = body;
+            try {
+                final JsonElement json = JsonParser.parseString(body);
+                if (json.isJsonObject() && ((JsonObject) json).has("message")) {
+                    message = ((JsonObject) json).get("message").getAsString();
+                }
+            } catch (RuntimeException e) {
+                // not JSON, use the body as is
+            }
+            return message.length() > MAX_ERROR_MESSAGE_LENGTH
+                    ? message.substring(0, MAX_ERROR_MESSAGE_LENGTH) : message;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.vilutis.lt.revolut.backend.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoEventSourcedImpl;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.journal.JournalEntry;
+import org.vilutis.lt.revolut.backend.journal.MappedJournal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Startup time of the event-sourced account engine: reading the latest snapshot of {@code accounts} accounts and
+ * replaying the {@code tailEntries} journal entries written after it. Run with <code>-p accounts=10000000</code> and
+ * a large enough heap ( <code>-jvmArgs -Xmx4g</code> ) for the full scale
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+
+    private static final int BATCH_SIZE = 10_000;
+
+    @Param({"1000000"})
+    int accounts;
+
+    @Param({"100000"})
+    int tailEntries;
+
+    Path directory;
+
+    MappedJournal journal;
+
+    AccountDaoEventSourcedImpl accountDao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("recovery-benchmark");
+        try (MappedJournal journal = new MappedJournal(journal())) {
+            final List<JournalEntry> batch = new ArrayList<>(BATCH_SIZE);
+            for (long account = 1; account <= accounts; account++) {
+                batch.add(JournalEntry.accountCreated(account, "account-" + account));
+                batch.add(JournalEntry.deposit(account, Money.of(100)));
+                if (batch.size() >= BATCH_SIZE) {
+                    journal.appendAll(batch);
+                    batch.clear();
+                }
+            }
+            journal.appendAll(batch);
+
+            // replays the whole journal once and writes the snapshot on close
+            new AccountDaoEventSourcedImpl(journal, snapshots()).close();
+
+            batch.clear();
+            for (int i = 0; i < tailEntries; i++) {
+                final long from = 1 + ThreadLocalRandom.current().nextInt(accounts);
+                batch.add(JournalEntry.transfer(from, from % accounts + 1, Money.ofMinorUnits(1L)));
+                if (batch.size() >= BATCH_SIZE) {
+                    journal.appendAll(batch);
+                    batch.clear();
+                }
+            }
+            journal.appendAll(batch);
+        }
+        copy(snapshots(), directory.resolve("snapshots-pristine"));
+    }
+
+    /**
+     * Closing the engine writes a snapshot including the replayed entries, so every iteration starts from the original
+     * one
+     */
+    @Setup(Level.Iteration)
+    public void restoreSnapshots() throws IOException {
+        delete(snapshots());
+        copy(directory.resolve("snapshots-pristine"), snapshots());
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        accountDao.close();
+        journal.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        delete(directory);
+    }
+
+    @Benchmark
+    public long recover() {
+        journal = new MappedJournal(journal());
+        accountDao = new AccountDaoEventSourcedImpl(journal, snapshots());
+        return accountDao.findByAccountNumber((long) accounts).getBalance().getMinorUnits();
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        Files.createDirectories(to);
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private Path journal() {
+        return directory.resolve("journal");
+    }
+
+    private Path snapshots() {
+        return directory.resolve("snapshots");
+    }
+}
@@ -0,0 +1,125 @@
+package org.vilutis.lt.revolut.backend.benchmark;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vilutis.lt.revolut.backend.api.JsonCodec;
+import org.vilutis.lt.revolut.backend.api.PagedResponse;
+import org.vilutis.lt.revolut.backend.api.StandardResponse;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON encoding of the API responses and decoding of transfer requests: Gson, as formerly done by the route
+ * transformers in {@link org.vilutis.lt.revolut.backend.Application}, against the hand-written {@link JsonCodec}.
+ *
+ * <p><code>*ToStream</code> benchmarks include copying the encoded response to a stream, like Spark does with the
+ * String returned by a route transformer</p>
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"20", "100"})
+    int pageSize;
+
+    Gson gson;
+
+    JsonCodec codec;
+
+    ByteArrayOutputStream out;
+
+    byte[] transferBody;
+
+    StandardResponse<Account> accountResponse;
+
+    StandardResponse<ArrayList<Account>> pageResponse;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        gson = new Gson();
+        codec = new JsonCodec(gson);
+        out = new ByteArrayOutputStream(64 * 1024);
+        transferBody = "{\"fromAcct\":123456,\"toAcct\":654321,\"amount\":1234.56}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        accountResponse = StandardResponse.respondOK(
+                Account.from(123_456L, "Benchmark account", Money.ofMinorUnits(123_456_789L)));
+
+        final ArrayList<Account> page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            page.add(Account.from(i, "Benchmark account " + i, Money.ofMinorUnits(i * 1_000L + 1)));
+        }
+        pageResponse = PagedResponse.respondPage(page, PagedResponse.encodePageToken(pageSize));
+    }
+
+    @Benchmark
+    public String account() {
+        return gson.toJson(accountResponse);
+    }
+
+    @Benchmark
+    public String page() {
+        return gson.toJson(pageResponse);
+    }
+
+    @Benchmark
+    public int accountToStream_gson() throws IOException {
+        out.reset();
+        out.write(gson.toJson(accountResponse).getBytes(StandardCharsets.UTF_8));
+        return out.size();
+    }
+
+    @Benchmark
+    public int accountToStream_codec() throws IOException {
+        out.reset();
+        codec.write(accountResponse, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int pageToStream_gson() throws IOException {
+        out.reset();
+        out.write(gson.toJson(pageResponse).getBytes(StandardCharsets.UTF_8));
+        return out.size();
+    }
+
+    @Benchmark
+    public int pageToStream_codec() throws IOException {
+        out.reset();
+        codec.write(pageResponse, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public Transfer readTransfer_gson() {
+        return gson.fromJson(new String(transferBody, StandardCharsets.UTF_8), Transfer.class);
+    }
+
+    @Benchmark
+    public Transfer readTransfer_codec() throws IOException {
+        return codec.readTransfer(new ByteArrayInputStream(transferBody));
+    }
+}
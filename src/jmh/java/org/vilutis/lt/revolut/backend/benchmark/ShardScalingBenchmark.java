@@ -0,0 +1,113 @@
+package org.vilutis.lt.revolut.backend.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoShardedImpl;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of the <code>sharded</code> account engine over 1 to 8 in-memory databases, see
+ * {@link AccountDaoShardedImpl}:
+ * <ul>
+ *     <li>{@link #deposit} - single-shard operations, spread over the shards</li>
+ *     <li>{@link #transferBalance} - transfers between random accounts, so with N shards (N-1)/N of them span two
+ *     shards and are committed in two phases</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ShardScalingBenchmark {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    @State(Scope.Benchmark)
+    public static class Shards {
+
+        @Param({"1", "2", "4", "8"})
+        int shards;
+
+        @Param({"10000"})
+        int accounts;
+
+        List<DBStorage> dbStorages;
+
+        AccountDaoShardedImpl accountDao;
+
+        long[] accountNumbers;
+
+        @Setup(Level.Trial)
+        public void open() {
+            dbStorages = new ArrayList<>();
+            for (int shard = 0; shard < shards; shard++) {
+                // in-memory databases of their own, gone once their pools are closed
+                dbStorages.add(new DBStorage("/prod.db.properties",
+                        "jdbc:h2:mem:shard-benchmark" + DATABASES.incrementAndGet(), "shard-" + shard,
+                        new MetricsRegistry()));
+            }
+            accountDao = new AccountDaoShardedImpl(dbStorages, Journal.NONE);
+
+            final List<String> names = new ArrayList<>();
+            for (int i = 0; i < accounts; i++) {
+                names.add("benchmark-" + i);
+            }
+            final List<Account> created = new ArrayList<>();
+            accountDao.createAll(names.iterator(), created::add);
+            accountNumbers = new long[created.size()];
+            for (int i = 0; i < accountNumbers.length; i++) {
+                accountNumbers[i] = created.get(i).getAccountNumber();
+                accountDao.deposit(accountNumbers[i], Money.of(1_000_000L));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            accountDao.close();
+            dbStorages.forEach(DBStorage::close);
+        }
+
+        long randomAccount() {
+            return accountNumbers[ThreadLocalRandom.current().nextInt(accountNumbers.length)];
+        }
+    }
+
+    @Benchmark
+    public Account deposit(Shards shards) {
+        return shards.accountDao.deposit(shards.randomAccount(), Money.ofMinorUnits(1L));
+    }
+
+    @Benchmark
+    public void transferBalance(Shards shards) {
+        final long from = shards.randomAccount();
+        long to = shards.randomAccount();
+        while (to == from) {
+            to = shards.randomAccount();
+        }
+        shards.accountDao.transferBalance(from, to, Money.ofMinorUnits(1L));
+    }
+}
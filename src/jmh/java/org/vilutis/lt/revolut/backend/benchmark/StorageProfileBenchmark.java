@@ -0,0 +1,229 @@
+package org.vilutis.lt.revolut.backend.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoJdbcImpl;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Compares the <code>mem</code> and the durable <code>file</code> storage profiles ( see <code>DB_PROFILE</code> ):
+ * <ul>
+ *     <li>{@link #coldStart} - opening an empty database, including the schema migrations</li>
+ *     <li>{@link #warmStart} - opening a database of {@code accounts} accounts and reading all of them. The in-memory
+ *     database outlives its connection pool within the JVM, so for <code>mem</code> this is only the pool start</li>
+ *     <li>{@link #transferBalance} - steady-state transfer throughput</li>
+ * </ul>
+ * The H2 settings of the profile's property file are used, only the database location is changed
+ */
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageProfileBenchmark {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    @State(Scope.Benchmark)
+    public static class Profile {
+
+        @Param({"mem", "file"})
+        String profile;
+
+        @Param({"100000"})
+        int accounts;
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void createDirectory() throws IOException {
+            directory = Files.createTempDirectory("storage-benchmark");
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteDirectory() throws IOException {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        /**
+         * @return the location of a property file pointing at a new database of the profile
+         */
+        String newDatabase() throws IOException {
+            final String name = "benchmark" + DATABASES.incrementAndGet();
+            final Properties properties = new Properties();
+            try (InputStream in = getClass().getResourceAsStream(
+                    "mem".equals(profile) ? "/prod.db.properties" : "/file.db.properties")) {
+                properties.load(in);
+            }
+            properties.setProperty("jdbcUrl", properties.getProperty("jdbcUrl")
+                    .replace("mem:prod", "mem:" + name)
+                    .replace("./data/accounts", directory.toAbsolutePath().resolve(name).toString()));
+
+            final Path propertyFile = directory.resolve(name + ".properties");
+            try (OutputStream out = Files.newOutputStream(propertyFile)) {
+                properties.store(out, null);
+            }
+            return propertyFile.toString();
+        }
+    }
+
+    /**
+     * A database of {@link Profile#accounts} accounts, closed between iterations
+     */
+    @State(Scope.Benchmark)
+    public static class Populated {
+
+        String propertyFile;
+
+        DBStorage dbStorage;
+
+        @Setup(Level.Trial)
+        public void populate(Profile profile) throws IOException, SQLException {
+            propertyFile = profile.newDatabase();
+            try (DBStorage storage = new DBStorage(propertyFile)) {
+                storage.runInTransaction(connection -> {
+                    // account numbers 1 to accounts, as picked by transferBalance
+                    try (PreparedStatement statement = connection.prepareStatement(
+                            " INSERT INTO account ( accountNumber, accountName, balance ) VALUES ( ?, ?, ? ) ")) {
+                        for (int i = 1; i <= profile.accounts; i++) {
+                            statement.setLong(1, i);
+                            statement.setString(2, "benchmark-" + i);
+                            statement.setLong(3, 1_000_000L);
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    }
+                    try (PreparedStatement statement = connection.prepareStatement(
+                            " ALTER SEQUENCE account_number_seq RESTART WITH " + (profile.accounts + 1))) {
+                        statement.execute();
+                    }
+                    return true;
+                });
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            if (dbStorage != null) {
+                dbStorage.close();
+                dbStorage = null;
+            }
+        }
+    }
+
+    /**
+     * A new empty database for every iteration
+     */
+    @State(Scope.Benchmark)
+    public static class Empty {
+
+        String propertyFile;
+
+        DBStorage dbStorage;
+
+        @Setup(Level.Iteration)
+        public void create(Profile profile) throws IOException {
+            propertyFile = profile.newDatabase();
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            dbStorage.close();
+        }
+    }
+
+    /**
+     * The populated database kept open for the whole trial
+     */
+    @State(Scope.Benchmark)
+    public static class Open {
+
+        DBStorage dbStorage;
+
+        AccountDaoJdbcImpl accountDao;
+
+        int accounts;
+
+        @Setup(Level.Trial)
+        public void open(Profile profile, Populated populated) {
+            dbStorage = new DBStorage(populated.propertyFile);
+            accountDao = new AccountDaoJdbcImpl(dbStorage);
+            accounts = profile.accounts;
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            dbStorage.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long coldStart(Empty empty) throws SQLException {
+        empty.dbStorage = new DBStorage(empty.propertyFile);
+        return countAccounts(empty.dbStorage);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long warmStart(Populated populated) throws SQLException {
+        populated.dbStorage = new DBStorage(populated.propertyFile);
+        return populated.dbStorage.runSQL(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    " SELECT SUM(LENGTH(accountName) + balance) FROM account ");
+                 ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public void transferBalance(Open open) {
+        final long from = 1 + ThreadLocalRandom.current().nextInt(open.accounts);
+        open.accountDao.transferBalance(from, from % open.accounts + 1, Money.ofMinorUnits(1L));
+    }
+
+    private static long countAccounts(DBStorage dbStorage) throws SQLException {
+        return dbStorage.runSQL(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(" SELECT COUNT(*) FROM account ");
+                 ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+    }
+}
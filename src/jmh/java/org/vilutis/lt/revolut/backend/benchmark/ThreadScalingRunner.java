@@ -0,0 +1,31 @@
+package org.vilutis.lt.revolut.backend.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count and writes the results of every run to
+ * <code>jmh-result-&lt;threads&gt;-threads.json</code>.
+ *
+ * <p>Usage: <code>java -cp target/benchmarks.jar org.vilutis.lt.revolut.backend.benchmark.ThreadScalingRunner
+ * [benchmark regexp] [thread counts, e.g. 1,4,16]</code></p>
+ */
+public class ThreadScalingRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        final String include = args.length > 0 ? args[0] : AccountDaoBenchmark.class.getSimpleName();
+        final String threadCounts = args.length > 1 ? args[1] : "1,4,16";
+
+        for (String threadCount : threadCounts.split(",")) {
+            final int threads = Integer.parseInt(threadCount.trim());
+            new Runner(new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-result-" + threads + "-threads.json")
+                    .build()).run();
+        }
+    }
+}
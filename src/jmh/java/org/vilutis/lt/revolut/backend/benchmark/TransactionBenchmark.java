@@ -0,0 +1,57 @@
+package org.vilutis.lt.revolut.backend.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link DBStorage#runInTransaction(DBStorage.DBAction)} ( savepoint, auto-commit toggling and commit )
+ * compared to {@link DBStorage#runSQL(DBStorage.DBAction)} running the same trivial query
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionBenchmark {
+
+    DBStorage dbStorage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dbStorage = new DBStorage("/prod.db.properties");
+    }
+
+    @Benchmark
+    public Integer runSQL() throws SQLException {
+        return dbStorage.runSQL(TransactionBenchmark::selectOne);
+    }
+
+    @Benchmark
+    public Integer runInTransaction() throws SQLException {
+        return dbStorage.runInTransaction(TransactionBenchmark::selectOne);
+    }
+
+    private static Integer selectOne(java.sql.Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT 1");
+             ResultSet rs = statement.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
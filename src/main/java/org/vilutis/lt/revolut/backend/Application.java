@@ -2,12 +2,40 @@ package org.vilutis.lt.revolut.backend;
 
 import com.google.gson.Gson;
 import org.eclipse.jetty.http.MimeTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.vilutis.lt.revolut.backend.api.AccountController;
+import org.vilutis.lt.revolut.backend.api.AdmissionControl;
 import org.vilutis.lt.revolut.backend.api.BalanceController;
+import org.vilutis.lt.revolut.backend.api.IdempotencyCache;
+import org.vilutis.lt.revolut.backend.api.JsonCodec;
+import org.vilutis.lt.revolut.backend.api.MetricsController;
+import org.vilutis.lt.revolut.backend.api.ReadYourWrites;
+import org.vilutis.lt.revolut.backend.api.StatsController;
 import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoCachingImpl;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoEventSourcedImpl;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoInMemoryImpl;
 import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoJdbcImpl;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoSequencedImpl;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoShardedImpl;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.journal.MappedJournal;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import org.vilutis.lt.revolut.backend.metrics.RouteMetrics;
+import org.vilutis.lt.revolut.backend.server.VirtualThreadPool;
 import org.vilutis.lt.revolut.backend.storage.DBStorage;
+import org.vilutis.lt.revolut.backend.storage.RetryPolicy;
 import spark.Service;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
+import spark.utils.Assert;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import static spark.Spark.*;
 
@@ -16,18 +44,52 @@ import static spark.Spark.*;
  */
 public class Application {
 
+    private static final Logger logger = LoggerFactory.getLogger(Application.class);
+
+    static final int DEFAULT_REQUEST_THREADS = 8;
+
     public static void main(String[] args) {
 
         final Gson gson = new Gson();
 
-        final DBStorage dbStorage = new DBStorage("/prod.db.properties");
+        ProcessBuilder process = new ProcessBuilder();
 
-        final AccountDao accountDAO = new AccountDaoJdbcImpl(dbStorage);
+        final MetricsRegistry metrics = new MetricsRegistry();
 
-        final AccountController accountController = new AccountController(accountDAO);
-        final BalanceController balanceController = new BalanceController(accountDAO, gson);
+        final String dbPropertiesFile = dbPropertiesFile(process.environment().get("DB_PROFILE"));
+        final DBStorage dbStorage = new DBStorage(dbPropertiesFile, DBStorage.DEFAULT_STATEMENT_CACHE_SIZE, metrics,
+                new RetryPolicy(), jdbcUrls(process.environment().get("DB_REPLICA_URLS")));
 
-        ProcessBuilder process = new ProcessBuilder();
+        final Journal journal = createJournal(process.environment().get("JOURNAL_DIR"),
+                process.environment().get("JOURNAL_MAX_BATCH_SIZE"),
+                process.environment().get("JOURNAL_MAX_WAIT_MICROS"));
+
+        final AccountDao accountDAO = withCache(process.environment().get("ACCOUNT_CACHE_SIZE"), dbStorage,
+                createAccountDao(process.environment().get("ACCOUNT_ENGINE"), dbStorage, journal,
+                        process.environment().get("SHARDED_ACCOUNTS"), metrics,
+                        process.environment().get("SEQUENCER_MAX_BATCH_SIZE"),
+                        process.environment().get("SEQUENCER_MAX_WAIT_MICROS"),
+                        process.environment().get("SNAPSHOT_DIR"),
+                        process.environment().get("SNAPSHOT_INTERVAL_SECONDS"),
+                        () -> openShards(dbPropertiesFile, process.environment().get("SHARD_URLS"), metrics)));
+
+        final AccountController accountController = new AccountController(accountDAO, gson);
+        final IdempotencyCache idempotencyCache = createIdempotencyCache(
+                process.environment().get("IDEMPOTENCY_CACHE_SIZE"),
+                process.environment().get("IDEMPOTENCY_TTL_SECONDS"));
+        metrics.gauge("idempotency_cached_responses", "Responses stored by Idempotency-Key",
+                idempotencyCache::size);
+        metrics.gauge("idempotency_replays_total", "Requests answered with a stored response",
+                idempotencyCache::getReplays);
+        final BalanceController balanceController = new BalanceController(accountDAO, gson, idempotencyCache);
+        final StatsController statsController = new StatsController(accountDAO);
+        final MetricsController metricsController = new MetricsController(metrics, gson);
+        final RouteMetrics routeMetrics = new RouteMetrics(metrics);
+        final JsonCodec jsonCodec = new JsonCodec(gson);
+        final ReadYourWrites readYourWrites = new ReadYourWrites(dbStorage);
+        final AdmissionControl admissionControl = createAdmissionControl(
+                process.environment().get("ADMISSION_CONTROL"), process.environment().get("ADMISSION_MAX_LIMIT"),
+                dbStorage.getMaximumPoolSize(), metrics);
 
         Integer port = Service.SPARK_DEFAULT_PORT;
 
@@ -46,24 +108,324 @@ public class Application {
         staticFiles.expireTime(600L);
 
         // thread pool setup
-        threadPool(8, 2, 30000);
+        configureRequestThreads(process.environment().get("REQUEST_THREADS"),
+                requestThreads(admissionControl.getMaxInFlight()));
 
         // setup API routes
         path("/api", ()->{
+            before("/*", routeMetrics.before);
+            afterAfter("/*", routeMetrics.after);
             before((req, res) -> res.type(MimeTypes.Type.APPLICATION_JSON.asString()));
+            // StandardResponses are written straight to the response stream by the JsonCodec
+            // long running exports and bulk creation are not admission controlled
             // account API
             path("/account", () -> {
-                put("", accountController.create, gson::toJson);
-                get("/all", accountController.findAll, gson::toJson);
-                get("/:accountNumber", accountController.findAccountByNumber, gson::toJson);
+                put("", routeMetrics.named("PUT /api/account", jsonCodec.writing(readYourWrites.tracked(
+                        admissionControl.limited(AdmissionControl.MONEY, accountController.create)))));
+                put("/bulk", routeMetrics.named("PUT /api/account/bulk", accountController.createAll));
+                get("/all", routeMetrics.named("GET /api/account/all", jsonCodec.writing(readYourWrites.tracked(
+                        admissionControl.limited(AdmissionControl.READ, accountController.findAll)))));
+                get("/export", routeMetrics.named("GET /api/account/export", accountController.export));
+                get("/:accountNumber", routeMetrics.named("GET /api/account/:accountNumber", jsonCodec.writing(
+                        readYourWrites.tracked(admissionControl.limited(AdmissionControl.READ,
+                                accountController.findAccountByNumber)))));
             });
             path("/balance", () -> {
-                post("/transfer", balanceController.transfer, gson::toJson);
-                post("/deposit", balanceController.deposit, gson::toJson);
-                post("/withdraw", balanceController.withdraw, gson::toJson);
+                post("/transfer", routeMetrics.named("POST /api/balance/transfer", jsonCodec.writing(
+                        readYourWrites.tracked(admissionControl.limited(AdmissionControl.MONEY,
+                                balanceController.transfer)))));
+                post("/transfers", routeMetrics.named("POST /api/balance/transfers", jsonCodec.writing(
+                        readYourWrites.tracked(admissionControl.limited(AdmissionControl.MONEY,
+                                balanceController.transfers)))));
+                post("/deposit", routeMetrics.named("POST /api/balance/deposit", jsonCodec.writing(
+                        readYourWrites.tracked(admissionControl.limited(AdmissionControl.MONEY,
+                                balanceController.deposit)))));
+                post("/withdraw", routeMetrics.named("POST /api/balance/withdraw", jsonCodec.writing(
+                        readYourWrites.tracked(admissionControl.limited(AdmissionControl.MONEY,
+                                balanceController.withdraw)))));
             });
+            get("/stats", routeMetrics.named("GET /api/stats", jsonCodec.writing(
+                    admissionControl.limited(AdmissionControl.READ, statsController.stats))));
+            get("/metrics", routeMetrics.named("GET /api/metrics", metricsController.metrics));
         });
 
     }
 
+    /**
+     * Sizes the platform request thread pool. With admission control the pool is twice the requests admitted at once,
+     * so requests over the limits get a thread right away and are rejected, instead of queueing inside Jetty
+     *
+     * @param maxInFlight the highest number of requests admitted at once, <code>0</code> if not limited
+     * @return the number of platform request threads
+     */
+    static int requestThreads(int maxInFlight) {
+        return Math.max(DEFAULT_REQUEST_THREADS, 2 * maxInFlight);
+    }
+
+    /**
+     * Picks the threads requests are run on by name:
+     * <ul>
+     *     <li><code>platform</code> ( default ) - a bounded pool of platform threads</li>
+     *     <li><code>virtual</code> - a new virtual thread for every request, so the database connection pool is the
+     *     only concurrency limit. Falls back to <code>platform</code> if the JVM does not support virtual threads</li>
+     * </ul>
+     *
+     * @param mode the thread mode name, usually from the <code>REQUEST_THREADS</code> environment variable
+     * @param platformThreads the size of the platform thread pool, see {@link #requestThreads(int)}
+     */
+    static void configureRequestThreads(String mode, int platformThreads) {
+        if ("virtual".equalsIgnoreCase(mode)) {
+            if (VirtualThreadPool.isSupported()) {
+                EmbeddedServers.add(EmbeddedServers.Identifiers.JETTY,
+                        new EmbeddedJettyFactory().withThreadPool(new VirtualThreadPool("request-")));
+                return;
+            }
+            logger.warn("Virtual threads are not supported by Java {}, using platform threads",
+                    System.getProperty("java.version"));
+        } else if (mode != null && !mode.isEmpty() && !"platform".equalsIgnoreCase(mode)) {
+            throw new IllegalArgumentException("Unknown request threads '" + mode + "'. Use 'platform' or 'virtual'");
+        }
+        threadPool(platformThreads, 2, 30000);
+    }
+
+    /**
+     * Picks the {@link AccountDao} engine by name:
+     * <ul>
+     *     <li><code>jdbc</code> ( default ) - every operation goes straight to the database</li>
+     *     <li><code>memory</code> - balances are kept in memory and written behind to the database</li>
+     *     <li><code>sequencer</code> - money movements are queued and applied in batches by a single writer
+     *     thread</li>
+     *     <li><code>eventsourced</code> - the journal is the source of truth, balances are rebuilt in memory from the
+     *     latest snapshot and the journal entries after it. The database is not used for accounts</li>
+     *     <li><code>sharded</code> - accounts are spread across the database and the shards by account number,
+     *     transfers between shards are committed in two phases</li>
+     * </ul>
+     *
+     * @param engine the engine name, usually from the <code>ACCOUNT_ENGINE</code> environment variable
+     * @param dbStorage the durable JDBC storage
+     * @param journal the audit log to record money movements in
+     * @param shardedAccounts accounts to split balances of, usually from the <code>SHARDED_ACCOUNTS</code>
+     *                        environment variable. See {@link #shardAccounts(String, AccountDaoJdbcImpl)}
+     * @param metrics the registry to record sequencer metrics in
+     * @param sequencerMaxBatchSize maximum number of commands applied by the sequencer in one transaction, usually
+     *                              from the <code>SEQUENCER_MAX_BATCH_SIZE</code> environment variable.
+     *                              {@link AccountDaoSequencedImpl#DEFAULT_MAX_BATCH_SIZE} if not set
+     * @param sequencerMaxWaitMicros maximum time the sequencer waits for more commands before applying a batch,
+     *                               usually from the <code>SEQUENCER_MAX_WAIT_MICROS</code> environment variable.
+     *                               {@link AccountDaoSequencedImpl#DEFAULT_MAX_WAIT_MICROS} if not set
+     * @param snapshotDir directory to keep event-sourced account snapshots in, usually from the
+     *                    <code>SNAPSHOT_DIR</code> environment variable. Required by the event-sourced engine
+     * @param snapshotIntervalSeconds how often event-sourced accounts are snapshot, usually from the
+     *                                <code>SNAPSHOT_INTERVAL_SECONDS</code> environment variable.
+     *                                {@link AccountDaoEventSourcedImpl#DEFAULT_SNAPSHOT_INTERVAL_MILLIS} if not set
+     * @param shards opens the databases to spread accounts across besides dbStorage, see
+     *               {@link #openShards(String, String, MetricsRegistry)}. Called by the sharded engine only, other
+     *               engines do not connect to them
+     * @return the {@link AccountDao} to be used by the REST API
+     */
+    static AccountDao createAccountDao(String engine, DBStorage dbStorage, Journal journal, String shardedAccounts,
+            MetricsRegistry metrics, String sequencerMaxBatchSize, String sequencerMaxWaitMicros, String snapshotDir,
+            String snapshotIntervalSeconds, Supplier<List<DBStorage>> shards) {
+        if (engine == null || engine.isEmpty() || "jdbc".equalsIgnoreCase(engine)) {
+            return shardAccounts(shardedAccounts, new AccountDaoJdbcImpl(dbStorage, journal));
+        } else if ("memory".equalsIgnoreCase(engine)) {
+            // the in-memory engine records money movements itself, its backing store only receives balance updates
+            final AccountDaoInMemoryImpl inMemoryDao =
+                    new AccountDaoInMemoryImpl(new AccountDaoJdbcImpl(dbStorage), journal);
+            Runtime.getRuntime().addShutdownHook(new Thread(inMemoryDao::close, "account-flusher-shutdown"));
+            return inMemoryDao;
+        } else if ("sequencer".equalsIgnoreCase(engine)) {
+            final AccountDaoSequencedImpl sequencedDao = new AccountDaoSequencedImpl(dbStorage, journal, metrics,
+                    AccountDaoSequencedImpl.DEFAULT_QUEUE_CAPACITY,
+                    sequencerMaxBatchSize == null || sequencerMaxBatchSize.isEmpty()
+                            ? AccountDaoSequencedImpl.DEFAULT_MAX_BATCH_SIZE : Integer.parseInt(sequencerMaxBatchSize),
+                    sequencerMaxWaitMicros == null || sequencerMaxWaitMicros.isEmpty()
+                            ? AccountDaoSequencedImpl.DEFAULT_MAX_WAIT_MICROS : Long.parseLong(sequencerMaxWaitMicros));
+            Runtime.getRuntime().addShutdownHook(new Thread(sequencedDao::close, "account-sequencer-shutdown"));
+            return sequencedDao;
+        } else if ("eventsourced".equalsIgnoreCase(engine)) {
+            Assert.isTrue(journal != Journal.NONE, "the eventsourced account engine requires JOURNAL_DIR");
+            Assert.hasLength(snapshotDir, "the eventsourced account engine requires SNAPSHOT_DIR");
+            final AccountDaoEventSourcedImpl eventSourcedDao = new AccountDaoEventSourcedImpl(journal,
+                    Paths.get(snapshotDir), AccountDaoInMemoryImpl.DEFAULT_STRIPES,
+                    snapshotIntervalSeconds == null || snapshotIntervalSeconds.isEmpty()
+                            ? AccountDaoEventSourcedImpl.DEFAULT_SNAPSHOT_INTERVAL_MILLIS
+                            : TimeUnit.SECONDS.toMillis(Long.parseLong(snapshotIntervalSeconds)));
+            Runtime.getRuntime().addShutdownHook(new Thread(eventSourcedDao::close, "account-snapshot-shutdown"));
+            return eventSourcedDao;
+        } else if ("sharded".equalsIgnoreCase(engine)) {
+            final List<DBStorage> allShards = new ArrayList<>();
+            allShards.add(dbStorage);
+            allShards.addAll(shards.get());
+            final AccountDaoShardedImpl shardedDao = new AccountDaoShardedImpl(allShards, journal);
+            Runtime.getRuntime().addShutdownHook(new Thread(shardedDao::close, "account-shards-shutdown"));
+            return shardedDao;
+        }
+        throw new IllegalArgumentException("Unknown account engine '" + engine
+                + "'. Use 'jdbc', 'memory', 'sequencer', 'eventsourced' or 'sharded'");
+    }
+
+    /**
+     * Splits balances of hot accounts across several slot rows, see {@link AccountDaoJdbcImpl#setSlots(Long, int)}
+     *
+     * @param shardedAccounts comma separated <code>accountNumber:slots</code> pairs, e.g. <code>1:16,2:8</code>.
+     *                        Nothing is split if not set
+     * @param accountDAO the {@link AccountDaoJdbcImpl} to split account balances of
+     * @return the given accountDAO
+     */
+    static AccountDao shardAccounts(String shardedAccounts, AccountDaoJdbcImpl accountDAO) {
+        if (shardedAccounts == null || shardedAccounts.trim().isEmpty()) {
+            return accountDAO;
+        }
+        for (String shardedAccount : shardedAccounts.split(",")) {
+            final String[] accountNumberAndSlots = shardedAccount.trim().split(":");
+            if (accountNumberAndSlots.length != 2) {
+                throw new IllegalArgumentException("Invalid sharded account '" + shardedAccount
+                        + "'. Use accountNumber:slots");
+            }
+            accountDAO.setSlots(Long.parseLong(accountNumberAndSlots[0].trim()),
+                    Integer.parseInt(accountNumberAndSlots[1].trim()));
+        }
+        return accountDAO;
+    }
+
+    /**
+     * Picks the HikariCP property file of a storage profile:
+     * <ul>
+     *     <li><code>mem</code> ( default ) - in-memory H2, all accounts are lost on restart</li>
+     *     <li><code>file</code> - durable file-backed H2 with a tuned MVStore</li>
+     * </ul>
+     *
+     * @param profile the profile name, usually from the <code>DB_PROFILE</code> environment variable
+     * @return the property file location in the class path
+     */
+    static String dbPropertiesFile(String profile) {
+        if (profile == null || profile.isEmpty() || "mem".equalsIgnoreCase(profile)) {
+            return "/prod.db.properties";
+        } else if ("file".equalsIgnoreCase(profile)) {
+            return "/file.db.properties";
+        }
+        throw new IllegalArgumentException("Unknown storage profile '" + profile + "'. Use 'mem' or 'file'");
+    }
+
+    /**
+     * Parses a list of JDBC URLs, e.g. of the read-only replicas, see {@link DBStorage}
+     *
+     * @param urls comma separated JDBC URLs, usually from the <code>DB_REPLICA_URLS</code> or <code>SHARD_URLS</code>
+     *             environment variable. None if not set
+     * @return the JDBC URLs
+     */
+    static List<String> jdbcUrls(String urls) {
+        final List<String> jdbcUrls = new ArrayList<>();
+        if (urls != null) {
+            for (String url : urls.split(",")) {
+                if (!url.trim().isEmpty()) {
+                    jdbcUrls.add(url.trim());
+                }
+            }
+        }
+        return jdbcUrls;
+    }
+
+    /**
+     * Opens the account shards of the sharded engine besides the main database, see {@link AccountDaoShardedImpl}
+     *
+     * @param propertyFileName HikariCP property file the shards are configured by, except for the JDBC URL
+     * @param urls comma separated JDBC URLs, usually from the <code>SHARD_URLS</code> environment variable. No shards
+     *             besides the main database if not set
+     * @param metrics the registry to record the shard DB metrics in, pool metrics are labelled by shard
+     * @return the shard storages
+     */
+    static List<DBStorage> openShards(String propertyFileName, String urls, MetricsRegistry metrics) {
+        final List<DBStorage> shards = new ArrayList<>();
+        for (String url : jdbcUrls(urls)) {
+            final DBStorage shard = new DBStorage(propertyFileName, url, "shard-" + (shards.size() + 1), metrics);
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    /**
+     * Opens the money movement journal, if the journal directory is set
+     *
+     * @param directory directory to keep journal segments in, usually from the <code>JOURNAL_DIR</code> environment
+     *                  variable. No journal if not set
+     * @param maxBatchSize maximum number of entries forced to disk at once. {@link MappedJournal#DEFAULT_MAX_BATCH_SIZE}
+     *                     if not set
+     * @param maxWaitMicros maximum time to wait for more entries before forcing a batch.
+     *                      {@link MappedJournal#DEFAULT_MAX_WAIT_MICROS} if not set
+     * @return the {@link Journal} to record money movements in
+     */
+    static Journal createJournal(String directory, String maxBatchSize, String maxWaitMicros) {
+        if (directory == null || directory.isEmpty()) {
+            return Journal.NONE;
+        }
+        final MappedJournal journal = new MappedJournal(Paths.get(directory), MappedJournal.DEFAULT_SEGMENT_SIZE,
+                maxBatchSize == null || maxBatchSize.isEmpty()
+                        ? MappedJournal.DEFAULT_MAX_BATCH_SIZE : Integer.parseInt(maxBatchSize),
+                maxWaitMicros == null || maxWaitMicros.isEmpty()
+                        ? MappedJournal.DEFAULT_MAX_WAIT_MICROS : Long.parseLong(maxWaitMicros));
+        Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "journal-shutdown"));
+        return journal;
+    }
+
+    /**
+     * Creates the store of balance API responses by <code>Idempotency-Key</code>
+     *
+     * @param maxSize maximum number of stored responses, usually from the <code>IDEMPOTENCY_CACHE_SIZE</code>
+     *                environment variable. {@link IdempotencyCache#DEFAULT_MAX_SIZE} if not set
+     * @param ttlSeconds how long responses are stored, usually from the <code>IDEMPOTENCY_TTL_SECONDS</code>
+     *                   environment variable. {@link IdempotencyCache#DEFAULT_TTL_SECONDS} if not set
+     * @return the {@link IdempotencyCache}
+     */
+    static IdempotencyCache createIdempotencyCache(String maxSize, String ttlSeconds) {
+        return new IdempotencyCache(
+                maxSize == null || maxSize.isEmpty() ? IdempotencyCache.DEFAULT_MAX_SIZE : Integer.parseInt(maxSize),
+                ttlSeconds == null || ttlSeconds.isEmpty()
+                        ? IdempotencyCache.DEFAULT_TTL_SECONDS : Long.parseLong(ttlSeconds));
+    }
+
+    /**
+     * Picks the admission control of API requests by name:
+     * <ul>
+     *     <li><code>off</code> ( default ) - every request is admitted</li>
+     *     <li><code>adaptive</code> - reads and money movements are limited separately, the limits adapt to the
+     *     observed request latency. See {@link AdmissionControl#adaptive(int, MetricsRegistry)}</li>
+     * </ul>
+     *
+     * @param mode the admission control name, usually from the <code>ADMISSION_CONTROL</code> environment variable
+     * @param maxLimit the highest limit of requests in flight per route class, usually from the
+     *                 <code>ADMISSION_MAX_LIMIT</code> environment variable. The DB connection pool size if not set
+     * @param maximumPoolSize the DB connection pool size
+     * @param metrics the registry to export the limiter state to
+     * @return the {@link AdmissionControl}
+     */
+    static AdmissionControl createAdmissionControl(String mode, String maxLimit, int maximumPoolSize,
+            MetricsRegistry metrics) {
+        if (mode == null || mode.isEmpty() || "off".equalsIgnoreCase(mode)) {
+            return AdmissionControl.NONE;
+        } else if ("adaptive".equalsIgnoreCase(mode)) {
+            return AdmissionControl.adaptive(
+                    maxLimit == null || maxLimit.isEmpty() ? maximumPoolSize : Integer.parseInt(maxLimit), metrics);
+        }
+        throw new IllegalArgumentException("Unknown admission control '" + mode + "'. Use 'off' or 'adaptive'");
+    }
+
+    /**
+     * Puts a read-through account cache in front of the given {@link AccountDao}, if the cache size is set
+     *
+     * @param cacheSize maximum number of cached accounts, usually from the <code>ACCOUNT_CACHE_SIZE</code> environment
+     *                  variable. No cache if not set or zero
+     * @param dbStorage the storage the {@link AccountDao} reads from. Cache misses are loaded from its primary
+     *                  database, so replicas behind it cannot refill the cache with stale balances
+     * @param accountDAO the {@link AccountDao} to cache
+     * @return the {@link AccountDao} to be used by the REST API
+     */
+    static AccountDao withCache(String cacheSize, DBStorage dbStorage, AccountDao accountDAO) {
+        if (cacheSize == null || cacheSize.isEmpty() || Integer.parseInt(cacheSize) == 0) {
+            return accountDAO;
+        }
+        return new AccountDaoCachingImpl(accountDAO, Integer.parseInt(cacheSize), dbStorage);
+    }
+
 }
@@ -1,6 +1,8 @@
 package org.vilutis.lt.revolut.backend.api;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vilutis.lt.revolut.backend.dao.AccountDao;
@@ -11,6 +13,15 @@ import spark.Route;
 import spark.utils.Assert;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
 
 import static org.vilutis.lt.revolut.backend.api.StandardResponse.respond;
 import static org.vilutis.lt.revolut.backend.api.StandardResponse.respondOK;
@@ -22,20 +33,41 @@ public class AccountController {
 
     public static final String APPLICATION_JSON = "application/json";
 
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final AccountDao accountDAO;
 
+    private final Gson gson;
+
+    private final JsonCodec jsonCodec;
+
     public final Route findAll = (req, res) -> findAllAccounts(req, res);
+    public final Route export = (req, res) -> exportAccounts(req, res);
     public final Route findAccountByNumber = (req, res) -> findAccountByNumber(req, res);
     public final Route create = (req, res) -> create(req, res);
+    public final Route createAll = (req, res) -> createAccounts(req, res);
 
     /**
      * Initializes Account REST API Endpoint and exposes available API routes
      * @param accountDAO required for Data interactions
      */
     public AccountController(AccountDao accountDAO) {
+        this(accountDAO, new Gson());
+    }
+
+    /**
+     * Initializes Account REST API Endpoint and exposes available API routes
+     * @param accountDAO required for Data interactions
+     * @param gson used to serialize error responses of the export
+     */
+    public AccountController(AccountDao accountDAO, Gson gson) {
+        Assert.notNull(accountDAO);
+        Assert.notNull(gson);
         this.accountDAO = accountDAO;
+        this.gson = gson;
+        this.jsonCodec = new JsonCodec(gson);
     }
 
     protected StandardResponse create(Request req, Response res) {
@@ -62,18 +94,137 @@ public class AccountController {
     }
 
     /**
-     * Find all accounts endpoint with paging parameter
-     * @return all accounts array wrapped in a {@link StandardResponse} data and serialized as JSON string.
+     * Bulk create endpoint. Reads a JSON array of account names from the request body and writes every created account
+     * as a JSON object on its own line ( newline delimited JSON ), as soon as its chunk is stored. Names are read as
+     * they are needed, so a bulk of any size takes constant memory.
+     *
+     * <p>If creation fails after some accounts have been written, the accounts of the stored chunks stay created and
+     * the error is written as a {@link StandardResponse} on the last line</p>
+     *
+     * @return an empty string, as the response is already written. A JSON {@link StandardResponse} in case of an
+     * error before any account has been created
+     */
+    protected String createAccounts(Request req, Response res) {
+        res.type(APPLICATION_NDJSON);
+        final long[] created = new long[1];
+        OutputStream out = null;
+        try {
+            res.status(HttpServletResponse.SC_OK);
+
+            final JsonReader reader = gson.newJsonReader(new BufferedReader(
+                    new InputStreamReader(req.raw().getInputStream(), StandardCharsets.UTF_8)));
+            final Iterator<String> accountNames = readAccountNames(reader);
+            out = new BufferedOutputStream(res.raw().getOutputStream());
+
+            final OutputStream stream = out;
+            accountDAO.createAll(accountNames, account -> {
+                try {
+                    jsonCodec.write(account, stream);
+                    stream.write('\n');
+                    created[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+
+            logger.debug("created {} accounts", created[0]);
+            return "";
+        } catch (IOException | UncheckedIOException e) {
+            // the client has gone away - nothing to respond to
+            logger.debug(e.getMessage(), e);
+            return "";
+        } catch (IllegalArgumentException e) {
+            logger.debug(e.getMessage(), e);
+            return respondCreateAllError(res, out, created[0], HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        } catch (RuntimeException e) {
+            logger.error(e.getMessage(), e);
+            return respondCreateAllError(res, out, created[0], HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                    e.getMessage());
+        }
+    }
+
+    private String respondCreateAllError(Response res, OutputStream out, long created, int status, String message) {
+        if (created == 0 && !res.raw().isCommitted()) {
+            res.type(APPLICATION_JSON);
+            res.status(status);
+            return gson.toJson(respond(status, message));
+        }
+        try {
+            out.write(gson.toJson(respond(status, message)).getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            logger.debug(e.getMessage(), e);
+        }
+        return "";
+    }
+
+    /**
+     * @param reader positioned at a JSON array of strings
+     * @return the strings of the array, read one by one
+     * @throws IllegalArgumentException if the JSON is not an array of strings
+     */
+    private static Iterator<String> readAccountNames(JsonReader reader) throws IOException {
+        try {
+            reader.beginArray();
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new IllegalArgumentException("request body must be a JSON array of account names", e);
+        }
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return reader.hasNext();
+                } catch (MalformedJsonException e) {
+                    throw new IllegalArgumentException("request body must be a JSON array of account names", e);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public String next() {
+                try {
+                    return reader.nextString();
+                } catch (MalformedJsonException | IllegalStateException e) {
+                    throw new IllegalArgumentException("request body must be a JSON array of account names", e);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Find all accounts endpoint with paging parameters. Accounts are ordered by account number.
+     *
+     * <p>If the <code>pageToken</code> query param is given, the page right after the one the token was returned with
+     * is found using keyset pagination. Otherwise the <code>pageNum</code> query param is used.</p>
+     *
+     * @return all accounts array wrapped in a {@link PagedResponse} data with the next page token and serialized as
+     * JSON string.
      */
     protected StandardResponse findAllAccounts(Request req, Response res) {
         res.type(APPLICATION_JSON);
         try {
             res.status(HttpServletResponse.SC_OK);
 
-            int pageNum = Integer.parseInt(req.queryParamOrDefault("pageNum", "0"));
             int pageSize = Integer.parseInt(req.queryParamOrDefault("pageSize", "20"));
+            String pageToken = req.queryParams("pageToken");
+
+            final ArrayList<Account> accounts;
+            if (pageToken != null) {
+                accounts = accountDAO.findAllAfter(PagedResponse.decodePageToken(pageToken), pageSize);
+            } else {
+                int pageNum = Integer.parseInt(req.queryParamOrDefault("pageNum", "0"));
+                accounts = accountDAO.findAll(pageNum, pageSize);
+            }
 
-            return respondOK(accountDAO.findAll(pageNum, pageSize));
+            final String nextPageToken = accounts.size() < pageSize ? null
+                    : PagedResponse.encodePageToken(accounts.get(accounts.size() - 1).getAccountNumber());
+
+            return PagedResponse.respondPage(accounts, nextPageToken);
         } catch (NumberFormatException e) {
             logger.debug(e.getMessage(), e);
 
@@ -92,6 +243,49 @@ public class AccountController {
         }
     }
 
+    /**
+     * Export all accounts endpoint. Writes every account as a JSON object on its own line ( newline delimited JSON )
+     * straight to the response stream as accounts are read from the storage, so the whole export takes constant
+     * memory.
+     *
+     * @return an empty string, as the response is already written. A JSON {@link StandardResponse} in case of an
+     * error before anything has been written
+     */
+    protected String exportAccounts(Request req, Response res) {
+        res.type(APPLICATION_NDJSON);
+        try {
+            res.status(HttpServletResponse.SC_OK);
+
+            final OutputStream out = new BufferedOutputStream(res.raw().getOutputStream());
+
+            final long count = accountDAO.exportAll(account -> {
+                try {
+                    jsonCodec.write(account, out);
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+
+            logger.debug("exported {} accounts", count);
+            return "";
+        } catch (IOException | UncheckedIOException e) {
+            // the client has gone away - nothing to respond to
+            logger.debug(e.getMessage(), e);
+            return "";
+        } catch (RuntimeException e) {
+            logger.error(e.getMessage(), e);
+
+            if (res.raw().isCommitted()) {
+                throw e;
+            }
+            res.type(APPLICATION_JSON);
+            res.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return gson.toJson(respond(500, e.getMessage()));
+        }
+    }
+
     protected StandardResponse findAccountByNumber(Request req, Response res) {
         final String accountNumber = req.params("accountNumber");
         Assert.notNull(accountNumber, "param accountNumber cannot be null");
@@ -0,0 +1,121 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import org.vilutis.lt.revolut.backend.server.ConcurrencyLimiter;
+import spark.Route;
+import spark.utils.Assert;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respond;
+
+/**
+ * Admission control of API requests: every route class has its own {@link ConcurrencyLimiter}, so a burst of reads
+ * does not starve money movements of database connections and the other way round. Requests over the limit of their
+ * class are answered with <code>503 Service Unavailable</code> and a <code>Retry-After</code> header right away,
+ * instead of queueing for a request thread or a database connection until they time out.
+ *
+ * <p>The limiters adapt to the latency of the requests they admit, which is dominated by waiting for and using a
+ * database connection</p>
+ */
+public class AdmissionControl {
+
+    /**
+     * Account lookups and listings
+     */
+    public static final String READ = "read";
+
+    /**
+     * Account creation, transfers, deposits and withdrawals
+     */
+    public static final String MONEY = "money";
+
+    static final String RETRY_AFTER = "Retry-After";
+
+    static final String RETRY_AFTER_SECONDS = "1";
+
+    /**
+     * Admits every request
+     */
+    public static final AdmissionControl NONE = new AdmissionControl(Collections.emptyMap());
+
+    private final Map<String, ConcurrencyLimiter> limiters;
+
+    AdmissionControl(Map<String, ConcurrencyLimiter> limiters) {
+        this.limiters = limiters;
+    }
+
+    /**
+     * Creates adaptive limiters for the {@link #READ} and {@link #MONEY} route classes and exports their state as
+     * <code>admission_&lt;class&gt;_limit</code>, <code>admission_&lt;class&gt;_in_flight</code>,
+     * <code>admission_&lt;class&gt;_rejected_total</code> and <code>admission_&lt;class&gt;_latency_micros</code>
+     * gauges
+     *
+     * @param maxLimit the highest limit of requests in flight per route class, usually the DB connection pool size
+     * @param metrics the registry to export the limiter state to
+     * @return the {@link AdmissionControl}
+     */
+    public static AdmissionControl adaptive(int maxLimit, MetricsRegistry metrics) {
+        Assert.isTrue(maxLimit > 0, "maxLimit must be positive");
+        final Map<String, ConcurrencyLimiter> limiters = new LinkedHashMap<>();
+        for (String routeClass : new String[] {READ, MONEY}) {
+            final ConcurrencyLimiter limiter = new ConcurrencyLimiter(Math.max(1, maxLimit / 2), 1, maxLimit);
+            limiters.put(routeClass, limiter);
+            metrics.gauge("admission_" + routeClass + "_limit",
+                    "Requests of the " + routeClass + " route class admitted at once", limiter::getLimit);
+            metrics.gauge("admission_" + routeClass + "_in_flight",
+                    "Requests of the " + routeClass + " route class in flight", limiter::getInFlight);
+            metrics.gauge("admission_" + routeClass + "_rejected_total",
+                    "Requests of the " + routeClass + " route class rejected with 503", limiter::getRejected);
+            metrics.gauge("admission_" + routeClass + "_latency_micros",
+                    "Long-term average latency the " + routeClass + " route class limit is estimated against",
+                    () -> limiter.getLongTermLatencyNanos() / 1000);
+        }
+        return new AdmissionControl(limiters);
+    }
+
+    /**
+     * @param routeClass the route class the route counts against, {@link #READ} or {@link #MONEY}
+     * @param route the route to limit
+     * @return the route answering <code>503</code> while the limit of its class is reached
+     */
+    public Route limited(String routeClass, Route route) {
+        if (this == NONE) {
+            return route;
+        }
+        final ConcurrencyLimiter limiter = limiters.get(routeClass);
+        Assert.notNull(limiter, "Unknown route class '" + routeClass + "'");
+        return (req, res) -> {
+            if (!limiter.tryAcquire()) {
+                res.status(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                res.header(RETRY_AFTER, RETRY_AFTER_SECONDS);
+                return respond(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server is overloaded, retry later");
+            }
+            final long start = System.nanoTime();
+            try {
+                return route.handle(req, res);
+            } finally {
+                limiter.release(System.nanoTime() - start);
+            }
+        };
+    }
+
+    /**
+     * @return the highest number of requests admitted at once across all route classes, <code>0</code> if not
+     * limited
+     */
+    public int getMaxInFlight() {
+        int maxInFlight = 0;
+        for (ConcurrencyLimiter limiter : limiters.values()) {
+            maxInFlight += limiter.getMaxLimit();
+        }
+        return maxInFlight;
+    }
+
+    ConcurrencyLimiter getLimiter(String routeClass) {
+        return limiters.get(routeClass);
+    }
+}
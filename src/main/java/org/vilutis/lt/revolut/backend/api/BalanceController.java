@@ -6,14 +6,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vilutis.lt.revolut.backend.dao.AccountDao;
 import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
 import spark.Request;
 import spark.Response;
 import spark.Route;
 import spark.utils.Assert;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.Serializable;
-import java.math.BigDecimal;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
 
 import static org.vilutis.lt.revolut.backend.api.StandardResponse.*;
 
@@ -26,11 +34,19 @@ public class BalanceController {
 
     private final AccountDao accountDAO;
 
-    private final Gson gson;
+    private final JsonCodec jsonCodec;
 
-    public final Route transfer = ( req, res ) -> transferBalance( req, res );
-    public final Route deposit = ( req, res ) -> deposit( req, res );
-    public final Route withdraw = ( req, res ) -> withdraw( req, res );
+    private final IdempotencyCache idempotencyCache;
+
+    /**
+     * Maximum number of transfers accepted in a single batch request
+     */
+    public static final int MAX_BATCH_SIZE = 10_000;
+
+    public final Route transfer = ( req, res ) -> idempotent( "transfer", req, res, this::transferBalance );
+    public final Route transfers = ( req, res ) -> idempotent( "transfers", req, res, this::transferBalances );
+    public final Route deposit = ( req, res ) -> idempotent( "deposit", req, res, this::deposit );
+    public final Route withdraw = ( req, res ) -> idempotent( "withdraw", req, res, this::withdraw );
 
     /**
      * Initializes Balance REST API Endpoint routes
@@ -38,10 +54,50 @@ public class BalanceController {
      * @param accountDAO required for Data interactions
      */
     public BalanceController(AccountDao accountDAO, Gson gson) {
+        this(accountDAO, gson, new IdempotencyCache());
+    }
+
+    /**
+     * Initializes Balance REST API Endpoint routes
+     *
+     * @param accountDAO required for Data interactions
+     * @param idempotencyCache stores responses of requests having an {@link IdempotencyCache#HEADER} header
+     */
+    public BalanceController(AccountDao accountDAO, Gson gson, IdempotencyCache idempotencyCache) {
         Assert.notNull(accountDAO);
         Assert.notNull(gson);
+        Assert.notNull(idempotencyCache);
         this.accountDAO = accountDAO;
-        this.gson = gson;
+        this.jsonCodec = new JsonCodec(gson);
+        this.idempotencyCache = idempotencyCache;
+    }
+
+    /**
+     * Handles a request once per {@link IdempotencyCache#HEADER} header value, retries with the same key are answered
+     * with the stored response. Requests without the header are always handled
+     *
+     * @param operation the operation name, keys are unique per operation
+     * @param req the {@link Request} object
+     * @param res the {@link Response} object
+     * @param handler handles the request
+     * @return a {@link StandardResponse} of the first request with the same key
+     */
+    private StandardResponse idempotent(String operation, Request req, Response res,
+            BiFunction<Request, Response, StandardResponse> handler) {
+        final String key = req.headers(IdempotencyCache.HEADER);
+        if (key == null) {
+            return handler.apply(req, res);
+        }
+        if (key.isEmpty() || key.length() > IdempotencyCache.MAX_KEY_LENGTH) {
+            res.status(HttpServletResponse.SC_BAD_REQUEST);
+            return respond(400,
+                    IdempotencyCache.HEADER + " must be 1 to " + IdempotencyCache.MAX_KEY_LENGTH + " characters long");
+        }
+
+        final StandardResponse response =
+                idempotencyCache.execute(operation + ' ' + key, req.body(), () -> handler.apply(req, res));
+        res.status(response.status);
+        return response;
     }
 
     /**
@@ -57,9 +113,9 @@ public class BalanceController {
         try {
             res.status(HttpServletResponse.SC_OK);
 
-            final TransferDTO transferDTO = gson.fromJson(req.body(), TransferDTO.class);
+            final Transfer transfer = readTransfer(req);
 
-            accountDAO.transferBalance(transferDTO.fromAcct, transferDTO.toAcct, transferDTO.amount);
+            accountDAO.transferBalance(transfer.getFromAcct(), transfer.getToAcct(), transfer.getAmount());
 
             return respondOK(null);
         } catch (IllegalArgumentException | JsonSyntaxException e) {
@@ -75,6 +131,42 @@ public class BalanceController {
         }
     }
 
+    /**
+     * Transfers balances for a batch of transfers in a single transaction.
+     *
+     * Expects {@link Request} to contain body with a JSON array of objects compatible with {@link TransferDTO}
+     *
+     * @param req the {@link Request} object
+     * @param res the {@link Response} object
+     * @return a {@link StandardResponse} with a result for every transfer in the same order as requested, or with
+     * error message if the whole batch failed
+     */
+    protected StandardResponse transferBalances(Request req, Response res) {
+        try {
+            res.status(HttpServletResponse.SC_OK);
+
+            final List<Transfer> transfers = readTransfers(req);
+
+            Assert.notNull(transfers, "transfers must be set");
+            Assert.isTrue(transfers.size() <= MAX_BATCH_SIZE,
+                    "no more than " + MAX_BATCH_SIZE + " transfers are allowed in a single batch");
+
+            return respondOK(accountDAO.transferBalances(transfers).stream()
+                    .map(result -> result.isApplied() ? respondOK(null) : respond(400, result.getMessage()))
+                    .collect(Collectors.toCollection(ArrayList::new)));
+        } catch (IllegalArgumentException | JsonSyntaxException e) {
+            logger.debug(e.getMessage(), e);
+
+            res.status(HttpServletResponse.SC_BAD_REQUEST);
+            return respond(400, e.getMessage());
+        } catch (RuntimeException e) {
+            logger.error(e.getMessage(), e);
+
+            res.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return respond(500, e.getMessage());
+        }
+    }
+
     /**
      * Deposits an amount to an {@link Account}'s balance
      *
@@ -88,9 +180,9 @@ public class BalanceController {
         try {
             res.status(HttpServletResponse.SC_OK);
 
-            final TransferDTO transferDTO = gson.fromJson(req.body(), TransferDTO.class);
+            final Transfer transfer = readTransfer(req);
 
-            return respondOK(accountDAO.deposit(transferDTO.toAcct, transferDTO.amount));
+            return respondOK(accountDAO.deposit(transfer.getToAcct(), transfer.getAmount()));
         } catch (IllegalArgumentException | JsonSyntaxException e) {
             logger.debug(e.getMessage(), e);
 
@@ -117,9 +209,9 @@ public class BalanceController {
         try {
             res.status(HttpServletResponse.SC_OK);
 
-            final TransferDTO transferDTO = gson.fromJson(req.body(), TransferDTO.class);
+            final Transfer transfer = readTransfer(req);
 
-            return respondOK(accountDAO.withdraw(transferDTO.fromAcct, transferDTO.amount));
+            return respondOK(accountDAO.withdraw(transfer.getFromAcct(), transfer.getAmount()));
         } catch (IllegalArgumentException | JsonSyntaxException e) {
             logger.debug(e.getMessage(), e);
 
@@ -134,11 +226,34 @@ public class BalanceController {
     }
 
     /**
-     * Used for JSON Data Transfer
+     * Reads the request body with the {@link JsonCodec}
+     *
+     * @throws IllegalArgumentException if the body is empty
+     */
+    private Transfer readTransfer(Request req) {
+        try {
+            final Transfer transfer = jsonCodec.readTransfer(new ByteArrayInputStream(req.bodyAsBytes()));
+            Assert.notNull(transfer, "request body must be set");
+            return transfer;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<Transfer> readTransfers(Request req) {
+        try {
+            return jsonCodec.readTransfers(new ByteArrayInputStream(req.bodyAsBytes()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The JSON request body of the balance API, as read by {@link JsonCodec#readTransfer}
      */
     static class TransferDTO implements Serializable {
         Long fromAcct;
         Long toAcct;
-        BigDecimal amount;
+        Money amount;
     }
 }
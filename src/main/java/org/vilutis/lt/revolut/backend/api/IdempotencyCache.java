@@ -0,0 +1,196 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import spark.utils.Assert;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respond;
+
+/**
+ * Bounded, time-expiring store of {@link StandardResponse}s by client supplied <code>Idempotency-Key</code>, so a
+ * retried request is answered with the response of its first execution instead of being executed again.
+ *
+ * <p>Concurrent requests with the same key wait for the first one to finish. Server errors ( 5xx ) are not stored,
+ * so a retry after a failure is executed again. When full, the oldest responses are evicted first</p>
+ */
+public class IdempotencyCache {
+
+    /**
+     * The HTTP request header carrying the idempotency key
+     */
+    public static final String HEADER = "Idempotency-Key";
+
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    public static final long DEFAULT_TTL_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    /**
+     * Maximum length of an idempotency key
+     */
+    static final int MAX_KEY_LENGTH = 255;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Entries in insertion order, the oldest expire or get evicted first. Guarded by itself for eviction
+     */
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAdder replays = new LongAdder();
+
+    private final int maxSize;
+
+    private final long ttlNanos;
+
+    private final LongSupplier nanoClock;
+
+    private static class Entry {
+
+        private final String key;
+
+        private final String requestBody;
+
+        private final long expiresAtNanos;
+
+        private final CompletableFuture<StandardResponse> response = new CompletableFuture<>();
+
+        private Entry(String key, String requestBody, long expiresAtNanos) {
+            this.key = key;
+            this.requestBody = requestBody;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        private boolean isExpired(long nowNanos) {
+            return nowNanos - expiresAtNanos >= 0;
+        }
+    }
+
+    public IdempotencyCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_SECONDS);
+    }
+
+    /**
+     * @param maxSize maximum number of stored responses
+     * @param ttlSeconds how long a response is stored
+     */
+    public IdempotencyCache(int maxSize, long ttlSeconds) {
+        this(maxSize, ttlSeconds, System::nanoTime);
+    }
+
+    IdempotencyCache(int maxSize, long ttlSeconds, LongSupplier nanoClock) {
+        Assert.isTrue(maxSize > 0, "maxSize must be positive");
+        Assert.isTrue(ttlSeconds > 0, "ttlSeconds must be positive");
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Executes an action once per idempotency key
+     *
+     * @param key the idempotency key, including the operation name so keys of different operations do not clash
+     * @param requestBody the request body. A key reused with a different body is rejected
+     * @param action executes the request
+     * @return the response of the first execution with this key, or a 400 response if the key is reused for a
+     * different request
+     */
+    public StandardResponse execute(String key, String requestBody, Supplier<StandardResponse> action) {
+        while (true) {
+            final long now = nanoClock.getAsLong();
+            Entry entry = entries.get(key);
+            if (entry != null && entry.isExpired(now)) {
+                entries.remove(key, entry);
+                entry = null;
+            }
+            if (entry == null) {
+                final Entry created = new Entry(key, requestBody, now + ttlNanos);
+                entry = entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    return executeFirst(created, action, now);
+                }
+            }
+
+            if (!Objects.equals(entry.requestBody, requestBody)) {
+                return respond(400, HEADER + " was already used for a different request");
+            }
+            final StandardResponse response;
+            try {
+                response = entry.response.join();
+            } catch (CompletionException e) {
+                // the first execution failed and has been removed, execute again
+                continue;
+            }
+            if (response.status >= 500) {
+                continue;
+            }
+            replays.increment();
+            return response;
+        }
+    }
+
+    private StandardResponse executeFirst(Entry entry, Supplier<StandardResponse> action, long now) {
+        queued.incrementAndGet();
+        insertionOrder.add(entry);
+        evict(now);
+
+        final StandardResponse response;
+        try {
+            response = action.get();
+        } catch (RuntimeException e) {
+            entries.remove(entry.key, entry);
+            entry.response.completeExceptionally(e);
+            throw e;
+        }
+        if (response.status >= 500) {
+            entries.remove(entry.key, entry);
+        }
+        entry.response.complete(response);
+        return response;
+    }
+
+    /**
+     * Removes expired entries and the oldest entries above the maximum size
+     */
+    private void evict(long now) {
+        if (!isEvictable(insertionOrder.peek(), now)) {
+            return;
+        }
+        synchronized (insertionOrder) {
+            Entry oldest;
+            while (isEvictable(oldest = insertionOrder.peek(), now)) {
+                insertionOrder.poll();
+                queued.decrementAndGet();
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+
+    private boolean isEvictable(Entry oldest, long now) {
+        return oldest != null && (queued.get() > maxSize || oldest.isExpired(now));
+    }
+
+    /**
+     * @return number of requests answered with a stored response
+     */
+    public long getReplays() {
+        return replays.sum();
+    }
+
+    /**
+     * @return number of stored responses, including requests still being executed
+     */
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,829 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import spark.Route;
+import spark.utils.Assert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Hand-written JSON codec of the API DTOs. Writes {@link StandardResponse}s straight to the response stream and reads
+ * transfer request bodies from the request stream, without reflection and without building intermediate Strings.
+ *
+ * <p>Output is byte for byte the same as Gson's: <code>null</code> fields are left out and HTML characters are
+ * escaped. Responses are encoded to UTF-8 in a buffer kept per thread, so once the buffer has grown to the response
+ * size writing a response does not allocate. Data types without a hand-written encoder ( e.g. metrics maps ) are
+ * encoded with Gson.</p>
+ *
+ * <p>Request bodies are read as strict JSON. Unknown fields are skipped, account numbers and amounts may be given as
+ * numbers or as strings, just like Gson reads them.</p>
+ */
+public class JsonCodec {
+
+    /**
+     * Per thread buffers grown beyond this size are dropped after use, so a single large response does not pin memory
+     */
+    static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    /**
+     * Maximum nesting of skipped unknown values
+     */
+    private static final int MAX_DEPTH = 64;
+
+    private static final char LINE_SEPARATOR = (char) 0x2028;
+
+    private static final char PARAGRAPH_SEPARATOR = (char) 0x2029;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Escape sequences of ASCII characters, as written by Gson with HTML escaping on. <code>null</code> if written as
+     * is
+     */
+    private static final byte[][] ESCAPES = new byte[128][];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = unicodeEscape((char) c);
+        }
+        ESCAPES['"'] = "\\\"".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\\'] = "\\\\".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\t'] = "\\t".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\b'] = "\\b".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\n'] = "\\n".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\r'] = "\\r".getBytes(StandardCharsets.US_ASCII);
+        ESCAPES['\f'] = "\\f".getBytes(StandardCharsets.US_ASCII);
+        for (char c : new char[] {'<', '>', '&', '=', '\''}) {
+            ESCAPES[c] = unicodeEscape(c);
+        }
+    }
+
+    private static final byte[] STATUS = ascii("{\"status\":");
+    private static final byte[] MESSAGE = ascii(",\"message\":");
+    private static final byte[] DATA = ascii(",\"data\":");
+    private static final byte[] NEXT_PAGE_TOKEN = ascii("{\"nextPageToken\":");
+    private static final byte[] ACCOUNT_NUMBER = ascii("{\"accountNumber\":");
+    private static final byte[] ACCOUNT_NAME = ascii(",\"accountName\":");
+    private static final byte[] BALANCE = ascii(",\"balance\":");
+    private static final byte[] NULL = ascii("null");
+
+    private static final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+    private static final ThreadLocal<Reader> readers = ThreadLocal.withInitial(Reader::new);
+
+    private final Gson gson;
+
+    /**
+     * @param gson encodes data types without a hand-written encoder
+     */
+    public JsonCodec(Gson gson) {
+        Assert.notNull(gson, "gson must be set");
+        this.gson = gson;
+    }
+
+    /**
+     * Wraps a route to write the {@link StandardResponse} it returns straight to the response stream. Other results
+     * are returned to Spark as they are
+     *
+     * @param route the route returning a {@link StandardResponse}
+     * @return the wrapping route, returning an empty string once the response is written
+     */
+    public Route writing(Route route) {
+        Assert.notNull(route, "route must be set");
+        return (req, res) -> {
+            final Object result = route.handle(req, res);
+            if (!(result instanceof StandardResponse)) {
+                return result;
+            }
+            write((StandardResponse<?>) result, res.raw().getOutputStream());
+            return "";
+        };
+    }
+
+    /**
+     * Writes a response as JSON
+     *
+     * @param response the response to write
+     * @param out the stream to write UTF-8 encoded JSON to. Not flushed
+     * @throws IOException if the stream could not be written to
+     */
+    public void write(StandardResponse<?> response, OutputStream out) throws IOException {
+        Assert.notNull(response, "response must be set");
+        final Buffer buffer = buffers.get();
+        try {
+            appendResponse(response, buffer);
+            out.write(buffer.bytes, 0, buffer.size);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Writes an account as JSON
+     *
+     * @param account the account to write
+     * @param out the stream to write UTF-8 encoded JSON to. Not flushed
+     * @throws IOException if the stream could not be written to
+     */
+    public void write(Account account, OutputStream out) throws IOException {
+        Assert.notNull(account, "account must be set");
+        final Buffer buffer = buffers.get();
+        try {
+            appendAccount(account, buffer);
+            out.write(buffer.bytes, 0, buffer.size);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * @return the response as a JSON string, mostly for tests and benchmarks
+     */
+    public String toJson(StandardResponse<?> response) {
+        Assert.notNull(response, "response must be set");
+        final Buffer buffer = buffers.get();
+        try {
+            appendResponse(response, buffer);
+            return new String(buffer.bytes, 0, buffer.size, StandardCharsets.UTF_8);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Reads a single transfer object, e.g. <code>{"fromAcct":1,"toAcct":2,"amount":10.50}</code>
+     *
+     * @param in the UTF-8 encoded JSON
+     * @return the transfer, <code>null</code> if the body is empty or <code>null</code>
+     * @throws JsonSyntaxException if the body is not a valid transfer object
+     * @throws IllegalArgumentException if the amount is invalid
+     * @throws IOException if the stream could not be read
+     */
+    public Transfer readTransfer(InputStream in) throws IOException {
+        final Reader reader = readers.get().open(in);
+        try {
+            final int c = reader.peek();
+            final Transfer transfer = c == -1 || reader.nullLiteral() ? null : readTransferObject(reader);
+            reader.expectEnd();
+            return transfer;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads an array of transfer objects
+     *
+     * @param in the UTF-8 encoded JSON
+     * @return the transfers, including <code>null</code> elements. <code>null</code> if the body is empty or
+     * <code>null</code>
+     * @throws JsonSyntaxException if the body is not a valid array of transfer objects
+     * @throws IllegalArgumentException if an amount is invalid
+     * @throws IOException if the stream could not be read
+     */
+    public ArrayList<Transfer> readTransfers(InputStream in) throws IOException {
+        final Reader reader = readers.get().open(in);
+        try {
+            if (reader.peek() == -1 || reader.nullLiteral()) {
+                reader.expectEnd();
+                return null;
+            }
+            reader.expect('[');
+            final ArrayList<Transfer> transfers = new ArrayList<>();
+            if (reader.peek() == ']') {
+                reader.next();
+            } else {
+                do {
+                    transfers.add(reader.nullLiteral() ? null : readTransferObject(reader));
+                } while (reader.nextSeparator(']'));
+            }
+            reader.expectEnd();
+            return transfers;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Transfer readTransferObject(Reader reader) throws IOException {
+        reader.expect('{');
+        Long fromAcct = null;
+        Long toAcct = null;
+        Money amount = null;
+        if (reader.peek() == '}') {
+            reader.next();
+            return new Transfer(null, null, null);
+        }
+        do {
+            reader.readString();
+            reader.expect(':');
+            if (reader.textIs("fromAcct")) {
+                fromAcct = reader.readLong();
+            } else if (reader.textIs("toAcct")) {
+                toAcct = reader.readLong();
+            } else if (reader.textIs("amount")) {
+                amount = reader.readMoney();
+            } else {
+                reader.skipValue(0);
+            }
+        } while (reader.nextSeparator('}'));
+        return new Transfer(fromAcct, toAcct, amount);
+    }
+
+    private void appendResponse(StandardResponse<?> response, Buffer buffer) {
+        final boolean paged = response instanceof PagedResponse;
+        final String nextPageToken = paged ? ((PagedResponse<?>) response).nextPageToken : null;
+        // Gson writes fields of a subclass first
+        if (nextPageToken != null) {
+            buffer.append(NEXT_PAGE_TOKEN);
+            buffer.appendString(nextPageToken);
+            buffer.append((byte) ',');
+            buffer.append(STATUS, 1, STATUS.length - 1);
+        } else {
+            buffer.append(STATUS);
+        }
+        buffer.appendLong(response.status);
+        if (response.message != null) {
+            buffer.append(MESSAGE);
+            buffer.appendString(response.message);
+        }
+        if (response.data != null) {
+            buffer.append(DATA);
+            appendValue(response.data, buffer);
+        }
+        buffer.append((byte) '}');
+    }
+
+    private static void appendAccount(Account account, Buffer buffer) {
+        buffer.append(ACCOUNT_NUMBER);
+        buffer.appendLong(account.getAccountNumber());
+        if (account.getAccountName() != null) {
+            buffer.append(ACCOUNT_NAME);
+            buffer.appendString(account.getAccountName());
+        }
+        if (account.getBalance() != null) {
+            buffer.append(BALANCE);
+            buffer.appendMoney(account.getBalance().getMinorUnits());
+        }
+        buffer.append((byte) '}');
+    }
+
+    private void appendValue(Object value, Buffer buffer) {
+        if (value == null) {
+            buffer.append(NULL);
+        } else if (value instanceof Account) {
+            appendAccount((Account) value, buffer);
+        } else if (value instanceof StandardResponse) {
+            appendResponse((StandardResponse<?>) value, buffer);
+        } else if (value instanceof Collection) {
+            buffer.append((byte) '[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first) {
+                    buffer.append((byte) ',');
+                }
+                first = false;
+                appendValue(element, buffer);
+            }
+            buffer.append((byte) ']');
+        } else if (value instanceof Money) {
+            buffer.appendMoney(((Money) value).getMinorUnits());
+        } else if (value instanceof Long || value instanceof Integer) {
+            buffer.appendLong(((Number) value).longValue());
+        } else if (value instanceof String) {
+            buffer.appendString((String) value);
+        } else {
+            buffer.appendRaw(gson.toJson(value));
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] unicodeEscape(char c) {
+        return new byte[] {'\\', 'u', HEX[c >> 12 & 0xF], HEX[c >> 8 & 0xF], HEX[c >> 4 & 0xF], HEX[c & 0xF]};
+    }
+
+    /**
+     * Growing byte buffer JSON is encoded to, reused by a thread for all its responses
+     */
+    private static final class Buffer {
+
+        private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+
+        private int size;
+
+        private void reset() {
+            size = 0;
+            if (bytes.length > MAX_RETAINED_BUFFER_SIZE) {
+                bytes = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        private void append(byte b) {
+            ensure(1);
+            bytes[size++] = b;
+        }
+
+        private void append(byte[] b) {
+            append(b, 0, b.length);
+        }
+
+        private void append(byte[] b, int offset, int length) {
+            ensure(length);
+            System.arraycopy(b, offset, bytes, size, length);
+            size += length;
+        }
+
+        private void appendLong(long value) {
+            if (value == Long.MIN_VALUE) {
+                append(ascii(Long.toString(value)));
+                return;
+            }
+            ensure(20);
+            if (value < 0) {
+                bytes[size++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            for (int i = size + digits - 1; i >= size; i--) {
+                bytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            size += digits;
+        }
+
+        /**
+         * Same as {@link Money#toString()}
+         */
+        private void appendMoney(long minorUnits) {
+            final long whole = minorUnits / 100;
+            final long fraction = Math.abs(minorUnits % 100);
+            if (minorUnits < 0 && whole == 0) {
+                append((byte) '-');
+            }
+            appendLong(whole);
+            ensure(3);
+            bytes[size++] = '.';
+            bytes[size++] = (byte) ('0' + fraction / 10);
+            bytes[size++] = (byte) ('0' + fraction % 10);
+        }
+
+        private void appendString(String value) {
+            append((byte) '"');
+            final int length = value.length();
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                if (c < 0x80) {
+                    final byte[] escape = ESCAPES[c];
+                    if (escape == null) {
+                        append((byte) c);
+                    } else {
+                        append(escape);
+                    }
+                } else if (c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+                    append(unicodeEscape(c));
+                } else {
+                    i = appendUtf8(value, i);
+                }
+            }
+            append((byte) '"');
+        }
+
+        /**
+         * Appends a string without escaping, e.g. JSON encoded by Gson
+         */
+        private void appendRaw(String value) {
+            final int length = value.length();
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                if (c < 0x80) {
+                    append((byte) c);
+                } else {
+                    i = appendUtf8(value, i);
+                }
+            }
+        }
+
+        /**
+         * Appends the non ASCII character at the given index. Unpaired surrogates are replaced with <code>?</code>,
+         * the same as {@link String#getBytes}
+         *
+         * @return the index of the last character consumed
+         */
+        private int appendUtf8(String value, int index) {
+            final char c = value.charAt(index);
+            ensure(4);
+            if (c < 0x800) {
+                bytes[size++] = (byte) (0xC0 | c >> 6);
+                bytes[size++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(index + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+                bytes[size++] = (byte) (0xF0 | codePoint >> 18);
+                bytes[size++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                bytes[size++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                bytes[size++] = (byte) (0x80 | codePoint & 0x3F);
+                return index + 1;
+            } else if (Character.isSurrogate(c)) {
+                bytes[size++] = '?';
+            } else {
+                bytes[size++] = (byte) (0xE0 | c >> 12);
+                bytes[size++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[size++] = (byte) (0x80 | c & 0x3F);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Strict streaming JSON reader over a reusable per thread read buffer
+     */
+    private static final class Reader {
+
+        private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+
+        /**
+         * The last string or number read
+         */
+        private final StringBuilder text = new StringBuilder();
+
+        private InputStream in;
+
+        private int position;
+
+        private int limit;
+
+        private Reader open(InputStream in) {
+            Assert.notNull(in, "in must be set");
+            this.in = in;
+            this.position = 0;
+            this.limit = 0;
+            return this;
+        }
+
+        private void close() {
+            in = null;
+            if (text.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                text.setLength(0);
+                text.trimToSize();
+            }
+        }
+
+        /**
+         * @return the next byte, -1 at the end of the stream
+         */
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        /**
+         * @return the next byte other than white space without consuming it, -1 at the end of the stream
+         */
+        private int peek() throws IOException {
+            while (true) {
+                final int c = read();
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    if (c != -1) {
+                        position--;
+                    }
+                    return c;
+                }
+            }
+        }
+
+        private int next() throws IOException {
+            final int c = peek();
+            if (c != -1) {
+                position++;
+            }
+            return c;
+        }
+
+        private void expect(char expected) throws IOException {
+            final int c = next();
+            if (c != expected) {
+                throw unexpected(c, "'" + expected + "'");
+            }
+        }
+
+        private void expectEnd() throws IOException {
+            final int c = peek();
+            if (c != -1) {
+                throw unexpected(c, "end of document");
+            }
+        }
+
+        /**
+         * Consumes a separator after an object member or an array element
+         *
+         * @return true if another member or element follows, false at the end of the object or array
+         */
+        private boolean nextSeparator(char end) throws IOException {
+            final int c = next();
+            if (c == ',') {
+                return true;
+            }
+            if (c == end) {
+                return false;
+            }
+            throw unexpected(c, "',' or '" + end + "'");
+        }
+
+        /**
+         * Consumes a <code>null</code> literal if it comes next
+         */
+        private boolean nullLiteral() throws IOException {
+            if (peek() != 'n') {
+                return false;
+            }
+            literal("null");
+            return true;
+        }
+
+        private void literal(String expected) throws IOException {
+            next();
+            for (int i = 1; i < expected.length(); i++) {
+                if (read() != expected.charAt(i)) {
+                    throw new JsonSyntaxException("Expected " + expected);
+                }
+            }
+        }
+
+        private boolean textIs(String value) {
+            if (text.length() != value.length()) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (text.charAt(i) != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reads a string into {@link #text}
+         */
+        private void readString() throws IOException {
+            expect('"');
+            text.setLength(0);
+            while (true) {
+                int c = read();
+                if (c == '"') {
+                    return;
+                }
+                if (c == -1 || c < 0x20) {
+                    throw unexpected(c, "string character");
+                }
+                if (c == '\\') {
+                    text.append(readEscaped());
+                } else if (c < 0x80) {
+                    text.append((char) c);
+                } else {
+                    text.appendCodePoint(readUtf8(c));
+                }
+            }
+        }
+
+        private char readEscaped() throws IOException {
+            final int c = read();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    return (char) c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int digit = Character.digit(read(), 16);
+                        if (digit < 0) {
+                            throw new JsonSyntaxException("Invalid unicode escape");
+                        }
+                        value = value << 4 | digit;
+                    }
+                    return (char) value;
+                default:
+                    throw unexpected(c, "escape character");
+            }
+        }
+
+        private int readUtf8(int first) throws IOException {
+            final int continuations;
+            int codePoint;
+            if ((first & 0xE0) == 0xC0) {
+                continuations = 1;
+                codePoint = first & 0x1F;
+            } else if ((first & 0xF0) == 0xE0) {
+                continuations = 2;
+                codePoint = first & 0x0F;
+            } else if ((first & 0xF8) == 0xF0) {
+                continuations = 3;
+                codePoint = first & 0x07;
+            } else {
+                throw new JsonSyntaxException("Invalid UTF-8");
+            }
+            for (int i = 0; i < continuations; i++) {
+                final int c = read();
+                if ((c & 0xC0) != 0x80) {
+                    throw new JsonSyntaxException("Invalid UTF-8");
+                }
+                codePoint = codePoint << 6 | c & 0x3F;
+            }
+            if (!Character.isValidCodePoint(codePoint)) {
+                throw new JsonSyntaxException("Invalid UTF-8");
+            }
+            return codePoint;
+        }
+
+        /**
+         * Reads a number literal into {@link #text}
+         */
+        private void readNumber() throws IOException {
+            text.setLength(0);
+            int c = peek();
+            while ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                text.append((char) c);
+                position++;
+                c = position < limit ? buffer[position] & 0xFF : peekRaw();
+            }
+            if (text.length() == 0) {
+                throw unexpected(c, "a value");
+            }
+        }
+
+        /**
+         * @return the next byte without consuming it or skipping white space, -1 at the end of the stream
+         */
+        private int peekRaw() throws IOException {
+            final int c = read();
+            if (c != -1) {
+                position--;
+            }
+            return c;
+        }
+
+        /**
+         * Reads a number or a numeric string into {@link #text}
+         *
+         * @return false if the value is <code>null</code>
+         */
+        private boolean readNumeric() throws IOException {
+            if (nullLiteral()) {
+                return false;
+            }
+            if (peek() == '"') {
+                readString();
+            } else {
+                readNumber();
+            }
+            return true;
+        }
+
+        private Long readLong() throws IOException {
+            if (!readNumeric()) {
+                return null;
+            }
+            final Long value = parseInteger();
+            if (value != null) {
+                return value;
+            }
+            try {
+                return new BigDecimal(text.toString()).longValueExact();
+            } catch (NumberFormatException | ArithmeticException e) {
+                throw new JsonSyntaxException("Expected a long but was " + text, e);
+            }
+        }
+
+        /**
+         * @return {@link #text} as a long if it is a plain integer in range, <code>null</code> otherwise
+         */
+        private Long parseInteger() {
+            final int length = text.length();
+            final boolean negative = length > 0 && text.charAt(0) == '-';
+            int index = negative ? 1 : 0;
+            if (index == length) {
+                return null;
+            }
+            // accumulate negative, so Long.MIN_VALUE can be parsed as well
+            long value = 0L;
+            for (; index < length; index++) {
+                final char c = text.charAt(index);
+                if (c < '0' || c > '9' || value < Long.MIN_VALUE / 10) {
+                    return null;
+                }
+                value = value * 10 - (c - '0');
+                if (value > 0) {
+                    return null;
+                }
+            }
+            if (!negative) {
+                return value == Long.MIN_VALUE ? null : -value;
+            }
+            return value;
+        }
+
+        private Money readMoney() throws IOException {
+            if (!readNumeric()) {
+                return null;
+            }
+            try {
+                return Money.parse(text);
+            } catch (ArithmeticException e) {
+                throw new JsonSyntaxException("amount " + text + " is too large", e);
+            }
+        }
+
+        private void skipValue(int depth) throws IOException {
+            if (depth > MAX_DEPTH) {
+                throw new JsonSyntaxException("JSON nested too deep");
+            }
+            final int c = peek();
+            switch (c) {
+                case '{':
+                    next();
+                    if (peek() == '}') {
+                        next();
+                        return;
+                    }
+                    do {
+                        readString();
+                        expect(':');
+                        skipValue(depth + 1);
+                    } while (nextSeparator('}'));
+                    return;
+                case '[':
+                    next();
+                    if (peek() == ']') {
+                        next();
+                        return;
+                    }
+                    do {
+                        skipValue(depth + 1);
+                    } while (nextSeparator(']'));
+                    return;
+                case '"':
+                    readString();
+                    return;
+                case 't':
+                    literal("true");
+                    return;
+                case 'f':
+                    literal("false");
+                    return;
+                case 'n':
+                    literal("null");
+                    return;
+                default:
+                    readNumber();
+            }
+        }
+
+        private static JsonSyntaxException unexpected(int c, String expected) {
+            return new JsonSyntaxException("Expected " + expected + " but was "
+                    + (c == -1 ? "end of document" : "'" + (char) c + "'"));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import com.google.gson.Gson;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+import spark.utils.Assert;
+
+import javax.servlet.http.HttpServletResponse;
+
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respondOK;
+
+/**
+ * REST API exposing latency, throughput and connection pool metrics
+ */
+public class MetricsController {
+
+    public static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+
+    private final Gson gson;
+
+    public final Route metrics = (req, res) -> metrics(req, res);
+
+    /**
+     * Initializes Metrics REST API Endpoint and exposes available API routes
+     * @param registry the metrics to expose
+     * @param gson used to serialize the JSON response
+     */
+    public MetricsController(MetricsRegistry registry, Gson gson) {
+        Assert.notNull(registry);
+        Assert.notNull(gson);
+        this.registry = registry;
+        this.gson = gson;
+    }
+
+    /**
+     * Renders all metrics as JSON, or in the Prometheus text format if asked for with the <code>format=prometheus</code>
+     * query param or a <code>text/plain</code> <code>Accept</code> header
+     */
+    protected String metrics(Request req, Response res) {
+        res.status(HttpServletResponse.SC_OK);
+
+        final String accept = req.headers("Accept");
+        if ("prometheus".equals(req.queryParams("format")) || (accept != null && accept.contains("text/plain"))) {
+            res.type(PROMETHEUS_TEXT);
+            return registry.toPrometheus();
+        }
+
+        res.type(AccountController.APPLICATION_JSON);
+        return gson.toJson(respondOK(registry.snapshot()));
+    }
+}
@@ -0,0 +1,70 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import spark.utils.Assert;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Serializable {@link StandardResponse} DTO for a single page of results. Carries an opaque token to fetch the next
+ * page with
+ */
+public class PagedResponse<T extends Serializable> extends StandardResponse<T> {
+
+    /**
+     * Opaque token to pass as the <code>pageToken</code> query param to fetch the next page. Not set on the last page
+     */
+    final String nextPageToken;
+
+    PagedResponse(T data, String nextPageToken) {
+        super(200, "OK", data);
+        this.nextPageToken = nextPageToken;
+    }
+
+    /**
+     * Responds with default status 200, message "OK", given page data and the next page token
+     *
+     * @param data the page to return in the "data" attribute of the JSON
+     * @param nextPageToken the token to fetch the next page, or <code>null</code> if there are no more pages
+     * @return a {@link PagedResponse}
+     */
+    public static <T extends Serializable> PagedResponse<T> respondPage(T data, String nextPageToken) {
+        return new PagedResponse<>(data, nextPageToken);
+    }
+
+    /**
+     * Encodes a key of the last item on a page to an opaque page token
+     *
+     * @param lastKey the key of the last item on the current page
+     * @return URL safe page token
+     */
+    public static String encodePageToken(long lastKey) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(ByteBuffer.allocate(Long.BYTES).putLong(lastKey).array());
+    }
+
+    /**
+     * Decodes a page token created by {@link #encodePageToken(long)}
+     *
+     * @param pageToken the page token
+     * @return the key of the last item of the previous page
+     * @throws IllegalArgumentException if the token is not valid
+     */
+    public static long decodePageToken(String pageToken) {
+        final byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(pageToken);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid pageToken", e);
+        }
+        Assert.isTrue(bytes.length == Long.BYTES, "Invalid pageToken");
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    @Override
+    public String toString() {
+        return "PagedResponse{" + "status='" + status + '\'' + ", message='" + message + '\'' + ", data=" + data
+                + ", nextPageToken='" + nextPageToken + '\'' + '}';
+    }
+}
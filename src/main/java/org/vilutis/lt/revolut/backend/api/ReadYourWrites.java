@@ -0,0 +1,53 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+import spark.Route;
+
+import javax.servlet.http.HttpServletResponse;
+
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respond;
+
+/**
+ * Read-your-writes option of API requests served by read-only replicas. Every response returns the replication
+ * position the request has seen in the {@link #HEADER} header. A client sending it back with a later request reads
+ * from a replica having applied at least that position, or from the primary database if none has yet. Requests
+ * without the header may read from any replica
+ */
+public class ReadYourWrites {
+
+    public static final String HEADER = "X-Replication-Position";
+
+    private final DBStorage dbStorage;
+
+    /**
+     * @param dbStorage the storage whose sessions are tracked
+     */
+    public ReadYourWrites(DBStorage dbStorage) {
+        this.dbStorage = dbStorage;
+    }
+
+    /**
+     * @param route the route to track the replication position of
+     * @return the route starting a storage session at the position in the {@link #HEADER} request header and
+     * returning the session position in the {@link #HEADER} response header
+     */
+    public Route tracked(Route route) {
+        return (req, res) -> {
+            final String header = req.headers(HEADER);
+            final long position;
+            try {
+                position = header == null || header.isEmpty() ? 0 : Long.parseLong(header);
+            } catch (NumberFormatException e) {
+                res.status(HttpServletResponse.SC_BAD_REQUEST);
+                return respond(HttpServletResponse.SC_BAD_REQUEST, HEADER + " header must be a number");
+            }
+            dbStorage.startSession(position);
+            final Object result = route.handle(req, res);
+            final long sessionPosition = dbStorage.getSessionPosition();
+            if (sessionPosition > 0) {
+                res.header(HEADER, Long.toString(sessionPosition));
+            }
+            return result;
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+import spark.utils.Assert;
+
+import javax.servlet.http.HttpServletResponse;
+
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respond;
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respondOK;
+
+/**
+ * REST API exposing ledger totals: account count, total balance and balance distribution, see
+ * {@link AccountDao#getLedgerSummary()}
+ */
+public class StatsController {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AccountDao accountDAO;
+
+    public final Route stats = (req, res) -> stats(req, res);
+
+    /**
+     * Initializes Stats REST API Endpoint and exposes available API routes
+     * @param accountDAO required for Data interactions
+     */
+    public StatsController(AccountDao accountDAO) {
+        Assert.notNull(accountDAO);
+        this.accountDAO = accountDAO;
+    }
+
+    protected StandardResponse stats(Request req, Response res) {
+        res.type(AccountController.APPLICATION_JSON);
+        try {
+            final LedgerSummary summary = accountDAO.getLedgerSummary();
+            if (summary == null) {
+                res.status(HttpServletResponse.SC_NOT_IMPLEMENTED);
+                return respond(HttpServletResponse.SC_NOT_IMPLEMENTED,
+                        "Ledger stats are not kept by this account engine");
+            }
+            res.status(HttpServletResponse.SC_OK);
+            return respondOK(summary);
+        } catch (RuntimeException e) {
+            logger.error(e.getMessage(), e);
+
+            res.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return respond(500, e.getMessage());
+        }
+    }
+}
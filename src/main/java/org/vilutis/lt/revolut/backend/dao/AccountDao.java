@@ -1,9 +1,15 @@
 package org.vilutis.lt.revolut.backend.dao;
 
 import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * {@link Account} operations resulting in read/write/update/delete data in the data store
@@ -19,6 +25,25 @@ public interface AccountDao {
      */
     ArrayList<Account> findAll(int pageNum, int pageSize);
 
+    /**
+     * Finds {@link Account}s in the storage ordered by Account Number using keyset pagination: the page starts right
+     * after the given Account Number, so deep pages are as fast as the first one and are not shifted by new accounts.
+     *
+     * @param afterAccountNumber the last Account Number of the previous page, or <code>null</code> for the first page
+     * @param pageSize - page size, e.g. 10, 20 & etc
+     * @return up to pageSize accounts with Account Number greater than afterAccountNumber
+     */
+    ArrayList<Account> findAllAfter(Long afterAccountNumber, int pageSize);
+
+    /**
+     * Streams ALL {@link Account}s in the storage ordered by Account Number to the given consumer one by one, without
+     * collecting them in memory first
+     *
+     * @param consumer called for every account as it is read from the storage
+     * @return the number of accounts exported
+     */
+    long exportAll(Consumer<Account> consumer);
+
     /**
      * Finds {@link Account} in the storage by Account Number
      *
@@ -35,6 +60,17 @@ public interface AccountDao {
      */
     Account create(String accountName);
 
+    /**
+     * Creates an account for every given name, in chunks. Every chunk is stored in a single transaction and its
+     * accounts are passed to the consumer once it is, so names are read and accounts are returned in constant memory.
+     * If a name is invalid, the accounts of the chunks before it stay created
+     *
+     * @param accountNames the names of the accounts to create, read one by one
+     * @param consumer called for every created account, in the order of the names
+     * @return the number of accounts created
+     */
+    long createAll(Iterator<String> accountNames, Consumer<Account> consumer);
+
     /**
      * Updates {@link Account} fields in DB ( account name, balance )
      *
@@ -50,7 +86,17 @@ public interface AccountDao {
      * @param toAcctNum the TO account number, where the amount will added to
      * @param amount the amount to transfer. Must be a positive value
      */
-    void transferBalance(Long fromAcctNum, Long toAcctNum, BigDecimal amount);
+    void transferBalance(Long fromAcctNum, Long toAcctNum, Money amount);
+
+    /**
+     * Transfers balances for a batch of {@link Transfer}s. Transfers are validated in the given order, so a transfer
+     * may spend the money received by an earlier one. Invalid transfers are rejected one by one and do not affect the
+     * rest of the batch.
+     *
+     * @param transfers the transfers to apply
+     * @return a {@link TransferResult} for every transfer, in the same order as given
+     */
+    ArrayList<TransferResult> transferBalances(List<Transfer> transfers);
 
     /**
      * Deposits a specified amount of money to the account's balance
@@ -59,7 +105,7 @@ public interface AccountDao {
      * @param amount the amount to be deposited
      * @return the updated {@link Account}
      */
-    Account deposit( Long accountNumber, BigDecimal amount );
+    Account deposit( Long accountNumber, Money amount );
 
     /**
      * Withdraws a specified amount of money from the account's balance
@@ -68,5 +114,13 @@ public interface AccountDao {
      * @param amount the amount to be withdrawn
      * @return the updated {@link Account}
      */
-    Account withdraw(Long accountNumber, BigDecimal amount);
+    Account withdraw(Long accountNumber, Money amount);
+
+    /**
+     * Summarizes ALL {@link Account}s in the storage: their count, total balance and balance distribution. Meant to be
+     * polled, e.g. by a dashboard, so implementations keeping it up to date answer without reading all accounts
+     *
+     * @return the {@link LedgerSummary}, or <code>null</code> if not kept by this implementation
+     */
+    LedgerSummary getLedgerSummary();
 }
@@ -0,0 +1,258 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+import spark.utils.Assert;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * {@inheritDoc}
+ *
+ * Read-through cache of {@link #findByAccountNumber(Long)} in front of another {@link AccountDao}. The cache is split
+ * into segments, each a bounded LRU map guarded by its own lock. Every write invalidates the affected accounts once
+ * it has been committed by the delegate, and a load racing with a write is never cached.
+ *
+ * <p>With read-only replicas, cache misses are loaded from the primary database: a replica behind it could refill the
+ * cache with a balance from before the last invalidation, which would then be served until the next write.</p>
+ */
+public class AccountDaoCachingImpl implements AccountDao {
+
+    /**
+     * Maximum number of segments, fewer for caches smaller than that
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    private final AccountDao delegate;
+
+    /**
+     * <code>null</code> if the delegate does not read from replicas
+     */
+    private final DBStorage dbStorage;
+
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * A bounded LRU part of the cache
+     */
+    private static class Segment {
+
+        private final LinkedHashMap<Long, Account> accounts;
+
+        /**
+         * Incremented on every invalidation, so a load started before an invalidation is not cached after it
+         */
+        private long version;
+
+        private Segment(int maxSize) {
+            this.accounts = new LinkedHashMap<Long, Account>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Account> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+    }
+
+    /**
+     * @param delegate the {@link AccountDao} to cache accounts of
+     * @param maxSize maximum number of cached accounts
+     */
+    public AccountDaoCachingImpl(AccountDao delegate, int maxSize) {
+        this(delegate, maxSize, null);
+    }
+
+    /**
+     * @param delegate the {@link AccountDao} to cache accounts of
+     * @param maxSize maximum number of cached accounts, at least 1
+     * @param dbStorage the storage the delegate reads from, to load cache misses from its primary database.
+     *                  <code>null</code> if the delegate does not read from replicas
+     */
+    public AccountDaoCachingImpl(AccountDao delegate, int maxSize, DBStorage dbStorage) {
+        Assert.notNull(delegate, "delegate must be set");
+        Assert.isTrue(maxSize > 0, "maxSize must be positive");
+        this.delegate = delegate;
+        this.dbStorage = dbStorage;
+        // a power of two, so a segment is picked by a mask, holding at least one account each
+        this.segments = new Segment[Integer.highestOneBit(Math.min(maxSize, MAX_SEGMENTS))];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(maxSize / segments.length);
+        }
+    }
+
+    @Override
+    public ArrayList<Account> findAll(int pageNum, int pageSize) {
+        return delegate.findAll(pageNum, pageSize);
+    }
+
+    @Override
+    public ArrayList<Account> findAllAfter(Long afterAccountNumber, int pageSize) {
+        return delegate.findAllAfter(afterAccountNumber, pageSize);
+    }
+
+    @Override
+    public long exportAll(Consumer<Account> consumer) {
+        return delegate.exportAll(consumer);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Served from the cache if possible, otherwise loaded from the delegate ( from the primary database ) and
+     * cached</p>
+     */
+    @Override
+    public Account findByAccountNumber(Long accountNumber) {
+        Assert.notNull(accountNumber, "accountNumber must be not null");
+
+        final Segment segment = segmentFor(accountNumber);
+        final long version;
+        synchronized (segment) {
+            final Account cached = segment.accounts.get(accountNumber);
+            if (cached != null) {
+                hits.increment();
+                return copyOf(cached);
+            }
+            version = segment.version;
+        }
+        misses.increment();
+
+        final Account account = dbStorage == null ? delegate.findByAccountNumber(accountNumber)
+                : dbStorage.onPrimary(() -> delegate.findByAccountNumber(accountNumber));
+        if (account != null) {
+            final Account snapshot = copyOf(account);
+            synchronized (segment) {
+                if (segment.version == version) {
+                    segment.accounts.put(accountNumber, snapshot);
+                }
+            }
+        }
+        return account;
+    }
+
+    @Override
+    public Account create(String accountName) {
+        return delegate.create(accountName);
+    }
+
+    @Override
+    public long createAll(Iterator<String> accountNames, Consumer<Account> consumer) {
+        return delegate.createAll(accountNames, consumer);
+    }
+
+    @Override
+    public Account update(Account account) {
+        try {
+            return delegate.update(account);
+        } finally {
+            if (account != null) {
+                invalidate(account.getAccountNumber());
+            }
+        }
+    }
+
+    @Override
+    public void transferBalance(Long fromAcctNum, Long toAcctNum, Money amount) {
+        try {
+            delegate.transferBalance(fromAcctNum, toAcctNum, amount);
+        } finally {
+            invalidate(fromAcctNum);
+            invalidate(toAcctNum);
+        }
+    }
+
+    @Override
+    public ArrayList<TransferResult> transferBalances(List<Transfer> transfers) {
+        try {
+            return delegate.transferBalances(transfers);
+        } finally {
+            if (transfers != null) {
+                for (Transfer transfer : transfers) {
+                    if (transfer != null) {
+                        invalidate(transfer.getFromAcct());
+                        invalidate(transfer.getToAcct());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Account deposit(Long accountNumber, Money amount) {
+        try {
+            return delegate.deposit(accountNumber, amount);
+        } finally {
+            invalidate(accountNumber);
+        }
+    }
+
+    @Override
+    public Account withdraw(Long accountNumber, Money amount) {
+        try {
+            return delegate.withdraw(accountNumber, amount);
+        } finally {
+            invalidate(accountNumber);
+        }
+    }
+
+    @Override
+    public LedgerSummary getLedgerSummary() {
+        return delegate.getLedgerSummary();
+    }
+
+    /**
+     * Removes an account from the cache, e.g. if changed by some other means than this {@link AccountDao}
+     *
+     * @param accountNumber the account number to remove. Ignored if <code>null</code>
+     */
+    public void invalidate(Long accountNumber) {
+        if (accountNumber == null) {
+            return;
+        }
+        final Segment segment = segmentFor(accountNumber);
+        synchronized (segment) {
+            segment.version++;
+            segment.accounts.remove(accountNumber);
+        }
+    }
+
+    /**
+     * @return number of accounts found in the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of accounts loaded from the delegate
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private Segment segmentFor(Long accountNumber) {
+        final long value = accountNumber;
+        int hash = (int) (value ^ (value >>> 32));
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private static Account copyOf(Account account) {
+        return Account.from(account.getAccountNumber(), account.getAccountName(), account.getBalance());
+    }
+}
@@ -0,0 +1,558 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.journal.JournalEntry;
+import spark.utils.Assert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * {@inheritDoc}
+ *
+ * Event-sourced implementation: the {@link Journal} of account-created, account-updated, deposit, withdrawal and
+ * transfer entries is the source of truth, the accounts are only kept on the heap. Like
+ * {@link AccountDaoInMemoryImpl}, balance changes are guarded by striped locks and every change is appended to the
+ * journal before it becomes visible.
+ *
+ * <p>A background snapshotter writes all accounts to a compact binary snapshot every {@code snapshotIntervalMillis}
+ * without pausing writes, so on startup only the latest snapshot and the journal entries after it are read. The
+ * snapshot is fuzzy - accounts may be copied while entries after its sequence number are being applied - so every
+ * account keeps the sequence number of the last entry applied to it, and replay skips entries an account has seen
+ * already.</p>
+ *
+ * <p>Needs a journal of its own: accounts created by other engines are not in it</p>
+ */
+public class AccountDaoEventSourcedImpl implements AccountDao, AutoCloseable {
+
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 60_000L;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Journal journal;
+
+    private final AccountSnapshots snapshots;
+
+    /**
+     * All accounts ordered by account number. Values are never modified once stored, so readers do not need to lock
+     */
+    private final ConcurrentSkipListMap<Long, AccountState> accounts = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong nextAccountNumber = new AtomicLong(1L);
+
+    private final ReentrantLock[] locks;
+
+    /**
+     * Number of writes in flight per epoch, see {@link #awaitWritesInFlight()}
+     */
+    private final AtomicLong[] writesInFlight = {new AtomicLong(), new AtomicLong()};
+
+    private volatile int epoch;
+
+    private final ScheduledExecutorService snapshotter;
+
+    /**
+     * Sequence number of the latest snapshot, guarded by this
+     */
+    private long snapshotSequence;
+
+    public AccountDaoEventSourcedImpl(Journal journal, Path snapshotDirectory) {
+        this(journal, snapshotDirectory, AccountDaoInMemoryImpl.DEFAULT_STRIPES, DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Rebuilds the accounts from the latest snapshot and the journal entries after it and starts the snapshotter
+     *
+     * @param journal the journal to rebuild the accounts from and to append changes to
+     * @param snapshotDirectory directory to keep the snapshot files in. Created if it does not exist
+     * @param stripes number of locks to stripe accounts across. Rounded up to a power of two
+     * @param snapshotIntervalMillis how often a snapshot is taken
+     * @throws UncheckedIOException if the snapshots cannot be read
+     */
+    public AccountDaoEventSourcedImpl(Journal journal, Path snapshotDirectory, int stripes,
+            long snapshotIntervalMillis) {
+        Assert.notNull(journal, "journal must be set");
+        Assert.isTrue(journal != Journal.NONE, "journal must be durable");
+        Assert.isTrue(stripes > 0, "stripes must be more than zero");
+        Assert.isTrue(snapshotIntervalMillis > 0, "snapshotIntervalMillis must be more than zero");
+        this.journal = journal;
+
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+
+        try {
+            this.snapshots = new AccountSnapshots(snapshotDirectory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read snapshots in " + snapshotDirectory, e);
+        }
+
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "account-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.snapshotter.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalMillis,
+                snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void recover() throws IOException {
+        final long started = System.nanoTime();
+        snapshotSequence = snapshots.readLatest(this::restore, accounts::clear);
+        final long replayed = journal.replay(snapshotSequence + 1, this::apply);
+        logger.info("recovered {} accounts from snapshot {} and {} journal entries in {} ms", accounts.size(),
+                snapshotSequence, replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private void restore(AccountState account) {
+        accounts.put(account.accountNumber, account);
+        nextAccountNumber.accumulateAndGet(account.accountNumber + 1, Math::max);
+    }
+
+    /**
+     * Applies a replayed journal entry to the accounts which have not seen it yet
+     */
+    private void apply(JournalEntry entry) {
+        final long sequence = entry.getSequence();
+        switch (entry.getType()) {
+            case ACCOUNT_CREATED:
+                if (isNewerThan(sequence, entry.getToAcct(), true)) {
+                    restore(new AccountState(entry.getToAcct(), entry.getAccountName(), 0L, sequence));
+                }
+                break;
+            case ACCOUNT_UPDATED:
+                if (isNewerThan(sequence, entry.getToAcct(), true)) {
+                    restore(new AccountState(entry.getToAcct(), entry.getAccountName(),
+                            entry.getAmountMinorUnits(), sequence));
+                }
+                break;
+            case DEPOSIT:
+                applyDelta(entry.getToAcct(), entry.getAmountMinorUnits(), sequence);
+                break;
+            case WITHDRAWAL:
+                applyDelta(entry.getFromAcct(), -entry.getAmountMinorUnits(), sequence);
+                break;
+            case TRANSFER:
+                applyDelta(entry.getFromAcct(), -entry.getAmountMinorUnits(), sequence);
+                applyDelta(entry.getToAcct(), entry.getAmountMinorUnits(), sequence);
+                break;
+            default:
+                throw new IllegalStateException("unexpected journal entry " + entry);
+        }
+    }
+
+    private boolean isNewerThan(long sequence, long accountNumber, boolean orMissing) {
+        final AccountState account = accounts.get(accountNumber);
+        return account == null ? orMissing : account.version < sequence;
+    }
+
+    private void applyDelta(long accountNumber, long delta, long sequence) {
+        if (isNewerThan(sequence, accountNumber, false)) {
+            final AccountState account = accounts.get(accountNumber);
+            accounts.put(accountNumber, account.withBalance(account.balance + delta, sequence));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case pageNum or pageSize params are invalid ( negative, or zero page size )
+     */
+    @Override
+    public ArrayList<Account> findAll(int pageNum, int pageSize) {
+        Assert.isTrue(pageNum >= 0, "pageNum must be positive");
+        Assert.isTrue(pageSize > 0, "pageSize must be more than zero");
+        return accounts.values().stream()
+                .skip((long) pageNum * pageSize)
+                .limit(pageSize)
+                .map(AccountState::toAccount)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case pageSize param is invalid ( negative or zero )
+     */
+    @Override
+    public ArrayList<Account> findAllAfter(Long afterAccountNumber, int pageSize) {
+        Assert.isTrue(pageSize > 0, "pageSize must be more than zero");
+        return (afterAccountNumber != null ? accounts.tailMap(afterAccountNumber, false) : accounts).values().stream()
+                .limit(pageSize)
+                .map(AccountState::toAccount)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case consumer param is null
+     */
+    @Override
+    public long exportAll(Consumer<Account> consumer) {
+        Assert.notNull(consumer, "consumer must be set");
+        long count = 0;
+        for (AccountState account : accounts.values()) {
+            consumer.accept(account.toAccount());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case accountNumber param is null
+     */
+    @Override
+    public Account findByAccountNumber(Long accountNumber) {
+        Assert.notNull(accountNumber, "accountNumber must be not null");
+        final AccountState account = accounts.get(accountNumber);
+        return account != null ? account.toAccount() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case account name is empty or too long
+     */
+    @Override
+    public Account create(String accountName) {
+        Assert.hasLength(accountName, "account name must not be empty");
+        final long accountNumber = nextAccountNumber.getAndIncrement();
+        final JournalEntry entry = JournalEntry.accountCreated(accountNumber, accountName);
+
+        final int writeEpoch = beginWrite();
+        try {
+            final long sequence = journal.append(entry);
+            final AccountState account = new AccountState(accountNumber, accountName, 0L, sequence);
+            accounts.put(accountNumber, account);
+            return account.toAccount();
+        } finally {
+            endWrite(writeEpoch);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The account-created entries of a chunk are appended to the journal at once. Accounts get the last sequence
+     * number of the journal after the append as theirs, which is not lower than that of their own entry, and no entry
+     * of theirs can come in between as they are not visible until then</p>
+     *
+     * @throws IllegalArgumentException in case accountNames or consumer param is null, or an account name is empty
+     * or too long
+     */
+    @Override
+    public long createAll(Iterator<String> accountNames, Consumer<Account> consumer) {
+        Assert.notNull(accountNames, "accountNames must be set");
+        Assert.notNull(consumer, "consumer must be set");
+        final List<String> chunk = new ArrayList<>(AccountDaoJdbcImpl.CREATE_CHUNK_SIZE);
+        final List<JournalEntry> entries = new ArrayList<>(AccountDaoJdbcImpl.CREATE_CHUNK_SIZE);
+        long count = 0;
+        while (accountNames.hasNext()) {
+            chunk.clear();
+            while (chunk.size() < AccountDaoJdbcImpl.CREATE_CHUNK_SIZE && accountNames.hasNext()) {
+                final String accountName = accountNames.next();
+                Assert.hasLength(accountName, "account name must not be empty");
+                chunk.add(accountName);
+            }
+            final long firstAccountNumber = nextAccountNumber.getAndAdd(chunk.size());
+            entries.clear();
+            for (int i = 0; i < chunk.size(); i++) {
+                entries.add(JournalEntry.accountCreated(firstAccountNumber + i, chunk.get(i)));
+            }
+
+            final List<Account> created = new ArrayList<>(chunk.size());
+            final int writeEpoch = beginWrite();
+            try {
+                journal.appendAll(entries);
+                final long sequence = journal.getLastSequence();
+                for (int i = 0; i < chunk.size(); i++) {
+                    final AccountState account =
+                            new AccountState(firstAccountNumber + i, chunk.get(i), 0L, sequence);
+                    accounts.put(account.accountNumber, account);
+                    created.add(account.toAccount());
+                }
+            } finally {
+                endWrite(writeEpoch);
+            }
+            created.forEach(consumer);
+            count += created.size();
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case account obj is null or does not exist, or its name is empty
+     */
+    @Override
+    public Account update(Account account) {
+        Assert.notNull(account, "account must not be null");
+        Assert.notNull(account.getAccountNumber(), "accountNumber must be set");
+        final ReentrantLock lock = lockFor(account.getAccountNumber());
+        final int writeEpoch = beginWrite();
+        lock.lock();
+        try {
+            Assert.isTrue(accounts.containsKey(account.getAccountNumber()), "Account not found");
+            final long sequence = journal.append(JournalEntry.accountUpdated(account.getAccountNumber(),
+                    account.getAccountName(), account.getBalance()));
+            accounts.put(account.getAccountNumber(), new AccountState(account.getAccountNumber(),
+                    account.getAccountName(), account.getBalance().getMinorUnits(), sequence));
+        } finally {
+            lock.unlock();
+            endWrite(writeEpoch);
+        }
+        return account;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Both accounts are locked in ascending lock stripe order, so concurrent transfers in opposite directions
+     * cannot dead-lock</p>
+     *
+     * @throws IllegalArgumentException in fromAcctNum or toAcctNum is null; or amount is not positive
+     */
+    @Override
+    public void transferBalance(Long fromAcctNum, Long toAcctNum, Money amount) {
+        Assert.notNull(fromAcctNum, "fromAcctNum must be set");
+        Assert.notNull(toAcctNum, "toAcctNum must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(!fromAcctNum.equals(toAcctNum), "FROM and TO accounts cannot be the same");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+
+        final int fromStripe = stripeOf(fromAcctNum);
+        final int toStripe = stripeOf(toAcctNum);
+        final ReentrantLock first = locks[Math.min(fromStripe, toStripe)];
+        final ReentrantLock second = locks[Math.max(fromStripe, toStripe)];
+
+        final int writeEpoch = beginWrite();
+        first.lock();
+        try {
+            second.lock();
+            try {
+                final AccountState fromAcct = accounts.get(fromAcctNum);
+                Assert.notNull(fromAcct, "'from' Account not found!");
+                Assert.isTrue(fromAcct.balance >= amount.getMinorUnits(),
+                        "From account balance is not enough for transfer");
+
+                final AccountState toAcct = accounts.get(toAcctNum);
+                Assert.notNull(toAcct, "'to' Account not found");
+                final long toBalance = Math.addExact(toAcct.balance, amount.getMinorUnits());
+
+                final long sequence = journal.append(JournalEntry.transfer(fromAcctNum, toAcctNum, amount));
+                accounts.put(fromAcctNum, fromAcct.withBalance(fromAcct.balance - amount.getMinorUnits(), sequence));
+                accounts.put(toAcctNum, toAcct.withBalance(toBalance, sequence));
+            } finally {
+                second.unlock();
+            }
+        } finally {
+            first.unlock();
+            endWrite(writeEpoch);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Every transfer is applied atomically on its own, so a concurrent reader may observe a partially applied
+     * batch</p>
+     *
+     * @throws IllegalArgumentException in case transfers param is null
+     */
+    @Override
+    public ArrayList<TransferResult> transferBalances(List<Transfer> transfers) {
+        Assert.notNull(transfers, "transfers must be set");
+        final ArrayList<TransferResult> results = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            try {
+                Assert.notNull(transfer, "transfer must be set");
+                transferBalance(transfer.getFromAcct(), transfer.getToAcct(), transfer.getAmount());
+                results.add(TransferResult.applied());
+            } catch (IllegalArgumentException e) {
+                results.add(TransferResult.rejected(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Account deposit(Long accountNumber, Money amount) {
+        Assert.notNull(accountNumber, "accountNumber must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+
+        final ReentrantLock lock = lockFor(accountNumber);
+        final int writeEpoch = beginWrite();
+        lock.lock();
+        try {
+            final AccountState account = accounts.get(accountNumber);
+            Assert.notNull(account, "'from' Account not found!");
+            final long balance = Math.addExact(account.balance, amount.getMinorUnits());
+
+            final long sequence = journal.append(JournalEntry.deposit(accountNumber, amount));
+            final AccountState updated = account.withBalance(balance, sequence);
+            accounts.put(accountNumber, updated);
+            return updated.toAccount();
+        } finally {
+            lock.unlock();
+            endWrite(writeEpoch);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Account withdraw(Long accountNumber, Money amount) {
+        Assert.notNull(accountNumber, "accountNumber must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+
+        final ReentrantLock lock = lockFor(accountNumber);
+        final int writeEpoch = beginWrite();
+        lock.lock();
+        try {
+            final AccountState account = accounts.get(accountNumber);
+            Assert.notNull(account, "'from' Account not found!");
+            Assert.isTrue(account.balance >= amount.getMinorUnits(), "account balance is not enough for withdrawal");
+
+            final long sequence = journal.append(JournalEntry.withdrawal(accountNumber, amount));
+            final AccountState updated = account.withBalance(account.balance - amount.getMinorUnits(), sequence);
+            accounts.put(accountNumber, updated);
+            return updated.toAccount();
+        } finally {
+            lock.unlock();
+            endWrite(writeEpoch);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Not kept by the event-sourced accounts</p>
+     *
+     * @return <code>null</code>
+     */
+    @Override
+    public LedgerSummary getLedgerSummary() {
+        return null;
+    }
+
+    /**
+     * Writes all accounts to a snapshot, unless nothing changed since the last one. Writes are not paused: only the
+     * writes in flight when the snapshot starts are waited for, so every journal entry up to the snapshot sequence
+     * number is applied before the accounts are copied
+     *
+     * @return the sequence number of the snapshot
+     * @throws UncheckedIOException if the snapshot cannot be written
+     */
+    public synchronized long snapshot() {
+        final long sequence = journal.getLastSequence();
+        if (sequence == snapshotSequence) {
+            return sequence;
+        }
+        awaitWritesInFlight();
+
+        final long started = System.nanoTime();
+        try {
+            final long count = snapshots.write(sequence, accounts.values().iterator());
+            logger.info("wrote snapshot {} of {} accounts in {} ms", sequence, count,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to write snapshot " + sequence, e);
+        }
+        snapshotSequence = sequence;
+        return sequence;
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (RuntimeException e) {
+            logger.error("failed to write snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stops the snapshotter and writes a final snapshot, so the next startup does not replay the journal
+     */
+    @Override
+    public void close() {
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshot();
+    }
+
+    /**
+     * Registers a write in the current epoch. Must be called before the write appends to the journal
+     *
+     * @return the epoch to pass to {@link #endWrite}
+     */
+    private int beginWrite() {
+        while (true) {
+            final int current = epoch;
+            writesInFlight[current].incrementAndGet();
+            if (epoch == current) {
+                return current;
+            }
+            // the epoch moved on meanwhile - register in the new one, so the snapshotter does not miss this write
+            writesInFlight[current].decrementAndGet();
+        }
+    }
+
+    private void endWrite(int writeEpoch) {
+        writesInFlight[writeEpoch].decrementAndGet();
+    }
+
+    /**
+     * Starts a new epoch and waits for the writes of the previous one to finish. Writes appended to the journal before
+     * this is called are all in the previous epoch, later writes do not hold the snapshot up
+     */
+    private void awaitWritesInFlight() {
+        final int previous = epoch;
+        epoch = 1 - previous;
+        while (writesInFlight[previous].get() > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    private ReentrantLock lockFor(Long accountNumber) {
+        return locks[stripeOf(accountNumber)];
+    }
+
+    private int stripeOf(Long accountNumber) {
+        final long value = accountNumber;
+        int hash = (int) (value ^ (value >>> 32));
+        hash ^= (hash >>> 16);
+        return hash & (locks.length - 1);
+    }
+}
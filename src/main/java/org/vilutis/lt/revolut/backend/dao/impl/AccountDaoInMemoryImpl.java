@@ -0,0 +1,420 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.journal.JournalEntry;
+import spark.utils.Assert;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * {@inheritDoc}
+ *
+ * In-memory implementation keeping all balances on the heap. Balance changes are guarded by a fixed number of striped
+ * locks, so money movements between unrelated accounts run in parallel. Changed accounts are written behind to a
+ * durable backing {@link AccountDao} ( e.g. {@link AccountDaoJdbcImpl} ) every {@code flushIntervalMillis}. Every
+ * money movement is recorded in the {@link Journal} before it becomes visible.
+ */
+public class AccountDaoInMemoryImpl implements AccountDao, AutoCloseable {
+
+    public static final int DEFAULT_STRIPES = 1024;
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000L;
+
+    private static final int LOAD_PAGE_SIZE = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AccountDao backingStore;
+
+    private final Journal journal;
+
+    /**
+     * All known accounts ordered by account number. Values are never modified once stored - a balance change replaces
+     * the whole {@link Account} instance, so readers do not need to lock.
+     */
+    private final ConcurrentSkipListMap<Long, Account> accounts = new ConcurrentSkipListMap<>();
+
+    /**
+     * Account numbers changed since the last flush to the {@link #backingStore}
+     */
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+    private final ReentrantLock[] locks;
+
+    private final ScheduledExecutorService flusher;
+
+    public AccountDaoInMemoryImpl(AccountDao backingStore) {
+        this(backingStore, Journal.NONE);
+    }
+
+    public AccountDaoInMemoryImpl(AccountDao backingStore, Journal journal) {
+        this(backingStore, journal, DEFAULT_STRIPES, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    public AccountDaoInMemoryImpl(AccountDao backingStore, int stripes, long flushIntervalMillis) {
+        this(backingStore, Journal.NONE, stripes, flushIntervalMillis);
+    }
+
+    /**
+     * Loads all accounts from the backing store into memory and starts the write-behind flusher
+     *
+     * @param backingStore the durable {@link AccountDao} to load accounts from and to flush changes to
+     * @param journal the audit log to record money movements in
+     * @param stripes number of locks to stripe accounts across. Rounded up to a power of two
+     * @param flushIntervalMillis how often changed accounts are written to the backing store
+     */
+    public AccountDaoInMemoryImpl(AccountDao backingStore, Journal journal, int stripes, long flushIntervalMillis) {
+        Assert.notNull(backingStore, "backingStore must be set");
+        Assert.notNull(journal, "journal must be set");
+        Assert.isTrue(stripes > 0, "stripes must be more than zero");
+        Assert.isTrue(flushIntervalMillis > 0, "flushIntervalMillis must be more than zero");
+        this.backingStore = backingStore;
+        this.journal = journal;
+
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+
+        load();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "account-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void load() {
+        int pageNum = 0;
+        ArrayList<Account> page;
+        do {
+            page = backingStore.findAll(pageNum++, LOAD_PAGE_SIZE);
+            page.forEach(account -> accounts.put(account.getAccountNumber(), copyOf(account)));
+        } while (page.size() == LOAD_PAGE_SIZE);
+        logger.info("loaded {} accounts into memory", accounts.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case pageNum or pageSize params are invalid ( negative, or zero page size )
+     */
+    @Override
+    public ArrayList<Account> findAll(int pageNum, int pageSize) {
+        Assert.isTrue(pageNum >= 0, "pageNum must be positive");
+        Assert.isTrue(pageSize > 0, "pageSize must be more than zero");
+        return accounts.values().stream()
+                .skip((long) pageNum * pageSize)
+                .limit(pageSize)
+                .map(AccountDaoInMemoryImpl::copyOf)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case pageSize param is invalid ( negative or zero )
+     */
+    @Override
+    public ArrayList<Account> findAllAfter(Long afterAccountNumber, int pageSize) {
+        Assert.isTrue(pageSize > 0, "pageSize must be more than zero");
+        return (afterAccountNumber != null ? accounts.tailMap(afterAccountNumber, false) : accounts).values().stream()
+                .limit(pageSize)
+                .map(AccountDaoInMemoryImpl::copyOf)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case consumer param is null
+     */
+    @Override
+    public long exportAll(Consumer<Account> consumer) {
+        Assert.notNull(consumer, "consumer must be set");
+        long count = 0;
+        for (Account account : accounts.values()) {
+            consumer.accept(copyOf(account));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case accountNumber param is null
+     */
+    @Override
+    public Account findByAccountNumber(Long accountNumber) {
+        Assert.notNull(accountNumber, "accountNumber must be not null");
+        final Account account = accounts.get(accountNumber);
+        return account != null ? copyOf(account) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Account numbers are generated by the backing store, so the account is created there right away</p>
+     *
+     * @throws IllegalArgumentException in case account name is empty
+     */
+    @Override
+    public Account create(String accountName) {
+        Assert.hasLength(accountName, "account name must not be empty");
+        final Account account = backingStore.create(accountName);
+        accounts.put(account.getAccountNumber(), copyOf(account));
+        return account;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Account numbers are generated by the backing store, so the accounts are created there right away</p>
+     *
+     * @throws IllegalArgumentException in case accountNames or consumer param is null, or an account name is empty
+     */
+    @Override
+    public long createAll(Iterator<String> accountNames, Consumer<Account> consumer) {
+        Assert.notNull(consumer, "consumer must be set");
+        return backingStore.createAll(accountNames, account -> {
+            accounts.put(account.getAccountNumber(), copyOf(account));
+            consumer.accept(account);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws IllegalArgumentException in case account obj is null or does not exist
+     */
+    @Override
+    public Account update(Account account) {
+        Assert.notNull(account, "account must not be null");
+        final ReentrantLock lock = lockFor(account.getAccountNumber());
+        lock.lock();
+        try {
+            Assert.isTrue(accounts.containsKey(account.getAccountNumber()), "Account not found");
+            store(copyOf(account));
+        } finally {
+            lock.unlock();
+        }
+        return account;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Both accounts are locked in ascending lock stripe order, so concurrent transfers in opposite directions
+     * cannot dead-lock</p>
+     *
+     * @throws IllegalArgumentException in fromAcctNum or toAcctNum is null; or amount is not positive
+     */
+    @Override
+    public void transferBalance(Long fromAcctNum, Long toAcctNum, Money amount) {
+        Assert.notNull(fromAcctNum, "fromAcctNum must be set");
+        Assert.notNull(toAcctNum, "toAcctNum must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(!fromAcctNum.equals(toAcctNum), "FROM and TO accounts cannot be the same");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+
+        final int fromStripe = stripeOf(fromAcctNum);
+        final int toStripe = stripeOf(toAcctNum);
+        final ReentrantLock first = locks[Math.min(fromStripe, toStripe)];
+        final ReentrantLock second = locks[Math.max(fromStripe, toStripe)];
+
+        first.lock();
+        try {
+            second.lock();
+            try {
+                final Account fromAcct = accounts.get(fromAcctNum);
+                Assert.notNull(fromAcct, "'from' Account not found!");
+                Assert.isTrue(fromAcct.getBalance().isGreaterThanOrEqualTo(amount),
+                        "From account balance is not enough for transfer");
+
+                final Account toAcct = accounts.get(toAcctNum);
+                Assert.notNull(toAcct, "'to' Account not found");
+
+                final Account updatedFrom = Account.from(fromAcctNum, fromAcct.getAccountName(),
+                        fromAcct.getBalance().minus(amount));
+                final Account updatedTo = Account.from(toAcctNum, toAcct.getAccountName(),
+                        toAcct.getBalance().plus(amount));
+
+                journal.append(JournalEntry.transfer(fromAcctNum, toAcctNum, amount));
+                store(updatedFrom);
+                store(updatedTo);
+            } finally {
+                second.unlock();
+            }
+        } finally {
+            first.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Every transfer is applied atomically on its own, so a concurrent reader may observe a partially applied
+     * batch</p>
+     *
+     * @throws IllegalArgumentException in case transfers param is null
+     */
+    @Override
+    public ArrayList<TransferResult> transferBalances(List<Transfer> transfers) {
+        Assert.notNull(transfers, "transfers must be set");
+        final ArrayList<TransferResult> results = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            try {
+                Assert.notNull(transfer, "transfer must be set");
+                transferBalance(transfer.getFromAcct(), transfer.getToAcct(), transfer.getAmount());
+                results.add(TransferResult.applied());
+            } catch (IllegalArgumentException e) {
+                results.add(TransferResult.rejected(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Account deposit(Long accountNumber, Money amount) {
+        Assert.notNull(accountNumber, "accountNumber must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+
+        final ReentrantLock lock = lockFor(accountNumber);
+        lock.lock();
+        try {
+            final Account account = accounts.get(accountNumber);
+            Assert.notNull(account, "'from' Account not found!");
+
+            final Account updated = Account.from(accountNumber, account.getAccountName(),
+                    account.getBalance().plus(amount));
+            journal.append(JournalEntry.deposit(accountNumber, amount));
+            store(updated);
+            return copyOf(updated);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Account withdraw(Long accountNumber, Money amount) {
+        Assert.notNull(accountNumber, "accountNumber must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+
+        final ReentrantLock lock = lockFor(accountNumber);
+        lock.lock();
+        try {
+            final Account account = accounts.get(accountNumber);
+            Assert.notNull(account, "'from' Account not found!");
+
+            Assert.isTrue(account.getBalance().isGreaterThanOrEqualTo(amount),
+                    "account balance is not enough for withdrawal");
+
+            final Account updated = Account.from(accountNumber, account.getAccountName(),
+                    account.getBalance().minus(amount));
+            journal.append(JournalEntry.withdrawal(accountNumber, amount));
+            store(updated);
+            return copyOf(updated);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Summarizes the backing store, so balances not flushed yet are not included</p>
+     */
+    @Override
+    public LedgerSummary getLedgerSummary() {
+        return backingStore.getLedgerSummary();
+    }
+
+    /**
+     * Writes all accounts changed since the last flush to the backing store. Accounts failing to be written are kept
+     * for the next flush.
+     */
+    public synchronized void flush() {
+        for (Long accountNumber : dirty) {
+            dirty.remove(accountNumber);
+            final Account account = accounts.get(accountNumber);
+            try {
+                backingStore.update(copyOf(account));
+            } catch (RuntimeException e) {
+                dirty.add(accountNumber);
+                throw e;
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("failed to flush accounts to the backing store: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stops the write-behind flusher and writes all pending changes to the backing store
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Must be called while holding the account's stripe lock
+     */
+    private void store(Account account) {
+        accounts.put(account.getAccountNumber(), account);
+        dirty.add(account.getAccountNumber());
+    }
+
+    private ReentrantLock lockFor(Long accountNumber) {
+        return locks[stripeOf(accountNumber)];
+    }
+
+    private int stripeOf(Long accountNumber) {
+        final long value = accountNumber;
+        int hash = (int) (value ^ (value >>> 32));
+        hash ^= (hash >>> 16);
+        return hash & (locks.length - 1);
+    }
+
+    private static Account copyOf(Account account) {
+        return Account.from(account.getAccountNumber(), account.getAccountName(), account.getBalance());
+    }
+}
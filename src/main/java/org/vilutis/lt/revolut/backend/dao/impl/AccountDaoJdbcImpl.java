@@ -1,30 +1,168 @@
 package org.vilutis.lt.revolut.backend.dao.impl;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.journal.JournalEntry;
 import org.vilutis.lt.revolut.backend.storage.DBStorage;
 import org.vilutis.lt.revolut.backend.storage.ExceptionHelper;
 import org.vilutis.lt.revolut.backend.dao.AccountDao;
 import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
 import spark.utils.Assert;
 
-import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * {@inheritDoc}
  *
- * Implementation using a JDBC Datastore
+ * Implementation using a JDBC Datastore. Every money movement is recorded in the {@link Journal} once its
+ * transaction has committed, so the journal never holds a movement which was rolled back, and row locks are not held
+ * while the journal is synced to disk.
  */
 public class AccountDaoJdbcImpl implements AccountDao {
 
+    /**
+     * Number of rows fetched from the DB at once by {@link #exportAll(Consumer)}
+     */
+    private static final int EXPORT_FETCH_SIZE = 1000;
+
+    /**
+     * Number of accounts inserted in a single JDBC batch and transaction by {@link #createAll(Iterator, Consumer)}
+     */
+    static final int CREATE_CHUNK_SIZE = 1000;
+
+    // constant SQL statements, also used as keys of the DBStorage prepared statement cache
+
+    private static final String FIND_ALL =
+            " SELECT accountNumber, accountName, " + BalanceSlots.BALANCE_COLUMN
+                    + " FROM account "
+                    + " ORDER BY accountNumber "
+                    + " LIMIT ? OFFSET ? ";
+
+    private static final String FIND_ALL_AFTER =
+            " SELECT accountNumber, accountName, " + BalanceSlots.BALANCE_COLUMN
+                    + " FROM account "
+                    + " WHERE accountNumber > ? "
+                    + " ORDER BY accountNumber "
+                    + " LIMIT ? ";
+
+    private static final String FIND_BY_ACCOUNT_NUMBER =
+            " SELECT "
+                    + " accountNumber, accountName, " + BalanceSlots.BALANCE_COLUMN
+                    + " FROM account "
+                    + " WHERE accountNumber = ?";
+
+    private static final String INSERT_ACCOUNT =
+            " INSERT INTO account ( "
+                    + " accountNumber, accountName ) "
+                    + " VALUES ( ?, ? ) ";
+
+    private static final String UPDATE_ACCOUNT =
+            " UPDATE account "
+                    + " SET accountName = ? , balance = ? "
+                    + " WHERE accountNumber = ? ";
+
+    private static final String DEPOSIT =
+            " UPDATE account "
+                    + " SET balance = balance + ? "
+                    + " WHERE accountNumber = ? ";
+
+    private static final String WITHDRAW =
+            " UPDATE account "
+                    + " SET balance = balance - ? "
+                    + " WHERE accountNumber = ? "
+                    + " AND balance >= ? ";
+
+    /**
+     * Returned by {@link #DEPOSIT} and {@link #WITHDRAW} as generated keys, so the balance they leave is not read by
+     * another statement
+     */
+    private static final String[] UPDATED_BALANCE_COLUMNS = {"balance", "slots"};
+
+    private static final String INSERT_PREPARED =
+            " INSERT INTO transfer_prepared ( transferId, accountNumber, amount ) VALUES ( ?, ?, ? ) ";
+
+    private static final String FIND_PREPARED_AMOUNT =
+            " SELECT amount FROM transfer_prepared WHERE transferId = ? AND accountNumber = ? FOR UPDATE ";
+
+    private static final String DELETE_PREPARED =
+            " DELETE FROM transfer_prepared WHERE transferId = ? AND accountNumber = ? ";
+
+    private static final String FIND_ALL_PREPARED =
+            " SELECT transferId, accountNumber FROM transfer_prepared ";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
     private final DBStorage dbStorage;
 
+    private final Journal journal;
+
+    private final BalanceSlots balanceSlots;
+
+    private final AccountNumberBlocks accountNumbers = new AccountNumberBlocks();
+
+    private final LedgerStats ledgerStats = new LedgerStats(false);
+
+    private final long ledgerCheckIntervalMillis;
+
+    /**
+     * Checks the ledger stats against the account table, started once they are first read
+     */
+    private volatile ScheduledExecutorService ledgerChecker;
+
     public AccountDaoJdbcImpl(DBStorage dbStorage) {
+        this(dbStorage, Journal.NONE);
+    }
+
+    /**
+     * @param dbStorage the JDBC Datastore
+     * @param journal the audit log to record money movements in
+     */
+    public AccountDaoJdbcImpl(DBStorage dbStorage, Journal journal) {
+        this(dbStorage, journal, LedgerStats.DEFAULT_CHECK_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param ledgerCheckIntervalMillis how often the ledger stats are checked against the account table, see
+     *                                  {@link #getLedgerSummary()}
+     */
+    AccountDaoJdbcImpl(DBStorage dbStorage, Journal journal, long ledgerCheckIntervalMillis) {
+        Assert.notNull(journal, "journal must be set");
+        Assert.isTrue(ledgerCheckIntervalMillis > 0, "ledgerCheckIntervalMillis must be positive");
         this.dbStorage = dbStorage;
+        this.journal = journal;
+        this.ledgerCheckIntervalMillis = ledgerCheckIntervalMillis;
+        this.balanceSlots = new BalanceSlots(dbStorage);
+        try {
+            dbStorage.runSQLOnPrimary("loadSlots", connection -> {
+                balanceSlots.load(connection);
+                return true;
+            });
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
     }
 
     /**
@@ -37,7 +175,7 @@ public class AccountDaoJdbcImpl implements AccountDao {
         Assert.isTrue(pageNum >= 0,  "pageNum must be positive");
         Assert.isTrue(pageSize > 0,  "pageSize must be more than zero");
         try {
-            return dbStorage.runSQL(connection -> findAll(pageNum, pageSize, connection));
+            return dbStorage.runSQL("findAll", connection -> findAll(pageNum, pageSize, connection));
         } catch (SQLException ex) {
             throw ExceptionHelper.convertException(ex);
         }
@@ -45,23 +183,95 @@ public class AccountDaoJdbcImpl implements AccountDao {
 
     private ArrayList<Account> findAll(int pageNum, int pageSize, Connection connection) throws SQLException {
         ArrayList<Account> result = new ArrayList<>();
-        try (PreparedStatement statement = connection.prepareStatement(
-                " SELECT accountNumber, accountName, balance "
-                        + " FROM account "
-                        + " LIMIT ? OFFSET ? ")){
+        final PreparedStatement statement = dbStorage.prepareCached(connection, FIND_ALL);
 
-            statement.setInt(1, pageSize);
-            statement.setInt(2, pageNum * pageSize);
+        statement.setInt(1, pageSize);
+        statement.setInt(2, pageNum * pageSize);
 
-            try (ResultSet rs = statement.executeQuery()) {
-                while (rs != null && rs.next()) {
-                    result.add(accountFromResultSet(rs));
-                }
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs != null && rs.next()) {
+                result.add(accountFromResultSet(rs));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case pageSize param is invalid ( negative or zero )
+     */
+    @Override
+    public ArrayList<Account> findAllAfter(Long afterAccountNumber, int pageSize) {
+        Assert.isTrue(pageSize > 0,  "pageSize must be more than zero");
+        try {
+            return dbStorage.runSQL("findAllAfter",
+                    connection -> findAllAfter(afterAccountNumber, pageSize, connection));
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+    }
+
+    private ArrayList<Account> findAllAfter(Long afterAccountNumber, int pageSize, Connection connection)
+            throws SQLException {
+        ArrayList<Account> result = new ArrayList<>();
+        final PreparedStatement statement = dbStorage.prepareCached(connection, FIND_ALL_AFTER);
+
+        statement.setLong(1, afterAccountNumber != null ? afterAccountNumber : Long.MIN_VALUE);
+        statement.setInt(2, pageSize);
+
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs != null && rs.next()) {
+                result.add(accountFromResultSet(rs));
             }
         }
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Reads a forward-only {@link ResultSet} with lazy query execution enabled, so H2 does not materialize the
+     * whole result before returning the first row</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case consumer param is null
+     */
+    @Override
+    public long exportAll(Consumer<Account> consumer) {
+        Assert.notNull(consumer, "consumer must be set");
+        try {
+            return dbStorage.runSQL("exportAll", connection -> exportAll(consumer, connection));
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+    }
+
+    private Long exportAll(Consumer<Account> consumer, Connection connection) throws SQLException {
+        long count = 0;
+        try (Statement settings = connection.createStatement()) {
+            settings.execute("SET LAZY_QUERY_EXECUTION 1");
+            try (PreparedStatement statement = connection.prepareStatement(
+                    " SELECT accountNumber, accountName, " + BalanceSlots.BALANCE_COLUMN
+                            + " FROM account "
+                            + " ORDER BY accountNumber ",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+                statement.setFetchSize(EXPORT_FETCH_SIZE);
+
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs != null && rs.next()) {
+                        consumer.accept(accountFromResultSet(rs));
+                        count++;
+                    }
+                }
+            } finally {
+                settings.execute("SET LAZY_QUERY_EXECUTION 0");
+            }
+        }
+        return count;
+    }
+
     /**
      * {@inheritDoc}
      * @throws RuntimeException in case of DB/SQL error
@@ -71,33 +281,29 @@ public class AccountDaoJdbcImpl implements AccountDao {
     public Account findByAccountNumber(Long accountNumber) {
         Assert.notNull(accountNumber, "accountNumber must be not null");
         try {
-            return dbStorage.runSQL(connection -> findAccountByNumber(accountNumber, connection));
+            return dbStorage.runSQL("findByAccountNumber",
+                    connection -> findAccountByNumber(accountNumber, connection));
         } catch (SQLException ex) {
             throw ExceptionHelper.convertException(ex);
         }
     }
 
     private Account findAccountByNumber(Long accountNumber, Connection connection) throws SQLException {
-        try (PreparedStatement fetchAccountStmt = connection.prepareStatement(
-                " SELECT "
-                        + " accountNumber, accountName, balance "
-                        + " FROM account "
-                        + " WHERE accountNumber = ?")){
+        final PreparedStatement fetchAccountStmt = dbStorage.prepareCached(connection, FIND_BY_ACCOUNT_NUMBER);
 
-            fetchAccountStmt.setLong(1, accountNumber);
+        fetchAccountStmt.setLong(1, accountNumber);
 
-            try (ResultSet rs = fetchAccountStmt.executeQuery()) {
-                return (rs != null && rs.next()) ? accountFromResultSet(rs) : null;
-            }
+        try (ResultSet rs = fetchAccountStmt.executeQuery()) {
+            return (rs != null && rs.next()) ? accountFromResultSet(rs) : null;
         }
     }
 
     private Account accountFromResultSet(ResultSet resultSet) throws SQLException {
         long dbAccountNumber = resultSet.getLong("accountNumber");
         String dbAccountName = resultSet.getString("accountName");
-        double dbBalance = resultSet.getDouble("balance");
+        long dbBalance = resultSet.getLong("balance");
 
-        return Account.from(dbAccountNumber, dbAccountName, dbBalance);
+        return Account.from(dbAccountNumber, dbAccountName, Money.ofMinorUnits(dbBalance));
     }
 
     /**
@@ -108,35 +314,128 @@ public class AccountDaoJdbcImpl implements AccountDao {
     @Override
     public Account create(String accountName) {
         Assert.hasLength(accountName, "account name must not be empty");
+        final Account account;
         try {
-            return dbStorage.runInTransaction(connection -> create(accountName, connection));
+            account = dbStorage.runInTransaction("create", connection -> create(accountName, connection));
         } catch (SQLException ex) {
             throw ExceptionHelper.convertException(ex);
         }
+        ledgerStats.created(1);
+        return account;
     }
 
     private Account create(String accountName, Connection connection) throws SQLException {
-        try (PreparedStatement insertAccountStmt = connection.prepareStatement(
-                " INSERT INTO account ( "
-                        + " accountNumber, accountName ) "
-                        + " VALUES ( NULL, ? ) ",
-                Statement.RETURN_GENERATED_KEYS)) {
+        return create(accountNumbers.next(connection), accountName, connection);
+    }
+
+    /**
+     * Creates an account with a number allocated elsewhere, e.g. by {@link AccountDaoShardedImpl}
+     *
+     * @throws RuntimeException in case of DB/SQL error, e.g. the number is taken
+     */
+    Account create(long accountNumber, String accountName) {
+        final Account account;
+        try {
+            account = dbStorage.runInTransaction("create",
+                    connection -> create(accountNumber, accountName, connection));
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+        ledgerStats.created(1);
+        return account;
+    }
 
-            insertAccountStmt.setString(1, accountName);
+    private Account create(long accountNumber, String accountName, Connection connection) throws SQLException {
+        final PreparedStatement insertAccountStmt = dbStorage.prepareCached(connection, INSERT_ACCOUNT);
 
-            if (insertAccountStmt.executeUpdate() == 0) {
-                throw new SQLException("Creating account failed, no rows affected.");
-            }
+        insertAccountStmt.setLong(1, accountNumber);
+        insertAccountStmt.setString(2, accountName);
 
-            try (ResultSet rs = insertAccountStmt.getGeneratedKeys()) {
-                if (rs != null && rs.next()) {
-                    Long accountNumber = rs.getLong(1);
-                    return new Account(accountNumber, accountName);
-                } else {
-                    throw new RuntimeException("failed to insert???");
-                }
+        if (insertAccountStmt.executeUpdate() == 0) {
+            throw new SQLException("Creating account failed, no rows affected.");
+        }
+
+        balanceSlots.accountCreated(accountNumber, connection);
+        return new Account(accountNumber, accountName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Account numbers of a whole chunk are reserved at once and its rows are written with a single JDBC batch</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNames or consumer param is null, or an account name is empty
+     */
+    @Override
+    public long createAll(Iterator<String> accountNames, Consumer<Account> consumer) {
+        Assert.notNull(accountNames, "accountNames must be set");
+        Assert.notNull(consumer, "consumer must be set");
+        final List<String> chunk = new ArrayList<>(CREATE_CHUNK_SIZE);
+        long count = 0;
+        while (accountNames.hasNext()) {
+            chunk.clear();
+            while (chunk.size() < CREATE_CHUNK_SIZE && accountNames.hasNext()) {
+                final String accountName = accountNames.next();
+                Assert.hasLength(accountName, "account name must not be empty");
+                chunk.add(accountName);
+            }
+            final ArrayList<Account> created;
+            try {
+                created = dbStorage.runInTransaction("createAll", connection -> createAll(chunk, connection));
+            } catch (SQLException ex) {
+                throw ExceptionHelper.convertException(ex);
             }
+            ledgerStats.created(created.size());
+            created.forEach(consumer);
+            count += created.size();
+        }
+        return count;
+    }
+
+    private ArrayList<Account> createAll(List<String> accountNames, Connection connection) throws SQLException {
+        return createAll(accountNumbers.next(accountNames.size(), connection), accountNames, connection);
+    }
+
+    /**
+     * Creates accounts with numbers allocated elsewhere in a single transaction, e.g. by
+     * {@link AccountDaoShardedImpl}
+     *
+     * @param numbers the account numbers, one per name
+     * @param accountNames the account names, already validated
+     * @return the created accounts in the order of the names
+     * @throws RuntimeException in case of DB/SQL error, e.g. a number is taken
+     */
+    ArrayList<Account> createAll(long[] numbers, List<String> accountNames) {
+        final ArrayList<Account> created;
+        try {
+            created = dbStorage.runInTransaction("createAll",
+                    connection -> createAll(numbers, accountNames, connection));
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+        ledgerStats.created(created.size());
+        return created;
+    }
+
+    private ArrayList<Account> createAll(long[] numbers, List<String> accountNames, Connection connection)
+            throws SQLException {
+        final PreparedStatement insertAccountStmt = dbStorage.prepareCached(connection, INSERT_ACCOUNT);
+        insertAccountStmt.clearBatch();
+
+        final ArrayList<Account> result = new ArrayList<>(accountNames.size());
+        for (int i = 0; i < numbers.length; i++) {
+            insertAccountStmt.setLong(1, numbers[i]);
+            insertAccountStmt.setString(2, accountNames.get(i));
+            insertAccountStmt.addBatch();
+            result.add(new Account(numbers[i], accountNames.get(i)));
+        }
+        insertAccountStmt.executeBatch();
+
+        for (long accountNumber : numbers) {
+            balanceSlots.accountCreated(accountNumber, connection);
         }
+        return result;
     }
 
     /**
@@ -147,170 +446,636 @@ public class AccountDaoJdbcImpl implements AccountDao {
     @Override
     public Account update(Account account) {
         Assert.notNull(account, "account must not be null");
+        final long[] before = new long[1];
+        final Account updated;
         try {
-            return dbStorage.runInTransaction(connection -> update(account, connection));
+            updated = dbStorage.runInTransaction("update", connection -> {
+                before[0] = lockBalances(Collections.singleton(account.getAccountNumber()), connection)
+                        .getOrDefault(account.getAccountNumber(), Money.ZERO).getMinorUnits();
+                return update(account, connection);
+            });
         } catch (SQLException ex) {
             throw ExceptionHelper.convertException(ex);
         }
+        ledgerStats.changed(before[0], updated.getBalance().getMinorUnits());
+        return updated;
     }
 
     private Account update(Account account, Connection connection) throws SQLException {
-        try (PreparedStatement insertAccountStmt = connection.prepareStatement(
-                " UPDATE account "
-                        + " SET accountName = ? , balance = ? "
-                        + " WHERE accountNumber = ? ")) {
-
-            insertAccountStmt.setString(1, account.getAccountName());
-            insertAccountStmt.setBigDecimal(2, account.getBalance());
-            insertAccountStmt.setLong(3, account.getAccountNumber());
+        final PreparedStatement insertAccountStmt = dbStorage.prepareCached(connection, UPDATE_ACCOUNT);
 
-            if (insertAccountStmt.executeUpdate() == 0) {
-                throw new SQLException("Update account failed, no rows affected.");
-            }
+        insertAccountStmt.setString(1, account.getAccountName());
+        insertAccountStmt.setLong(2, account.getBalance().getMinorUnits());
+        insertAccountStmt.setLong(3, account.getAccountNumber());
 
-            return account;
+        if (insertAccountStmt.executeUpdate() == 0) {
+            throw new SQLException("Update account failed, no rows affected.");
+        }
+        if (balanceSlots.slotsOf(account.getAccountNumber()) > 0) {
+            // the whole balance has been set to the account row
+            balanceSlots.clear(account.getAccountNumber(), connection);
         }
+
+        return account;
     }
 
     /**
      * {@inheritDoc}
      *
-     * <p><b>Note</b>: if the amount.scale is greater than {@link Account#SCALE}, it will be rounded to
-     * {@link Account#SCALE} using {@link java.math.RoundingMode#HALF_UP}</p>
-     *
      * @throws RuntimeException in case of DB/SQL error
-     * @throws IllegalArgumentException in fromAcctNum or toAcctNum is null; or amount has a negative value, or scale
-     * greater than {@link Account#SCALE}
+     * @throws IllegalArgumentException in fromAcctNum or toAcctNum is null; or amount is not positive
      */
     @Override
-    public void transferBalance(Long fromAcctNum, Long toAcctNum, BigDecimal amount) {
+    public void transferBalance(Long fromAcctNum, Long toAcctNum, Money amount) {
+        assertTransfer(fromAcctNum, toAcctNum, amount);
+
+        final long[] after;
+        try {
+            after = dbStorage.runInTransaction("transferBalance", connection -> {
+                // 1. withdraw from "from" account ( if exists & balance is enough )
+                // 2. deposit to "to" account ( if exists )
+                // the audit log is written once committed
+                // rows are updated ( and so locked ) in ascending account number order, so transfers in opposite
+                // directions between the same accounts cannot deadlock
+                final long[] balances = new long[2];
+                if (fromAcctNum < toAcctNum) {
+                    balances[0] = withdrawAmount(fromAcctNum, amount, "'from' Account not found!",
+                            "From account balance is not enough for transfer", connection);
+                    balances[1] = depositAmount(toAcctNum, amount, "'to' Account not found", connection);
+                } else {
+                    balances[1] = depositAmount(toAcctNum, amount, "'to' Account not found", connection);
+                    balances[0] = withdrawAmount(fromAcctNum, amount, "'from' Account not found!",
+                            "From account balance is not enough for transfer", connection);
+                }
+                return balances;
+            });
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+        journalCommitted(Collections.singletonList(JournalEntry.transfer(fromAcctNum, toAcctNum, amount)));
+        ledgerStats.moved(after[0] + amount.getMinorUnits(), after[0]);
+        ledgerStats.moved(after[1] - amount.getMinorUnits(), after[1]);
+    }
+
+    /**
+     * Records money movements in the {@link Journal} once their transaction has committed. The movements cannot be
+     * undone any more, so a journal failure is logged rather than reported to the caller
+     */
+    void journalCommitted(List<JournalEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        try {
+            if (entries.size() == 1) {
+                journal.append(entries.get(0));
+            } else {
+                journal.appendAll(entries);
+            }
+        } catch (RuntimeException e) {
+            logger.error("committed money movements could not be journaled: " + entries, e);
+        }
+    }
+
+    /**
+     * @return the balance of an existing account in minor units
+     */
+    private long balanceOf(Long accountNumber, Connection connection) throws SQLException {
+        return findAccountByNumber(accountNumber, connection).getBalance().getMinorUnits();
+    }
+
+    /**
+     * Runs a {@link #DEPOSIT} or {@link #WITHDRAW} update prepared with {@link #UPDATED_BALANCE_COLUMNS}
+     *
+     * @return the account balance it leaves in minor units, <code>null</code> if no row was updated
+     */
+    private Long balanceUpdated(Long accountNumber, PreparedStatement updateStatement, Connection connection)
+            throws SQLException {
+        if (updateStatement.executeUpdate() != 1) {
+            return null;
+        }
+        try (ResultSet rs = updateStatement.getGeneratedKeys()) {
+            if (!rs.next()) {
+                return null;
+            }
+            final long balance = rs.getLong("balance");
+            // sharded by another instance, not known by this one yet
+            return rs.getInt("slots") > 0 ? Math.addExact(balance, balanceSlots.sum(accountNumber, connection))
+                    : balance;
+        }
+    }
+
+    private static void assertTransfer(Long fromAcctNum, Long toAcctNum, Money amount) {
         Assert.notNull(fromAcctNum, "fromAcctNum must be set");
         Assert.notNull(toAcctNum, "toAcctNum must be set");
         Assert.notNull(amount, "amount must be set");
         Assert.isTrue(!fromAcctNum.equals(toAcctNum), "FROM and TO accounts cannot be the same");
-        Assert.isTrue(amount.scale() <= Account.SCALE,
-                "amount scale must NOT greater than " + Account.SCALE);
-        Assert.isTrue(amount.compareTo(BigDecimal.ZERO) > 0, "amount must be positive");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+    }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>All transfers are applied in a single transaction: the involved accounts are locked up front, transfers are
+     * validated in memory and the net balance change of every account is written using a single JDBC batch</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case transfers param is null
+     */
+    @Override
+    public ArrayList<TransferResult> transferBalances(List<Transfer> transfers) {
+        Assert.notNull(transfers, "transfers must be set");
+        if (transfers.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final Map<Long, long[]> moves = new HashMap<>();
+        final List<JournalEntry> journalEntries = new ArrayList<>(transfers.size());
+        final ArrayList<TransferResult> results;
         try {
-            dbStorage.runInTransaction( connection -> {
-                // 1. find "from" account ( if exists & check if balance is enough )
-                // 2. find "to" account
-                // 3. update balance in "to" account
-                // 4. update balance in "from" account
-                // 5. TODO : write audit log
-
-                final BigDecimal normalizedAmount = Account.normalizeAmountScale(amount);
-
-                final Account fromAcct = findByAccountNumber(fromAcctNum);
-                Assert.notNull(fromAcct, "'from' Account not found!");
-                Assert.isTrue(fromAcct.getBalance().compareTo(normalizedAmount) >= 0,
+            results = dbStorage.runInTransaction("transferBalances", connection -> {
+                moves.clear();
+                journalEntries.clear();
+                return transferBalances(transfers, moves, journalEntries, connection);
+            });
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+        journalCommitted(journalEntries);
+        moves.values().forEach(move -> ledgerStats.moved(move[0], move[1]));
+        return results;
+    }
+
+    /**
+     * @param moves filled with the balances before and after the batch in minor units, by account number
+     * @param journalEntries filled with the applied transfers, to be journaled once committed
+     */
+    private ArrayList<TransferResult> transferBalances(List<Transfer> transfers, Map<Long, long[]> moves,
+            List<JournalEntry> journalEntries, Connection connection) throws SQLException {
+        final Map<Long, Money> balances = lockBalances(accountNumbersOf(transfers), connection);
+        final Map<Long, Money> changes = new TreeMap<>();
+        final ArrayList<TransferResult> results = new ArrayList<>(transfers.size());
+
+        for (Transfer transfer : transfers) {
+            try {
+                Assert.notNull(transfer, "transfer must be set");
+                assertTransfer(transfer.getFromAcct(), transfer.getToAcct(), transfer.getAmount());
+
+                final Money amount = transfer.getAmount();
+
+                final Money fromBalance = balances.get(transfer.getFromAcct());
+                Assert.notNull(fromBalance, "'from' Account not found!");
+                Assert.isTrue(fromBalance.isGreaterThanOrEqualTo(amount),
                         "From account balance is not enough for transfer");
 
-                final Account toAcct = findByAccountNumber(toAcctNum);
-                Assert.notNull(toAcct, "'to' Account not found");
+                final Money toBalance = balances.get(transfer.getToAcct());
+                Assert.notNull(toBalance, "'to' Account not found");
+
+                balances.put(transfer.getFromAcct(), fromBalance.minus(amount));
+                balances.put(transfer.getToAcct(), toBalance.plus(amount));
+                changes.merge(transfer.getFromAcct(), amount.negate(), Money::plus);
+                changes.merge(transfer.getToAcct(), amount, Money::plus);
+                journalEntries.add(JournalEntry.transfer(transfer.getFromAcct(), transfer.getToAcct(), amount));
 
-                withdrawAmount(fromAcctNum, normalizedAmount, connection);
+                results.add(TransferResult.applied());
+            } catch (IllegalArgumentException e) {
+                results.add(TransferResult.rejected(e.getMessage()));
+            }
+        }
 
-                depositAmount(toAcctNum, normalizedAmount, connection);
+        applyBalanceChanges(changes, connection);
 
-                return true;
+        for (Map.Entry<Long, Money> change : changes.entrySet()) {
+            final long after = balances.get(change.getKey()).getMinorUnits();
+            moves.put(change.getKey(), new long[] {after - change.getValue().getMinorUnits(), after});
+        }
+
+        return results;
+    }
+
+    private static Set<Long> accountNumbersOf(List<Transfer> transfers) {
+        final Set<Long> accountNumbers = new TreeSet<>();
+        for (Transfer transfer : transfers) {
+            if (transfer != null && transfer.getFromAcct() != null) {
+                accountNumbers.add(transfer.getFromAcct());
+            }
+            if (transfer != null && transfer.getToAcct() != null) {
+                accountNumbers.add(transfer.getToAcct());
+            }
+        }
+        return accountNumbers;
+    }
+
+    /**
+     * Reads and locks ( <code>SELECT ... FOR UPDATE</code> ) balances of the given accounts until the transaction ends.
+     * Balance changes of sharded accounts are applied to the account row, not to their {@link BalanceSlots}
+     *
+     * @return balances by account number. Accounts not found are not included
+     */
+    private Map<Long, Money> lockBalances(Set<Long> accountNumbers, Connection connection) throws SQLException {
+        final Map<Long, Money> balances = new HashMap<>();
+        if (accountNumbers.isEmpty()) {
+            return balances;
+        }
+
+        final StringJoiner params = new StringJoiner(", ", "(", ")");
+        accountNumbers.forEach(accountNumber -> params.add("?"));
+
+        try (PreparedStatement statement = connection.prepareStatement(
+                " SELECT accountNumber, balance, slots "
+                        + " FROM account "
+                        + " WHERE accountNumber IN " + params
+                        + " ORDER BY accountNumber "
+                        + " FOR UPDATE ")) {
+
+            int index = 1;
+            for (Long accountNumber : accountNumbers) {
+                statement.setLong(index++, accountNumber);
+            }
+
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs != null && rs.next()) {
+                    final long accountNumber = rs.getLong("accountNumber");
+                    long balance = rs.getLong("balance");
+                    if (rs.getInt("slots") > 0) {
+                        // slots may only grow until the transaction ends, as withdrawals lock the account row too
+                        balance = Math.addExact(balance, balanceSlots.sum(accountNumber, connection));
+                    }
+                    balances.put(accountNumber, Money.ofMinorUnits(balance));
+                }
+            }
+        }
+        return balances;
+    }
+
+    /**
+     * Adds the given amounts to account balances using a single JDBC batch
+     *
+     * @param changes amounts to add ( or subtract, if negative ) by account number
+     */
+    private void applyBalanceChanges(Map<Long, Money> changes, Connection connection) throws SQLException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        final PreparedStatement updateStatement = dbStorage.prepareCached(connection, DEPOSIT);
+        updateStatement.clearBatch();
+
+        for (Map.Entry<Long, Money> change : changes.entrySet()) {
+            updateStatement.setLong(1, change.getValue().getMinorUnits());
+            updateStatement.setLong(2, change.getKey());
+            updateStatement.addBatch();
+        }
+
+        for (int updateCount : updateStatement.executeBatch()) {
+            if (updateCount != 1) {
+                throw new SQLException("Batch balance update failed", updateStatement.getWarnings());
+            }
+        }
+    }
+
+    /**
+     * Prepares the debit side of a transfer spanning several databases: withdraws the amount right away and records
+     * it as prepared, so it is either kept by {@link #commitPrepared} or refunded by {@link #abortPrepared}
+     *
+     * @param transferId the id of the transfer, unique across all databases
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case the account does not exist or its balance is not enough
+     */
+    void prepareDebit(String transferId, Long accountNumber, Money amount) {
+        final long after;
+        try {
+            after = dbStorage.runInTransaction("prepareDebit", connection -> {
+                final long balance = withdrawAmount(accountNumber, amount, "'from' Account not found!",
+                        "From account balance is not enough for transfer", connection);
+                insertPrepared(transferId, accountNumber, amount.negate(), connection);
+                return balance;
             });
         } catch (SQLException ex) {
             throw ExceptionHelper.convertException(ex);
         }
+        ledgerStats.changed(after + amount.getMinorUnits(), after);
     }
 
-    @Override
-    public Account deposit(final Long accountNumber, final BigDecimal amount) {
-        Assert.notNull(accountNumber, "accountNumber must be set");
-        Assert.notNull(amount, "amount must be set");
-        Assert.isTrue(amount.scale() <= Account.SCALE,
-                "amount scale must NOT greater than " + Account.SCALE);
-        Assert.isTrue(amount.compareTo(BigDecimal.ZERO) > 0, "amount must be positive");
+    /**
+     * Prepares the credit side of a transfer spanning several databases: checks the account exists and records the
+     * amount as prepared. It is deposited by {@link #commitPrepared}
+     *
+     * @param transferId the id of the transfer, unique across all databases
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case the account does not exist
+     */
+    void prepareCredit(String transferId, Long accountNumber, Money amount) {
         try {
-            return dbStorage.runInTransaction( connection -> {
-                final Account account = findAccountByNumber(accountNumber, connection);
-                Assert.notNull(account, "'from' Account not found!");
+            dbStorage.runInTransaction("prepareCredit", connection -> {
+                Assert.notNull(findAccountByNumber(accountNumber, connection), "'to' Account not found");
+                insertPrepared(transferId, accountNumber, amount, connection);
+                return true;
+            });
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+    }
+
+    private void insertPrepared(String transferId, Long accountNumber, Money amount, Connection connection)
+            throws SQLException {
+        final PreparedStatement statement = dbStorage.prepareCached(connection, INSERT_PREPARED);
+        statement.setString(1, transferId);
+        statement.setLong(2, accountNumber);
+        statement.setLong(3, amount.getMinorUnits());
+        statement.executeUpdate();
+    }
+
+    /**
+     * Completes a prepared transfer side: deposits a prepared credit, keeps a prepared debit. Does nothing if the side
+     * has been completed already
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     */
+    void commitPrepared(String transferId, Long accountNumber) {
+        completePrepared("commitPrepared", transferId, accountNumber, true);
+    }
 
-                BigDecimal normalizedAmount = Account.normalizeAmountScale(amount);
+    /**
+     * Cancels a prepared transfer side: refunds a prepared debit, drops a prepared credit. Does nothing if the side has
+     * been completed already
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     */
+    void abortPrepared(String transferId, Long accountNumber) {
+        completePrepared("abortPrepared", transferId, accountNumber, false);
+    }
+
+    private void completePrepared(String actionName, String transferId, Long accountNumber, boolean commit) {
+        // the amount deposited and the balance after it, null if none
+        final long[] deposited;
+        try {
+            deposited = dbStorage.runInTransaction(actionName, connection -> {
+                final PreparedStatement findStatement = dbStorage.prepareCached(connection, FIND_PREPARED_AMOUNT);
+                findStatement.setString(1, transferId);
+                findStatement.setLong(2, accountNumber);
+                final long amount;
+                try (ResultSet rs = findStatement.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    amount = rs.getLong(1);
+                }
 
-                depositAmount(accountNumber, normalizedAmount, connection);
+                final PreparedStatement deleteStatement = dbStorage.prepareCached(connection, DELETE_PREPARED);
+                deleteStatement.setString(1, transferId);
+                deleteStatement.setLong(2, accountNumber);
+                deleteStatement.executeUpdate();
 
-                account.setBalance(account.getBalance().add(normalizedAmount));
+                // a committed credit is deposited, an aborted debit is refunded
+                if (commit ? amount > 0 : amount < 0) {
+                    return new long[] {Math.abs(amount), depositAmount(accountNumber,
+                            Money.ofMinorUnits(Math.abs(amount)), "Account not found", connection)};
+                }
+                return null;
+            });
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+        if (deposited != null) {
+            ledgerStats.changed(deposited[1] - deposited[0], deposited[1]);
+        }
+    }
 
-                return account;
+    /**
+     * @return the transfer sides prepared and not completed yet, e.g. after a crash
+     * @throws RuntimeException in case of DB/SQL error
+     */
+    ArrayList<PreparedTransfer> findPrepared() {
+        try {
+            return dbStorage.runSQLOnPrimary("findPrepared", connection -> {
+                final ArrayList<PreparedTransfer> prepared = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement(FIND_ALL_PREPARED);
+                     ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        prepared.add(new PreparedTransfer(rs.getString(1), rs.getLong(2)));
+                    }
+                }
+                return prepared;
             });
-        } catch (SQLException ex){
+        } catch (SQLException ex) {
             throw ExceptionHelper.convertException(ex);
         }
     }
 
-    private void depositAmount(Long accountNumber, BigDecimal amount, Connection connection) throws SQLException {
-        try ( PreparedStatement updateStatement = connection.prepareStatement(
-                " UPDATE account "
-                        + " SET balance = balance + ? "
-                        + " WHERE accountNumber = ? "
-        ) ) {
-            updateStatement.setBigDecimal(1, amount);
-            updateStatement.setLong(2, accountNumber);
-            if ( updateStatement.executeUpdate() != 1 ) {
-                throw new SQLException("Update 'to' account failed", updateStatement.getWarnings());
-            }
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Kept by the write paths of this instance after their transactions commit, see {@link LedgerStats}. The
+     * counters are built from the account table when first read and checked against it in the background from then
+     * on</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     */
+    @Override
+    public LedgerSummary getLedgerSummary() {
+        return getLedgerStats().summary();
+    }
+
+    /**
+     * @return the ledger counters, built from the account table on the first call
+     */
+    LedgerStats getLedgerStats() {
+        if (ledgerChecker == null) {
+            startLedgerStats();
+        }
+        return ledgerStats;
+    }
+
+    /**
+     * Starts counting writes, reads the account table into the counters and schedules their checks. Engines not
+     * exposing the ledger stats, e.g. the sequencer reading through this one, never scan the table
+     */
+    private synchronized void startLedgerStats() {
+        if (ledgerChecker != null) {
+            return;
+        }
+        ledgerStats.track();
+        final ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "ledger-stats-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::checkLedgerStatsQuietly, ledgerCheckIntervalMillis,
+                ledgerCheckIntervalMillis, TimeUnit.MILLISECONDS);
+        ledgerChecker = checker;
+        // if the table cannot be read now, the difference is corrected by the checks
+        ledgerStats.add(scanLedger().snapshot());
+    }
+
+    private void checkLedgerStatsQuietly() {
+        try {
+            checkLedgerStats();
+        } catch (RuntimeException e) {
+            logger.warn("ledger stats could not be checked against the account table", e);
+        }
+    }
+
+    /**
+     * Checks the ledger counters against the account table right away
+     *
+     * @return true if they match
+     */
+    boolean checkLedgerStats() {
+        return ledgerStats.check(scanLedger());
+    }
+
+    /**
+     * Reads the balances of all accounts from the primary database into new {@link LedgerStats}
+     */
+    private LedgerStats scanLedger() {
+        final LedgerStats scanned = new LedgerStats();
+        try {
+            dbStorage.runSQLOnPrimary("scanLedger", connection -> exportAll(
+                    account -> scanned.counted(account.getBalance().getMinorUnits()), connection));
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+        return scanned;
+    }
+
+    /**
+     * Splits the balance of a hot account, e.g. a merchant collection account, across several slot rows, so
+     * concurrent deposits to it do not queue for a single row lock. The account balance stays the sum of its slots.
+     * If the account does not exist yet, its slots are added once it is created.
+     *
+     * @param accountNumber the account number
+     * @param slots number of slots, 0 to keep the whole balance in the account row again
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNumber is null or slots is out of range
+     */
+    public void setSlots(Long accountNumber, int slots) {
+        Assert.notNull(accountNumber, "accountNumber must be set");
+        Assert.isTrue(slots >= 0 && slots <= BalanceSlots.MAX_SLOTS,
+                "slots must be between 0 and " + BalanceSlots.MAX_SLOTS);
+        try {
+            dbStorage.runInTransaction("setSlots",
+                    connection -> balanceSlots.setSlots(accountNumber, slots, connection));
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
         }
+        balanceSlots.slotsChanged(accountNumber, slots);
     }
 
     /**
      * {@inheritDoc}
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNumber is null or account does not exist; or amount is not
+     * positive
      */
     @Override
-    public Account withdraw(Long accountNumber, BigDecimal amount) {
+    public Account deposit(final Long accountNumber, final Money amount) {
         Assert.notNull(accountNumber, "accountNumber must be set");
         Assert.notNull(amount, "amount must be set");
-        Assert.isTrue(amount.scale() <= Account.SCALE,
-                "amount scale must NOT greater than " + Account.SCALE);
-        Assert.isTrue(amount.compareTo(BigDecimal.ZERO) > 0, "amount must be positive");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+        final Account account;
         try {
-            return dbStorage.runInTransaction( connection -> {
-                final Account account = findAccountByNumber(accountNumber, connection);
-                Assert.notNull(account, "'from' Account not found!");
+            account = dbStorage.runInTransaction("deposit", connection -> {
+                depositAmount(accountNumber, amount, "'from' Account not found!", connection);
+
+                return findAccountByNumber(accountNumber, connection);
+            });
+        } catch (SQLException ex){
+            throw ExceptionHelper.convertException(ex);
+        }
+        journalCommitted(Collections.singletonList(JournalEntry.deposit(accountNumber, amount)));
+        final long after = account.getBalance().getMinorUnits();
+        ledgerStats.changed(after - amount.getMinorUnits(), after);
+        return account;
+    }
 
-                BigDecimal normalizedAmount = Account.normalizeAmountScale(amount);
+    /**
+     * Performs the actual deposit - updates the balance in the database. Deposits to a sharded account go to one of
+     * its {@link BalanceSlots}
+     *
+     * @param notFoundMessage the error message in case the account does not exist
+     * @return the account balance after the deposit in minor units, read by the update itself unless sharded
+     * @throws IllegalArgumentException if the account does not exist
+     */
+    private long depositAmount(Long accountNumber, Money amount, String notFoundMessage, Connection connection)
+            throws SQLException {
+        final int slots = balanceSlots.slotsOf(accountNumber);
+        if (slots > 0 && balanceSlots.deposit(accountNumber, slots, amount, connection)) {
+            return balanceOf(accountNumber, connection);
+        }
 
-                Assert.isTrue(account.getBalance().compareTo(normalizedAmount) >= 0,
-                        "account balance is not enough for withdrawal");
+        final PreparedStatement updateStatement = dbStorage.prepareCached(connection, DEPOSIT, UPDATED_BALANCE_COLUMNS);
 
-                withdrawAmount(accountNumber, normalizedAmount, connection);
+        updateStatement.setLong(1, amount.getMinorUnits());
+        updateStatement.setLong(2, accountNumber);
+        final Long balance = balanceUpdated(accountNumber, updateStatement, connection);
+        if ( balance == null ) {
+            throw new IllegalArgumentException(notFoundMessage);
+        }
+        return balance;
+    }
 
-                account.setBalance(account.getBalance().subtract(normalizedAmount));
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNumber is null, account does not exist or its balance is not
+     * enough; or amount is not positive
+     */
+    @Override
+    public Account withdraw(Long accountNumber, Money amount) {
+        Assert.notNull(accountNumber, "accountNumber must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+        final Account account;
+        try {
+            account = dbStorage.runInTransaction("withdraw", connection -> {
+                withdrawAmount(accountNumber, amount, "'from' Account not found!",
+                        "account balance is not enough for withdrawal", connection);
 
-                return account;
+                return findAccountByNumber(accountNumber, connection);
             });
         } catch (SQLException ex){
             throw ExceptionHelper.convertException(ex);
         }
+        journalCommitted(Collections.singletonList(JournalEntry.withdrawal(accountNumber, amount)));
+        final long after = account.getBalance().getMinorUnits();
+        ledgerStats.changed(after + amount.getMinorUnits(), after);
+        return account;
     }
 
     /**
-     * Performs the actual withdrawal - updates the balance in the database
+     * Performs the actual withdrawal - updates the balance in the database using a single guarded
+     * <code>UPDATE</code>, so the balance check and the debit are atomic. Only if no row was updated the account
+     * existence is checked to tell which error to report. Withdrawals from a sharded account draw from its
+     * {@link BalanceSlots}, also if it was sharded by another instance and is only found so by the failed update
      *
-     * @param accountNumber
-     * @param amount
-     * @param connection
-     * @throws SQLException
-     */
-    private void withdrawAmount(Long accountNumber, BigDecimal amount, Connection connection) throws SQLException {
-        try ( PreparedStatement updateStatement = connection.prepareStatement(
-                " UPDATE account "
-                        + " SET balance = balance - ? "
-                        + " WHERE accountNumber = ? "
-        ) ) {
-            updateStatement.setBigDecimal(1, amount);
-            updateStatement.setLong(2, accountNumber);
-            if ( updateStatement.executeUpdate() != 1 ) {
-                throw new SQLException("Update 'from' account failed", updateStatement.getWarnings());
-            }
+     * @param notFoundMessage the error message in case the account does not exist
+     * @param notEnoughMessage the error message in case the account balance is not enough
+     * @return the account balance after the withdrawal in minor units, read by the update itself unless sharded
+     * @throws IllegalArgumentException if the account does not exist or its balance is not enough
+     */
+    private long withdrawAmount(Long accountNumber, Money amount, String notFoundMessage, String notEnoughMessage,
+            Connection connection) throws SQLException {
+        final int slots = balanceSlots.slotsOf(accountNumber);
+        if (slots > 0) {
+            balanceSlots.withdraw(accountNumber, slots, amount, notFoundMessage, notEnoughMessage, connection);
+            return balanceOf(accountNumber, connection);
+        }
+
+        final PreparedStatement updateStatement = dbStorage.prepareCached(connection, WITHDRAW, UPDATED_BALANCE_COLUMNS);
+
+        updateStatement.setLong(1, amount.getMinorUnits());
+        updateStatement.setLong(2, accountNumber);
+        updateStatement.setLong(3, amount.getMinorUnits());
+        final Long balance = balanceUpdated(accountNumber, updateStatement, connection);
+        if ( balance == null ) {
+            final Integer accountSlots = balanceSlots.findSlots(accountNumber, connection);
+            Assert.notNull(accountSlots, notFoundMessage);
+            Assert.isTrue(accountSlots > 0, notEnoughMessage);
+            // sharded by another instance, the account row alone does not hold the balance
+            balanceSlots.withdraw(accountNumber, accountSlots, amount, notFoundMessage, notEnoughMessage, connection);
+            return balanceOf(accountNumber, connection);
         }
+        return balance;
     }
 
 }
@@ -0,0 +1,718 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.journal.JournalEntry;
+import org.vilutis.lt.revolut.backend.metrics.HistogramFamily;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import org.vilutis.lt.revolut.backend.metrics.ValueHistogram;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+import org.vilutis.lt.revolut.backend.storage.ExceptionHelper;
+import spark.utils.Assert;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * {@inheritDoc}
+ *
+ * Single writer implementation on top of a JDBC Datastore. Money movements are queued as commands to a bounded ring
+ * buffer and applied by a single sequencer thread: it validates a whole batch of commands in order against balances
+ * kept in memory and writes the net balance changes of the batch in one transaction. Callers wait until the batch of
+ * their command has committed. Row locks are never contended, so throughput depends on the number of commands per
+ * commit rather than on the number of concurrent callers.
+ *
+ * <p>A batch is closed once it holds {@code maxBatchSize} commands, or once {@code maxWaitMicros} have passed since
+ * its first command was taken. A full queue blocks callers until the sequencer catches up.</p>
+ *
+ * <p>Reads and account creation go straight to the database. Balances cached by the sequencer are only valid as long
+ * as it is the only writer of the <code>account</code> table, so this engine must not be combined with other
+ * {@link AccountDao} writers of the same database.</p>
+ */
+public class AccountDaoSequencedImpl implements AccountDao, AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 512;
+
+    /**
+     * By default a batch is not held open: commands queued during the previous commit are batched anyway
+     */
+    public static final long DEFAULT_MAX_WAIT_MICROS = 0L;
+
+    public static final int DEFAULT_MAX_CACHED_ACCOUNTS = 100_000;
+
+    private static final String LOAD_ACCOUNT =
+            " SELECT accountNumber, accountName, " + BalanceSlots.BALANCE_COLUMN
+                    + " FROM account "
+                    + " WHERE accountNumber = ? ";
+
+    private static final String ADD_BALANCE =
+            " UPDATE account "
+                    + " SET balance = balance + ? "
+                    + " WHERE accountNumber = ? ";
+
+    private static final String RENAME =
+            " UPDATE account "
+                    + " SET accountName = ? "
+                    + " WHERE accountNumber = ? ";
+
+    /**
+     * Queued to stop the sequencer thread
+     */
+    private static final Command CLOSE = new Command(null, null, null, null, null, null);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final DBStorage dbStorage;
+
+    private final AccountDaoJdbcImpl reader;
+
+    private final int maxBatchSize;
+
+    private final long maxWaitNanos;
+
+    private final BlockingQueue<Command> queue;
+
+    private final ValueHistogram batchSizes;
+
+    private final HistogramFamily commandLatency;
+
+    private final Thread sequencer;
+
+    private volatile boolean closed;
+
+    // state below is only accessed by the sequencer thread
+
+    /**
+     * Committed accounts by account number, least recently used first
+     */
+    private final LinkedHashMap<Long, Account> committed;
+
+    enum CommandType {
+        TRANSFER, TRANSFERS, DEPOSIT, WITHDRAW, UPDATE
+    }
+
+    /**
+     * A queued money movement, completed with its result once the batch it belongs to has committed
+     */
+    private static class Command {
+        private final CommandType type;
+        private final Long fromAcct;
+        private final Long toAcct;
+        private final Money amount;
+        private final List<Transfer> transfers;
+        private final Account account;
+        private final long enqueuedNanos = System.nanoTime();
+        private final CompletableFuture<Object> done = new CompletableFuture<>();
+        /**
+         * Replication position of the batch transaction, set before done is completed
+         */
+        private long position;
+
+        private Command(CommandType type, Long fromAcct, Long toAcct, Money amount, List<Transfer> transfers,
+                Account account) {
+            this.type = type;
+            this.fromAcct = fromAcct;
+            this.toAcct = toAcct;
+            this.amount = amount;
+            this.transfers = transfers;
+            this.account = account;
+        }
+    }
+
+    /**
+     * Balance changes of a batch, reset whenever the batch transaction is run again
+     */
+    private static class BatchState {
+        private final Map<Long, Account> working = new HashMap<>();
+        private final Map<Long, Money> changes = new TreeMap<>();
+        private final Map<Long, String> renames = new TreeMap<>();
+        private final List<JournalEntry> journalEntries = new ArrayList<>();
+        private Object[] results;
+
+        private void reset(int batchSize) {
+            working.clear();
+            changes.clear();
+            renames.clear();
+            journalEntries.clear();
+            results = new Object[batchSize];
+        }
+    }
+
+    public AccountDaoSequencedImpl(DBStorage dbStorage) {
+        this(dbStorage, Journal.NONE, new MetricsRegistry(), DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH_SIZE,
+                DEFAULT_MAX_WAIT_MICROS);
+    }
+
+    /**
+     * Starts the sequencer thread
+     *
+     * @param dbStorage the JDBC Datastore
+     * @param journal the audit log to record money movements in
+     * @param metrics the registry to record the queue depth, batch sizes and command latencies in
+     * @param queueCapacity maximum number of queued commands before callers block
+     * @param maxBatchSize maximum number of commands applied in one transaction
+     * @param maxWaitMicros maximum time to wait for more commands before applying a batch
+     */
+    public AccountDaoSequencedImpl(DBStorage dbStorage, Journal journal, MetricsRegistry metrics, int queueCapacity,
+            int maxBatchSize, long maxWaitMicros) {
+        Assert.notNull(dbStorage, "dbStorage must be set");
+        Assert.notNull(journal, "journal must be set");
+        Assert.notNull(metrics, "metrics must be set");
+        Assert.isTrue(queueCapacity > 0, "queueCapacity must be more than zero");
+        Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be more than zero");
+        Assert.isTrue(maxWaitMicros >= 0, "maxWaitMicros must not be negative");
+        this.dbStorage = dbStorage;
+        this.reader = new AccountDaoJdbcImpl(dbStorage, journal);
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.committed = new LinkedHashMap<Long, Account>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Account> eldest) {
+                return size() > DEFAULT_MAX_CACHED_ACCOUNTS;
+            }
+        };
+
+        metrics.gauge("sequencer_queue_depth", "Commands waiting for the sequencer", queue::size);
+        this.batchSizes = metrics.distribution("sequencer_batch_size", "Commands applied per transaction",
+                maxBatchSize + 1L);
+        this.commandLatency = metrics.histograms("sequencer_command_duration_seconds",
+                "Time from queueing a command until its batch has committed", "command");
+
+        this.sequencer = new Thread(this::sequenceLoop, "account-sequencer");
+        this.sequencer.setDaemon(true);
+        this.sequencer.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case pageNum or pageSize params are invalid ( negative, or zero page size )
+     */
+    @Override
+    public ArrayList<Account> findAll(int pageNum, int pageSize) {
+        return reader.findAll(pageNum, pageSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case pageSize param is invalid ( negative or zero )
+     */
+    @Override
+    public ArrayList<Account> findAllAfter(Long afterAccountNumber, int pageSize) {
+        return reader.findAllAfter(afterAccountNumber, pageSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case consumer param is null
+     */
+    @Override
+    public long exportAll(Consumer<Account> consumer) {
+        return reader.exportAll(consumer);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNumber param is null
+     */
+    @Override
+    public Account findByAccountNumber(Long accountNumber) {
+        return reader.findByAccountNumber(accountNumber);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case account name is empty
+     */
+    @Override
+    public Account create(String accountName) {
+        return reader.create(accountName);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNames or consumer param is null, or an account name is empty
+     */
+    @Override
+    public long createAll(Iterator<String> accountNames, Consumer<Account> consumer) {
+        return reader.createAll(accountNames, consumer);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error or if the account does not exist
+     * @throws IllegalArgumentException in case account obj is null
+     */
+    @Override
+    public Account update(Account account) {
+        Assert.notNull(account, "account must not be null");
+        Assert.notNull(account.getAccountNumber(), "accountNumber must be set");
+        final Account copy = Account.from(account.getAccountNumber(), account.getAccountName(), account.getBalance());
+        await(enqueue(new Command(CommandType.UPDATE, null, null, null, null, copy)));
+        return account;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in fromAcctNum or toAcctNum is null; or amount is not positive
+     */
+    @Override
+    public void transferBalance(Long fromAcctNum, Long toAcctNum, Money amount) {
+        assertTransfer(fromAcctNum, toAcctNum, amount);
+        await(enqueue(new Command(CommandType.TRANSFER, fromAcctNum, toAcctNum, amount, null, null)));
+    }
+
+    private static void assertTransfer(Long fromAcctNum, Long toAcctNum, Money amount) {
+        Assert.notNull(fromAcctNum, "fromAcctNum must be set");
+        Assert.notNull(toAcctNum, "toAcctNum must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(!fromAcctNum.equals(toAcctNum), "FROM and TO accounts cannot be the same");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>All transfers are applied in the same transaction</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case transfers param is null
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public ArrayList<TransferResult> transferBalances(List<Transfer> transfers) {
+        Assert.notNull(transfers, "transfers must be set");
+        if (transfers.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return (ArrayList<TransferResult>) await(enqueue(
+                new Command(CommandType.TRANSFERS, null, null, null, new ArrayList<>(transfers), null)));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNumber is null or account does not exist; or amount is not
+     * positive
+     */
+    @Override
+    public Account deposit(Long accountNumber, Money amount) {
+        Assert.notNull(accountNumber, "accountNumber must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+        return (Account) await(enqueue(new Command(CommandType.DEPOSIT, null, accountNumber, amount, null, null)));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNumber is null, account does not exist or its balance is not
+     * enough; or amount is not positive
+     */
+    @Override
+    public Account withdraw(Long accountNumber, Money amount) {
+        Assert.notNull(accountNumber, "accountNumber must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+        return (Account) await(enqueue(new Command(CommandType.WITHDRAW, accountNumber, null, amount, null, null)));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Not kept: balances are written by the sequencer in batches, not by the {@link AccountDaoJdbcImpl} write paths
+     * keeping it</p>
+     *
+     * @return <code>null</code>
+     */
+    @Override
+    public LedgerSummary getLedgerSummary() {
+        return null;
+    }
+
+    /**
+     * @return number of commands waiting for the sequencer
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting commands, applies the queued ones and stops the sequencer thread
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(CLOSE);
+                sequencer.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        failPending(new IllegalStateException("account sequencer is closed"));
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Command enqueue(Command command) {
+        if (closed) {
+            throw new IllegalStateException("account sequencer is closed");
+        }
+        try {
+            queue.put(command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the account sequencer", e);
+        }
+        if (closed && !sequencer.isAlive()) {
+            // lost the race with close() - nobody is going to apply it
+            failPending(new IllegalStateException("account sequencer is closed"));
+        }
+        return command;
+    }
+
+    /**
+     * Waits for the command to be applied. The session position of the caller is moved to the batch transaction, so
+     * the caller reads its own write from the replicas
+     */
+    private Object await(Command command) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return command.done.get();
+                } catch (InterruptedException e) {
+                    // the command may be applied already, so the caller must not give up on it
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            dbStorage.advanceSession(command.position);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void failPending(RuntimeException cause) {
+        Command command;
+        while ((command = queue.poll()) != null) {
+            command.done.completeExceptionally(cause);
+        }
+    }
+
+    private void sequenceLoop() {
+        final List<Command> batch = new ArrayList<>();
+        final BatchState state = new BatchState();
+        boolean running = true;
+        while (running) {
+            try {
+                final Command first = queue.take();
+                if (first == CLOSE) {
+                    break;
+                }
+                batch.add(first);
+                running = fillBatch(batch);
+                applyBatch(batch, state);
+            } catch (InterruptedException e) {
+                fail(batch, new IllegalStateException("account sequencer interrupted"));
+                running = false;
+            } catch (RuntimeException e) {
+                // keep the sequencer running, the next batch starts from the committed database state
+                logger.error("failed to apply account batch: " + e.getMessage(), e);
+                committed.clear();
+                fail(batch, e);
+            }
+            batch.clear();
+        }
+    }
+
+    private static void fail(List<Command> batch, RuntimeException cause) {
+        for (Command command : batch) {
+            command.done.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Takes further queued commands into the batch until it is full or {@link #maxWaitNanos} passed
+     *
+     * @return false if the sequencer is being closed
+     */
+    private boolean fillBatch(List<Command> batch) throws InterruptedException {
+        final long deadline = System.nanoTime() + maxWaitNanos;
+        while (batch.size() < maxBatchSize) {
+            Command next = queue.poll();
+            if (next == null) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || (next = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                    return true;
+                }
+            }
+            if (next == CLOSE) {
+                return false;
+            }
+            batch.add(next);
+        }
+        return true;
+    }
+
+    /**
+     * Validates and applies the commands of a batch in one transaction, journals its money movements once committed,
+     * then completes them. Commands rejected by validation do not fail the rest of the batch
+     */
+    private void applyBatch(List<Command> batch, BatchState state) {
+        try {
+            dbStorage.runInTransaction("sequencerBatch", connection -> {
+                state.reset(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    state.results[i] = execute(batch.get(i), state, connection);
+                }
+                writeChanges(state, connection);
+                return true;
+            });
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+        reader.journalCommitted(state.journalEntries);
+
+        committed.putAll(state.working);
+        batchSizes.recordValue(batch.size());
+        // the sequencer session position is that of the batch transaction it committed last
+        final long position = dbStorage.getSessionPosition();
+        final long now = System.nanoTime();
+        for (int i = 0; i < batch.size(); i++) {
+            final Command command = batch.get(i);
+            command.position = position;
+            final Object result = state.results[i];
+            if (result instanceof RuntimeException) {
+                command.done.completeExceptionally((RuntimeException) result);
+            } else {
+                command.done.complete(result);
+            }
+            commandLatency.recordNanos(command.type.name(), now - command.enqueuedNanos);
+        }
+    }
+
+    /**
+     * Validates a command against the balances changed by the preceding commands of the batch
+     *
+     * @return the command result, or the {@link RuntimeException} to fail the command with
+     */
+    private Object execute(Command command, BatchState state, Connection connection) throws SQLException {
+        try {
+            switch (command.type) {
+                case TRANSFER:
+                    transfer(command.fromAcct, command.toAcct, command.amount, state, connection);
+                    return null;
+                case TRANSFERS:
+                    return transfers(command.transfers, state, connection);
+                case DEPOSIT:
+                    return deposit(command.toAcct, command.amount, state, connection);
+                case WITHDRAW:
+                    return withdraw(command.fromAcct, command.amount, state, connection);
+                case UPDATE:
+                    return update(command.account, state, connection);
+                default:
+                    throw new IllegalStateException("unknown command " + command.type);
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            return e;
+        }
+    }
+
+    private void transfer(Long fromAcctNum, Long toAcctNum, Money amount, BatchState state, Connection connection)
+            throws SQLException {
+        final Account fromAcct = accountOf(fromAcctNum, state, connection);
+        Assert.notNull(fromAcct, "'from' Account not found!");
+        Assert.isTrue(fromAcct.getBalance().isGreaterThanOrEqualTo(amount),
+                "From account balance is not enough for transfer");
+
+        final Account toAcct = accountOf(toAcctNum, state, connection);
+        Assert.notNull(toAcct, "'to' Account not found");
+
+        final Money toBalance = toAcct.getBalance().plus(amount);
+        addBalance(fromAcct, amount.negate(), fromAcct.getBalance().minus(amount), state);
+        addBalance(toAcct, amount, toBalance, state);
+        state.journalEntries.add(JournalEntry.transfer(fromAcctNum, toAcctNum, amount));
+    }
+
+    /**
+     * Applies every transfer the batch state allows. A rejected transfer, e.g. one overflowing the balance of its
+     * 'to' account, leaves the batch state as it was, so the transfers applied before it are still committed
+     */
+    private ArrayList<TransferResult> transfers(List<Transfer> transfers, BatchState state, Connection connection)
+            throws SQLException {
+        final ArrayList<TransferResult> results = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            try {
+                Assert.notNull(transfer, "transfer must be set");
+                assertTransfer(transfer.getFromAcct(), transfer.getToAcct(), transfer.getAmount());
+                transfer(transfer.getFromAcct(), transfer.getToAcct(), transfer.getAmount(), state, connection);
+                results.add(TransferResult.applied());
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                results.add(TransferResult.rejected(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    private Account deposit(Long accountNumber, Money amount, BatchState state, Connection connection)
+            throws SQLException {
+        final Account account = accountOf(accountNumber, state, connection);
+        Assert.notNull(account, "'from' Account not found!");
+
+        final Account updated = addBalance(account, amount, account.getBalance().plus(amount), state);
+        state.journalEntries.add(JournalEntry.deposit(accountNumber, amount));
+        return copyOf(updated);
+    }
+
+    private Account withdraw(Long accountNumber, Money amount, BatchState state, Connection connection)
+            throws SQLException {
+        final Account account = accountOf(accountNumber, state, connection);
+        Assert.notNull(account, "'from' Account not found!");
+        Assert.isTrue(account.getBalance().isGreaterThanOrEqualTo(amount),
+                "account balance is not enough for withdrawal");
+
+        final Account updated = addBalance(account, amount.negate(), account.getBalance().minus(amount), state);
+        state.journalEntries.add(JournalEntry.withdrawal(accountNumber, amount));
+        return copyOf(updated);
+    }
+
+    private Object update(Account account, BatchState state, Connection connection) throws SQLException {
+        final Account current = accountOf(account.getAccountNumber(), state, connection);
+        if (current == null) {
+            return new RuntimeException("Update account failed, no rows affected.");
+        }
+        final Money balance = account.getBalance() != null ? account.getBalance() : Money.ZERO;
+        final Account updated = addBalance(current, balance.minus(current.getBalance()), balance, state);
+        updated.setAccountName(account.getAccountName());
+        state.renames.put(account.getAccountNumber(), account.getAccountName());
+        return null;
+    }
+
+    /**
+     * Records a balance change of the batch
+     *
+     * @return the account with the new balance, only visible to the batch until it commits
+     */
+    private static Account addBalance(Account account, Money change, Money balance, BatchState state) {
+        // merged first, an overflowing change leaves the state as it was
+        state.changes.merge(account.getAccountNumber(), change, Money::plus);
+        final Account updated = Account.from(account.getAccountNumber(), account.getAccountName(), balance);
+        state.working.put(account.getAccountNumber(), updated);
+        return updated;
+    }
+
+    /**
+     * @return the account as changed by the batch so far, <code>null</code> if it does not exist
+     */
+    private Account accountOf(Long accountNumber, BatchState state, Connection connection) throws SQLException {
+        Account account = state.working.get(accountNumber);
+        if (account == null) {
+            account = committed.get(accountNumber);
+        }
+        if (account == null) {
+            account = load(accountNumber, connection);
+            if (account != null) {
+                committed.put(accountNumber, account);
+            }
+        }
+        return account;
+    }
+
+    private Account load(Long accountNumber, Connection connection) throws SQLException {
+        final PreparedStatement statement = dbStorage.prepareCached(connection, LOAD_ACCOUNT);
+        statement.setLong(1, accountNumber);
+        try (ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? Account.from(rs.getLong("accountNumber"), rs.getString("accountName"),
+                    Money.ofMinorUnits(rs.getLong("balance"))) : null;
+        }
+    }
+
+    /**
+     * Writes the net balance change of every account and the renamed accounts of the batch using JDBC batches, in
+     * ascending account number order
+     */
+    private void writeChanges(BatchState state, Connection connection) throws SQLException {
+        if (!state.changes.isEmpty()) {
+            final PreparedStatement statement = dbStorage.prepareCached(connection, ADD_BALANCE);
+            statement.clearBatch();
+            for (Map.Entry<Long, Money> change : state.changes.entrySet()) {
+                statement.setLong(1, change.getValue().getMinorUnits());
+                statement.setLong(2, change.getKey());
+                statement.addBatch();
+            }
+            checkUpdated(statement.executeBatch(), statement);
+        }
+        if (!state.renames.isEmpty()) {
+            final PreparedStatement statement = dbStorage.prepareCached(connection, RENAME);
+            statement.clearBatch();
+            for (Map.Entry<Long, String> rename : state.renames.entrySet()) {
+                statement.setString(1, rename.getValue());
+                statement.setLong(2, rename.getKey());
+                statement.addBatch();
+            }
+            checkUpdated(statement.executeBatch(), statement);
+        }
+    }
+
+    private static void checkUpdated(int[] updateCounts, PreparedStatement statement) throws SQLException {
+        for (int updateCount : updateCounts) {
+            if (updateCount != 1) {
+                throw new SQLException("Batch balance update failed", statement.getWarnings());
+            }
+        }
+    }
+
+    private static Account copyOf(Account account) {
+        return Account.from(account.getAccountNumber(), account.getAccountName(), account.getBalance());
+    }
+}
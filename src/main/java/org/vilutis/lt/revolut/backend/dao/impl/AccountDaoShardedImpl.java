@@ -0,0 +1,682 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.journal.JournalEntry;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+import org.vilutis.lt.revolut.backend.storage.ExceptionHelper;
+import spark.utils.Assert;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * {@inheritDoc}
+ *
+ * Implementation spreading accounts across several JDBC Datastores ( shards ) by Account Number. Every shard is
+ * served by its own {@link AccountDaoJdbcImpl}; operations on accounts of a single shard run there in a single local
+ * transaction.
+ *
+ * <p>Accounts are placed on a consistent hash ring of {@link #VIRTUAL_NODES} points per shard, so numbers handed out
+ * in ascending order are spread evenly. Account numbers are allocated from the <code>account_number_seq</code> of the
+ * first shard, so they are unique across all shards.</p>
+ *
+ * <p>A transfer between accounts of different shards is a two-phase commit coordinated by the first shard: both sides
+ * are prepared in <code>transfer_prepared</code> on their shards ( the debit is withdrawn right away ), then the commit
+ * decision is recorded in <code>transfer_decision</code> on the first shard, and only then both sides are completed.
+ * Sides which fail to complete once the decision is recorded are completed again in the background, every
+ * {@link #DEFAULT_COMPLETE_RETRY_MILLIS}. Sides left prepared by a crash are completed on startup: committed if the
+ * decision was recorded, aborted otherwise</p>
+ */
+public class AccountDaoShardedImpl implements AccountDao, AutoCloseable {
+
+    /**
+     * Points per shard on the consistent hash ring
+     */
+    static final int VIRTUAL_NODES = 128;
+
+    /**
+     * Number of accounts read from every shard at once by {@link #exportAll(Consumer)}
+     */
+    private static final int EXPORT_PAGE_SIZE = 1000;
+
+    /**
+     * How long to wait before completing the sides of a committed transfer again, after they failed to complete
+     */
+    public static final long DEFAULT_COMPLETE_RETRY_MILLIS = 1000L;
+
+    private static final String INSERT_DECISION = " INSERT INTO transfer_decision ( transferId ) VALUES ( ? ) ";
+
+    private static final String FIND_DECISION = " SELECT transferId FROM transfer_decision WHERE transferId = ? ";
+
+    private static final String FIND_ALL_DECISIONS = " SELECT transferId FROM transfer_decision ";
+
+    private static final String DELETE_DECISION = " DELETE FROM transfer_decision WHERE transferId = ? ";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final List<DBStorage> shards;
+
+    private final List<AccountDaoJdbcImpl> shardDaos = new ArrayList<>();
+
+    /**
+     * Consistent hash ring: shard index by point
+     */
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+
+    private final AccountNumberBlocks accountNumbers = new AccountNumberBlocks();
+
+    /**
+     * Queries all shards at once
+     */
+    private final ExecutorService scatter;
+
+    /**
+     * Completes the sides of committed transfers which failed to complete
+     */
+    private final ScheduledExecutorService completer;
+
+    private final long completeRetryMillis;
+
+    /**
+     * @param shards the JDBC Datastores to spread accounts across, the first one coordinates cross-shard transfers.
+     *               The list must not change while accounts exist, as it defines which shard owns an account
+     * @param journal the audit log to record money movements in
+     */
+    public AccountDaoShardedImpl(List<DBStorage> shards, Journal journal) {
+        this(shards, journal, DEFAULT_COMPLETE_RETRY_MILLIS);
+    }
+
+    /**
+     * @param completeRetryMillis how long to wait before completing the sides of a committed transfer again, after
+     *                            they failed to complete
+     */
+    AccountDaoShardedImpl(List<DBStorage> shards, Journal journal, long completeRetryMillis) {
+        Assert.isTrue(shards != null && !shards.isEmpty(), "at least one shard must be set");
+        Assert.notNull(journal, "journal must be set");
+        this.shards = new ArrayList<>(shards);
+        this.completeRetryMillis = completeRetryMillis;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            shardDaos.add(new AccountDaoJdbcImpl(shards.get(shard), journal));
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                // seeded by the shard, so points never line up with the hashes of small account numbers
+                ring.put(mix(mix(shard) + node), shard);
+            }
+        }
+        this.scatter = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            final Thread thread = new Thread(runnable, "account-shard-scatter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.completer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "account-shard-completer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        recover();
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads sequential keys evenly over the ring
+     */
+    private static long mix(long key) {
+        long z = key + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return the index of the shard owning the given account
+     */
+    int shardOf(long accountNumber) {
+        final Map.Entry<Long, Integer> point = ring.ceilingEntry(mix(accountNumber));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    private AccountDaoJdbcImpl daoOf(Long accountNumber) {
+        return shardDaos.get(shardOf(accountNumber));
+    }
+
+    /**
+     * Completes transfer sides left prepared, e.g. by a crash: sides of transfers with a recorded commit decision are
+     * committed, the others are aborted. Decisions without prepared sides left are deleted
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     */
+    void recover() {
+        int committed = 0;
+        int aborted = 0;
+        for (AccountDaoJdbcImpl shardDao : shardDaos) {
+            for (PreparedTransfer prepared : shardDao.findPrepared()) {
+                if (isDecided(prepared.transferId)) {
+                    shardDao.commitPrepared(prepared.transferId, prepared.accountNumber);
+                    committed++;
+                } else {
+                    shardDao.abortPrepared(prepared.transferId, prepared.accountNumber);
+                    aborted++;
+                }
+            }
+        }
+        for (String transferId : findDecisions()) {
+            forgetDecision(transferId);
+        }
+        if (committed + aborted > 0) {
+            logger.warn("Recovered prepared transfer sides: {} committed, {} aborted", committed, aborted);
+        }
+    }
+
+    private boolean isDecided(String transferId) {
+        try {
+            return shards.get(0).runSQLOnPrimary("findDecision", connection -> {
+                final PreparedStatement statement = shards.get(0).prepareCached(connection, FIND_DECISION);
+                statement.setString(1, transferId);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return rs.next();
+                }
+            });
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+    }
+
+    private ArrayList<String> findDecisions() {
+        try {
+            return shards.get(0).runSQLOnPrimary("findDecisions", connection -> {
+                final ArrayList<String> transferIds = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement(FIND_ALL_DECISIONS);
+                     ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        transferIds.add(rs.getString(1));
+                    }
+                }
+                return transferIds;
+            });
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+    }
+
+    private void forgetDecision(String transferId) {
+        try {
+            shards.get(0).runInTransaction("forgetDecision", connection -> {
+                final PreparedStatement statement = shards.get(0).prepareCached(connection, DELETE_DECISION);
+                statement.setString(1, transferId);
+                return statement.executeUpdate();
+            });
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Every shard is asked for its first <code>( pageNum + 1 ) * pageSize</code> accounts at once, the requested
+     * page is taken from their merge</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case pageNum or pageSize params are invalid ( negative, or zero page size )
+     */
+    @Override
+    public ArrayList<Account> findAll(int pageNum, int pageSize) {
+        Assert.isTrue(pageNum >= 0,  "pageNum must be positive");
+        Assert.isTrue(pageSize > 0,  "pageSize must be more than zero");
+        final int limit = Math.multiplyExact(pageNum + 1, pageSize);
+        final ArrayList<Account> merged = merge(gather(shardDao -> shardDao.findAll(0, limit)), limit);
+        final ArrayList<Account> result = new ArrayList<>();
+        for (int i = pageNum * pageSize; i < merged.size(); i++) {
+            result.add(merged.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Every shard is asked for a page after the given Account Number at once, the first pageSize accounts of
+     * their merge are returned</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case pageSize param is invalid ( negative or zero )
+     */
+    @Override
+    public ArrayList<Account> findAllAfter(Long afterAccountNumber, int pageSize) {
+        Assert.isTrue(pageSize > 0,  "pageSize must be more than zero");
+        return merge(gather(shardDao -> shardDao.findAllAfter(afterAccountNumber, pageSize)), pageSize);
+    }
+
+    /**
+     * Runs the query on every shard at once
+     *
+     * @return the results by shard index
+     */
+    private List<ArrayList<Account>> gather(Function<AccountDaoJdbcImpl, ArrayList<Account>> query) {
+        final List<Future<ArrayList<Account>>> futures = new ArrayList<>();
+        for (AccountDaoJdbcImpl shardDao : shardDaos) {
+            futures.add(scatter.submit(() -> query.apply(shardDao)));
+        }
+        final List<ArrayList<Account>> results = new ArrayList<>();
+        try {
+            for (Future<ArrayList<Account>> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while querying shards", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * @param pages pages of accounts ordered by Account Number
+     * @param limit maximum number of accounts to return
+     * @return the first limit accounts of all pages, ordered by Account Number
+     */
+    private static ArrayList<Account> merge(List<ArrayList<Account>> pages, int limit) {
+        final ArrayList<Account> result = new ArrayList<>();
+        pages.forEach(result::addAll);
+        result.sort(Comparator.comparing(Account::getAccountNumber));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Shards are read page by page using keyset pagination and merged one account at a time, so at most a page
+     * per shard is kept in memory</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case consumer param is null
+     */
+    @Override
+    public long exportAll(Consumer<Account> consumer) {
+        Assert.notNull(consumer, "consumer must be set");
+        final PriorityQueue<ShardCursor> cursors =
+                new PriorityQueue<>(Comparator.comparing(cursor -> cursor.current().getAccountNumber()));
+        for (AccountDaoJdbcImpl shardDao : shardDaos) {
+            final ShardCursor cursor = new ShardCursor(shardDao);
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        long count = 0;
+        while (!cursors.isEmpty()) {
+            final ShardCursor cursor = cursors.poll();
+            consumer.accept(cursor.current());
+            count++;
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the accounts of a shard in Account Number order, a page at a time
+     */
+    private static final class ShardCursor {
+
+        private final AccountDaoJdbcImpl shardDao;
+
+        private List<Account> page = new ArrayList<>();
+
+        private int index = -1;
+
+        ShardCursor(AccountDaoJdbcImpl shardDao) {
+            this.shardDao = shardDao;
+        }
+
+        Account current() {
+            return page.get(index);
+        }
+
+        /**
+         * @return false if the shard has no more accounts
+         */
+        boolean advance() {
+            if (index + 1 < page.size()) {
+                index++;
+                return true;
+            }
+            if (index >= 0 && page.size() < EXPORT_PAGE_SIZE) {
+                return false;
+            }
+            page = shardDao.findAllAfter(index >= 0 ? current().getAccountNumber() : null, EXPORT_PAGE_SIZE);
+            index = 0;
+            return !page.isEmpty();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNumber param is null
+     */
+    @Override
+    public Account findByAccountNumber(Long accountNumber) {
+        Assert.notNull(accountNumber, "accountNumber must be not null");
+        return daoOf(accountNumber).findByAccountNumber(accountNumber);
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case account name is empty
+     */
+    @Override
+    public Account create(String accountName) {
+        Assert.hasLength(accountName, "account name must not be empty");
+        final long accountNumber;
+        try {
+            accountNumber = shards.get(0).runSQLOnPrimary("nextAccountNumber", accountNumbers::next);
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+        return daoOf(accountNumber).create(accountNumber, accountName);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The accounts of a chunk are grouped by shard, every shard stores its group in a single transaction</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNames or consumer param is null, or an account name is empty
+     */
+    @Override
+    public long createAll(Iterator<String> accountNames, Consumer<Account> consumer) {
+        Assert.notNull(accountNames, "accountNames must be set");
+        Assert.notNull(consumer, "consumer must be set");
+        final List<String> chunk = new ArrayList<>(AccountDaoJdbcImpl.CREATE_CHUNK_SIZE);
+        long count = 0;
+        while (accountNames.hasNext()) {
+            chunk.clear();
+            while (chunk.size() < AccountDaoJdbcImpl.CREATE_CHUNK_SIZE && accountNames.hasNext()) {
+                final String accountName = accountNames.next();
+                Assert.hasLength(accountName, "account name must not be empty");
+                chunk.add(accountName);
+            }
+            final long[] numbers;
+            try {
+                numbers = shards.get(0).runSQLOnPrimary("nextAccountNumbers",
+                        connection -> accountNumbers.next(chunk.size(), connection));
+            } catch (SQLException ex) {
+                throw ExceptionHelper.convertException(ex);
+            }
+
+            final Account[] created = new Account[chunk.size()];
+            for (int shard = 0; shard < shardDaos.size(); shard++) {
+                final List<Integer> indexes = new ArrayList<>();
+                for (int i = 0; i < numbers.length; i++) {
+                    if (shardOf(numbers[i]) == shard) {
+                        indexes.add(i);
+                    }
+                }
+                if (indexes.isEmpty()) {
+                    continue;
+                }
+                final long[] shardNumbers = new long[indexes.size()];
+                final List<String> shardNames = new ArrayList<>(indexes.size());
+                for (int i = 0; i < indexes.size(); i++) {
+                    shardNumbers[i] = numbers[indexes.get(i)];
+                    shardNames.add(chunk.get(indexes.get(i)));
+                }
+                final ArrayList<Account> shardAccounts = shardDaos.get(shard).createAll(shardNumbers, shardNames);
+                for (int i = 0; i < indexes.size(); i++) {
+                    created[indexes.get(i)] = shardAccounts.get(i);
+                }
+            }
+            for (Account account : created) {
+                consumer.accept(account);
+            }
+            count += created.length;
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case account obj is null
+     */
+    @Override
+    public Account update(Account account) {
+        Assert.notNull(account, "account must not be null");
+        return daoOf(account.getAccountNumber()).update(account);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Accounts of different shards are transferred between using a two-phase commit, see the class
+     * documentation</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in fromAcctNum or toAcctNum is null; or amount is not positive
+     */
+    @Override
+    public void transferBalance(Long fromAcctNum, Long toAcctNum, Money amount) {
+        Assert.notNull(fromAcctNum, "fromAcctNum must be set");
+        Assert.notNull(toAcctNum, "toAcctNum must be set");
+        Assert.notNull(amount, "amount must be set");
+        Assert.isTrue(!fromAcctNum.equals(toAcctNum), "FROM and TO accounts cannot be the same");
+        Assert.isTrue(amount.isPositive(), "amount must be positive");
+
+        final AccountDaoJdbcImpl fromDao = daoOf(fromAcctNum);
+        final AccountDaoJdbcImpl toDao = daoOf(toAcctNum);
+        if (fromDao == toDao) {
+            fromDao.transferBalance(fromAcctNum, toAcctNum, amount);
+            return;
+        }
+
+        final String transferId = UUID.randomUUID().toString();
+
+        // 1. prepare both sides, aborting the debit if the credit cannot be prepared
+        fromDao.prepareDebit(transferId, fromAcctNum, amount);
+        try {
+            toDao.prepareCredit(transferId, toAcctNum, amount);
+        } catch (RuntimeException e) {
+            fromDao.abortPrepared(transferId, fromAcctNum);
+            throw e;
+        }
+
+        // 2. record the decision - the transfer is committed once this transaction is
+        try {
+            decide(transferId);
+        } catch (RuntimeException e) {
+            // rolled back, so not decided
+            fromDao.abortPrepared(transferId, fromAcctNum);
+            toDao.abortPrepared(transferId, toAcctNum);
+            throw e;
+        }
+        shardDaos.get(0).journalCommitted(
+                Collections.singletonList(JournalEntry.transfer(fromAcctNum, toAcctNum, amount)));
+
+        // 3. complete both sides and forget the decision. The transfer is committed already, so a failure is not
+        // reported to the caller, the sides are completed again in the background
+        try {
+            complete(transferId, fromDao, fromAcctNum, toDao, toAcctNum);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to complete committed transfer {}, retrying in {} ms: {}", transferId,
+                    completeRetryMillis, e.getMessage());
+            completeLater(transferId, fromDao, fromAcctNum, toDao, toAcctNum);
+        }
+    }
+
+    /**
+     * Commits both sides of a decided transfer and forgets the decision. Sides completed already are skipped
+     */
+    private void complete(String transferId, AccountDaoJdbcImpl fromDao, Long fromAcctNum, AccountDaoJdbcImpl toDao,
+            Long toAcctNum) {
+        fromDao.commitPrepared(transferId, fromAcctNum);
+        toDao.commitPrepared(transferId, toAcctNum);
+        forgetDecision(transferId);
+    }
+
+    /**
+     * Completes a decided transfer after {@link #completeRetryMillis}, again and again until it succeeds. Transfers
+     * still not completed once closed are completed by {@link #recover()} on the next startup
+     */
+    private void completeLater(String transferId, AccountDaoJdbcImpl fromDao, Long fromAcctNum,
+            AccountDaoJdbcImpl toDao, Long toAcctNum) {
+        try {
+            completer.schedule(() -> {
+                try {
+                    complete(transferId, fromDao, fromAcctNum, toDao, toAcctNum);
+                    logger.info("Completed committed transfer {}", transferId);
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to complete committed transfer {}, retrying in {} ms: {}", transferId,
+                            completeRetryMillis, e.getMessage());
+                    completeLater(transferId, fromDao, fromAcctNum, toDao, toAcctNum);
+                }
+            }, completeRetryMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Transfer {} is left to complete on the next startup", transferId);
+        }
+    }
+
+    private void decide(String transferId) {
+        try {
+            shards.get(0).runInTransaction("decideTransfer", connection -> {
+                final PreparedStatement statement = shards.get(0).prepareCached(connection, INSERT_DECISION);
+                statement.setString(1, transferId);
+                statement.executeUpdate();
+                return true;
+            });
+        } catch (SQLException ex) {
+            throw ExceptionHelper.convertException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>A batch of accounts of a single shard is applied there in a single transaction. Otherwise transfers are
+     * applied one by one</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case transfers param is null
+     */
+    @Override
+    public ArrayList<TransferResult> transferBalances(List<Transfer> transfers) {
+        Assert.notNull(transfers, "transfers must be set");
+        final Set<Integer> involved = new HashSet<>();
+        for (Transfer transfer : transfers) {
+            if (transfer != null && transfer.getFromAcct() != null) {
+                involved.add(shardOf(transfer.getFromAcct()));
+            }
+            if (transfer != null && transfer.getToAcct() != null) {
+                involved.add(shardOf(transfer.getToAcct()));
+            }
+        }
+        if (involved.size() <= 1) {
+            return shardDaos.get(involved.isEmpty() ? 0 : involved.iterator().next()).transferBalances(transfers);
+        }
+
+        final ArrayList<TransferResult> results = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            try {
+                Assert.notNull(transfer, "transfer must be set");
+                transferBalance(transfer.getFromAcct(), transfer.getToAcct(), transfer.getAmount());
+                results.add(TransferResult.applied());
+            } catch (IllegalArgumentException e) {
+                results.add(TransferResult.rejected(e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNumber is null or account does not exist; or amount is not
+     * positive
+     */
+    @Override
+    public Account deposit(Long accountNumber, Money amount) {
+        Assert.notNull(accountNumber, "accountNumber must be set");
+        return daoOf(accountNumber).deposit(accountNumber, amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     * @throws IllegalArgumentException in case accountNumber is null, account does not exist or its balance is not
+     * enough; or amount is not positive
+     */
+    @Override
+    public Account withdraw(Long accountNumber, Money amount) {
+        Assert.notNull(accountNumber, "accountNumber must be set");
+        return daoOf(accountNumber).withdraw(accountNumber, amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Merges the ledger counters kept by every shard. Debits of cross-shard transfers in progress are not included
+     * in the total balance until they are credited</p>
+     *
+     * @throws RuntimeException in case of DB/SQL error
+     */
+    @Override
+    public LedgerSummary getLedgerSummary() {
+        final List<LedgerStats> stats = new ArrayList<>();
+        for (AccountDaoJdbcImpl shardDao : shardDaos) {
+            stats.add(shardDao.getLedgerStats());
+        }
+        return LedgerStats.summaryOf(stats);
+    }
+
+    /**
+     * @return the {@link AccountDaoJdbcImpl} of the shard owning the given account, e.g. to test a crash half way
+     * through a transfer
+     */
+    AccountDaoJdbcImpl shardDaoOf(long accountNumber) {
+        return daoOf(accountNumber);
+    }
+
+    /**
+     * Stops the threads querying the shards and completing transfers. The shards are not closed
+     */
+    @Override
+    public void close() {
+        scatter.shutdown();
+        completer.shutdownNow();
+    }
+}
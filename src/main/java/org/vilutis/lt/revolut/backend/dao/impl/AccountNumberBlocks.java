@@ -0,0 +1,97 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Hands out account numbers from blocks reserved in the <code>account_number_seq</code> sequence ( hi-lo ), so new
+ * accounts are inserted with their number already known instead of reading back a generated key.
+ *
+ * <p>Every <code>NEXT VALUE</code> of the sequence reserves the next <code>INCREMENT BY</code> numbers for this
+ * instance only, so several instances sharing a database never clash. Numbers of a block not used up before the
+ * instance goes away are skipped, so account numbers are unique and ascending within an instance, but not gap-free</p>
+ */
+class AccountNumberBlocks {
+
+    private static final String FIND_BLOCK_SIZE =
+            " SELECT INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = 'ACCOUNT_NUMBER_SEQ' ";
+
+    private static final String NEXT_BLOCKS =
+            " SELECT NEXT VALUE FOR account_number_seq FROM SYSTEM_RANGE(1, ?) ";
+
+    // guarded by this
+
+    private long blockSize;
+
+    private long next;
+
+    private long limit;
+
+    /**
+     * @return the next free account number, reserving a new block if the current one is used up
+     */
+    synchronized long next(Connection connection) throws SQLException {
+        if (next == limit) {
+            reserve(1, connection);
+        }
+        return next++;
+    }
+
+    /**
+     * @param count how many account numbers to return
+     * @return the next count free account numbers in ascending order, reserving as many blocks as needed in a single
+     * round trip
+     */
+    synchronized long[] next(int count, Connection connection) throws SQLException {
+        final long[] accountNumbers = new long[count];
+        int index = 0;
+        while (index < count && next < limit) {
+            accountNumbers[index++] = next++;
+        }
+        if (index < count) {
+            final long[] blocks = reserve(count - index, connection);
+            for (int block = 0; block < blocks.length; block++) {
+                for (long accountNumber = blocks[block]; accountNumber < blocks[block] + blockSize && index < count;
+                        accountNumber++) {
+                    accountNumbers[index++] = accountNumber;
+                }
+            }
+            // the rest of the last block is left for the next accounts
+            next = accountNumbers[count - 1] + 1;
+            limit = blocks[blocks.length - 1] + blockSize;
+        }
+        return accountNumbers;
+    }
+
+    /**
+     * Reserves enough blocks for the given count of numbers and makes the last of them the current block
+     *
+     * @return the first numbers of the reserved blocks
+     */
+    private long[] reserve(int count, Connection connection) throws SQLException {
+        if (blockSize == 0) {
+            try (PreparedStatement statement = connection.prepareStatement(FIND_BLOCK_SIZE);
+                 ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("sequence account_number_seq not found");
+                }
+                blockSize = rs.getLong(1);
+            }
+        }
+
+        final long[] blocks = new long[(int) ((count + blockSize - 1) / blockSize)];
+        try (PreparedStatement statement = connection.prepareStatement(NEXT_BLOCKS)) {
+            statement.setInt(1, blocks.length);
+            try (ResultSet rs = statement.executeQuery()) {
+                for (int i = 0; i < blocks.length && rs.next(); i++) {
+                    blocks[i] = rs.getLong(1);
+                }
+            }
+        }
+        next = blocks[blocks.length - 1];
+        limit = next + blockSize;
+        return blocks;
+    }
+}
@@ -0,0 +1,180 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.utils.Assert;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary snapshots of all {@link AccountState}s, taken at a journal sequence number.
+ *
+ * <p>A snapshot file is named after its sequence number. It is written to a temporary file first and then moved in
+ * place atomically, so a crash while writing leaves the previous snapshot intact. Only the latest
+ * {@link #RETAINED_SNAPSHOTS} files are kept.</p>
+ *
+ * <p>Layout: magic (int), format version (int), sequence (long), then for every account a marker byte 1, account
+ * number (long), balance in minor units (long), version (long), name length (unsigned short) and the UTF-8 name; then
+ * a marker byte 0, the number of accounts (long) and the CRC32 of everything before it (int)</p>
+ */
+class AccountSnapshots {
+
+    static final int RETAINED_SNAPSHOTS = 2;
+
+    private static final int MAGIC = 0x41435354;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String SUFFIX = ".snapshot";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Path directory;
+
+    AccountSnapshots(Path directory) throws IOException {
+        Assert.notNull(directory, "directory must be set");
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Writes the accounts as the snapshot at the given sequence number and removes older snapshots
+     *
+     * @return the number of accounts written
+     */
+    long write(long sequence, Iterator<AccountState> accounts) throws IOException {
+        final Path target = snapshotPath(sequence);
+        final Path temp = directory.resolve(target.getFileName() + TEMP_SUFFIX);
+        long count = 0;
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            final CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(file, BUFFER_SIZE), new CRC32());
+            final DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(sequence);
+            while (accounts.hasNext()) {
+                final AccountState account = accounts.next();
+                final byte[] name = account.accountName.getBytes(StandardCharsets.UTF_8);
+                out.writeByte(1);
+                out.writeLong(account.accountNumber);
+                out.writeLong(account.balance);
+                out.writeLong(account.version);
+                out.writeShort(name.length);
+                out.write(name);
+                count++;
+            }
+            out.writeByte(0);
+            out.writeLong(count);
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+        final List<Long> snapshots = listSnapshots();
+        for (int i = 0; i < snapshots.size() - RETAINED_SNAPSHOTS; i++) {
+            Files.deleteIfExists(snapshotPath(snapshots.get(i)));
+        }
+        return count;
+    }
+
+    /**
+     * Reads the latest valid snapshot. A snapshot failing its checksum is skipped in favour of an older one, in which
+     * case the consumer may have been given some of its accounts already and is reset by the given callback
+     *
+     * @param consumer called for every account of the snapshot
+     * @param reset called before an older snapshot is read
+     * @return the sequence number of the snapshot read, 0 if there is none
+     */
+    long readLatest(Consumer<AccountState> consumer, Runnable reset) throws IOException {
+        final List<Long> snapshots = listSnapshots();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            final Path path = snapshotPath(snapshots.get(i));
+            try (InputStream file = Files.newInputStream(path)) {
+                read(file, snapshots.get(i), consumer);
+                return snapshots.get(i);
+            } catch (IOException e) {
+                logger.warn("ignoring snapshot {}: {}", path, e.getMessage());
+                reset.run();
+            }
+        }
+        return 0L;
+    }
+
+    private static void read(InputStream file, long sequence, Consumer<AccountState> consumer) throws IOException {
+        final CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(file, BUFFER_SIZE), new CRC32());
+        final DataInputStream in = new DataInputStream(checked);
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != sequence) {
+            throw new IOException("not a snapshot file");
+        }
+
+        long count = 0;
+        byte[] name = new byte[64];
+        while (in.readByte() != 0) {
+            final long accountNumber = in.readLong();
+            final long balance = in.readLong();
+            final long version = in.readLong();
+            final int length = in.readUnsignedShort();
+            if (length > name.length) {
+                name = new byte[length];
+            }
+            in.readFully(name, 0, length);
+            consumer.accept(new AccountState(accountNumber, new String(name, 0, length, StandardCharsets.UTF_8),
+                    balance, version));
+            count++;
+        }
+        final long expectedCount = in.readLong();
+        final int checksum = (int) checked.getChecksum().getValue();
+        if (expectedCount != count || in.readInt() != checksum) {
+            throw new IOException("checksum mismatch");
+        }
+        if (in.read() != -1) {
+            throw new IOException("unexpected data after the end of the snapshot");
+        }
+    }
+
+    private List<Long> listSnapshots() throws IOException {
+        final List<Long> snapshots = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    snapshots.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("ignoring unexpected file {} in snapshot directory", file);
+                }
+            }
+        }
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    private Path snapshotPath(long sequence) {
+        return directory.resolve(String.format("%020d%s", sequence, SUFFIX));
+    }
+}
@@ -0,0 +1,40 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+
+/**
+ * Immutable state of an account rebuilt from the journal, together with the sequence number of the last journal entry
+ * applied to it
+ */
+final class AccountState {
+
+    final long accountNumber;
+
+    final String accountName;
+
+    /**
+     * Balance in minor units
+     */
+    final long balance;
+
+    /**
+     * Sequence number of the last journal entry applied to this account. Entries up to it must not be applied again
+     */
+    final long version;
+
+    AccountState(long accountNumber, String accountName, long balance, long version) {
+        this.accountNumber = accountNumber;
+        this.accountName = accountName;
+        this.balance = balance;
+        this.version = version;
+    }
+
+    AccountState withBalance(long balance, long version) {
+        return new AccountState(accountNumber, accountName, balance, version);
+    }
+
+    Account toAccount() {
+        return Account.from(accountNumber, accountName, Money.ofMinorUnits(balance));
+    }
+}
@@ -0,0 +1,312 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+import spark.utils.Assert;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Splits balances of hot accounts across several <code>account_slot</code> rows, so concurrent deposits to the same
+ * account update different rows instead of queueing for the lock of a single <code>account</code> row.
+ *
+ * <p>The balance of an account is always <code>account.balance</code> plus the balances of its slots, so money may be
+ * moved to and from the <code>account</code> row of a sharded account as well. Deposits go to a random slot.
+ * Withdrawals lock the <code>account</code> row, so they are serialized per account, and draw from a random slot. If
+ * that slot runs dry the whole balance is rebalanced evenly across the slots.</p>
+ *
+ * <p>Sharded accounts are known from the <code>account.slots</code> column. An {@link AccountDaoJdbcImpl} not aware
+ * of a sharded account yet deposits to its <code>account</code> row. Its withdrawals try the <code>account</code> row
+ * alone first, which holds nothing after {@link #spread}, so they fall back to the slots once the slot count is read
+ * from the <code>account</code> row, see {@link #findSlots}</p>
+ */
+class BalanceSlots {
+
+    /**
+     * Maximum number of slots per account
+     */
+    static final int MAX_SLOTS = 1024;
+
+    /**
+     * The account balance including its slots, for queries selecting <code>FROM account</code>
+     */
+    static final String BALANCE_COLUMN =
+            " CASE WHEN slots = 0 THEN balance ELSE balance + ( "
+                    + " SELECT COALESCE(SUM(s.balance), 0) FROM account_slot s "
+                    + " WHERE s.accountNumber = account.accountNumber ) END AS balance ";
+
+    private static final String FIND_SHARDED =
+            " SELECT accountNumber, slots FROM account WHERE slots > 0 ";
+
+    private static final String FIND_SLOTS =
+            " SELECT slots FROM account WHERE accountNumber = ? ";
+
+    private static final String SUM_SLOTS =
+            " SELECT COALESCE(SUM(balance), 0) FROM account_slot WHERE accountNumber = ? ";
+
+    private static final String LOCK_ACCOUNT =
+            " SELECT balance FROM account WHERE accountNumber = ? FOR UPDATE ";
+
+    private static final String LOCK_SLOTS =
+            " SELECT slot, balance FROM account_slot WHERE accountNumber = ? ORDER BY slot FOR UPDATE ";
+
+    private static final String DEPOSIT_SLOT =
+            " UPDATE account_slot SET balance = balance + ? WHERE accountNumber = ? AND slot = ? ";
+
+    private static final String WITHDRAW_SLOT =
+            " UPDATE account_slot SET balance = balance - ? WHERE accountNumber = ? AND slot = ? AND balance >= ? ";
+
+    private static final String SET_SLOT =
+            " UPDATE account_slot SET balance = ? WHERE accountNumber = ? AND slot = ? ";
+
+    private static final String INSERT_SLOT =
+            " INSERT INTO account_slot ( accountNumber, slot, balance ) VALUES ( ?, ?, ? ) ";
+
+    private static final String DELETE_SLOTS =
+            " DELETE FROM account_slot WHERE accountNumber = ? ";
+
+    private static final String SET_ACCOUNT =
+            " UPDATE account SET balance = ?, slots = ? WHERE accountNumber = ? ";
+
+    private static final String CLEAR_SLOTS =
+            " UPDATE account_slot SET balance = 0 WHERE accountNumber = ? ";
+
+    private final DBStorage dbStorage;
+
+    /**
+     * Slot counts by account number. May include accounts not created yet, their slots are added on creation
+     */
+    private final ConcurrentHashMap<Long, Integer> slotCounts = new ConcurrentHashMap<>();
+
+    BalanceSlots(DBStorage dbStorage) {
+        this.dbStorage = dbStorage;
+    }
+
+    /**
+     * Loads the slot counts of sharded accounts
+     */
+    void load(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(FIND_SHARDED);
+             ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                slotCounts.put(rs.getLong("accountNumber"), rs.getInt("slots"));
+            }
+        }
+    }
+
+    /**
+     * @return number of slots of the account, 0 if not sharded
+     */
+    int slotsOf(Long accountNumber) {
+        return slotCounts.isEmpty() ? 0 : slotCounts.getOrDefault(accountNumber, 0);
+    }
+
+    /**
+     * Reads the slot count of an account from the <code>account</code> row and remembers it, e.g. for an account
+     * sharded by another instance
+     *
+     * @return number of slots of the account, 0 if not sharded, <code>null</code> if the account does not exist
+     */
+    Integer findSlots(Long accountNumber, Connection connection) throws SQLException {
+        final PreparedStatement statement = dbStorage.prepareCached(connection, FIND_SLOTS);
+        statement.setLong(1, accountNumber);
+        try (ResultSet rs = statement.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+            final int slots = rs.getInt("slots");
+            slotsChanged(accountNumber, slots);
+            return slots;
+        }
+    }
+
+    /**
+     * @return the sum of slot balances of the account
+     */
+    long sum(Long accountNumber, Connection connection) throws SQLException {
+        final PreparedStatement statement = dbStorage.prepareCached(connection, SUM_SLOTS);
+        statement.setLong(1, accountNumber);
+        try (ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+
+    /**
+     * Adds an amount to a random slot
+     *
+     * @return <code>false</code> if the slot does not exist ( any more ), the caller should update the
+     * <code>account</code> row instead
+     */
+    boolean deposit(Long accountNumber, int slots, Money amount, Connection connection) throws SQLException {
+        final PreparedStatement statement = dbStorage.prepareCached(connection, DEPOSIT_SLOT);
+
+        statement.setLong(1, amount.getMinorUnits());
+        statement.setLong(2, accountNumber);
+        statement.setInt(3, ThreadLocalRandom.current().nextInt(slots));
+        return statement.executeUpdate() == 1;
+    }
+
+    /**
+     * Subtracts an amount from a random slot, rebalancing the slots if it runs dry
+     *
+     * @throws IllegalArgumentException if the account does not exist or its balance is not enough
+     */
+    void withdraw(Long accountNumber, int slots, Money amount, String notFoundMessage, String notEnoughMessage,
+            Connection connection) throws SQLException {
+        final Long accountBalance = lockAccount(accountNumber, connection);
+        Assert.notNull(accountBalance, notFoundMessage);
+
+        // the account row balance may be negative after a batch transfer, then only the total covers the withdrawal
+        if (accountBalance >= 0) {
+            final PreparedStatement statement = dbStorage.prepareCached(connection, WITHDRAW_SLOT);
+
+            statement.setLong(1, amount.getMinorUnits());
+            statement.setLong(2, accountNumber);
+            statement.setInt(3, ThreadLocalRandom.current().nextInt(slots));
+            statement.setLong(4, amount.getMinorUnits());
+            if (statement.executeUpdate() == 1) {
+                return;
+            }
+        }
+
+        final long[] slotBalances = lockSlots(accountNumber, connection);
+        long total = accountBalance;
+        for (long slotBalance : slotBalances) {
+            total = Math.addExact(total, slotBalance);
+        }
+        Assert.isTrue(total >= amount.getMinorUnits(), notEnoughMessage);
+
+        spread(accountNumber, total - amount.getMinorUnits(), slotBalances.length, connection);
+    }
+
+    /**
+     * Splits the balance of an existing account across the given number of slots, or merges it back to the
+     * <code>account</code> row if zero. For an account not created yet the slots are added on creation
+     *
+     * @return <code>false</code> if the account does not exist
+     */
+    boolean setSlots(Long accountNumber, int slots, Connection connection) throws SQLException {
+        final Long accountBalance = lockAccount(accountNumber, connection);
+        if (accountBalance == null) {
+            return false;
+        }
+        long total = accountBalance;
+        for (long slotBalance : lockSlots(accountNumber, connection)) {
+            total = Math.addExact(total, slotBalance);
+        }
+
+        final PreparedStatement deleteStatement = dbStorage.prepareCached(connection, DELETE_SLOTS);
+        deleteStatement.setLong(1, accountNumber);
+        deleteStatement.executeUpdate();
+
+        insertSlots(accountNumber, slots, connection);
+        spread(accountNumber, total, slots, connection);
+        return true;
+    }
+
+    /**
+     * Remembers the slot count once the transaction changing it has committed
+     */
+    void slotsChanged(Long accountNumber, int slots) {
+        if (slots > 0) {
+            slotCounts.put(accountNumber, slots);
+        } else {
+            slotCounts.remove(accountNumber);
+        }
+    }
+
+    /**
+     * Adds slots to a newly created account, if requested by {@link #setSlots}
+     */
+    void accountCreated(Long accountNumber, Connection connection) throws SQLException {
+        final int slots = slotsOf(accountNumber);
+        if (slots > 0) {
+            insertSlots(accountNumber, slots, connection);
+            spread(accountNumber, 0, slots, connection);
+        }
+    }
+
+    /**
+     * Empties the slots of an account, once its whole balance has been set to the <code>account</code> row
+     */
+    void clear(Long accountNumber, Connection connection) throws SQLException {
+        final PreparedStatement statement = dbStorage.prepareCached(connection, CLEAR_SLOTS);
+        statement.setLong(1, accountNumber);
+        statement.executeUpdate();
+    }
+
+    /**
+     * @return the <code>account</code> row balance, <code>null</code> if the account does not exist
+     */
+    private Long lockAccount(Long accountNumber, Connection connection) throws SQLException {
+        final PreparedStatement statement = dbStorage.prepareCached(connection, LOCK_ACCOUNT);
+        statement.setLong(1, accountNumber);
+        try (ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getLong("balance") : null;
+        }
+    }
+
+    /**
+     * @return slot balances in slot order
+     */
+    private long[] lockSlots(Long accountNumber, Connection connection) throws SQLException {
+        final PreparedStatement statement = dbStorage.prepareCached(connection, LOCK_SLOTS);
+        statement.setLong(1, accountNumber);
+        long[] balances = new long[8];
+        int count = 0;
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                if (count == balances.length) {
+                    balances = Arrays.copyOf(balances, count * 2);
+                }
+                balances[count++] = rs.getLong("balance");
+            }
+        }
+        return Arrays.copyOf(balances, count);
+    }
+
+    private void insertSlots(Long accountNumber, int slots, Connection connection) throws SQLException {
+        if (slots == 0) {
+            return;
+        }
+        final PreparedStatement statement = dbStorage.prepareCached(connection, INSERT_SLOT);
+        statement.clearBatch();
+        for (int slot = 0; slot < slots; slot++) {
+            statement.setLong(1, accountNumber);
+            statement.setInt(2, slot);
+            statement.setLong(3, 0L);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+    }
+
+    /**
+     * Moves the whole balance to the slots evenly, or to the <code>account</code> row if there are no slots
+     */
+    private void spread(Long accountNumber, long total, int slots, Connection connection) throws SQLException {
+        final PreparedStatement accountStatement = dbStorage.prepareCached(connection, SET_ACCOUNT);
+        accountStatement.setLong(1, slots > 0 ? 0L : total);
+        accountStatement.setInt(2, slots);
+        accountStatement.setLong(3, accountNumber);
+        accountStatement.executeUpdate();
+
+        if (slots == 0) {
+            return;
+        }
+        final PreparedStatement slotStatement = dbStorage.prepareCached(connection, SET_SLOT);
+        slotStatement.clearBatch();
+        for (int slot = 0; slot < slots; slot++) {
+            slotStatement.setLong(1, total / slots + (slot < total % slots ? 1 : 0));
+            slotStatement.setLong(2, accountNumber);
+            slotStatement.setInt(3, slot);
+            slotStatement.addBatch();
+        }
+        slotStatement.executeBatch();
+    }
+}
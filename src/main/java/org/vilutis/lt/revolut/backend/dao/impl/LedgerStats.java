@@ -0,0 +1,323 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Account count, total balance and balance distribution of an account table, maintained incrementally by the write
+ * paths after their transactions commit, so they are read without scanning the table.
+ *
+ * <p>Every figure is a striped {@link LongAdder}, so concurrent writers do not contend on a single counter. The
+ * distribution is a log-linear histogram: balances below {@link #LINEAR_BUCKETS} minor units have a bucket each, above
+ * that every power of two is split into {@link #SUB_BUCKETS} buckets, so the minimum, maximum and percentiles are
+ * within 1/{@link #SUB_BUCKETS} of the real balance. Negative balances are counted as zero.</p>
+ *
+ * <p>The counters of a table are built from a scan of it when first read and then checked against a scan of it in the
+ * background, see {@link #check(LedgerStats)}. Writes are counted from then on, see {@link #track()}</p>
+ */
+class LedgerStats {
+
+    static final long DEFAULT_CHECK_INTERVAL_MILLIS = 60_000L;
+
+    static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9};
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+
+    private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+
+    private static final int BUCKETS = LINEAR_BUCKETS + (Long.SIZE - 1 - LINEAR_BITS) * SUB_BUCKETS;
+
+    /**
+     * Positions of the counters in a {@link #snapshot()}
+     */
+    private static final int ACCOUNTS = 0;
+
+    private static final int TOTAL = 1;
+
+    private static final int FIRST_BUCKET = 2;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final LongAdder accounts = new LongAdder();
+
+    /**
+     * Total balance in minor units
+     */
+    private final LongAdder total = new LongAdder();
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    /**
+     * Writes are not counted until the counters are built from the table
+     */
+    private volatile boolean tracking;
+
+    private final ReentrantLock checkLock = new ReentrantLock();
+
+    // guarded by checkLock
+
+    /**
+     * Difference found by the previous check, <code>null</code> if none
+     */
+    private long[] pendingDifference;
+
+    private final LongAdder corrections = new LongAdder();
+
+    LedgerStats() {
+        this(true);
+    }
+
+    /**
+     * @param tracking false to ignore writes until {@link #track()}
+     */
+    LedgerStats(boolean tracking) {
+        this.tracking = tracking;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Starts counting writes. The counters read from the table are to be {@link #add(long[]) added} afterwards, as
+     * writes committed while the table is read may be counted twice then, but are not lost. Such a difference is
+     * corrected by the checks
+     */
+    void track() {
+        tracking = true;
+    }
+
+    /**
+     * @return the histogram bucket of a balance in minor units
+     */
+    static int bucketOf(long balance) {
+        if (balance < LINEAR_BUCKETS) {
+            return (int) Math.max(0L, balance);
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(balance);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return LINEAR_BUCKETS + (exponent - LINEAR_BITS) * SUB_BUCKETS + (int) (balance >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the lowest balance in minor units of a histogram bucket
+     */
+    static long lowestOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = LINEAR_BITS + (bucket - LINEAR_BUCKETS) / SUB_BUCKETS;
+        final long subBucket = SUB_BUCKETS + (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return subBucket << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @return the highest balance in minor units of a histogram bucket
+     */
+    static long highestOf(int bucket) {
+        return bucket + 1 < BUCKETS ? lowestOf(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Counts new accounts, with a zero balance
+     */
+    void created(int count) {
+        if (!tracking) {
+            return;
+        }
+        accounts.add(count);
+        buckets[0].add(count);
+    }
+
+    /**
+     * Counts an existing account, e.g. read while rebuilding from the table
+     *
+     * @param balance the balance in minor units
+     */
+    void counted(long balance) {
+        accounts.increment();
+        total.add(balance);
+        buckets[bucketOf(balance)].increment();
+    }
+
+    /**
+     * Counts a changed balance of an account
+     *
+     * @param before the balance before the change, in minor units
+     * @param after the balance after the change, in minor units
+     */
+    void changed(long before, long after) {
+        if (!tracking) {
+            return;
+        }
+        total.add(after - before);
+        moved(before, after);
+    }
+
+    /**
+     * Moves an account between histogram buckets, e.g. for a transfer which does not change the total balance
+     */
+    void moved(long before, long after) {
+        if (!tracking) {
+            return;
+        }
+        final int from = bucketOf(before);
+        final int to = bucketOf(after);
+        if (from != to) {
+            buckets[from].decrement();
+            buckets[to].increment();
+        }
+    }
+
+    /**
+     * @return the account count, the total balance and the bucket counts, read one by one, so not atomically
+     */
+    long[] snapshot() {
+        final long[] snapshot = new long[FIRST_BUCKET + BUCKETS];
+        snapshot[ACCOUNTS] = accounts.sum();
+        snapshot[TOTAL] = total.sum();
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[FIRST_BUCKET + i] = buckets[i].sum();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Adds counters, e.g. the ones rebuilt from the table or a correction
+     *
+     * @param counters counters as returned by {@link #snapshot()}
+     */
+    void add(long[] counters) {
+        accounts.add(counters[ACCOUNTS]);
+        total.add(counters[TOTAL]);
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counters[FIRST_BUCKET + i] != 0) {
+                buckets[i].add(counters[FIRST_BUCKET + i]);
+            }
+        }
+    }
+
+    /**
+     * Compares the counters with the ones read from the table. Writes committed but not counted yet while the table is
+     * read make them differ for a moment, so only a difference found by two checks in a row is corrected
+     *
+     * @param scanned the counters read from the table
+     * @return true if the counters match the table
+     */
+    boolean check(LedgerStats scanned) {
+        checkLock.lock();
+        try {
+            final long[] difference = scanned.snapshot();
+            final long[] current = snapshot();
+            boolean matching = true;
+            for (int i = 0; i < difference.length; i++) {
+                difference[i] -= current[i];
+                matching &= difference[i] == 0;
+            }
+            if (matching) {
+                pendingDifference = null;
+            } else if (Arrays.equals(difference, pendingDifference)) {
+                logger.warn("Ledger stats drifted from the account table by {} accounts and {} minor units, corrected",
+                        difference[ACCOUNTS], difference[TOTAL]);
+                add(difference);
+                corrections.increment();
+                pendingDifference = null;
+            } else {
+                pendingDifference = difference;
+            }
+            return matching;
+        } finally {
+            checkLock.unlock();
+        }
+    }
+
+    /**
+     * @return how many times the counters have been corrected by a check
+     */
+    long getCorrections() {
+        return corrections.sum();
+    }
+
+    /**
+     * @return the summary of the counters
+     */
+    LedgerSummary summary() {
+        return summaryOf(snapshot());
+    }
+
+    /**
+     * @param stats counters of several account tables, e.g. shards
+     * @return the summary of all the counters
+     */
+    static LedgerSummary summaryOf(List<LedgerStats> stats) {
+        final long[] merged = new long[FIRST_BUCKET + BUCKETS];
+        for (LedgerStats each : stats) {
+            final long[] snapshot = each.snapshot();
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] += snapshot[i];
+            }
+        }
+        return summaryOf(merged);
+    }
+
+    private static LedgerSummary summaryOf(long[] counters) {
+        // a bucket may be negative for a moment, if an account has been moved out before it was moved in
+        long counted = 0;
+        int lowest = -1;
+        int highest = -1;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counters[FIRST_BUCKET + i] > 0) {
+                counted += counters[FIRST_BUCKET + i];
+                lowest = lowest < 0 ? i : lowest;
+                highest = i;
+            }
+        }
+
+        final Map<String, Money> percentiles = new LinkedHashMap<>();
+        for (double percentile : PERCENTILES) {
+            percentiles.put(percentileName(percentile), counted == 0 ? null
+                    : Money.ofMinorUnits(highestOf(bucketAt(counters, (long) Math.ceil(counted * percentile / 100)))));
+        }
+        return new LedgerSummary(counters[ACCOUNTS], Money.ofMinorUnits(counters[TOTAL]),
+                lowest < 0 ? null : Money.ofMinorUnits(lowestOf(lowest)),
+                highest < 0 ? null : Money.ofMinorUnits(highestOf(highest)), percentiles);
+    }
+
+    /**
+     * @param rank the rank of an account in ascending balance order, starting with 1
+     * @return the bucket of the account
+     */
+    private static int bucketAt(long[] counters, long rank) {
+        long seen = 0;
+        int last = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counters[FIRST_BUCKET + i] > 0) {
+                seen += counters[FIRST_BUCKET + i];
+                last = i;
+                if (seen >= rank) {
+                    return i;
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return the name of a percentile, e.g. <code>p99</code> or <code>p99.9</code>
+     */
+    static String percentileName(double percentile) {
+        return percentile == Math.rint(percentile) ? "p" + (long) percentile : "p" + percentile;
+    }
+}
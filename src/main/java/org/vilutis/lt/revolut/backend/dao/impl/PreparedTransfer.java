@@ -0,0 +1,18 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import java.io.Serializable;
+
+/**
+ * A side of a transfer spanning several databases, prepared and not completed yet
+ */
+class PreparedTransfer implements Serializable {
+
+    final String transferId;
+
+    final long accountNumber;
+
+    PreparedTransfer(String transferId, long accountNumber) {
+        this.transferId = transferId;
+        this.accountNumber = accountNumber;
+    }
+}
@@ -3,18 +3,17 @@ package org.vilutis.lt.revolut.backend.domain;
 import spark.utils.Assert;
 
 import java.io.Serializable;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 
 /**
  * Represents a very simplified version of a bank account
  */
 public class Account implements Serializable {
 
+    /**
+     * Number of decimal digits of money amounts, see {@link Money}
+     */
     public static final int SCALE = 2;
 
-    private static final BigDecimal ZERO = BigDecimal.ZERO.setScale(SCALE, RoundingMode.HALF_UP);
-
     /**
      * Account number. Must be unique
      */
@@ -28,7 +27,7 @@ public class Account implements Serializable {
     /**
      * Account balance in local currency.
      */
-    private BigDecimal balance = ZERO;
+    private Money balance = Money.ZERO;
 
     /**
      * Creates an
@@ -45,13 +44,10 @@ public class Account implements Serializable {
         this.accountName = accountName;
     }
 
-    public static Account from(long accountNumber, String accountName, double balance) {
-        return new Account(accountNumber, accountName).withBalance(balance);
-    }
-
-    private Account withBalance(double balance) {
-        this.setBalance(balance);
-        return this;
+    public static Account from(long accountNumber, String accountName, Money balance) {
+        final Account account = new Account(accountNumber, accountName);
+        account.setBalance(balance);
+        return account;
     }
 
     /**
@@ -81,40 +77,19 @@ public class Account implements Serializable {
     /**
      * @return the Account {@link #balance}
      */
-    public BigDecimal getBalance() {
+    public Money getBalance() {
         return balance;
     }
 
     /**
-     * Set the Account {@link #balance}. Rounds "HALF_UP" if scale more than {@link #SCALE} decimal digits
-     *
-     * @param balance the {@link #balance} to set
-     * @throws IllegalArgumentException if the param balance is <code>null</code>
-     */
-    public void setBalance(BigDecimal balance) {
-        Assert.notNull(balance, "Balance cannot be null!");
-        this.balance = normalizeAmountScale(balance);
-    }
-
-    /**
-     * Set the Account {@link #balance}. Rounds "HALF_UP" if scale more than {@link #SCALE} decimal digits
+     * Set the Account {@link #balance}
      *
      * @param balance the {@link #balance} to set
      * @throws IllegalArgumentException if the param balance is <code>null</code>
      */
-    public void setBalance(Double balance) {
+    public void setBalance(Money balance) {
         Assert.notNull(balance, "Balance cannot be null!");
-        this.balance = normalizeAmountScale(BigDecimal.valueOf(balance));
-    }
-
-    /**
-     * Only "money" values can be used, so must be rounded to the smallest possible money value ( that is, cents )
-     *
-     * @param amount to normalize
-     * @return amount rounded to {@link Account#SCALE} number of decimals
-     */
-    public static BigDecimal normalizeAmountScale(BigDecimal amount) {
-        return amount.setScale(SCALE, RoundingMode.HALF_UP);
+        this.balance = balance;
     }
 
     /**
@@ -0,0 +1,72 @@
+package org.vilutis.lt.revolut.backend.domain;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Totals of all {@link Account}s: their count, total balance and balance distribution. The minimum, maximum and
+ * percentile balances are approximate, see the {@link org.vilutis.lt.revolut.backend.dao.AccountDao} implementation
+ */
+public class LedgerSummary implements Serializable {
+
+    private final long accountCount;
+
+    private final Money totalBalance;
+
+    /**
+     * <code>null</code> if there are no accounts
+     */
+    private final Money minBalance;
+
+    /**
+     * <code>null</code> if there are no accounts
+     */
+    private final Money maxBalance;
+
+    /**
+     * Balance at or below which the given share of accounts are, by percentile name, e.g. <code>p99</code>
+     */
+    private final LinkedHashMap<String, Money> percentiles;
+
+    public LedgerSummary(long accountCount, Money totalBalance, Money minBalance, Money maxBalance,
+            Map<String, Money> percentiles) {
+        this.accountCount = accountCount;
+        this.totalBalance = totalBalance;
+        this.minBalance = minBalance;
+        this.maxBalance = maxBalance;
+        this.percentiles = new LinkedHashMap<>(percentiles);
+    }
+
+    public long getAccountCount() {
+        return accountCount;
+    }
+
+    public Money getTotalBalance() {
+        return totalBalance;
+    }
+
+    public Money getMinBalance() {
+        return minBalance;
+    }
+
+    public Money getMaxBalance() {
+        return maxBalance;
+    }
+
+    public Map<String, Money> getPercentiles() {
+        return Collections.unmodifiableMap(percentiles);
+    }
+
+    @Override
+    public String toString() {
+        return "LedgerSummary{" +
+                "accountCount=" + accountCount +
+                ", totalBalance=" + totalBalance +
+                ", minBalance=" + minBalance +
+                ", maxBalance=" + maxBalance +
+                ", percentiles=" + percentiles +
+                '}';
+    }
+}
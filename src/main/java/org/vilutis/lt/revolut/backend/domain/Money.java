@@ -0,0 +1,261 @@
+package org.vilutis.lt.revolut.backend.domain;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import spark.utils.Assert;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An immutable amount of money in local currency, kept as a <code>long</code> number of minor units ( cents ) with
+ * {@link Account#SCALE} decimal digits.
+ *
+ * <p>Arithmetic and comparisons do not allocate beyond the result and throw {@link ArithmeticException} on overflow.
+ * Serialized to and read from JSON as a plain number, e.g. <code>10.50</code></p>
+ */
+@JsonAdapter(Money.MoneyTypeAdapter.class)
+public final class Money implements Comparable<Money>, Serializable {
+
+    /**
+     * Minor units in one major unit, i.e. 10 ^ {@link Account#SCALE}
+     */
+    private static final long FACTOR = 100L;
+
+    private static final int MAX_FRACTION_DIGITS = Account.SCALE;
+
+    /**
+     * Digits of {@link Long#MAX_VALUE}, no amount with more integer digits fits
+     */
+    private static final int MAX_INTEGER_DIGITS = 19;
+
+    public static final Money ZERO = new Money(0L);
+
+    private final long minorUnits;
+
+    private Money(long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+
+    /**
+     * @param minorUnits amount in minor units, e.g. <code>1050</code> for <code>10.50</code>
+     * @return the {@link Money}
+     */
+    public static Money ofMinorUnits(long minorUnits) {
+        return minorUnits == 0L ? ZERO : new Money(minorUnits);
+    }
+
+    /**
+     * @param majorUnits amount in major units, e.g. <code>10</code> for <code>10.00</code>
+     * @return the {@link Money}
+     * @throws ArithmeticException if the amount does not fit
+     */
+    public static Money of(long majorUnits) {
+        return ofMinorUnits(Math.multiplyExact(majorUnits, FACTOR));
+    }
+
+    /**
+     * @param amount the amount in major units
+     * @return the {@link Money}
+     * @throws IllegalArgumentException if amount is <code>null</code> or has more than {@link Account#SCALE} decimal
+     * digits
+     * @throws ArithmeticException if the amount does not fit
+     */
+    public static Money of(BigDecimal amount) {
+        Assert.notNull(amount, "amount must be set");
+        if (amount.signum() == 0) {
+            return ZERO;
+        }
+        // check the size before rescaling, which takes time proportional to the exponent, e.g. of 1e99999999
+        if (amount.precision() - amount.scale() > MAX_INTEGER_DIGITS) {
+            throw new ArithmeticException("amount " + amount + " is too large");
+        }
+        Assert.isTrue(amount.precision() - amount.scale() > -MAX_FRACTION_DIGITS
+                        && amount.stripTrailingZeros().scale() <= MAX_FRACTION_DIGITS,
+                "amount scale must NOT greater than " + Account.SCALE);
+        return ofMinorUnits(amount.stripTrailingZeros().setScale(Account.SCALE, RoundingMode.UNNECESSARY)
+                .unscaledValue().longValueExact());
+    }
+
+    /**
+     * Parses a plain decimal number, e.g. <code>10</code>, <code>-0.5</code> or <code>10.50</code>, without creating
+     * intermediate objects. Numbers in exponent notation are parsed using {@link BigDecimal}, see
+     * {@link #of(BigDecimal)}
+     *
+     * @param text the number to parse
+     * @return the {@link Money}
+     * @throws IllegalArgumentException if text is not a number or has more than {@link Account#SCALE} decimal digits
+     * @throws ArithmeticException if the amount does not fit
+     */
+    public static Money parse(CharSequence text) {
+        Assert.notNull(text, "amount must be set");
+        final int length = text.length();
+        int index = 0;
+        final boolean negative = length > 0 && text.charAt(0) == '-';
+        if (negative || (length > 0 && text.charAt(0) == '+')) {
+            index++;
+        }
+
+        long units = 0L;
+        int integerDigits = 0;
+        int fractionDigits = -1;
+        for (; index < length; index++) {
+            final char c = text.charAt(index);
+            if (c >= '0' && c <= '9') {
+                if (fractionDigits >= 0) {
+                    if (++fractionDigits > MAX_FRACTION_DIGITS) {
+                        if (c != '0') {
+                            throw new IllegalArgumentException(
+                                    "amount scale must NOT greater than " + Account.SCALE);
+                        }
+                        continue;
+                    }
+                } else {
+                    integerDigits++;
+                }
+                // accumulate negative, so Long.MIN_VALUE minor units can be parsed as well
+                units = Math.subtractExact(Math.multiplyExact(units, 10L), c - '0');
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (c == 'e' || c == 'E') {
+                return of(new BigDecimal(text.toString()));
+            } else {
+                throw new IllegalArgumentException("invalid amount '" + text + "'");
+            }
+        }
+        if (integerDigits == 0 && fractionDigits <= 0) {
+            throw new IllegalArgumentException("invalid amount '" + text + "'");
+        }
+        for (int digits = Math.max(fractionDigits, 0); digits < MAX_FRACTION_DIGITS; digits++) {
+            units = Math.multiplyExact(units, 10L);
+        }
+        return ofMinorUnits(negative ? units : Math.negateExact(units));
+    }
+
+    /**
+     * @return the amount in minor units
+     */
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    /**
+     * @throws ArithmeticException on overflow
+     */
+    public Money plus(Money other) {
+        return other.minorUnits == 0L ? this : ofMinorUnits(Math.addExact(minorUnits, other.minorUnits));
+    }
+
+    /**
+     * @throws ArithmeticException on overflow
+     */
+    public Money minus(Money other) {
+        return other.minorUnits == 0L ? this : ofMinorUnits(Math.subtractExact(minorUnits, other.minorUnits));
+    }
+
+    /**
+     * @throws ArithmeticException on overflow
+     */
+    public Money negate() {
+        return ofMinorUnits(Math.negateExact(minorUnits));
+    }
+
+    /**
+     * @return -1, 0 or 1 as this amount is negative, zero or positive
+     */
+    public int signum() {
+        return Long.signum(minorUnits);
+    }
+
+    public boolean isPositive() {
+        return minorUnits > 0L;
+    }
+
+    public boolean isNegative() {
+        return minorUnits < 0L;
+    }
+
+    public boolean isLessThan(Money other) {
+        return minorUnits < other.minorUnits;
+    }
+
+    public boolean isGreaterThanOrEqualTo(Money other) {
+        return minorUnits >= other.minorUnits;
+    }
+
+    /**
+     * @return the amount as a {@link BigDecimal} with {@link Account#SCALE} decimal digits
+     */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, Account.SCALE);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof Money && minorUnits == ((Money) o).minorUnits);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minorUnits);
+    }
+
+    /**
+     * @return the amount with exactly {@link Account#SCALE} decimal digits, e.g. <code>-0.50</code>
+     */
+    @Override
+    public String toString() {
+        final long whole = minorUnits / FACTOR;
+        final long fraction = Math.abs(minorUnits % FACTOR);
+        final StringBuilder result = new StringBuilder(24);
+        if (minorUnits < 0L && whole == 0L) {
+            result.append('-');
+        }
+        result.append(whole).append('.');
+        if (fraction < 10L) {
+            result.append('0');
+        }
+        return result.append(fraction).toString();
+    }
+
+    /**
+     * Writes {@link Money} as a JSON number and reads it from a JSON number or string
+     */
+    static class MoneyTypeAdapter extends TypeAdapter<Money> {
+
+        @Override
+        public void write(JsonWriter out, Money value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                out.jsonValue(value.toString());
+            }
+        }
+
+        @Override
+        public Money read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            // returns the number literal as is for NUMBER tokens
+            final String text = in.nextString();
+            try {
+                return parse(text);
+            } catch (ArithmeticException e) {
+                throw new JsonSyntaxException("amount " + text + " is too large", e);
+            }
+        }
+    }
+}
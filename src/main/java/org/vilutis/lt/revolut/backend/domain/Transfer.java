@@ -0,0 +1,56 @@
+package org.vilutis.lt.revolut.backend.domain;
+
+import java.io.Serializable;
+
+/**
+ * A single balance transfer request from one {@link Account} to another
+ */
+public class Transfer implements Serializable {
+
+    /**
+     * Account number to transfer FROM
+     */
+    private final Long fromAcct;
+
+    /**
+     * Account number to transfer TO
+     */
+    private final Long toAcct;
+
+    /**
+     * Amount to transfer in local currency
+     */
+    private final Money amount;
+
+    public Transfer(Long fromAcct, Long toAcct, Money amount) {
+        this.fromAcct = fromAcct;
+        this.toAcct = toAcct;
+        this.amount = amount;
+    }
+
+    /**
+     * @return {@link #fromAcct}
+     */
+    public Long getFromAcct() {
+        return fromAcct;
+    }
+
+    /**
+     * @return {@link #toAcct}
+     */
+    public Long getToAcct() {
+        return toAcct;
+    }
+
+    /**
+     * @return {@link #amount}
+     */
+    public Money getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return "Transfer{" + "fromAcct=" + fromAcct + ", toAcct=" + toAcct + ", amount=" + amount + '}';
+    }
+}
@@ -0,0 +1,54 @@
+package org.vilutis.lt.revolut.backend.domain;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of a single {@link Transfer} applied as part of a batch
+ */
+public class TransferResult implements Serializable {
+
+    private static final TransferResult APPLIED = new TransferResult(true, "OK");
+
+    private final boolean applied;
+
+    private final String message;
+
+    private TransferResult(boolean applied, String message) {
+        this.applied = applied;
+        this.message = message;
+    }
+
+    /**
+     * @return a result of a successfully applied {@link Transfer}
+     */
+    public static TransferResult applied() {
+        return APPLIED;
+    }
+
+    /**
+     * @param message the reason the {@link Transfer} was rejected
+     * @return a result of a rejected {@link Transfer}
+     */
+    public static TransferResult rejected(String message) {
+        return new TransferResult(false, message);
+    }
+
+    /**
+     * @return true if the balance has been transferred
+     */
+    public boolean isApplied() {
+        return applied;
+    }
+
+    /**
+     * @return "OK" if applied, or the reason the transfer was rejected
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferResult{" + "applied=" + applied + ", message='" + message + '\'' + '}';
+    }
+}
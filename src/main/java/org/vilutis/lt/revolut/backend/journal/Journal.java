@@ -0,0 +1,76 @@
+package org.vilutis.lt.revolut.backend.journal;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Append-only audit trail of money movements
+ */
+public interface Journal extends AutoCloseable {
+
+    /**
+     * A {@link Journal} discarding all entries. Used when no journal is configured
+     */
+    Journal NONE = new Journal() {
+        @Override
+        public long append(JournalEntry entry) {
+            return 0;
+        }
+
+        @Override
+        public void appendAll(List<JournalEntry> entries) {
+        }
+
+        @Override
+        public long replay(long fromSequence, Consumer<JournalEntry> consumer) {
+            return 0;
+        }
+
+        @Override
+        public long getLastSequence() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Appends an entry and waits until it is durably stored
+     *
+     * @param entry the entry to append
+     * @return the sequence number assigned to the entry
+     * @throws java.io.UncheckedIOException if the entry could not be stored
+     */
+    long append(JournalEntry entry);
+
+    /**
+     * Appends all entries and waits until they are durably stored
+     *
+     * @param entries the entries to append in the given order
+     * @throws java.io.UncheckedIOException if the entries could not be stored
+     */
+    void appendAll(List<JournalEntry> entries);
+
+    /**
+     * Reads stored entries in sequence order
+     *
+     * @param fromSequence the first sequence number to read
+     * @param consumer called for every entry with sequence number greater or equal to fromSequence
+     * @return the number of entries read
+     * @throws java.io.UncheckedIOException if the journal could not be read
+     */
+    long replay(long fromSequence, Consumer<JournalEntry> consumer);
+
+    /**
+     * @return the sequence number of the last durably stored entry, or zero if the journal is empty
+     */
+    long getLastSequence();
+
+    /**
+     * Stops accepting entries and waits for all pending ones to be stored
+     */
+    @Override
+    void close();
+}
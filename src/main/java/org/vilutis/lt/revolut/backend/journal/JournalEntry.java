@@ -0,0 +1,198 @@
+package org.vilutis.lt.revolut.backend.journal;
+
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import spark.utils.Assert;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single money movement or account change recorded in the {@link Journal}. Amounts are kept as a number of minor
+ * units ( cents ) at {@link Account#SCALE}
+ */
+public class JournalEntry implements Serializable {
+
+    /**
+     * Maximum length of an account name in UTF-8 bytes
+     */
+    public static final int MAX_ACCOUNT_NAME_BYTES = 1024;
+
+    private static final byte[] EMPTY_NAME = new byte[0];
+
+    /**
+     * Money movement and account change types. The ordinal is written to the journal, so new types must only be added
+     * at the end
+     */
+    public enum Type {
+        TRANSFER,
+        DEPOSIT,
+        WITHDRAWAL,
+        /**
+         * An account was created with a zero balance. The account number is <code>toAcct</code>
+         */
+        ACCOUNT_CREATED,
+        /**
+         * The name and the balance of an account were set. The account number is <code>toAcct</code>, the new balance
+         * is <code>amount</code>
+         */
+        ACCOUNT_UPDATED
+    }
+
+    /**
+     * Sequence number assigned by the {@link Journal} on append. Zero if not appended yet
+     */
+    private final long sequence;
+
+    /**
+     * Milliseconds since epoch the entry was created at
+     */
+    private final long timestamp;
+
+    private final Type type;
+
+    /**
+     * Account number the money was taken from. Zero for deposits
+     */
+    private final long fromAcct;
+
+    /**
+     * Account number the money was added to. Zero for withdrawals
+     */
+    private final long toAcct;
+
+    /**
+     * Amount in minor units
+     */
+    private final long amount;
+
+    /**
+     * UTF-8 encoded account name of account changes, empty for money movements
+     */
+    private final byte[] accountName;
+
+    JournalEntry(long sequence, long timestamp, Type type, long fromAcct, long toAcct, long amount) {
+        this(sequence, timestamp, type, fromAcct, toAcct, amount, EMPTY_NAME);
+    }
+
+    JournalEntry(long sequence, long timestamp, Type type, long fromAcct, long toAcct, long amount,
+            byte[] accountName) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.fromAcct = fromAcct;
+        this.toAcct = toAcct;
+        this.amount = amount;
+        this.accountName = accountName;
+    }
+
+    public static JournalEntry transfer(long fromAcct, long toAcct, Money amount) {
+        return new JournalEntry(0, System.currentTimeMillis(), Type.TRANSFER, fromAcct, toAcct, amount.getMinorUnits());
+    }
+
+    public static JournalEntry deposit(long toAcct, Money amount) {
+        return new JournalEntry(0, System.currentTimeMillis(), Type.DEPOSIT, 0, toAcct, amount.getMinorUnits());
+    }
+
+    public static JournalEntry withdrawal(long fromAcct, Money amount) {
+        return new JournalEntry(0, System.currentTimeMillis(), Type.WITHDRAWAL, fromAcct, 0, amount.getMinorUnits());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the account name is empty or longer than {@link #MAX_ACCOUNT_NAME_BYTES}
+     */
+    public static JournalEntry accountCreated(long accountNumber, String accountName) {
+        return new JournalEntry(0, System.currentTimeMillis(), Type.ACCOUNT_CREATED, 0, accountNumber, 0,
+                encodeName(accountName));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the account name is empty or longer than {@link #MAX_ACCOUNT_NAME_BYTES}
+     */
+    public static JournalEntry accountUpdated(long accountNumber, String accountName, Money balance) {
+        return new JournalEntry(0, System.currentTimeMillis(), Type.ACCOUNT_UPDATED, 0, accountNumber,
+                balance.getMinorUnits(), encodeName(accountName));
+    }
+
+    private static byte[] encodeName(String accountName) {
+        Assert.hasLength(accountName, "account name must not be empty");
+        final byte[] encoded = accountName.getBytes(StandardCharsets.UTF_8);
+        Assert.isTrue(encoded.length <= MAX_ACCOUNT_NAME_BYTES,
+                "account name must not be longer than " + MAX_ACCOUNT_NAME_BYTES + " bytes");
+        return encoded;
+    }
+
+    JournalEntry withSequence(long sequence) {
+        return new JournalEntry(sequence, timestamp, type, fromAcct, toAcct, amount, accountName);
+    }
+
+    /**
+     * @return {@link #sequence}
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return {@link #timestamp}
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the money movement {@link Type}
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return {@link #fromAcct}
+     */
+    public long getFromAcct() {
+        return fromAcct;
+    }
+
+    /**
+     * @return {@link #toAcct}
+     */
+    public long getToAcct() {
+        return toAcct;
+    }
+
+    /**
+     * @return the amount in local currency
+     */
+    public Money getAmount() {
+        return Money.ofMinorUnits(amount);
+    }
+
+    /**
+     * @return {@link #amount} in minor units
+     */
+    public long getAmountMinorUnits() {
+        return amount;
+    }
+
+    /**
+     * @return the account name of account changes, <code>null</code> for money movements
+     */
+    public String getAccountName() {
+        return accountName.length > 0 ? new String(accountName, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * @return the UTF-8 encoded account name, empty for money movements. Must not be modified
+     */
+    byte[] getAccountNameBytes() {
+        return accountName;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalEntry{" + "sequence=" + sequence + ", timestamp=" + timestamp + ", type=" + type
+                + ", fromAcct=" + fromAcct + ", toAcct=" + toAcct + ", amount=" + getAmount()
+                + (accountName.length > 0 ? ", accountName=" + getAccountName() : "") + '}';
+    }
+}
@@ -0,0 +1,613 @@
+package org.vilutis.lt.revolut.backend.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.utils.Assert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * {@inheritDoc}
+ *
+ * <p>Entries are written to memory-mapped segment files by a single writer thread using group commit: all entries
+ * queued while the previous batch was being forced to disk are written together and share a single
+ * {@link MappedByteBuffer#force()}. A batch is closed once it holds {@code maxBatchSize} entries, or once
+ * {@code maxWaitMicros} have passed since its first entry was taken.</p>
+ *
+ * <p>A segment is named after the sequence number of its first entry and rolls over once full. Every
+ * {@link #INDEX_INTERVAL}th entry of a segment is recorded in a sparse index file next to it, so {@link #replay} does
+ * not have to scan whole segments. The index is only a hint and is rebuilt on open.</p>
+ *
+ * <p>Record layout: payload length (int), CRC32 of the payload (int), payload: sequence (long), timestamp (long),
+ * type (byte), fromAcct (long), toAcct (long), amount in minor units (long), followed by the UTF-8 account name of
+ * account changes, which takes the rest of the payload. A torn record at the end of the last segment is detected by
+ * its checksum and overwritten on open.</p>
+ */
+public class MappedJournal implements Journal {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+
+    /**
+     * By default a batch is not held open: entries queued during the previous force are batched anyway
+     */
+    public static final long DEFAULT_MAX_WAIT_MICROS = 0L;
+
+    static final int INDEX_INTERVAL = 1024;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final int HEADER_SIZE = 4 + 4;
+
+    private static final int PAYLOAD_SIZE = 8 + 8 + 1 + 8 + 8 + 8;
+
+    /**
+     * Size of a record without an account name, the smallest possible
+     */
+    static final int RECORD_SIZE = HEADER_SIZE + PAYLOAD_SIZE;
+
+    private static final int MAX_RECORD_SIZE = RECORD_SIZE + JournalEntry.MAX_ACCOUNT_NAME_BYTES;
+
+    private static final int INDEX_ENTRY_SIZE = 8 + 4;
+
+    /**
+     * Queued to stop the writer thread
+     */
+    private static final PendingAppend CLOSE = new PendingAppend(Collections.emptyList());
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final int maxBatchSize;
+
+    private final long maxWaitNanos;
+
+    private final BlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+
+    private final Thread writer;
+
+    private final LongAdder appends = new LongAdder();
+
+    private final LongAdder commits = new LongAdder();
+
+    private volatile boolean closed;
+
+    /**
+     * Set once the journal failed to write, after which no further entries are accepted
+     */
+    private volatile IOException failure;
+
+    /**
+     * Sequence number of the last entry forced to disk
+     */
+    private volatile long lastSequence;
+
+    // state below is only accessed by the writer thread ( and by the constructor before it starts )
+
+    private long segmentFirstSequence;
+
+    private FileChannel segmentChannel;
+
+    private MappedByteBuffer segment;
+
+    private FileChannel indexChannel;
+
+    private final ByteBuffer record = ByteBuffer.allocate(MAX_RECORD_SIZE);
+
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Entries written to the current segment but not forced yet
+     */
+    private boolean unforced;
+
+    /**
+     * Entries waiting to be written, completed with the sequence number of the last of them once forced to disk
+     */
+    private static class PendingAppend {
+        private final List<JournalEntry> entries;
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        private PendingAppend(List<JournalEntry> entries) {
+            this.entries = entries;
+        }
+    }
+
+    public MappedJournal(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WAIT_MICROS);
+    }
+
+    /**
+     * Opens ( or creates ) the journal in the given directory, recovers the last segment and starts the writer thread
+     *
+     * @param directory directory to keep the segment and index files in. Created if it does not exist
+     * @param segmentSize size of a segment file in bytes
+     * @param maxBatchSize maximum number of entries forced to disk at once
+     * @param maxWaitMicros maximum time to wait for more entries before forcing a batch
+     * @throws UncheckedIOException if the journal cannot be opened
+     */
+    public MappedJournal(Path directory, int segmentSize, int maxBatchSize, long maxWaitMicros) {
+        Assert.notNull(directory, "directory must be set");
+        Assert.isTrue(segmentSize >= RECORD_SIZE, "segmentSize must be at least " + RECORD_SIZE);
+        Assert.isTrue(maxBatchSize > 0, "maxBatchSize must be more than zero");
+        Assert.isTrue(maxWaitMicros >= 0, "maxWaitMicros must not be negative");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to open journal in " + directory, e);
+        }
+
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Opens the last segment ( or creates the first one ), finds the last valid entry and rebuilds its index
+     */
+    private void recover() throws IOException {
+        final List<Long> segments = listSegments();
+        if (segments.isEmpty()) {
+            openSegment(1L);
+            lastSequence = 0L;
+            return;
+        }
+
+        openSegment(segments.get(segments.size() - 1));
+        indexChannel.truncate(0);
+
+        long expected = segmentFirstSequence;
+        int entriesInSegment = 0;
+        while (segment.remaining() >= RECORD_SIZE) {
+            final int position = segment.position();
+            final JournalEntry entry = readRecord(segment, position);
+            if (entry == null || entry.getSequence() != expected) {
+                segment.position(position);
+                break;
+            }
+            if (entriesInSegment++ % INDEX_INTERVAL == 0) {
+                writeIndexEntry(entry.getSequence(), position);
+            }
+            expected++;
+        }
+        lastSequence = expected - 1;
+        logger.info("opened journal in {}, last sequence {}", directory, lastSequence);
+    }
+
+    private void openSegment(long firstSequence) throws IOException {
+        segmentFirstSequence = firstSequence;
+        segmentChannel = FileChannel.open(segmentPath(firstSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        indexChannel = FileChannel.open(indexPath(firstSequence),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indexChannel.position(indexChannel.size());
+    }
+
+    private void closeSegment() throws IOException {
+        if (unforced) {
+            segment.force();
+            unforced = false;
+        }
+        indexChannel.close();
+        segmentChannel.close();
+    }
+
+    @Override
+    public long append(JournalEntry entry) {
+        Assert.notNull(entry, "entry must be set");
+        return await(enqueue(Collections.singletonList(entry)));
+    }
+
+    @Override
+    public void appendAll(List<JournalEntry> entries) {
+        Assert.notNull(entries, "entries must be set");
+        if (!entries.isEmpty()) {
+            await(enqueue(new ArrayList<>(entries)));
+        }
+    }
+
+    private PendingAppend enqueue(List<JournalEntry> entries) {
+        for (JournalEntry entry : entries) {
+            Assert.isTrue(recordSize(entry) <= segmentSize, "entry does not fit into a journal segment");
+        }
+        if (closed) {
+            throw new IllegalStateException("journal is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("journal failed", failure);
+        }
+        final PendingAppend pending = new PendingAppend(entries);
+        queue.add(pending);
+        if (closed && !writer.isAlive()) {
+            // lost the race with close() - nobody is going to write it
+            failPending(new IllegalStateException("journal is closed"));
+        }
+        return pending;
+    }
+
+    private static long await(PendingAppend pending) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return pending.done.get();
+                } catch (InterruptedException e) {
+                    // the entry may be written already, so the caller must not give up on it
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException("failed to append to journal", (IOException) cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        final List<PendingAppend> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                final PendingAppend first = queue.take();
+                if (first == CLOSE) {
+                    break;
+                }
+                batch.add(first);
+                running = fillBatch(batch, first.entries.size());
+                if (failure == null) {
+                    writeBatch(batch);
+                } else {
+                    fail(batch, failure);
+                }
+            } catch (InterruptedException e) {
+                fail(batch, new IllegalStateException("journal writer interrupted"));
+                running = false;
+            } catch (IOException | RuntimeException e) {
+                // keep draining the queue, so no caller waits forever, but do not write anything any more
+                logger.error("failed to write journal: " + e.getMessage(), e);
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                fail(batch, failure);
+            }
+            batch.clear();
+        }
+
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            logger.error("failed to close journal segment: " + e.getMessage(), e);
+        }
+    }
+
+    private static void fail(List<PendingAppend> batch, Exception cause) {
+        for (PendingAppend pending : batch) {
+            pending.done.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Takes further queued entries into the batch until it is full or {@link #maxWaitNanos} passed
+     *
+     * @return false if the journal is being closed
+     */
+    private boolean fillBatch(List<PendingAppend> batch, int size) throws InterruptedException {
+        final long deadline = System.nanoTime() + maxWaitNanos;
+        while (size < maxBatchSize) {
+            PendingAppend next = queue.poll();
+            if (next == null) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || (next = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                    return true;
+                }
+            }
+            if (next == CLOSE) {
+                return false;
+            }
+            batch.add(next);
+            size += next.entries.size();
+        }
+        return true;
+    }
+
+    private void writeBatch(List<PendingAppend> batch) throws IOException {
+        final long[] lastSequences = new long[batch.size()];
+        long sequence = lastSequence;
+        for (int i = 0; i < batch.size(); i++) {
+            for (JournalEntry entry : batch.get(i).entries) {
+                writeRecord(entry.withSequence(++sequence));
+            }
+            lastSequences[i] = sequence;
+        }
+
+        segment.force();
+        unforced = false;
+        commits.increment();
+        appends.add(sequence - lastSequence);
+        lastSequence = sequence;
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).done.complete(lastSequences[i]);
+        }
+    }
+
+    private static int recordSize(JournalEntry entry) {
+        return RECORD_SIZE + entry.getAccountNameBytes().length;
+    }
+
+    private void writeRecord(JournalEntry entry) throws IOException {
+        final int payloadSize = PAYLOAD_SIZE + entry.getAccountNameBytes().length;
+        if (segment.remaining() < HEADER_SIZE + payloadSize) {
+            closeSegment();
+            openSegment(entry.getSequence());
+        }
+
+        record.clear();
+        record.position(HEADER_SIZE);
+        record.putLong(entry.getSequence());
+        record.putLong(entry.getTimestamp());
+        record.put((byte) entry.getType().ordinal());
+        record.putLong(entry.getFromAcct());
+        record.putLong(entry.getToAcct());
+        record.putLong(entry.getAmountMinorUnits());
+        record.put(entry.getAccountNameBytes());
+
+        crc.reset();
+        crc.update(record.array(), HEADER_SIZE, payloadSize);
+        record.putInt(0, payloadSize);
+        record.putInt(4, (int) crc.getValue());
+
+        final int position = segment.position();
+        record.flip();
+        segment.put(record);
+        unforced = true;
+
+        if ((entry.getSequence() - segmentFirstSequence) % INDEX_INTERVAL == 0) {
+            writeIndexEntry(entry.getSequence(), position);
+        }
+    }
+
+    private void writeIndexEntry(long sequence, int position) throws IOException {
+        indexEntry.clear();
+        indexEntry.putLong(sequence).putInt(position).flip();
+        while (indexEntry.hasRemaining()) {
+            indexChannel.write(indexEntry);
+        }
+    }
+
+    /**
+     * @return the entry stored at the given position, or <code>null</code> if there is no valid record
+     */
+    private static JournalEntry readRecord(ByteBuffer buffer, int position) {
+        if (position < 0 || position + RECORD_SIZE > buffer.limit()) {
+            return null;
+        }
+        final int length = buffer.getInt(position);
+        if (length < PAYLOAD_SIZE || length > MAX_RECORD_SIZE - HEADER_SIZE
+                || position + HEADER_SIZE + length > buffer.limit()) {
+            return null;
+        }
+        final byte[] payload = new byte[length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(position + HEADER_SIZE);
+        source.get(payload);
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(payload, 0, length);
+        if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+            return null;
+        }
+
+        final ByteBuffer fields = ByteBuffer.wrap(payload);
+        final long sequence = fields.getLong();
+        final long timestamp = fields.getLong();
+        final int type = fields.get();
+        if (type < 0 || type >= JournalEntry.Type.values().length) {
+            return null;
+        }
+        final long fromAcct = fields.getLong();
+        final long toAcct = fields.getLong();
+        final long amount = fields.getLong();
+        buffer.position(position + HEADER_SIZE + length);
+        if (length == PAYLOAD_SIZE) {
+            return new JournalEntry(sequence, timestamp, JournalEntry.Type.values()[type], fromAcct, toAcct, amount);
+        }
+        final byte[] accountName = new byte[length - PAYLOAD_SIZE];
+        fields.get(accountName);
+        return new JournalEntry(sequence, timestamp, JournalEntry.Type.values()[type], fromAcct, toAcct, amount,
+                accountName);
+    }
+
+    private void failPending(Exception cause) {
+        PendingAppend pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Only entries already forced to disk when the replay starts are read. Safe to call concurrently with
+     * appends</p>
+     *
+     * @throws IllegalArgumentException in case consumer param is null
+     */
+    @Override
+    public long replay(long fromSequence, Consumer<JournalEntry> consumer) {
+        Assert.notNull(consumer, "consumer must be set");
+        final long toSequence = lastSequence;
+        long count = 0;
+        try {
+            final List<Long> segments = listSegments();
+            for (int i = 0; i < segments.size(); i++) {
+                final long first = segments.get(i);
+                final boolean hasNext = i + 1 < segments.size();
+                if (first > toSequence) {
+                    break;
+                }
+                if (hasNext && segments.get(i + 1) <= fromSequence) {
+                    continue;
+                }
+                count += replaySegment(first, fromSequence, toSequence, consumer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to replay journal", e);
+        }
+        return count;
+    }
+
+    private long replaySegment(long firstSequence, long fromSequence, long toSequence,
+            Consumer<JournalEntry> consumer) throws IOException {
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(segmentPath(firstSequence), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.position(seekPosition(firstSequence, fromSequence, buffer));
+
+            long expected = -1;
+            JournalEntry entry;
+            while ((entry = readRecord(buffer, buffer.position())) != null && entry.getSequence() <= toSequence) {
+                if (expected >= 0 && entry.getSequence() != expected) {
+                    break;
+                }
+                expected = entry.getSequence() + 1;
+                if (entry.getSequence() >= fromSequence) {
+                    consumer.accept(entry);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Looks up the position of the closest indexed entry not after the given sequence number
+     *
+     * @return the position to start reading the segment from
+     */
+    private int seekPosition(long firstSequence, long fromSequence, ByteBuffer segmentBuffer) throws IOException {
+        final Path index = indexPath(firstSequence);
+        if (fromSequence <= firstSequence || !Files.exists(index)) {
+            return 0;
+        }
+        final ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(index));
+        long bestSequence = -1;
+        int bestPosition = 0;
+        while (entries.remaining() >= INDEX_ENTRY_SIZE) {
+            final long sequence = entries.getLong();
+            final int position = entries.getInt();
+            if (sequence > fromSequence) {
+                break;
+            }
+            bestSequence = sequence;
+            bestPosition = position;
+        }
+        // the index is only a hint - fall back to scanning if it does not point to the expected record
+        final JournalEntry indexed = readRecord(segmentBuffer.duplicate(), bestPosition);
+        return indexed != null && indexed.getSequence() == bestSequence ? bestPosition : 0;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        final List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    logger.warn("ignoring unexpected file {} in journal directory", file);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(long firstSequence) {
+        return directory.resolve(String.format("%020d%s", firstSequence, SEGMENT_SUFFIX));
+    }
+
+    private Path indexPath(long firstSequence) {
+        return directory.resolve(String.format("%020d%s", firstSequence, INDEX_SUFFIX));
+    }
+
+    @Override
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return number of entries forced to disk
+     */
+    public long getAppendCount() {
+        return appends.sum();
+    }
+
+    /**
+     * @return number of batches forced to disk, each of them with a single {@link MappedByteBuffer#force()}
+     */
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Entries appended concurrently with closing may be rejected with an {@link IllegalStateException}</p>
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failPending(new IllegalStateException("journal is closed"));
+    }
+}
@@ -0,0 +1,59 @@
+package org.vilutis.lt.revolut.backend.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named set of monotonic counters told apart by the value of a single label, e.g. the DB action
+ */
+public class CounterFamily {
+
+    private final String name;
+
+    private final String help;
+
+    private final String labelName;
+
+    private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    CounterFamily(String name, String help, String labelName) {
+        this.name = name;
+        this.help = help;
+        this.labelName = labelName;
+    }
+
+    /**
+     * Looks up the counter of a label value. Does not allocate once the counter exists, so label values should be
+     * constants
+     *
+     * @param labelValue the label value, e.g. the DB action name
+     * @return the counter for the label value, created on first use
+     */
+    public LongAdder get(String labelValue) {
+        final LongAdder counter = counters.get(labelValue);
+        return counter != null ? counter : counters.computeIfAbsent(labelValue, key -> new LongAdder());
+    }
+
+    /**
+     * @param labelValue the label value, e.g. the DB action name
+     */
+    public void increment(String labelValue) {
+        get(labelValue).increment();
+    }
+
+    Map<String, Object> snapshot() {
+        final Map<String, Object> result = new TreeMap<>();
+        counters.forEach((labelValue, counter) -> result.put(labelValue, counter.sum()));
+        return result;
+    }
+
+    void writePrometheus(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        new TreeMap<>(counters).forEach((labelValue, counter) -> out.append(name).append('{').append(labelName)
+                .append("=\"").append(HistogramFamily.escapeLabelValue(labelValue)).append("\"} ")
+                .append(counter.sum()).append('\n'));
+    }
+}
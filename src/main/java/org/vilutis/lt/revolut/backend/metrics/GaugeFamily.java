@@ -0,0 +1,54 @@
+package org.vilutis.lt.revolut.backend.metrics;
+
+import spark.utils.Assert;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * A named set of gauges told apart by the value of a single label, e.g. the connection pool
+ */
+public class GaugeFamily {
+
+    private final String name;
+
+    private final String help;
+
+    private final String labelName;
+
+    private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    GaugeFamily(String name, String help, String labelName) {
+        this.name = name;
+        this.help = help;
+        this.labelName = labelName;
+    }
+
+    /**
+     * Registers ( or replaces ) the gauge of a label value, read every time the metrics are rendered
+     *
+     * @param labelValue the label value, e.g. the connection pool name
+     * @param value supplies the current value
+     */
+    public void set(String labelValue, LongSupplier value) {
+        Assert.notNull(labelValue, "labelValue must be set");
+        Assert.notNull(value, "value must be set");
+        gauges.put(labelValue, value);
+    }
+
+    Map<String, Object> snapshot() {
+        final Map<String, Object> result = new TreeMap<>();
+        gauges.forEach((labelValue, gauge) -> result.put(labelValue, gauge.getAsLong()));
+        return result;
+    }
+
+    void writePrometheus(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        new TreeMap<>(gauges).forEach((labelValue, gauge) -> out.append(name).append('{').append(labelName)
+                .append("=\"").append(HistogramFamily.escapeLabelValue(labelValue)).append("\"} ")
+                .append(gauge.getAsLong()).append('\n'));
+    }
+}
@@ -0,0 +1,68 @@
+package org.vilutis.lt.revolut.backend.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named set of {@link LatencyHistogram}s told apart by the value of a single label, e.g. the route or the DB action
+ */
+public class HistogramFamily {
+
+    private final String name;
+
+    private final String help;
+
+    private final String labelName;
+
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    HistogramFamily(String name, String help, String labelName) {
+        this.name = name;
+        this.help = help;
+        this.labelName = labelName;
+    }
+
+    /**
+     * Looks up the histogram of a label value. Does not allocate once the histogram exists, so label values should
+     * be constants
+     *
+     * @param labelValue the label value, e.g. the route name
+     * @return the histogram for the label value, created on first use
+     */
+    public LatencyHistogram get(String labelValue) {
+        final LatencyHistogram histogram = histograms.get(labelValue);
+        return histogram != null ? histogram : histograms.computeIfAbsent(labelValue, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Records a single operation
+     *
+     * @param labelValue the label value, e.g. the route name
+     * @param elapsedNanos how long the operation took
+     */
+    public void recordNanos(String labelValue, long elapsedNanos) {
+        get(labelValue).recordNanos(elapsedNanos);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Map<String, Object> snapshot() {
+        final Map<String, Object> result = new TreeMap<>();
+        histograms.forEach((labelValue, histogram) -> result.put(labelValue, histogram.snapshot()));
+        return result;
+    }
+
+    void writePrometheus(StringBuilder out) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        new TreeMap<>(histograms).forEach((labelValue, histogram) -> histogram.writePrometheus(name,
+                labelName + "=\"" + escapeLabelValue(labelValue) + "\"", out));
+    }
+
+    static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
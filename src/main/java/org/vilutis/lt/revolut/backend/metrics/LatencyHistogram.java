@@ -0,0 +1,105 @@
+package org.vilutis.lt.revolut.backend.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution of a single operation, recorded in microseconds.
+ *
+ * <p>Recording is wait-free and does not allocate: values go to an HDR {@link Recorder}, which is only drained into
+ * the cumulative {@link Histogram} when a snapshot is taken</p>
+ */
+public class LatencyHistogram {
+
+    /**
+     * Latencies above one minute are recorded as one minute
+     */
+    static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Recorder recorder = new Recorder(1, HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+
+    // snapshot state, guarded by this
+
+    private final Histogram cumulative = new Histogram(1, HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+
+    private Histogram interval;
+
+    private long lastSnapshotNanos = System.nanoTime();
+
+    private long lastSnapshotCount;
+
+    /**
+     * Records a single operation
+     *
+     * @param elapsedNanos how long the operation took
+     */
+    public void recordNanos(long elapsedNanos) {
+        final long micros = elapsedNanos / 1000;
+        recorder.recordValue(micros < 1 ? 1 : Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+    }
+
+    /**
+     * Drains recorded values into the cumulative histogram and describes it
+     *
+     * @return count, rate since the previous snapshot, mean and quantiles in microseconds
+     */
+    public synchronized Map<String, Object> snapshot() {
+        drain();
+        final long now = System.nanoTime();
+        final double intervalSeconds = (now - lastSnapshotNanos) / 1e9;
+        final long intervalCount = cumulative.getTotalCount() - lastSnapshotCount;
+        lastSnapshotNanos = now;
+        lastSnapshotCount = cumulative.getTotalCount();
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", cumulative.getTotalCount());
+        result.put("ratePerSecond", intervalSeconds > 0 ? intervalCount / intervalSeconds : 0.0);
+        result.put("meanMicros", cumulative.getTotalCount() > 0 ? cumulative.getMean() : 0.0);
+        for (double quantile : QUANTILES) {
+            result.put("p" + quantileName(quantile) + "Micros", cumulative.getValueAtPercentile(quantile * 100));
+        }
+        result.put("maxMicros", cumulative.getMaxValue());
+        return result;
+    }
+
+    /**
+     * Appends the histogram as a Prometheus summary in seconds
+     *
+     * @param name the metric name
+     * @param labels the label pairs identifying this histogram, e.g. <code>route="GET /api"</code>
+     * @param out the Prometheus text exposition to append to
+     */
+    synchronized void writePrometheus(String name, String labels, StringBuilder out) {
+        drain();
+        for (double quantile : QUANTILES) {
+            out.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(cumulative.getValueAtPercentile(quantile * 100) / 1e6).append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ")
+                .append(cumulative.getTotalCount() > 0 ? cumulative.getMean() * cumulative.getTotalCount() / 1e6 : 0.0)
+                .append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative.getTotalCount())
+                .append('\n');
+    }
+
+    private void drain() {
+        interval = recorder.getIntervalHistogram(interval);
+        cumulative.add(interval);
+    }
+
+    /**
+     * @return e.g. 50 for 0.5, 999 for 0.999
+     */
+    private static String quantileName(double quantile) {
+        final String digits = Double.toString(quantile).substring(2);
+        return digits.length() == 1 ? digits + "0" : digits;
+    }
+}
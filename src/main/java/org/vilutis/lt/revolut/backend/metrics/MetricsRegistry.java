@@ -0,0 +1,140 @@
+package org.vilutis.lt.revolut.backend.metrics;
+
+import spark.utils.Assert;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds all latency histograms, value distributions, counters and gauges of the application and renders them as
+ * JSON-friendly maps or as the Prometheus text exposition format
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentHashMap<String, HistogramFamily> families = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, ValueHistogram> distributions = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, CounterFamily> counters = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, GaugeFamily> gaugeFamilies = new ConcurrentHashMap<>();
+
+    private static class Gauge {
+        private final String help;
+        private final LongSupplier value;
+
+        private Gauge(String help, LongSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    /**
+     * @param name the metric name, following Prometheus naming, e.g. <code>http_request_duration_seconds</code>
+     * @param help the metric description
+     * @param labelName the name of the label telling histograms of the family apart
+     * @return the histogram family, created on first use
+     */
+    public HistogramFamily histograms(String name, String help, String labelName) {
+        Assert.hasLength(name, "name must be set");
+        Assert.hasLength(labelName, "labelName must be set");
+        return families.computeIfAbsent(name, key -> new HistogramFamily(name, help, labelName));
+    }
+
+    /**
+     * @param name the metric name, following Prometheus naming, e.g. <code>sequencer_batch_size</code>
+     * @param help the metric description
+     * @param highestTrackableValue values above are recorded as this value
+     * @return the value distribution, created on first use
+     */
+    public ValueHistogram distribution(String name, String help, long highestTrackableValue) {
+        Assert.hasLength(name, "name must be set");
+        Assert.isTrue(highestTrackableValue >= 2, "highestTrackableValue must be at least 2");
+        return distributions.computeIfAbsent(name, key -> new ValueHistogram(name, help, highestTrackableValue));
+    }
+
+    /**
+     * @param name the metric name, following Prometheus naming, e.g. <code>db_transaction_retries_total</code>
+     * @param help the metric description
+     * @param labelName the name of the label telling counters of the family apart
+     * @return the counter family, created on first use
+     */
+    public CounterFamily counters(String name, String help, String labelName) {
+        Assert.hasLength(name, "name must be set");
+        Assert.hasLength(labelName, "labelName must be set");
+        return counters.computeIfAbsent(name, key -> new CounterFamily(name, help, labelName));
+    }
+
+    /**
+     * Registers ( or replaces ) a gauge read every time the metrics are rendered
+     *
+     * @param name the metric name, following Prometheus naming, e.g. <code>sequencer_queue_depth</code>
+     * @param help the metric description
+     * @param value supplies the current value
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        Assert.hasLength(name, "name must be set");
+        Assert.notNull(value, "value must be set");
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * @param name the metric name, following Prometheus naming, e.g. <code>db_pool_active_connections</code>
+     * @param help the metric description
+     * @param labelName the name of the label telling gauges of the family apart
+     * @return the gauge family, created on first use
+     */
+    public GaugeFamily gauges(String name, String help, String labelName) {
+        Assert.hasLength(name, "name must be set");
+        Assert.hasLength(labelName, "labelName must be set");
+        return gaugeFamilies.computeIfAbsent(name, key -> new GaugeFamily(name, help, labelName));
+    }
+
+    /**
+     * @return histograms, counters and gauge families by family name and label value, distributions and gauges by
+     * name
+     */
+    public LinkedHashMap<String, Object> snapshot() {
+        final Map<String, Object> histograms = new TreeMap<>();
+        families.forEach((name, family) -> histograms.put(name, family.snapshot()));
+
+        final Map<String, Object> distributionValues = new TreeMap<>();
+        distributions.forEach((name, distribution) -> distributionValues.put(name, distribution.snapshot()));
+
+        final Map<String, Object> counterValues = new TreeMap<>();
+        counters.forEach((name, family) -> counterValues.put(name, family.snapshot()));
+
+        final Map<String, Object> gaugeValues = new TreeMap<>();
+        gauges.forEach((name, gauge) -> gaugeValues.put(name, gauge.value.getAsLong()));
+        gaugeFamilies.forEach((name, family) -> gaugeValues.put(name, family.snapshot()));
+
+        final LinkedHashMap<String, Object> result = new LinkedHashMap<>();
+        result.put("histograms", histograms);
+        result.put("distributions", distributionValues);
+        result.put("counters", counterValues);
+        result.put("gauges", gaugeValues);
+        return result;
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format, version 0.0.4
+     */
+    public String toPrometheus() {
+        final StringBuilder out = new StringBuilder();
+        new TreeMap<>(families).values().forEach(family -> family.writePrometheus(out));
+        new TreeMap<>(distributions).values().forEach(distribution -> distribution.writePrometheus(out));
+        new TreeMap<>(counters).values().forEach(family -> family.writePrometheus(out));
+        new TreeMap<>(gauges).forEach((name, gauge) -> {
+            out.append("# HELP ").append(name).append(' ').append(gauge.help).append('\n');
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            out.append(name).append(' ').append(gauge.value.getAsLong()).append('\n');
+        });
+        new TreeMap<>(gaugeFamilies).values().forEach(family -> family.writePrometheus(out));
+        return out.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package org.vilutis.lt.revolut.backend.metrics;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Publishes HikariCP connection pool wait time and pool sizes to a {@link MetricsRegistry}, labelled by pool name, so
+ * several pools, e.g. of replicas and shards, share a registry
+ */
+public class PoolMetricsTrackerFactory implements MetricsTrackerFactory {
+
+    private final MetricsRegistry registry;
+
+    public PoolMetricsTrackerFactory(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        registry.gauges("db_pool_active_connections", "Connections in use", "pool")
+                .set(poolName, poolStats::getActiveConnections);
+        registry.gauges("db_pool_idle_connections", "Connections idle in the pool", "pool")
+                .set(poolName, poolStats::getIdleConnections);
+        registry.gauges("db_pool_total_connections", "Connections open", "pool")
+                .set(poolName, poolStats::getTotalConnections);
+        registry.gauges("db_pool_pending_threads", "Threads waiting for a connection", "pool")
+                .set(poolName, poolStats::getPendingThreads);
+
+        final LatencyHistogram waitTime = registry.histograms("db_pool_wait_duration_seconds",
+                "Time waited for a pooled connection", "pool").get(poolName);
+
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                waitTime.recordNanos(elapsedAcquiredNanos);
+            }
+        };
+    }
+}
@@ -0,0 +1,64 @@
+package org.vilutis.lt.revolut.backend.metrics;
+
+import spark.Filter;
+import spark.Route;
+
+/**
+ * Records the latency of every Spark route, including the response transformer, using a before/after filter pair.
+ *
+ * <p>Spark runs every filter with its own matched path, so the route name is set by the route itself: wrap it with
+ * {@link #named(String, Route)}. Requests not reaching a named route are recorded as {@link #UNMATCHED}. The request
+ * state is kept in a per-thread holder, so recording does not allocate</p>
+ */
+public class RouteMetrics {
+
+    static final String UNMATCHED = "unmatched";
+
+    private final HistogramFamily requests;
+
+    private final ThreadLocal<RequestTiming> timing = ThreadLocal.withInitial(RequestTiming::new);
+
+    private static class RequestTiming {
+        private long startNanos;
+        private String route;
+    }
+
+    /**
+     * Starts timing a request. To be registered with <code>before</code>
+     */
+    public final Filter before;
+
+    /**
+     * Records the request latency. To be registered with <code>afterAfter</code>, so it runs even if the route failed
+     */
+    public final Filter after;
+
+    public RouteMetrics(MetricsRegistry registry) {
+        this.requests = registry.histograms("http_request_duration_seconds", "HTTP request latency by route",
+                "route");
+        this.before = (request, response) -> {
+            final RequestTiming current = timing.get();
+            current.startNanos = System.nanoTime();
+            current.route = UNMATCHED;
+        };
+        this.after = (request, response) -> {
+            final RequestTiming current = timing.get();
+            if (current.startNanos != 0) {
+                requests.recordNanos(current.route, System.nanoTime() - current.startNanos);
+                current.startNanos = 0;
+            }
+        };
+    }
+
+    /**
+     * @param name the route name to record latency under, e.g. <code>GET /api/account/:accountNumber</code>
+     * @param route the route to time
+     * @return the route recording its name for the {@link #after} filter
+     */
+    public Route named(String name, Route route) {
+        return (request, response) -> {
+            timing.get().route = name;
+            return route.handle(request, response);
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package org.vilutis.lt.revolut.backend.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Distribution of a unitless value, e.g. a batch size.
+ *
+ * <p>Like {@link LatencyHistogram}, recording is wait-free and does not allocate</p>
+ */
+public class ValueHistogram {
+
+    private static final int SIGNIFICANT_DIGITS = 2;
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final String name;
+
+    private final String help;
+
+    private final long highestTrackableValue;
+
+    private final Recorder recorder;
+
+    // snapshot state, guarded by this
+
+    private final Histogram cumulative;
+
+    private Histogram interval;
+
+    /**
+     * @param highestTrackableValue values above are recorded as this value
+     */
+    ValueHistogram(String name, String help, long highestTrackableValue) {
+        this.name = name;
+        this.help = help;
+        this.highestTrackableValue = highestTrackableValue;
+        this.recorder = new Recorder(1, highestTrackableValue, SIGNIFICANT_DIGITS);
+        this.cumulative = new Histogram(1, highestTrackableValue, SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * @param value the value to record, at least 1
+     */
+    public void recordValue(long value) {
+        recorder.recordValue(value < 1 ? 1 : Math.min(value, highestTrackableValue));
+    }
+
+    /**
+     * @return count, mean, quantiles and maximum of all recorded values
+     */
+    public synchronized Map<String, Object> snapshot() {
+        drain();
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", cumulative.getTotalCount());
+        result.put("mean", cumulative.getTotalCount() > 0 ? cumulative.getMean() : 0.0);
+        for (double quantile : QUANTILES) {
+            result.put("p" + Math.round(quantile * 100), cumulative.getValueAtPercentile(quantile * 100));
+        }
+        result.put("max", cumulative.getMaxValue());
+        return result;
+    }
+
+    /**
+     * Appends the histogram as a Prometheus summary
+     */
+    synchronized void writePrometheus(StringBuilder out) {
+        drain();
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(cumulative.getValueAtPercentile(quantile * 100)).append('\n');
+        }
+        final long count = cumulative.getTotalCount();
+        out.append(name).append("_sum ").append(count > 0 ? Math.round(cumulative.getMean() * count) : 0).append('\n');
+        out.append(name).append("_count ").append(count).append('\n');
+    }
+
+    private void drain() {
+        interval = recorder.getIntervalHistogram(interval);
+        cumulative.add(interval);
+    }
+}
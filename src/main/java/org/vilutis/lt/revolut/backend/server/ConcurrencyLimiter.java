@@ -0,0 +1,194 @@
+package org.vilutis.lt.revolut.backend.server;
+
+import spark.utils.Assert;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the number of operations in flight to an estimate of what the system behind them can take without queueing,
+ * adapted to their observed latency in the manner of gradient ( TCP Vegas like ) limiters.
+ *
+ * <p>Latencies are averaged over short windows and compared with a slowly moving long-term average. While the short
+ * term latency stays within {@link #TOLERANCE} of the long-term one the limit grows by about its square root per
+ * window; once operations get slower, as they do when they start queueing for a database connection or a row lock,
+ * the limit shrinks in proportion to the slow down. Changes are smoothed over several windows. The limit only grows
+ * while at least half of it is in use, so an idle limiter does not drift up to its maximum</p>
+ *
+ * <p>{@link #tryAcquire()} never blocks: operations over the limit are meant to be rejected right away, while they
+ * are still cheap to retry</p>
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * How much slower than the long-term average operations may get before the limit shrinks
+     */
+    static final double TOLERANCE = 1.5D;
+
+    /**
+     * Weight of a new window in the limit, the rest is the previous limit
+     */
+    private static final double SMOOTHING = 0.2D;
+
+    /**
+     * Weight of a new window in the long-term latency average
+     */
+    private static final double LONG_TERM_WEIGHT = 0.05D;
+
+    static final long DEFAULT_WINDOW_NANOS = 100_000_000L;
+
+    static final int MIN_WINDOW_SAMPLES = 10;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long windowNanos;
+
+    private final LongSupplier nanoClock;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile int limit;
+
+    // window and estimate state, guarded by this
+
+    private double estimatedLimit;
+
+    private double longTermLatencyNanos;
+
+    private long windowStartNanos;
+
+    private long windowLatencySumNanos;
+
+    private int windowSamples;
+
+    private int windowMaxInFlight;
+
+    /**
+     * @param initialLimit the limit until latencies have been observed
+     * @param minLimit the lowest the limit may get
+     * @param maxLimit the highest the limit may get
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, DEFAULT_WINDOW_NANOS, System::nanoTime);
+    }
+
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long windowNanos, LongSupplier nanoClock) {
+        Assert.isTrue(minLimit > 0, "minLimit must be positive");
+        Assert.isTrue(maxLimit >= minLimit, "maxLimit must not be lower than minLimit");
+        Assert.isTrue(initialLimit >= minLimit && initialLimit <= maxLimit,
+                "initialLimit must be between minLimit and maxLimit");
+        Assert.notNull(nanoClock, "nanoClock must be set");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowNanos = windowNanos;
+        this.nanoClock = nanoClock;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+        this.windowStartNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Takes a slot if fewer operations than the limit are in flight. Every successful call must be followed by a
+     * {@link #release(long)}
+     *
+     * @return <code>true</code> if the operation may proceed, <code>false</code> if it should be rejected
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Frees the slot of a finished operation and feeds its latency to the limit estimate
+     *
+     * @param latencyNanos how long the operation took
+     */
+    public void release(long latencyNanos) {
+        final int current = inFlight.getAndDecrement();
+        synchronized (this) {
+            windowLatencySumNanos += Math.max(latencyNanos, 1L);
+            windowSamples++;
+            windowMaxInFlight = Math.max(windowMaxInFlight, current);
+
+            final long now = nanoClock.getAsLong();
+            if (now - windowStartNanos >= windowNanos && windowSamples >= MIN_WINDOW_SAMPLES) {
+                updateLimit((double) windowLatencySumNanos / windowSamples);
+                windowStartNanos = now;
+                windowLatencySumNanos = 0;
+                windowSamples = 0;
+                windowMaxInFlight = 0;
+            }
+        }
+    }
+
+    private void updateLimit(double shortTermLatencyNanos) {
+        if (longTermLatencyNanos == 0) {
+            longTermLatencyNanos = shortTermLatencyNanos;
+        } else {
+            longTermLatencyNanos += (shortTermLatencyNanos - longTermLatencyNanos) * LONG_TERM_WEIGHT;
+            if (longTermLatencyNanos > shortTermLatencyNanos * 2) {
+                // recovered from an overload, do not keep comparing with the latencies of the overload
+                longTermLatencyNanos = shortTermLatencyNanos * 2;
+            }
+        }
+
+        final double gradient =
+                Math.max(0.5D, Math.min(1.0D, TOLERANCE * longTermLatencyNanos / shortTermLatencyNanos));
+        double newLimit = estimatedLimit * gradient;
+        if (gradient == 1.0D && windowMaxInFlight >= estimatedLimit / 2) {
+            newLimit += Math.sqrt(estimatedLimit);
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit,
+                estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * @return the current limit of operations in flight
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the highest the limit may get
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @return operations in flight right now
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return operations rejected so far
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the long-term average latency the limit is estimated against, in nanoseconds. <code>0</code> until the
+     * first window is complete
+     */
+    public synchronized long getLongTermLatencyNanos() {
+        return (long) longTermLatencyNanos;
+    }
+}
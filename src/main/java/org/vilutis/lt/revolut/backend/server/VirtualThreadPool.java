@@ -0,0 +1,135 @@
+package org.vilutis.lt.revolut.backend.server;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jetty {@link ThreadPool} starting a new virtual thread for every task, so connectors and requests are not limited by
+ * a fixed number of threads. A request blocked on a pooled JDBC connection or on I/O only parks its virtual thread.
+ *
+ * <p>Virtual threads need Java 21 or newer. They are created using reflection, so the application still builds and
+ * runs on Java 8 - check {@link #isSupported()} before creating the pool</p>
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR =
+            findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private final ExecutorService executor;
+
+    private final AtomicInteger threads = new AtomicInteger();
+
+    /**
+     * @param namePrefix name prefix of the virtual threads, followed by a sequence number
+     * @throws IllegalStateException if virtual threads are not supported by this JVM
+     */
+    public VirtualThreadPool(String namePrefix) {
+        if (!isSupported()) {
+            throw new IllegalStateException("virtual threads require Java 21 or newer");
+        }
+        this.executor = newVirtualThreadExecutor(namePrefix);
+    }
+
+    /**
+     * @return <code>true</code> if this JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!isRunning() && !isStarting()) {
+            throw new RejectedExecutionException("thread pool is " + getState());
+        }
+        threads.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    threads.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            threads.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Blocks until the pool is stopped and all running tasks have finished
+     */
+    @Override
+    public void join() throws InterruptedException {
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            // keep waiting
+        }
+    }
+
+    /**
+     * @return number of running tasks, each on its own virtual thread
+     */
+    @Override
+    public int getThreads() {
+        return threads.get();
+    }
+
+    /**
+     * @return always 0 - virtual threads are never pooled
+     */
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    /**
+     * @return always <code>false</code> - a new virtual thread can be started for every task
+     */
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        executor.shutdown();
+        if (!executor.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Calls <code>Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory())</code>
+     */
+    private static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+        try {
+            final Object builder = OF_VIRTUAL.invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final Object namedBuilder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, namePrefix, 0L);
+            final ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(namedBuilder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("unable to create virtual threads", e);
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
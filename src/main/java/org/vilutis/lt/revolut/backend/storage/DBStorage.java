@@ -1,20 +1,78 @@
 package org.vilutis.lt.revolut.backend.storage;
 
+import com.zaxxer.hikari.HikariConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.vilutis.lt.revolut.backend.metrics.CounterFamily;
+import org.vilutis.lt.revolut.backend.metrics.HistogramFamily;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import spark.utils.Assert;
 
 import java.io.Serializable;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
- * JDBC Data Storage accessor util
+ * JDBC Data Storage accessor util. The database schema is brought up to date by the {@link SchemaMigrator} on creation
+ *
+ * <p>With read-only replicas configured, {@link #runSQL} actions read from a replica and
+ * {@link #runInTransaction} actions always run on the primary. Replicas are kept in sync by a {@link ReplicationFeed}
+ * and may lag behind it, so every thread has a session position: reads are routed to a replica which has applied
+ * every transaction up to it, or to the primary if none has. Transactions committed by a thread move its session
+ * position to their own, so a thread always reads its own writes. Transactions committed on its behalf by another
+ * thread must be passed on using {@link #advanceSession(long)}. See {@link #startSession(long)}</p>
  */
-public class DBStorage {
+public class DBStorage implements AutoCloseable {
+
+    /**
+     * Default maximum number of prepared statements cached per pooled connection
+     */
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    /**
+     * Action name recorded for {@link DBAction}s run without a name
+     */
+    static final String UNNAMED_ACTION = "unnamed";
 
     private final DataSource dataSource;
 
+    private final int statementCacheSize;
+
+    /**
+     * Prepared statement caches by physical JDBC {@link Connection}
+     */
+    private final ConcurrentHashMap<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+
+    private final StatementCache.Counters statementCacheCounters = new StatementCache.Counters();
+
+    private final HistogramFamily sqlLatency;
+
+    private final HistogramFamily transactionLatency;
+
+    private final RetryPolicy retryPolicy;
+
+    private final CounterFamily transactionRetries;
+
+    /**
+     * <code>null</code> if no replicas are configured
+     */
+    private final ReplicationFeed replication;
+
+    private final CounterFamily reads;
+
+    /**
+     * The replication position reads of the current thread must see
+     */
+    private final ThreadLocal<long[]> sessionPosition = ThreadLocal.withInitial(() -> new long[1]);
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     /**
@@ -38,11 +96,283 @@ public class DBStorage {
      * @see <a href="https://github.com/brettwooldridge/HikariCP#configuration-knobs-baby">HikariCP configuration</a>
      */
     public DBStorage(String propertyFileName) {
-        this.dataSource = new DataSource(propertyFileName);
+        this(propertyFileName, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * Instantiates {@link DBStorage} and creates JDBC {@link Connection} pool to be accessed using {@link DataSource}
+     *
+     * @param propertyFileName HikariCP property file location in the class path.
+     * @param statementCacheSize maximum number of prepared statements cached per pooled connection
+     * @see <a href="https://github.com/brettwooldridge/HikariCP#configuration-knobs-baby">HikariCP configuration</a>
+     */
+    public DBStorage(String propertyFileName, int statementCacheSize) {
+        this(propertyFileName, statementCacheSize, new MetricsRegistry());
+    }
+
+    /**
+     * Instantiates {@link DBStorage} and creates JDBC {@link Connection} pool to be accessed using {@link DataSource}
+     *
+     * @param propertyFileName HikariCP property file location in the class path.
+     * @param statementCacheSize maximum number of prepared statements cached per pooled connection
+     * @param metrics the registry to record action latencies and connection pool metrics in
+     * @see <a href="https://github.com/brettwooldridge/HikariCP#configuration-knobs-baby">HikariCP configuration</a>
+     */
+    public DBStorage(String propertyFileName, int statementCacheSize, MetricsRegistry metrics) {
+        this(propertyFileName, statementCacheSize, metrics, new RetryPolicy());
+    }
+
+    /**
+     * Instantiates {@link DBStorage} and creates JDBC {@link Connection} pool to be accessed using {@link DataSource}
+     *
+     * @param propertyFileName HikariCP property file location in the class path.
+     * @param statementCacheSize maximum number of prepared statements cached per pooled connection
+     * @param metrics the registry to record action latencies, retries and connection pool metrics in
+     * @param retryPolicy decides which failed transactions are run again
+     * @throws RuntimeException if the schema migrations fail
+     * @see <a href="https://github.com/brettwooldridge/HikariCP#configuration-knobs-baby">HikariCP configuration</a>
+     */
+    public DBStorage(String propertyFileName, int statementCacheSize, MetricsRegistry metrics,
+            RetryPolicy retryPolicy) {
+        this(propertyFileName, statementCacheSize, metrics, retryPolicy, Collections.emptyList());
+    }
+
+    /**
+     * Instantiates {@link DBStorage} with a primary JDBC {@link Connection} pool and a read-only pool per replica.
+     * Replicas are copied from the primary first, so they may start empty
+     *
+     * @param propertyFileName HikariCP property file location in the class path. Replica pools are configured the
+     *                         same way, except for the JDBC URL
+     * @param statementCacheSize maximum number of prepared statements cached per pooled connection
+     * @param metrics the registry to record action latencies, retries, connection pool metrics and replication
+     *                positions in
+     * @param retryPolicy decides which failed transactions are run again
+     * @param replicaUrls JDBC URLs of the read-only replicas, none if empty
+     * @throws RuntimeException if the schema migrations or the replica copy fail
+     * @see <a href="https://github.com/brettwooldridge/HikariCP#configuration-knobs-baby">HikariCP configuration</a>
+     */
+    public DBStorage(String propertyFileName, int statementCacheSize, MetricsRegistry metrics,
+            RetryPolicy retryPolicy, List<String> replicaUrls) {
+        this(propertyFileName, statementCacheSize, metrics, retryPolicy, replicaUrls,
+                ReplicationFeed.DEFAULT_POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Instantiates {@link DBStorage} for a database configured by the given property file except for its JDBC URL,
+     * e.g. one of several account shards
+     *
+     * @param propertyFileName HikariCP property file location in the class path.
+     * @param jdbcUrl the JDBC URL of the database
+     * @param poolName the name of the connection pool, e.g. to tell apart the pool wait times of several databases
+     * @param metrics the registry to record action latencies, retries and connection pool metrics in
+     * @see <a href="https://github.com/brettwooldridge/HikariCP#configuration-knobs-baby">HikariCP configuration</a>
+     */
+    public DBStorage(String propertyFileName, String jdbcUrl, String poolName, MetricsRegistry metrics) {
+        this(withJdbcUrl(new HikariConfig(propertyFileName), jdbcUrl, poolName), DEFAULT_STATEMENT_CACHE_SIZE,
+                metrics, new RetryPolicy(), Collections.emptyList(), ReplicationFeed.DEFAULT_POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param replicationIntervalMillis how often replicas are brought up to date, never if <code>0</code>. See
+     *                                  {@link #replicate()}
+     */
+    DBStorage(String propertyFileName, int statementCacheSize, MetricsRegistry metrics, RetryPolicy retryPolicy,
+            List<String> replicaUrls, long replicationIntervalMillis) {
+        this(new HikariConfig(propertyFileName), statementCacheSize, metrics, retryPolicy, replicaUrls,
+                replicationIntervalMillis);
+    }
+
+    private DBStorage(HikariConfig config, int statementCacheSize, MetricsRegistry metrics, RetryPolicy retryPolicy,
+            List<String> replicaUrls, long replicationIntervalMillis) {
+        Assert.isTrue(statementCacheSize > 0, "statementCacheSize must be more than zero");
+        Assert.notNull(metrics, "metrics must be set");
+        Assert.notNull(retryPolicy, "retryPolicy must be set");
+        Assert.notNull(replicaUrls, "replicaUrls must be set");
+        this.dataSource = new DataSource(config, metrics);
+        this.statementCacheSize = statementCacheSize;
+        this.sqlLatency = metrics.histograms("db_sql_duration_seconds",
+                "Latency of DB actions run in auto commit mode, including the connection wait", "action");
+        this.transactionLatency = metrics.histograms("db_transaction_duration_seconds",
+                "Latency of DB actions run in a transaction, including the connection wait, commit and retries",
+                "action");
+        this.retryPolicy = retryPolicy;
+        this.transactionRetries = metrics.counters("db_transaction_retries_total",
+                "Transactions run again after a lock timeout, deadlock or concurrent update", "action");
+
+        this.reads = metrics.counters("db_reads_total", "DB actions run in auto commit mode by pool", "pool");
+
+        try {
+            try (Connection connection = dataSource.getConnection()) {
+                new SchemaMigrator().migrate(connection);
+                if (replicaUrls.isEmpty()) {
+                    ReplicationFeed.uninstall(connection);
+                }
+            }
+            this.replication = replicaUrls.isEmpty() ? null : new ReplicationFeed(dataSource, config,
+                    replicaUrls, replicationIntervalMillis, metrics);
+        } catch (SQLException e) {
+            dataSource.close();
+            throw ExceptionHelper.convertException(e);
+        }
+    }
+
+    private static HikariConfig withJdbcUrl(HikariConfig config, String jdbcUrl, String poolName) {
+        config.setJdbcUrl(jdbcUrl);
+        config.setPoolName(poolName);
+        return config;
     }
 
     /**
-     * Runs SQL in default JDBC {@link Connection} (auto) commit mode. Does not create a transaction
+     * Returns a {@link PreparedStatement} cached for the physical connection behind the given pooled one, so the same
+     * SQL is parsed and planned by the database only once per physical connection. The SQL text is the cache key, so
+     * only constant SQL should be cached.
+     *
+     * <p>The returned statement is owned by the cache and must NOT be closed by the caller. Any {@link ResultSet}
+     * returned by it must be closed as usual. All parameters must be set before every execution.</p>
+     *
+     * @param connection the pooled JDBC {@link Connection} passed to a {@link DBAction}
+     * @param sql the constant SQL to prepare
+     * @return a cached {@link PreparedStatement}
+     * @throws SQLException in case of DB error
+     */
+    public PreparedStatement prepareCached(Connection connection, String sql) throws SQLException {
+        return prepareCached(connection, sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * Same as {@link #prepareCached(Connection, String)}, but allows to retrieve auto-generated keys
+     *
+     * @param connection the pooled JDBC {@link Connection} passed to a {@link DBAction}
+     * @param sql the constant SQL to prepare
+     * @param autoGeneratedKeys either {@link Statement#RETURN_GENERATED_KEYS} or {@link Statement#NO_GENERATED_KEYS}
+     * @return a cached {@link PreparedStatement}
+     * @throws SQLException in case of DB error
+     */
+    public PreparedStatement prepareCached(Connection connection, String sql, int autoGeneratedKeys)
+            throws SQLException {
+        return statementCacheOf(connection).prepare(sql, autoGeneratedKeys);
+    }
+
+    /**
+     * Same as {@link #prepareCached(Connection, String)}, but returns the given columns of the rows changed by an
+     * <code>UPDATE</code> as generated keys, so they are not read by another statement
+     *
+     * @param connection the pooled JDBC {@link Connection} passed to a {@link DBAction}
+     * @param sql the constant SQL to prepare
+     * @param columnNames the columns to return by {@link PreparedStatement#getGeneratedKeys()}
+     * @return a cached {@link PreparedStatement}
+     * @throws SQLException in case of DB error
+     */
+    public PreparedStatement prepareCached(Connection connection, String sql, String[] columnNames)
+            throws SQLException {
+        return statementCacheOf(connection).prepare(sql, columnNames);
+    }
+
+    private StatementCache statementCacheOf(Connection connection) throws SQLException {
+        final Connection physicalConnection = connection.unwrap(Connection.class);
+
+        StatementCache cache = statementCaches.get(physicalConnection);
+        if (cache == null) {
+            // physical connections are replaced by the pool from time to time - drop caches of closed ones
+            statementCaches.values().removeIf(StatementCache::isClosed);
+            cache = statementCaches.computeIfAbsent(physicalConnection,
+                    key -> new StatementCache(key, statementCacheSize, statementCacheCounters));
+        }
+        return cache;
+    }
+
+    /**
+     * @return the maximum number of pooled DB connections
+     */
+    public int getMaximumPoolSize() {
+        return dataSource.getMaximumPoolSize();
+    }
+
+    /**
+     * @return number of times a cached prepared statement was reused
+     */
+    public long getStatementCacheHits() {
+        return statementCacheCounters.hits.sum();
+    }
+
+    /**
+     * @return number of times a statement had to be prepared as it was not cached yet
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheCounters.misses.sum();
+    }
+
+    /**
+     * @return number of cached statements closed to keep the cache within its size
+     */
+    public long getStatementCacheEvictions() {
+        return statementCacheCounters.evictions.sum();
+    }
+
+    /**
+     * Starts a new session on the current thread, e.g. when a request starts: following {@link #runSQL} reads see at
+     * least every transaction up to the given replication position
+     *
+     * @param position a position returned by {@link #getSessionPosition()} earlier, maybe on another thread or
+     *                 process. <code>0</code> if any replica may be read from
+     */
+    public void startSession(long position) {
+        sessionPosition.get()[0] = position;
+    }
+
+    /**
+     * @return the replication position reads of the current thread see at least: the position of the last transaction
+     * it committed or the one its session was started with, whichever is later. <code>0</code> without replicas
+     */
+    public long getSessionPosition() {
+        return sessionPosition.get()[0];
+    }
+
+    /**
+     * Moves the session position of the current thread forward, e.g. to a transaction committed on its behalf by
+     * another thread, so following reads see it
+     *
+     * @param position a position returned by {@link #getSessionPosition()} on the other thread. Ignored if not later
+     *                 than the session position
+     */
+    public void advanceSession(long position) {
+        final long[] session = sessionPosition.get();
+        session[0] = Math.max(session[0], position);
+    }
+
+    /**
+     * Runs reads of the current thread on the primary database, whatever its session position, e.g. to load data which
+     * is cached beyond the session and must not be older than the last write
+     *
+     * @param reads the reads to run, by {@link #runSQL} actions
+     * @param <T> the reads return type
+     * @return the result of the reads
+     */
+    public <T> T onPrimary(Supplier<T> reads) {
+        final long[] session = sessionPosition.get();
+        final long position = session[0];
+        // no replica reaches this position
+        session[0] = Long.MAX_VALUE;
+        try {
+            return reads.get();
+        } finally {
+            session[0] = position;
+        }
+    }
+
+    /**
+     * Brings the replicas up to date right away, instead of waiting for the background poll
+     *
+     * @return the replication position all replicas have reached
+     */
+    long replicate() throws SQLException {
+        Assert.notNull(replication, "no replicas configured");
+        return replication.poll();
+    }
+
+    /**
+     * Runs SQL in default JDBC {@link Connection} (auto) commit mode. Does not create a transaction. Runs on a replica
+     * if one has reached the session position, see {@link #startSession(long)}, so the action must only read
      *
      * @param action the {@link DBAction} to run
      * @param <T> the {@link DBAction} return type
@@ -50,8 +380,49 @@ public class DBStorage {
      * @throws SQLException in case of DB error
      */
     public <T extends Serializable> T runSQL(DBAction<T> action) throws SQLException {
-        try (Connection connection = dataSource.getConnection()) {
+        return runSQL(UNNAMED_ACTION, action);
+    }
+
+    /**
+     * Runs SQL in default JDBC {@link Connection} (auto) commit mode. Does not create a transaction. Runs on a replica
+     * if one has reached the session position, see {@link #startSession(long)}, so the action must only read
+     *
+     * @param actionName the name to record the action latency under. Should be a constant
+     * @param action the {@link DBAction} to run
+     * @param <T> the {@link DBAction} return type
+     * @return result from {@link DBAction#doSQL(Connection)} if successful
+     * @throws SQLException in case of DB error
+     */
+    public <T extends Serializable> T runSQL(String actionName, DBAction<T> action) throws SQLException {
+        final DataSource replica = replication == null ? null : replication.replicaAt(getSessionPosition());
+        return runSQL(actionName, replica == null ? dataSource : replica, action);
+    }
+
+    /**
+     * Runs SQL on the primary database in default JDBC {@link Connection} (auto) commit mode. Does not create a
+     * transaction. Rows changed are not replicated, so the action should only read
+     *
+     * @param actionName the name to record the action latency under. Should be a constant
+     * @param action the {@link DBAction} to run
+     * @param <T> the {@link DBAction} return type
+     * @return result from {@link DBAction#doSQL(Connection)} if successful
+     * @throws SQLException in case of DB error
+     */
+    public <T extends Serializable> T runSQLOnPrimary(String actionName, DBAction<T> action) throws SQLException {
+        return runSQL(actionName, dataSource, action);
+    }
+
+    private <T extends Serializable> T runSQL(String actionName, DataSource source, DBAction<T> action)
+            throws SQLException {
+        final long start = System.nanoTime();
+        try (Connection connection = source.getConnection()) {
             return action.doSQL(connection);
+        } finally {
+            if (replication != null) {
+                replication.discard();
+                reads.increment(source == dataSource ? "primary" : "replica");
+            }
+            sqlLatency.recordNanos(actionName, System.nanoTime() - start);
         }
     }
 
@@ -64,7 +435,20 @@ public class DBStorage {
      * @throws SQLException in case of DB error
      */
     public <T extends Serializable> T runInTransaction(DBAction<T> action) throws SQLException {
-        return runInTransaction(action, true);
+        return runInTransaction(UNNAMED_ACTION, action, true);
+    }
+
+    /**
+     * Runs SQL in default a transaction. Commits transaction if successful, rollbacks on exception
+     *
+     * @param actionName the name to record the action latency under. Should be a constant
+     * @param action the {@link DBAction} to run
+     * @param <T> the {@link DBAction} return type
+     * @return result from {@link DBAction#doSQL(Connection)} if successful
+     * @throws SQLException in case of DB error
+     */
+    public <T extends Serializable> T runInTransaction(String actionName, DBAction<T> action) throws SQLException {
+        return runInTransaction(actionName, action, true);
     }
 
     /**
@@ -77,21 +461,84 @@ public class DBStorage {
      * @throws SQLException in case of DB error
      */
     public <T extends Serializable> T runInTransaction(DBAction<T> action, boolean rollbackOnError) throws SQLException {
+        return runInTransaction(UNNAMED_ACTION, action, rollbackOnError);
+    }
+
+    /**
+     * Runs SQL in default a transaction. Commits transaction if successful, rollbacks on exception.
+     *
+     * <p>If rolled back after a lock timeout, deadlock or concurrent update, the whole action is run again in a new
+     * transaction as allowed by the {@link RetryPolicy}, so the action must not have side effects outside of the
+     * transaction, e.g. journal appends, which belong after this method returns</p>
+     *
+     * @param actionName the name to record the action latency and retries under. Should be a constant
+     * @param action the {@link DBAction} to run
+     * @param rollbackOnError if true - will rollback the transacation on any exception thrown. Never retried if false
+     * @param <T> the {@link DBAction} return type
+     * @return result from {@link DBAction#doSQL(Connection)} if successful
+     * @throws SQLException in case of DB error
+     */
+    public <T extends Serializable> T runInTransaction(String actionName, DBAction<T> action, boolean rollbackOnError)
+            throws SQLException {
+        final long start = System.nanoTime();
+        retryPolicy.onTransaction();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return runInTransactionOnce(action, rollbackOnError);
+                } catch (SQLException e) {
+                    if (!rollbackOnError || !retryPolicy.shouldRetry(e, attempt)) {
+                        throw e;
+                    }
+                    transactionRetries.increment(actionName);
+                    logger.debug("retrying {} after attempt {} failed: {}", actionName, attempt, e.getMessage());
+                    backoff(attempt, e);
+                }
+            }
+        } finally {
+            transactionLatency.recordNanos(actionName, System.nanoTime() - start);
+        }
+    }
+
+    private void backoff(int attempt, SQLException failure) throws SQLException {
+        try {
+            Thread.sleep(retryPolicy.backoffMillis(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+
+    /**
+     * Runs SQL in a single transaction without retries. Commits transaction if successful, rollbacks on exception
+     *
+     * @param action the {@link DBAction} to run
+     * @param rollbackOnError if true - will rollback the transacation on any exception thrown.
+     */
+    private <T extends Serializable> T runInTransactionOnce(DBAction<T> action, boolean rollbackOnError)
+            throws SQLException {
         try (Connection connection = dataSource.getConnection()) {
             logger.debug("connection opened");
             connection.setAutoCommit(false);
             final Savepoint savepoint = connection.setSavepoint();
             try {
                 final T result = action.doSQL(connection);
-                connection.commit();
+                commit(connection);
                 logger.debug("transaction commit");
                 return result;
             } catch ( Throwable t ) {
                 if ( rollbackOnError ) {
                     connection.rollback( savepoint );
+                    if (replication != null) {
+                        replication.discard();
+                    }
                     logger.debug("transaction rollback");
                 } else {
                     connection.releaseSavepoint( savepoint );
+                    if (replication != null) {
+                        // the changes made so far are committed once auto commit is restored, log them for replicas
+                        commit(connection);
+                    }
                 }
                 // to be handled by the consumer
                 throw t;
@@ -103,4 +550,28 @@ public class DBStorage {
         }
     }
 
+    /**
+     * Commits the transaction, logging its changes for the replicas if configured
+     */
+    private void commit(Connection connection) throws SQLException {
+        if (replication == null) {
+            connection.commit();
+            return;
+        }
+        final long position = replication.commit(connection);
+        final long[] session = sessionPosition.get();
+        session[0] = Math.max(session[0], position);
+    }
+
+    /**
+     * Closes the replica and primary connection pools. An embedded file database is closed ( and compacted ) once its
+     * last connection is
+     */
+    @Override
+    public void close() {
+        if (replication != null) {
+            replication.close();
+        }
+        dataSource.close();
+    }
 }
@@ -2,6 +2,8 @@ package org.vilutis.lt.revolut.backend.storage;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import org.vilutis.lt.revolut.backend.metrics.PoolMetricsTrackerFactory;
 
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -9,7 +11,7 @@ import java.sql.SQLException;
 /**
  * A data source using HikariCP providing a basic access to JDBC {@link Connection}
  */
-public class DataSource {
+public class DataSource implements AutoCloseable {
 
     private final HikariConfig config;
 
@@ -23,7 +25,31 @@ public class DataSource {
      * @see <a href="https://github.com/brettwooldridge/HikariCP#configuration-knobs-baby">HikariCP configuration</a>
      */
     public DataSource(String propertyFileName) {
-        config = new HikariConfig(propertyFileName);
+        this(propertyFileName, new MetricsRegistry());
+    }
+
+    /**
+     * Instantiates {@link DataSource} and created JDBC {@link Connection} pool to be accessed using
+     * {@link #getConnection}
+     *
+     * @param propertyFileName HikariCP property file location in the class path.
+     * @param metrics the registry to publish pool wait time and pool sizes to
+     * @see <a href="https://github.com/brettwooldridge/HikariCP#configuration-knobs-baby">HikariCP configuration</a>
+     */
+    public DataSource(String propertyFileName, MetricsRegistry metrics) {
+        this(new HikariConfig(propertyFileName), metrics);
+    }
+
+    /**
+     * Instantiates {@link DataSource} and created JDBC {@link Connection} pool to be accessed using
+     * {@link #getConnection}
+     *
+     * @param config HikariCP configuration, e.g. loaded from a property file and adjusted
+     * @param metrics the registry to publish pool wait time and pool sizes to
+     */
+    public DataSource(HikariConfig config, MetricsRegistry metrics) {
+        this.config = config;
+        config.setMetricsTrackerFactory(new PoolMetricsTrackerFactory(metrics));
         hikariDataSource = new HikariDataSource(config);
     }
 
@@ -34,4 +60,19 @@ public class DataSource {
     public Connection getConnection() throws SQLException {
         return hikariDataSource.getConnection();
     }
+
+    /**
+     * @return the maximum number of pooled connections, <code>maximumPoolSize</code> in the property file
+     */
+    public int getMaximumPoolSize() {
+        return config.getMaximumPoolSize();
+    }
+
+    /**
+     * Closes all pooled connections. An embedded H2 database is closed once its last connection is
+     */
+    @Override
+    public void close() {
+        hikariDataSource.close();
+    }
 }
@@ -0,0 +1,497 @@
+package org.vilutis.lt.revolut.backend.storage;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps read-only replica databases in sync with the primary one.
+ *
+ * <p>{@link ReplicationTrigger}s collect the keys of the <code>account</code> and <code>account_slot</code> rows
+ * changed by a transaction on the primary. {@link #commit(Connection)} logs them in the <code>replication_log</code>
+ * table under the next replication position as part of the transaction, one committing transaction at a time, so
+ * positions are visible in commit order. A background thread polls the log and copies the current primary state of
+ * the changed rows to every replica, recording the position it has reached per replica. A replica at or past a
+ * position has every change committed up to it, which is what read-your-writes routing relies on</p>
+ *
+ * <p>Replicas are copied from the primary in full when the feed is created, so they may start empty. Log entries
+ * applied to all replicas are deleted</p>
+ */
+class ReplicationFeed implements AutoCloseable {
+
+    static final long DEFAULT_POLL_INTERVAL_MILLIS = 10L;
+
+    /**
+     * Maximum number of replication positions applied to the replicas at once
+     */
+    static final int MAX_BATCH_POSITIONS = 1000;
+
+    private static final int COPY_BATCH_SIZE = 1000;
+
+    private static final String[] TABLES = {ReplicationTrigger.ACCOUNT, ReplicationTrigger.ACCOUNT_SLOT};
+
+    private static final String CREATE_TRIGGER = " CREATE TRIGGER IF NOT EXISTS %s_replication "
+            + " AFTER INSERT, UPDATE, DELETE ON %s FOR EACH ROW CALL \"" + ReplicationTrigger.class.getName() + "\" ";
+
+    private static final String DROP_TRIGGER = " DROP TRIGGER IF EXISTS %s_replication ";
+
+    private static final String FIND_LAST_POSITION = " SELECT COALESCE(MAX(position), 0) FROM replication_log ";
+
+    private static final String INSERT_LOG =
+            " INSERT INTO replication_log ( position, tableName, accountNumber, slot ) VALUES ( ?, ?, ?, ? ) ";
+
+    private static final String FIND_LOG = " SELECT position, tableName, accountNumber, slot FROM replication_log "
+            + " WHERE position > ? AND position <= ? ORDER BY position ";
+
+    private static final String TRIM_LOG = " DELETE FROM replication_log WHERE position <= ? ";
+
+    private static final String FIND_ACCOUNT =
+            " SELECT accountNumber, accountName, balance, slots FROM account WHERE accountNumber = ? ";
+
+    private static final String FIND_SLOT =
+            " SELECT accountNumber, slot, balance FROM account_slot WHERE accountNumber = ? AND slot = ? ";
+
+    private static final String FIND_ALL_ACCOUNTS = " SELECT accountNumber, accountName, balance, slots FROM account ";
+
+    private static final String FIND_ALL_SLOTS = " SELECT accountNumber, slot, balance FROM account_slot ";
+
+    private static final String MERGE_ACCOUNT = " MERGE INTO account ( accountNumber, accountName, balance, slots ) "
+            + " KEY ( accountNumber ) VALUES ( ?, ?, ?, ? ) ";
+
+    private static final String MERGE_SLOT = " MERGE INTO account_slot ( accountNumber, slot, balance ) "
+            + " KEY ( accountNumber, slot ) VALUES ( ?, ?, ? ) ";
+
+    private static final String DELETE_ACCOUNT = " DELETE FROM account WHERE accountNumber = ? ";
+
+    private static final String DELETE_ACCOUNT_SLOTS = " DELETE FROM account_slot WHERE accountNumber = ? ";
+
+    private static final String DELETE_SLOT = " DELETE FROM account_slot WHERE accountNumber = ? AND slot = ? ";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final DataSource primary;
+
+    private final String databaseName;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    /**
+     * The position of the last logged transaction, guarded by commitLock for writes
+     */
+    private volatile long lastPosition;
+
+    private final ScheduledExecutorService poller;
+
+    /**
+     * A read-only replica and the position it has been brought up to
+     */
+    static final class Replica {
+
+        final String name;
+
+        final DataSource dataSource;
+
+        volatile long position;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * A changed row logged under a position
+     */
+    private static final class Change {
+
+        final long position;
+
+        final ReplicationTrigger.Key key;
+
+        Change(long position, ReplicationTrigger.Key key) {
+            this.position = position;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Installs the replication triggers on the primary, opens a read-only pool per replica, copies the primary to
+     * every replica and starts polling
+     *
+     * @param primary the primary database, already migrated
+     * @param primaryConfig HikariCP configuration of the primary, the replica pools are configured the same way except
+     *                      for the JDBC URL
+     * @param replicaUrls the JDBC URLs of the replicas
+     * @param pollIntervalMillis how often the replicas are brought up to date. Not polled if <code>0</code>, see
+     *                           {@link #poll()}
+     * @param metrics the registry to export the replication positions to
+     * @throws SQLException in case of DB error
+     */
+    ReplicationFeed(DataSource primary, HikariConfig primaryConfig, List<String> replicaUrls, long pollIntervalMillis,
+            MetricsRegistry metrics) throws SQLException {
+        this.primary = primary;
+        try {
+            try (Connection connection = primary.getConnection()) {
+                this.databaseName = ReplicationTrigger.databaseName(connection);
+                try (Statement statement = connection.createStatement()) {
+                    for (String table : TABLES) {
+                        statement.execute(String.format(CREATE_TRIGGER, table, table));
+                    }
+                    try (ResultSet rs = statement.executeQuery(FIND_LAST_POSITION)) {
+                        rs.next();
+                        lastPosition = rs.getLong(1);
+                    }
+                }
+            }
+
+            for (String replicaUrl : replicaUrls) {
+                final HikariConfig config = new HikariConfig();
+                primaryConfig.copyState(config);
+                config.setJdbcUrl(replicaUrl);
+                config.setReadOnly(true);
+                config.setPoolName("replica-" + (replicas.size() + 1));
+                final Replica replica = new Replica(config.getPoolName(), new DataSource(config, metrics));
+                replicas.add(replica);
+                try (Connection connection = replica.dataSource.getConnection()) {
+                    new SchemaMigrator().migrate(connection);
+                }
+                copyAll(replica);
+            }
+        } catch (SQLException | RuntimeException e) {
+            replicas.forEach(replica -> replica.dataSource.close());
+            throw e;
+        }
+
+        metrics.gauge("db_replication_position", "Position of the last transaction logged for the replicas",
+                () -> lastPosition);
+        metrics.gauge("db_replication_lag", "Positions the furthest behind replica is behind the primary",
+                () -> lastPosition - minReplicaPosition());
+
+        if (pollIntervalMillis > 0) {
+            this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "replication-feed");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.poller.scheduleWithFixedDelay(this::pollQuietly, pollIntervalMillis, pollIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.poller = null;
+        }
+    }
+
+    /**
+     * Removes the replication triggers from a primary no longer replicated, so its transactions do not collect
+     * changed rows for nothing
+     */
+    static void uninstall(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String table : TABLES) {
+                statement.execute(String.format(DROP_TRIGGER, table));
+            }
+        }
+    }
+
+    /**
+     * Commits the transaction of the given primary connection, logging the rows changed by it under the next
+     * replication position first. Transactions changing rows commit one at a time
+     *
+     * @param connection the primary connection of a transaction
+     * @return the replication position of the transaction, <code>0</code> if it did not change any rows
+     * @throws SQLException in case of DB error
+     */
+    long commit(Connection connection) throws SQLException {
+        final Set<ReplicationTrigger.Key> changes = ReplicationTrigger.takeChanges(databaseName);
+        if (changes.isEmpty()) {
+            connection.commit();
+            return 0;
+        }
+        commitLock.lock();
+        try {
+            final long position = lastPosition + 1;
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_LOG)) {
+                for (ReplicationTrigger.Key key : changes) {
+                    statement.setLong(1, position);
+                    statement.setString(2, key.tableName);
+                    statement.setLong(3, key.accountNumber);
+                    statement.setObject(4, key.slot);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            connection.commit();
+            lastPosition = position;
+            return position;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the rows changed by a transaction rolled back or run without one on this thread
+     */
+    void discard() {
+        ReplicationTrigger.takeChanges(databaseName);
+    }
+
+    /**
+     * Picks a replica to read from, round robin
+     *
+     * @param position the replication position the replica must have reached
+     * @return a replica at or past the position, <code>null</code> if none is
+     */
+    DataSource replicaAt(long position) {
+        final int start = nextReplica.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            final Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            if (replica.position >= position) {
+                return replica.dataSource;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the replica names and the positions they have been brought up to
+     */
+    LinkedHashMap<String, Long> getReplicaPositions() {
+        final LinkedHashMap<String, Long> positions = new LinkedHashMap<>();
+        replicas.forEach(replica -> positions.put(replica.name, replica.position));
+        return positions;
+    }
+
+    /**
+     * @return the position of the last logged transaction
+     */
+    long getLastPosition() {
+        return lastPosition;
+    }
+
+    private long minReplicaPosition() {
+        long min = Long.MAX_VALUE;
+        for (Replica replica : replicas) {
+            min = Math.min(min, replica.position);
+        }
+        return min;
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (SQLException | RuntimeException e) {
+            logger.warn("replication failed, will retry", e);
+        }
+    }
+
+    /**
+     * Brings every replica up to date with up to {@link #MAX_BATCH_POSITIONS} logged positions. A replica failing to
+     * apply them stays at its position and is retried on the next poll
+     *
+     * @return the position the replicas were brought up to
+     * @throws SQLException in case the log cannot be read
+     */
+    synchronized long poll() throws SQLException {
+        final long from = minReplicaPosition();
+        final List<Change> changes = new ArrayList<>();
+        final Map<ReplicationTrigger.Key, Object[]> rows = new LinkedHashMap<>();
+        try (Connection connection = primary.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(FIND_LOG)) {
+                statement.setLong(1, from);
+                statement.setLong(2, from + MAX_BATCH_POSITIONS);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        final int slot = rs.getInt(4);
+                        changes.add(new Change(rs.getLong(1), new ReplicationTrigger.Key(rs.getString(2),
+                                rs.getLong(3), rs.wasNull() ? null : slot)));
+                    }
+                }
+            }
+            if (changes.isEmpty()) {
+                return from;
+            }
+            // read after the log, so the rows are at least as recent as the last logged position
+            for (Change change : changes) {
+                if (!rows.containsKey(change.key)) {
+                    rows.put(change.key, findRow(change.key, connection));
+                }
+            }
+        }
+
+        final long to = changes.get(changes.size() - 1).position;
+        for (Replica replica : replicas) {
+            if (replica.position >= to) {
+                continue;
+            }
+            final Map<ReplicationTrigger.Key, Object[]> replicaRows = new LinkedHashMap<>();
+            for (Change change : changes) {
+                if (change.position > replica.position) {
+                    replicaRows.put(change.key, rows.get(change.key));
+                }
+            }
+            try {
+                apply(replica, replicaRows);
+                replica.position = to;
+            } catch (SQLException e) {
+                logger.warn("failed to replicate to {}, will retry", replica.name, e);
+            }
+        }
+
+        final long applied = minReplicaPosition();
+        if (applied > from) {
+            try (Connection connection = primary.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(TRIM_LOG)) {
+                statement.setLong(1, applied);
+                statement.executeUpdate();
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * @return the current values of the row, <code>null</code> if it was deleted
+     */
+    private static Object[] findRow(ReplicationTrigger.Key key, Connection connection) throws SQLException {
+        final boolean slot = ReplicationTrigger.ACCOUNT_SLOT.equals(key.tableName);
+        try (PreparedStatement statement = connection.prepareStatement(slot ? FIND_SLOT : FIND_ACCOUNT)) {
+            statement.setLong(1, key.accountNumber);
+            if (slot) {
+                statement.setInt(2, key.slot);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                final Object[] row = new Object[rs.getMetaData().getColumnCount()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                return row;
+            }
+        }
+    }
+
+    /**
+     * Writes the given rows to the replica in a single transaction: accounts before their slots are merged, slots
+     * before their accounts are deleted
+     */
+    private static void apply(Replica replica, Map<ReplicationTrigger.Key, Object[]> rows) throws SQLException {
+        try (Connection connection = replica.dataSource.getConnection()) {
+            connection.setReadOnly(false);
+            connection.setAutoCommit(false);
+            try (PreparedStatement mergeAccount = connection.prepareStatement(MERGE_ACCOUNT);
+                 PreparedStatement mergeSlot = connection.prepareStatement(MERGE_SLOT);
+                 PreparedStatement deleteSlot = connection.prepareStatement(DELETE_SLOT);
+                 PreparedStatement deleteAccountSlots = connection.prepareStatement(DELETE_ACCOUNT_SLOTS);
+                 PreparedStatement deleteAccount = connection.prepareStatement(DELETE_ACCOUNT)) {
+                for (Map.Entry<ReplicationTrigger.Key, Object[]> entry : rows.entrySet()) {
+                    if (ReplicationTrigger.ACCOUNT.equals(entry.getKey().tableName) && entry.getValue() != null) {
+                        addBatch(mergeAccount, entry.getValue());
+                    }
+                }
+                for (Map.Entry<ReplicationTrigger.Key, Object[]> entry : rows.entrySet()) {
+                    final ReplicationTrigger.Key key = entry.getKey();
+                    if (ReplicationTrigger.ACCOUNT_SLOT.equals(key.tableName)) {
+                        if (entry.getValue() != null) {
+                            addBatch(mergeSlot, entry.getValue());
+                        } else {
+                            addBatch(deleteSlot, new Object[] {key.accountNumber, key.slot});
+                        }
+                    } else if (entry.getValue() == null) {
+                        addBatch(deleteAccountSlots, new Object[] {key.accountNumber});
+                        addBatch(deleteAccount, new Object[] {key.accountNumber});
+                    }
+                }
+                mergeAccount.executeBatch();
+                mergeSlot.executeBatch();
+                deleteSlot.executeBatch();
+                deleteAccountSlots.executeBatch();
+                deleteAccount.executeBatch();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static void addBatch(PreparedStatement statement, Object[] values) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            statement.setObject(i + 1, values[i]);
+        }
+        statement.addBatch();
+    }
+
+    /**
+     * Copies all accounts and slots of the primary to the replica and sets the replica position to the last logged
+     * one. Run before the storage is used, so no transaction commits meanwhile
+     */
+    private void copyAll(Replica replica) throws SQLException {
+        final long position = lastPosition;
+        try (Connection source = primary.getConnection();
+             Connection target = replica.dataSource.getConnection()) {
+            target.setReadOnly(false);
+            copy(source, FIND_ALL_ACCOUNTS, target, MERGE_ACCOUNT);
+            copy(source, FIND_ALL_SLOTS, target, MERGE_SLOT);
+        }
+        replica.position = position;
+        logger.info("copied the primary database to {} at replication position {}", replica.name, position);
+    }
+
+    private static void copy(Connection source, String select, Connection target, String merge)
+            throws SQLException {
+        try (PreparedStatement query = source.prepareStatement(select);
+             ResultSet rs = query.executeQuery();
+             PreparedStatement statement = target.prepareStatement(merge)) {
+            final Object[] row = new Object[rs.getMetaData().getColumnCount()];
+            int batched = 0;
+            while (rs.next()) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                addBatch(statement, row);
+                if (++batched == COPY_BATCH_SIZE) {
+                    statement.executeBatch();
+                    batched = 0;
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Stops polling and closes the replica pools. Changes not applied yet are kept in the log
+     */
+    @Override
+    public void close() {
+        if (poller != null) {
+            poller.shutdown();
+            try {
+                poller.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+}
@@ -0,0 +1,124 @@
+package org.vilutis.lt.revolut.backend.storage;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * H2 row trigger collecting the keys of the <code>account</code> and <code>account_slot</code> rows changed by the
+ * current transaction, installed on the primary database by the {@link ReplicationFeed} while replicas are configured.
+ *
+ * <p>Nothing is written by the trigger itself: an embedded H2 database runs triggers in the thread of the statement
+ * firing them, so the keys are collected per thread and database, and logged by
+ * {@link ReplicationFeed#commit(Connection)} in commit order. H2 instantiates triggers by class name, hence public</p>
+ */
+public class ReplicationTrigger implements Trigger {
+
+    static final String ACCOUNT = "ACCOUNT";
+
+    static final String ACCOUNT_SLOT = "ACCOUNT_SLOT";
+
+    /**
+     * Changed rows of the transaction running on this thread, by database name
+     */
+    private static final ThreadLocal<Map<String, Set<Key>>> CHANGES = ThreadLocal.withInitial(HashMap::new);
+
+    private String databaseName;
+
+    private boolean slotTable;
+
+    /**
+     * Primary key of a changed row
+     */
+    static final class Key {
+
+        final String tableName;
+
+        final long accountNumber;
+
+        /**
+         * <code>null</code> for account rows
+         */
+        final Integer slot;
+
+        Key(String tableName, long accountNumber, Integer slot) {
+            this.tableName = tableName;
+            this.accountNumber = accountNumber;
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return accountNumber == key.accountNumber && tableName.equals(key.tableName)
+                    && Objects.equals(slot, key.slot);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tableName, accountNumber, slot);
+        }
+    }
+
+    @Override
+    public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before,
+            int type) throws SQLException {
+        this.databaseName = databaseName(conn);
+        this.slotTable = ACCOUNT_SLOT.equalsIgnoreCase(tableName);
+    }
+
+    @Override
+    public void fire(Connection conn, Object[] oldRow, Object[] newRow) {
+        // account ( accountNumber, ... ) and account_slot ( accountNumber, slot, ... )
+        final Object[] row = newRow != null ? newRow : oldRow;
+        final Key key = slotTable
+                ? new Key(ACCOUNT_SLOT, ((Number) row[0]).longValue(), ((Number) row[1]).intValue())
+                : new Key(ACCOUNT, ((Number) row[0]).longValue(), null);
+        CHANGES.get().computeIfAbsent(databaseName, name -> new LinkedHashSet<>()).add(key);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void remove() {
+    }
+
+    /**
+     * Removes and returns the keys of the rows changed on this thread in the given database since the last call
+     *
+     * @param databaseName the database name, see {@link #databaseName(Connection)}
+     * @return the changed row keys in the order of their first change, empty if none
+     */
+    static Set<Key> takeChanges(String databaseName) {
+        final Set<Key> changes = CHANGES.get().remove(databaseName);
+        return changes == null ? Collections.emptySet() : changes;
+    }
+
+    /**
+     * @return the name of the database the connection is connected to, as seen by the triggers
+     */
+    static String databaseName(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("CALL DATABASE()")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+}
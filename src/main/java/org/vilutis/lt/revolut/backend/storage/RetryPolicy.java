@@ -0,0 +1,165 @@
+package org.vilutis.lt.revolut.backend.storage;
+
+import spark.utils.Assert;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which failed transactions are retried by {@link DBStorage} and how long to back off before a retry.
+ *
+ * <p>Only lock timeouts, deadlocks and concurrent update conflicts are retried - the transaction has been rolled back
+ * and running it again is safe. Back off time is chosen at random up to an exponentially growing limit ( "full
+ * jitter" ), so conflicting transactions do not retry in lock step.</p>
+ *
+ * <p>Retries are limited per transaction by the maximum number of attempts and overall by a retry budget: every
+ * transaction earns a fraction of a retry, every retry spends a whole one. This keeps retries from multiplying the
+ * load when the database is overloaded rather than briefly contended.</p>
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 2;
+
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 50;
+
+    /**
+     * At most 1 retry per 10 transactions in the long run
+     */
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+
+    /**
+     * Maximum number of retries saved up in the budget
+     */
+    public static final int DEFAULT_BUDGET_CAPACITY = 100;
+
+    /**
+     * Never retries
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0, 0);
+
+    /**
+     * H2 error codes of failures a retry may succeed after
+     */
+    private static final int H2_DEADLOCK = 40001;
+    private static final int H2_LOCK_TIMEOUT = 50200;
+    private static final int H2_CONCURRENT_UPDATE = 90131;
+
+    /**
+     * Standard SQLStates of failures a retry may succeed after
+     */
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final String DEADLOCK_DETECTED = "40P01";
+    private static final String LOCK_TIMEOUT = "HYT00";
+
+    /**
+     * One retry in budget units
+     */
+    private static final long RETRY_COST = 1000;
+
+    private final int maxAttempts;
+
+    private final long baseDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private final long budgetEarnedPerTransaction;
+
+    private final long budgetCapacity;
+
+    private final AtomicLong budget;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_BUDGET_RATIO,
+                DEFAULT_BUDGET_CAPACITY);
+    }
+
+    /**
+     * @param maxAttempts maximum number of times a transaction is run, including the first one
+     * @param baseDelayMillis back off limit before the first retry, doubled for every next retry
+     * @param maxDelayMillis maximum back off limit
+     * @param budgetRatio retries earned per transaction, e.g. <code>0.1</code> for 1 retry per 10 transactions
+     * @param budgetCapacity maximum number of retries saved up. The budget starts full
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, double budgetRatio,
+            int budgetCapacity) {
+        Assert.isTrue(maxAttempts > 0, "maxAttempts must be positive");
+        Assert.isTrue(baseDelayMillis >= 0 && maxDelayMillis >= baseDelayMillis,
+                "delays must be 0 <= baseDelayMillis <= maxDelayMillis");
+        Assert.isTrue(budgetRatio >= 0, "budgetRatio must NOT be negative");
+        Assert.isTrue(budgetCapacity >= 0, "budgetCapacity must NOT be negative");
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.budgetEarnedPerTransaction = Math.round(budgetRatio * RETRY_COST);
+        this.budgetCapacity = budgetCapacity * RETRY_COST;
+        this.budget = new AtomicLong(this.budgetCapacity);
+    }
+
+    /**
+     * @param e the failure
+     * @return <code>true</code> if the failure is a lock timeout, a deadlock or a concurrent update conflict
+     */
+    public static boolean isRetryable(SQLException e) {
+        for (Throwable next : e) {
+            if (next instanceof SQLException) {
+                final SQLException sqlException = (SQLException) next;
+                switch (sqlException.getErrorCode()) {
+                    case H2_DEADLOCK:
+                    case H2_LOCK_TIMEOUT:
+                    case H2_CONCURRENT_UPDATE:
+                        return true;
+                    default:
+                }
+                final String sqlState = sqlException.getSQLState();
+                if (SERIALIZATION_FAILURE.equals(sqlState) || DEADLOCK_DETECTED.equals(sqlState)
+                        || LOCK_TIMEOUT.equals(sqlState)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Earns the retry budget of a new transaction. Called once per transaction, not per attempt
+     */
+    void onTransaction() {
+        if (budgetEarnedPerTransaction > 0 && budget.get() < budgetCapacity) {
+            budget.accumulateAndGet(budgetEarnedPerTransaction, (current, earned) ->
+                    Math.min(budgetCapacity, current + earned));
+        }
+    }
+
+    /**
+     * Decides whether to retry a failed attempt and spends the retry budget if so
+     *
+     * @param e the failure
+     * @param attempt the failed attempt number, starting with 1
+     * @return <code>true</code> if the transaction should be run again
+     */
+    boolean shouldRetry(SQLException e, int attempt) {
+        if (attempt >= maxAttempts || !isRetryable(e)) {
+            return false;
+        }
+        long current;
+        do {
+            current = budget.get();
+            if (current < RETRY_COST) {
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - RETRY_COST));
+        return true;
+    }
+
+    /**
+     * @param attempt the failed attempt number, starting with 1
+     * @return random back off time between 0 and <code>min(maxDelayMillis, baseDelayMillis * 2 ^ (attempt - 1))</code>
+     */
+    long backoffMillis(int attempt) {
+        final long limit = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        return limit > 0 ? ThreadLocalRandom.current().nextLong(limit + 1) : 0;
+    }
+}
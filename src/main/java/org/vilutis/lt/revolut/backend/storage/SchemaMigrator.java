@@ -0,0 +1,179 @@
+package org.vilutis.lt.revolut.backend.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.zip.CRC32;
+
+/**
+ * Brings the database schema up to date by running the versioned migration scripts <code>V1.sql</code>,
+ * <code>V2.sql</code>, ... found under {@link #LOCATION} in the class path, in order, until the first missing one.
+ *
+ * <p>Applied versions are recorded in the <code>schema_version</code> table, so every script runs once per database
+ * instead of on every new connection. DDL is committed by H2 right away, so scripts must be safe to run again if the
+ * process dies before their version is recorded ( <code>IF NOT EXISTS</code> and alike ). A script changed after it
+ * was applied is only logged, it is never run again</p>
+ *
+ * <p>An <code>account</code> table created before migrations were introduced, with the balance in major units and
+ * without balance slots, is converted to the shape of <code>V1.sql</code> first, see
+ * {@link #convertLegacyAccounts(Connection)}</p>
+ */
+class SchemaMigrator {
+
+    static final String LOCATION = "/db/migration/";
+
+    private static final String CREATE_VERSION_TABLE =
+            " CREATE TABLE IF NOT EXISTS schema_version ( "
+                    + " version INT NOT NULL PRIMARY KEY, "
+                    + " checksum INT NOT NULL, "
+                    + " installedOn TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL ) ";
+
+    private static final String FIND_APPLIED =
+            " SELECT checksum FROM schema_version WHERE version = ? ";
+
+    private static final String INSERT_APPLIED =
+            " INSERT INTO schema_version ( version, checksum ) VALUES ( ?, ? ) ";
+
+    private static final String FIND_ACCOUNT_COLUMN_TYPE =
+            " SELECT TYPE_NAME FROM INFORMATION_SCHEMA.COLUMNS "
+                    + " WHERE TABLE_SCHEMA = SCHEMA() AND TABLE_NAME = 'ACCOUNT' AND COLUMN_NAME = ? ";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Runs all migration scripts not applied yet. Migrations of databases shared by several {@link DBStorage}
+     * instances in the same JVM do not run concurrently
+     *
+     * @return the number of scripts run
+     * @throws SQLException in case a script fails
+     */
+    int migrate(Connection connection) throws SQLException {
+        synchronized (SchemaMigrator.class) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_VERSION_TABLE);
+            }
+            convertLegacyAccounts(connection);
+
+            int applied = 0;
+            for (int version = 1; ; version++) {
+                final String script = LOCATION + "V" + version + ".sql";
+                final Integer checksum = checksumOf(script);
+                if (checksum == null) {
+                    break;
+                }
+                final Integer appliedChecksum = findApplied(connection, version);
+                if (appliedChecksum == null) {
+                    apply(connection, version, script, checksum);
+                    applied++;
+                } else if (!appliedChecksum.equals(checksum)) {
+                    logger.warn("migration {} changed after it was applied, it is not run again", script);
+                }
+            }
+            return applied;
+        }
+    }
+
+    /**
+     * Converts an <code>account</code> table created by the <code>schema.sql</code> run on every connection before
+     * migrations were introduced: the <code>DECIMAL(20, 2)</code> balance in major units becomes a
+     * <code>BIGINT</code> balance in minor units and the <code>slots</code> column is added. The balance slots table
+     * itself is created by <code>V1.sql</code>.
+     *
+     * <p>DDL is committed by H2 right away, so every step checks what is left to do and the conversion is picked up
+     * where it stopped if the process dies half way. The <code>slots</code> column is added last, it marks the table
+     * converted. A balance too large for minor units fails the conversion, the application does not start</p>
+     *
+     * @throws SQLException in case the conversion fails
+     */
+    private void convertLegacyAccounts(Connection connection) throws SQLException {
+        if (accountColumnType(connection, "ACCOUNTNUMBER") == null || accountColumnType(connection, "SLOTS") != null) {
+            return;
+        }
+        logger.info("converting the account table created before schema migrations");
+        try (Statement statement = connection.createStatement()) {
+            if ("DECIMAL".equals(accountColumnType(connection, "BALANCE"))) {
+                statement.execute("ALTER TABLE account ADD COLUMN IF NOT EXISTS balanceMinorUnits BIGINT");
+                statement.execute("UPDATE account SET balanceMinorUnits = CAST(COALESCE(balance, 0) * 100 AS BIGINT)");
+                statement.execute("ALTER TABLE account DROP COLUMN balance");
+            }
+            if (accountColumnType(connection, "BALANCEMINORUNITS") != null) {
+                statement.execute("ALTER TABLE account ALTER COLUMN balanceMinorUnits RENAME TO balance");
+            }
+            statement.execute("ALTER TABLE account ALTER COLUMN balance SET DEFAULT 0");
+            statement.execute("ALTER TABLE account ALTER COLUMN balance SET NOT NULL");
+            statement.execute("ALTER TABLE account ADD COLUMN slots INT DEFAULT 0 NOT NULL");
+        }
+        logger.info("converted the account table created before schema migrations");
+    }
+
+    /**
+     * @return the type of the <code>account</code> table column, <code>null</code> if there is no such column
+     */
+    private static String accountColumnType(Connection connection, String columnName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(FIND_ACCOUNT_COLUMN_TYPE)) {
+            statement.setString(1, columnName);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private void apply(Connection connection, int version, String script, int checksum) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("RUNSCRIPT FROM 'classpath:" + script + "'");
+            }
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_APPLIED)) {
+                statement.setInt(1, version);
+                statement.setInt(2, checksum);
+                statement.executeUpdate();
+            }
+            connection.commit();
+            logger.info("applied schema migration {}", script);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static Integer findApplied(Connection connection, int version) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(FIND_APPLIED)) {
+            statement.setInt(1, version);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+
+    /**
+     * @return CRC32 of the script, <code>null</code> if there is no such script
+     */
+    private static Integer checksumOf(String script) {
+        try (InputStream in = SchemaMigrator.class.getResourceAsStream(script)) {
+            if (in == null) {
+                return null;
+            }
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+            return (int) crc.getValue();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read " + script, e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.vilutis.lt.revolut.backend.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded LRU cache of {@link PreparedStatement}s prepared on a single physical JDBC {@link Connection}.
+ *
+ * <p>Not thread safe: a physical connection is only ever used by the single thread that borrowed it from the pool</p>
+ */
+class StatementCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatementCache.class);
+
+    private static final String GENERATED_KEYS_SUFFIX = "\u0000RETURN_GENERATED_KEYS";
+
+    private static final String COLUMN_NAMES_SUFFIX = "\u0000RETURN_COLUMNS\u0000";
+
+    private final Connection physicalConnection;
+
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    private final Counters counters;
+
+    /**
+     * Hit, miss and eviction counters shared by the caches of all connections in a pool
+     */
+    static class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+    }
+
+    StatementCache(Connection physicalConnection, int maxSize, Counters counters) {
+        this.physicalConnection = physicalConnection;
+        this.counters = counters;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    counters.evictions.increment();
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param sql the SQL text, also used as the cache key
+     * @param autoGeneratedKeys either {@link Statement#RETURN_GENERATED_KEYS} or {@link Statement#NO_GENERATED_KEYS}
+     * @return a cached {@link PreparedStatement}, or a new one if not cached yet
+     * @throws SQLException in case the statement cannot be prepared
+     */
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        final String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? sql + GENERATED_KEYS_SUFFIX : sql;
+        return prepare(key, () -> physicalConnection.prepareStatement(sql, autoGeneratedKeys));
+    }
+
+    /**
+     * @param sql the SQL text, also used as the cache key
+     * @param columnNames the columns of the changed rows to return as generated keys
+     * @return a cached {@link PreparedStatement}, or a new one if not cached yet
+     * @throws SQLException in case the statement cannot be prepared
+     */
+    PreparedStatement prepare(String sql, String[] columnNames) throws SQLException {
+        final String key = sql + COLUMN_NAMES_SUFFIX + String.join(",", columnNames);
+        return prepare(key, () -> physicalConnection.prepareStatement(sql, columnNames));
+    }
+
+    private PreparedStatement prepare(String key, Preparer preparer) throws SQLException {
+        PreparedStatement statement = statements.get(key);
+        if (statement != null && !statement.isClosed()) {
+            counters.hits.increment();
+            return statement;
+        }
+
+        counters.misses.increment();
+        statement = preparer.prepare();
+        statements.put(key, statement);
+        return statement;
+    }
+
+    @FunctionalInterface
+    private interface Preparer {
+        PreparedStatement prepare() throws SQLException;
+    }
+
+    /**
+     * @return true if the physical connection has been closed, e.g. evicted from the pool
+     */
+    boolean isClosed() {
+        try {
+            return physicalConnection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.debug(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+-- initial schema. Also run against databases created before migrations were introduced, hence IF NOT EXISTS
+
+-- create Account table
+CREATE TABLE IF NOT EXISTS account (
+  accountNumber IDENTITY NOT NULL PRIMARY KEY,
+  accountName VARCHAR NOT NULL,
+  -- balance in minor units ( cents )
+  balance BIGINT DEFAULT 0 NOT NULL,
+  -- number of account_slot rows the balance is split across, 0 if not split
+  slots INT DEFAULT 0 NOT NULL
+);
+
+-- create Account balance slots table, the balance of a split account is account.balance plus its slot balances
+CREATE TABLE IF NOT EXISTS account_slot (
+  accountNumber BIGINT NOT NULL,
+  slot INT NOT NULL,
+  -- balance in minor units ( cents )
+  balance BIGINT DEFAULT 0 NOT NULL,
+  PRIMARY KEY ( accountNumber, slot ),
+  FOREIGN KEY ( accountNumber ) REFERENCES account ( accountNumber )
+);
\ No newline at end of file
@@ -0,0 +1,8 @@
+-- account numbers are reserved by the application in blocks ( hi-lo ): every NEXT VALUE reserves INCREMENT BY numbers
+CREATE SEQUENCE IF NOT EXISTS account_number_seq START WITH 1 INCREMENT BY 100;
+
+-- continue after the accounts created by the IDENTITY column
+ALTER SEQUENCE account_number_seq RESTART WITH ( SELECT COALESCE(MAX(accountNumber), 0) + 1 FROM account );
+
+-- rows inserted without an account number take a whole block, so they never clash with reserved numbers
+ALTER TABLE account ALTER COLUMN accountNumber SET DEFAULT NEXT VALUE FOR account_number_seq;
@@ -0,0 +1,11 @@
+-- keys of the rows changed by every committed transaction, in commit order, read by the replication feed to bring
+-- read-only replicas up to date. Only written while replicas are configured
+CREATE TABLE IF NOT EXISTS replication_log (
+  position BIGINT NOT NULL,
+  tableName VARCHAR NOT NULL,
+  accountNumber BIGINT NOT NULL,
+  -- NULL for account rows
+  slot INT
+);
+
+CREATE INDEX IF NOT EXISTS replication_log_position ON replication_log ( position );
@@ -0,0 +1,16 @@
+-- sides of transfers spanning several account databases, prepared and not completed yet. A debit ( negative amount )
+-- is withdrawn when prepared and refunded if aborted, a credit ( positive amount ) is deposited when committed
+CREATE TABLE IF NOT EXISTS transfer_prepared (
+  transferId VARCHAR NOT NULL,
+  accountNumber BIGINT NOT NULL,
+  -- amount in minor units ( cents )
+  amount BIGINT NOT NULL,
+  PRIMARY KEY ( transferId, accountNumber )
+);
+
+-- commit decisions of transfers spanning several account databases, kept by the coordinating database until every
+-- side is completed. Prepared sides of transfers without a decision are aborted on recovery
+CREATE TABLE IF NOT EXISTS transfer_decision (
+  transferId VARCHAR NOT NULL PRIMARY KEY,
+  decidedOn TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL
+);
@@ -1,5 +1,6 @@
 package org.vilutis.lt.revolut.backend.api;
 
+import com.google.gson.Gson;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.vilutis.lt.revolut.backend.dao.AccountDao;
@@ -11,11 +12,22 @@ import spark.Request;
 import spark.Response;
 import spark.Spark;
 
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.isA;
+import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.anyString;
@@ -62,6 +74,168 @@ public class AccountControllerTest {
         assertThat("there must be 3 or more results", result.data.size() >= 3);
     }
 
+    @Test
+    public void findAllAccounts_pageToken() {
+        final Request req = mock(Request.class);
+        when(req.queryParamOrDefault(eq("pageSize"), anyString())).thenReturn("1");
+        when(req.queryParamOrDefault(eq("pageNum"), anyString())).thenReturn("0");
+
+        final Response res = mock(Response.class);
+
+        final PagedResponse<ArrayList<Account>> firstPage =
+                (PagedResponse<ArrayList<Account>>) controller.findAllAccounts(req, res);
+
+        assertThat("there must be a single result", firstPage.data.size(), equalTo(1));
+        assertThat("next page token must be set", firstPage.nextPageToken, notNullValue());
+
+        when(req.queryParams(eq("pageToken"))).thenReturn(firstPage.nextPageToken);
+
+        final PagedResponse<ArrayList<Account>> secondPage =
+                (PagedResponse<ArrayList<Account>>) controller.findAllAccounts(req, res);
+
+        assertThat("there must be a single result", secondPage.data.size(), equalTo(1));
+        assertThat("second page must start after the first one", secondPage.data.get(0).getAccountNumber() >
+                firstPage.data.get(0).getAccountNumber());
+    }
+
+    @Test
+    public void findAllAccounts_invalidPageToken() {
+        final Request req = mock(Request.class);
+        when(req.queryParamOrDefault(eq("pageSize"), anyString())).thenReturn("20");
+        when(req.queryParams(eq("pageToken"))).thenReturn("not a token");
+
+        final Response res = mock(Response.class);
+
+        final StandardResponse result = controller.findAllAccounts(req, res);
+
+        verify(res).status(eq(400));
+        assertThat(result.message, equalTo("Invalid pageToken"));
+    }
+
+    @Test
+    public void exportAccounts() throws IOException {
+        final Request req = mock(Request.class);
+        final Response res = mock(Response.class);
+        final HttpServletResponse raw = mock(HttpServletResponse.class);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        when(res.raw()).thenReturn(raw);
+        when(raw.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                output.write(b);
+            }
+        });
+
+        final String result = controller.exportAccounts(req, res);
+
+        verify(res).type(eq("application/x-ndjson"));
+        verify(res).status(eq(200));
+        assertThat("nothing is left to be written", result, equalTo(""));
+
+        final String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertThat("there must be 3 or more accounts", lines.length >= 3);
+
+        final Gson gson = new Gson();
+        for (String line : lines) {
+            assertThat("every line must be an account", gson.fromJson(line, Account.class).getAccountNumber(),
+                    notNullValue());
+        }
+    }
+
+    @Test
+    public void createAccounts() throws IOException {
+        final Request req = withBody(mock(Request.class), "[\"bulk-1\", \"bulk-2\"]");
+        final Response res = mock(Response.class);
+        final ByteArrayOutputStream output = withOutput(res);
+
+        final String result = controller.createAccounts(req, res);
+
+        verify(res).type(eq("application/x-ndjson"));
+        verify(res).status(eq(200));
+        assertThat("nothing is left to be written", result, equalTo(""));
+
+        final String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertThat(lines.length, equalTo(2));
+
+        final Gson gson = new Gson();
+        final Account first = gson.fromJson(lines[0], Account.class);
+        assertThat(first.getAccountName(), equalTo("bulk-1"));
+        assertThat(gson.fromJson(lines[1], Account.class).getAccountNumber(), equalTo(first.getAccountNumber() + 1));
+    }
+
+    @Test
+    public void createAccounts_notAnArray() throws IOException {
+        final Request req = withBody(mock(Request.class), "{\"accountName\": \"bulk\"}");
+        final Response res = mock(Response.class);
+        final ByteArrayOutputStream output = withOutput(res);
+
+        final StandardResponse result =
+                new Gson().fromJson(controller.createAccounts(req, res), StandardResponse.class);
+
+        verify(res).status(eq(400));
+        assertThat(result.status, equalTo(400));
+        assertThat("no account must be written", output.size(), equalTo(0));
+    }
+
+    private static Request withBody(Request req, String body) throws IOException {
+        final HttpServletRequest raw = mock(HttpServletRequest.class);
+        final ByteArrayInputStream input = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        when(req.raw()).thenReturn(raw);
+        when(raw.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return input.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+            }
+
+            @Override
+            public int read() {
+                return input.read();
+            }
+        });
+        return req;
+    }
+
+    private static ByteArrayOutputStream withOutput(Response res) throws IOException {
+        final HttpServletResponse raw = mock(HttpServletResponse.class);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        when(res.raw()).thenReturn(raw);
+        when(raw.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                output.write(b);
+            }
+        });
+        return output;
+    }
+
     @Test
     public void findAccountByNumber_happyPath() {
         final Request req = mock(Request.class);
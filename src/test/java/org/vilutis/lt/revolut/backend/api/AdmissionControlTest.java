@@ -0,0 +1,77 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import org.junit.Test;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import org.vilutis.lt.revolut.backend.server.ConcurrencyLimiter;
+import spark.Request;
+import spark.Response;
+import spark.Route;
+
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respondOK;
+
+public class AdmissionControlTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    private final AdmissionControl admissionControl = AdmissionControl.adaptive(2, metrics);
+
+    @Test
+    public void limited_none() {
+        final Route route = (req, res) -> respondOK(null);
+
+        assertThat(AdmissionControl.NONE.limited(AdmissionControl.READ, route), sameInstance(route));
+        assertThat(AdmissionControl.NONE.getMaxInFlight(), equalTo(0));
+    }
+
+    @Test
+    public void limited_admitted() throws Exception {
+        final Route limited = admissionControl.limited(AdmissionControl.MONEY, (req, res) -> {
+            assertThat(admissionControl.getLimiter(AdmissionControl.MONEY).getInFlight(), equalTo(1));
+            return respondOK(null);
+        });
+
+        final StandardResponse response =
+                (StandardResponse) limited.handle(mock(Request.class), mock(Response.class));
+
+        assertThat(response.status, equalTo(200));
+        assertThat(admissionControl.getLimiter(AdmissionControl.MONEY).getInFlight(), equalTo(0));
+    }
+
+    @Test
+    public void limited_rejected() throws Exception {
+        final ConcurrencyLimiter read = admissionControl.getLimiter(AdmissionControl.READ);
+        // the initial limit is half the maximum
+        assertThat(read.getLimit(), equalTo(1));
+        read.tryAcquire();
+        final Response res = mock(Response.class);
+
+        final StandardResponse response = (StandardResponse) admissionControl.limited(AdmissionControl.READ,
+                (req, r) -> respondOK(null)).handle(mock(Request.class), res);
+
+        assertThat(response.status, equalTo(503));
+        verify(res).status(503);
+        verify(res).header(AdmissionControl.RETRY_AFTER, AdmissionControl.RETRY_AFTER_SECONDS);
+        assertThat(((Map) metrics.snapshot().get("gauges")).get("admission_read_rejected_total"),
+                equalTo((Object) 1L));
+
+        // money movements have a limiter of their own
+        final Response moneyRes = mock(Response.class);
+        final StandardResponse money = (StandardResponse) admissionControl.limited(AdmissionControl.MONEY,
+                (req, r) -> respondOK(null)).handle(mock(Request.class), moneyRes);
+        assertThat(money.status, equalTo(200));
+        verify(moneyRes, never()).status(503);
+    }
+
+    @Test
+    public void getMaxInFlight() {
+        assertThat(admissionControl.getMaxInFlight(), equalTo(4));
+    }
+}
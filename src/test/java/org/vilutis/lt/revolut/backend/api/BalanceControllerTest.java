@@ -7,13 +7,15 @@ import org.junit.Test;
 import org.vilutis.lt.revolut.backend.dao.AccountDao;
 import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoJdbcImpl;
 import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
 import org.vilutis.lt.revolut.backend.storage.DBStorage;
 import org.vilutis.lt.revolut.backend.test.TestUtil;
 import spark.Request;
 import spark.Response;
 import spark.Spark;
 
-import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -46,12 +48,16 @@ public class BalanceControllerTest {
 
         testAccounts =
                 Arrays.stream(new String[] {"first", "second", "third", "fourth"}).map(name -> accountDAO.create(name))
-                        .map(account -> accountDAO.deposit(account.getAccountNumber(), BigDecimal.TEN))
+                        .map(account -> accountDAO.deposit(account.getAccountNumber(), Money.of(10)))
                         .collect(Collectors.toList());
     }
 
     private final Gson gson = new Gson();
 
+    private static byte[] utf8(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
     @Test
     public void deposit() {
         final Request req = mock(Request.class);
@@ -60,18 +66,18 @@ public class BalanceControllerTest {
         final BalanceController.TransferDTO transferDTO = new BalanceController.TransferDTO();
 
         transferDTO.toAcct = testAccounts.get(2).getAccountNumber();
-        transferDTO.amount = BigDecimal.TEN;
+        transferDTO.amount = Money.of(10);
 
-        when(req.body()).thenReturn(gson.toJson(transferDTO));
+        when(req.bodyAsBytes()).thenReturn(utf8(gson.toJson(transferDTO)));
 
         final StandardResponse<Account> deposit = controller.deposit(req, res);
         Account accountTo = deposit.data;
 
-        assertThat(accountTo.getBalance().compareTo(BigDecimal.valueOf(20)), equalTo(0));
+        assertThat(accountTo.getBalance().compareTo(Money.of(20)), equalTo(0));
 
         accountTo = accountDAO.findByAccountNumber(transferDTO.toAcct);
 
-        assertThat(accountTo.getBalance().compareTo(BigDecimal.valueOf(20)), equalTo(0));
+        assertThat(accountTo.getBalance().compareTo(Money.of(20)), equalTo(0));
     }
 
     @Test
@@ -82,18 +88,41 @@ public class BalanceControllerTest {
         final BalanceController.TransferDTO transferDTO = new BalanceController.TransferDTO();
 
         transferDTO.fromAcct = testAccounts.get(3).getAccountNumber();
-        transferDTO.amount = BigDecimal.ONE;
+        transferDTO.amount = Money.of(1);
 
-        when(req.body()).thenReturn(gson.toJson(transferDTO));
+        when(req.bodyAsBytes()).thenReturn(utf8(gson.toJson(transferDTO)));
 
         final StandardResponse<Account> deposit = controller.withdraw(req, res);
         Account accountFrom = deposit.data;
 
-        assertThat(gson.toJson(accountFrom), accountFrom.getBalance().compareTo(BigDecimal.valueOf(9)), equalTo(0));
+        assertThat(gson.toJson(accountFrom), accountFrom.getBalance().compareTo(Money.of(9)), equalTo(0));
 
         accountFrom = accountDAO.findByAccountNumber(transferDTO.fromAcct);
 
-        assertThat(gson.toJson(accountFrom), accountFrom.getBalance().compareTo(BigDecimal.valueOf(9)), equalTo(0));
+        assertThat(gson.toJson(accountFrom), accountFrom.getBalance().compareTo(Money.of(9)), equalTo(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void deposit_idempotencyKey() throws Exception {
+        final Account account = accountDAO.create("idempotent");
+        final Request req = mock(Request.class);
+        final Response res = mock(Response.class);
+
+        final BalanceController.TransferDTO transferDTO = new BalanceController.TransferDTO();
+
+        transferDTO.toAcct = account.getAccountNumber();
+        transferDTO.amount = Money.of(10);
+
+        when(req.body()).thenReturn(gson.toJson(transferDTO));
+        when(req.bodyAsBytes()).thenReturn(utf8(gson.toJson(transferDTO)));
+        when(req.headers(IdempotencyCache.HEADER)).thenReturn("deposit-1");
+
+        final StandardResponse<Account> first = (StandardResponse<Account>) controller.deposit.handle(req, res);
+        final StandardResponse<Account> retry = (StandardResponse<Account>) controller.deposit.handle(req, res);
+
+        assertThat(retry.data.getBalance(), equalTo(first.data.getBalance()));
+        assertThat(accountDAO.findByAccountNumber(account.getAccountNumber()).getBalance(), equalTo(Money.of(10)));
     }
 
     @Test
@@ -105,9 +134,9 @@ public class BalanceControllerTest {
 
         transferDTO.fromAcct = testAccounts.get(0).getAccountNumber();
         transferDTO.toAcct = testAccounts.get(1).getAccountNumber();
-        transferDTO.amount = BigDecimal.TEN;
+        transferDTO.amount = Money.of(10);
 
-        when(req.body()).thenReturn(gson.toJson(transferDTO));
+        when(req.bodyAsBytes()).thenReturn(utf8(gson.toJson(transferDTO)));
 
         final StandardResponse response = controller.transferBalance(req, res);
 
@@ -116,8 +145,51 @@ public class BalanceControllerTest {
         final Account accountFrom = accountDAO.findByAccountNumber(testAccounts.get(0).getAccountNumber());
         final Account accountTo = accountDAO.findByAccountNumber(testAccounts.get(1).getAccountNumber());
 
-        assertThat(gson.toJson(accountFrom), BigDecimal.ZERO.compareTo(accountFrom.getBalance()), equalTo(0));
-        assertThat(gson.toJson(accountFrom), BigDecimal.valueOf(20D).compareTo(accountTo.getBalance()), equalTo(0));
+        assertThat(gson.toJson(accountFrom), Money.ZERO.compareTo(accountFrom.getBalance()), equalTo(0));
+        assertThat(gson.toJson(accountFrom), Money.of(20).compareTo(accountTo.getBalance()), equalTo(0));
+    }
+
+    @Test
+    public void transferBalances() {
+        final Request req = mock(Request.class);
+        final Response res = mock(Response.class);
+
+        Account from = accountDAO.create("batch_from");
+        Account to = accountDAO.create("batch_to");
+        accountDAO.deposit(from.getAccountNumber(), Money.of(10));
+
+        final BalanceController.TransferDTO transferDTO = new BalanceController.TransferDTO();
+        transferDTO.fromAcct = from.getAccountNumber();
+        transferDTO.toAcct = to.getAccountNumber();
+        transferDTO.amount = Money.of(6);
+
+        when(req.bodyAsBytes())
+                .thenReturn(utf8(gson.toJson(new BalanceController.TransferDTO[] {transferDTO, transferDTO})));
+
+        final StandardResponse<ArrayList<StandardResponse>> response = controller.transferBalances(req, res);
+
+        assertThat(response.status, equalTo(200));
+        assertThat(response.data.size(), equalTo(2));
+        assertThat(response.data.get(0).status, equalTo(200));
+        assertThat(response.data.get(1).status, equalTo(400));
+
+        from = accountDAO.findByAccountNumber(from.getAccountNumber());
+        to = accountDAO.findByAccountNumber(to.getAccountNumber());
+
+        assertThat(gson.toJson(from), from.getBalance().compareTo(Money.of(4)), equalTo(0));
+        assertThat(gson.toJson(to), to.getBalance().compareTo(Money.of(6)), equalTo(0));
+    }
+
+    @Test
+    public void transferBalances_invalidBody() {
+        final Request req = mock(Request.class);
+        final Response res = mock(Response.class);
+
+        when(req.bodyAsBytes()).thenReturn(utf8("{}"));
+
+        final StandardResponse response = controller.transferBalances(req, res);
+
+        assertThat(response.status, equalTo(400));
     }
 
     @Test
@@ -130,14 +202,14 @@ public class BalanceControllerTest {
         Account stress_one = accountDAO.create("stress_one");
         Account stress_two = accountDAO.create("stress_two");
 
-        accountDAO.deposit(stress_one.getAccountNumber(), BigDecimal.valueOf(1_000_000D));
+        accountDAO.deposit(stress_one.getAccountNumber(), Money.of(1_000_000));
 
         transferDTO.fromAcct = stress_one.getAccountNumber();
         transferDTO.toAcct = stress_two.getAccountNumber();
 
-        transferDTO.amount = BigDecimal.TEN;
+        transferDTO.amount = Money.of(10);
 
-        when(req.body()).thenReturn(gson.toJson(transferDTO));
+        when(req.bodyAsBytes()).thenReturn(utf8(gson.toJson(transferDTO)));
 
         final ExecutorService pool = Executors.newFixedThreadPool(100);
         for (int i = 0; i < 10_000; i++) {
@@ -151,8 +223,8 @@ public class BalanceControllerTest {
 
             stress_one = accountDAO.findByAccountNumber(stress_one.getAccountNumber());
             stress_two = accountDAO.findByAccountNumber(stress_two.getAccountNumber());
-            assertThat(stress_one.getBalance().compareTo(BigDecimal.valueOf(1_000_000D - 100_000D)), equalTo(0));
-            assertThat(stress_two.getBalance().compareTo(BigDecimal.valueOf(100_000D)), equalTo(0));
+            assertThat(stress_one.getBalance().compareTo(Money.of(1_000_000 - 100_000)), equalTo(0));
+            assertThat(stress_two.getBalance().compareTo(Money.of(100_000)), equalTo(0));
         } catch (InterruptedException e) {
             throw new Error(e.getMessage(), e);
         }
@@ -175,21 +247,21 @@ public class BalanceControllerTest {
         Account stress_one = accountDAO.create("stress_one");
         Account stress_two = accountDAO.create("stress_two");
 
-        accountDAO.deposit(stress_one.getAccountNumber(), BigDecimal.valueOf(1_000_000D));
-        accountDAO.deposit(stress_two.getAccountNumber(), BigDecimal.valueOf(1_000_000D));
+        accountDAO.deposit(stress_one.getAccountNumber(), Money.of(1_000_000));
+        accountDAO.deposit(stress_two.getAccountNumber(), Money.of(1_000_000));
 
         transferDTO.fromAcct = stress_one.getAccountNumber();
         transferDTO.toAcct = stress_two.getAccountNumber();
 
-        transferDTO.amount = BigDecimal.TEN;
+        transferDTO.amount = Money.of(10);
 
         final String req1body = gson.toJson(transferDTO);
-        when(req1.body()).thenReturn(req1body);
+        when(req1.bodyAsBytes()).thenReturn(utf8(req1body));
 
         // reverse
         transferDTO.fromAcct = stress_two.getAccountNumber();
         transferDTO.toAcct = stress_one.getAccountNumber();
-        when(req2.body()).thenReturn(gson.toJson(transferDTO));
+        when(req2.bodyAsBytes()).thenReturn(utf8(gson.toJson(transferDTO)));
 
         final ExecutorService pool = Executors.newFixedThreadPool(100);
         final AtomicInteger successful = new AtomicInteger(0);
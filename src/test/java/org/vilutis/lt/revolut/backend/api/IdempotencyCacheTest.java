@@ -0,0 +1,117 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respond;
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respondOK;
+
+public class IdempotencyCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    private final IdempotencyCache cache = new IdempotencyCache(2, 60, clock::get);
+
+    private StandardResponse ok() {
+        executions.incrementAndGet();
+        return respondOK(null);
+    }
+
+    @Test
+    public void execute_replay() {
+        final StandardResponse first = cache.execute("key", "body", this::ok);
+        final StandardResponse retry = cache.execute("key", "body", this::ok);
+
+        assertThat(retry, sameInstance(first));
+        assertThat(executions.get(), equalTo(1));
+        assertThat(cache.getReplays(), equalTo(1L));
+    }
+
+    @Test
+    public void execute_differentBody() {
+        cache.execute("key", "body", this::ok);
+
+        final StandardResponse response = cache.execute("key", "other body", this::ok);
+
+        assertThat(response.status, equalTo(400));
+        assertThat(executions.get(), equalTo(1));
+    }
+
+    @Test
+    public void execute_serverErrorNotStored() {
+        cache.execute("key", "body", () -> {
+            executions.incrementAndGet();
+            return respond(500, "failed");
+        });
+
+        final StandardResponse retry = cache.execute("key", "body", this::ok);
+
+        assertThat(retry.status, equalTo(200));
+        assertThat(executions.get(), equalTo(2));
+    }
+
+    @Test
+    public void execute_expired() {
+        cache.execute("key", "body", this::ok);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(60));
+
+        cache.execute("key", "body", this::ok);
+
+        assertThat(executions.get(), equalTo(2));
+    }
+
+    @Test
+    public void execute_evictOldest() {
+        cache.execute("first", "body", this::ok);
+        cache.execute("second", "body", this::ok);
+        cache.execute("third", "body", this::ok);
+
+        assertThat(cache.size(), equalTo(2));
+        cache.execute("second", "body", this::ok);
+        cache.execute("third", "body", this::ok);
+        assertThat(executions.get(), equalTo(3));
+
+        cache.execute("first", "body", this::ok);
+        assertThat(executions.get(), equalTo(4));
+    }
+
+    @Test
+    public void execute_concurrentDuplicatesWait() throws Exception {
+        final CountDownLatch executing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Future<StandardResponse> first = executorService.submit(() -> cache.execute("key", "body", () -> {
+                executing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return ok();
+            }));
+            executing.await();
+            final Future<StandardResponse> duplicate =
+                    executorService.submit(() -> cache.execute("key", "body", this::ok));
+
+            release.countDown();
+
+            assertThat(duplicate.get(10, TimeUnit.SECONDS), sameInstance(first.get(10, TimeUnit.SECONDS)));
+            assertThat(executions.get(), equalTo(1));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import org.junit.Test;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respond;
+import static org.vilutis.lt.revolut.backend.api.StandardResponse.respondOK;
+
+public class JsonCodecTest {
+
+    private final Gson gson = new Gson();
+
+    private final JsonCodec codec = new JsonCodec(gson);
+
+    private static InputStream utf8(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void assertSameAsGson(StandardResponse<?> response) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(response, out);
+
+        // compared as bytes, the way Spark writes Gson's output to the response
+        assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8), out.toByteArray(),
+                equalTo(gson.toJson(response).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void write_account() throws IOException {
+        assertSameAsGson(respondOK(Account.from(42L, "Jonas", Money.ofMinorUnits(-5L))));
+        assertSameAsGson(respondOK(Account.from(Long.MIN_VALUE, null, Money.ofMinorUnits(Long.MAX_VALUE))));
+    }
+
+    @Test
+    public void write_page() throws IOException {
+        final ArrayList<Account> page = new ArrayList<>(Arrays.asList(
+                Account.from(1L, "first", Money.of(10)), Account.from(2L, "second", Money.ZERO)));
+
+        assertSameAsGson(PagedResponse.respondPage(page, PagedResponse.encodePageToken(2L)));
+        assertSameAsGson(PagedResponse.respondPage(new ArrayList<Account>(), null));
+    }
+
+    @Test
+    public void write_transferResults() throws IOException {
+        assertSameAsGson(respondOK(new ArrayList<>(Arrays.asList(respondOK(null), respond(400, "not enough")))));
+    }
+
+    @Test
+    public void write_escapedMessage() throws IOException {
+        assertSameAsGson(respond(500, "<a href='x'>\"q\" & \\ =\t\n\u0001\u2028"));
+        assertSameAsGson(respond(500, "\u0105\u010D\u0119 \u20AC \uD83D\uDCB0, unpaired \uD800"));
+    }
+
+    @Test
+    public void write_otherData() throws IOException {
+        assertSameAsGson(respondOK(new ArrayList<>(Collections.singletonList(
+                Collections.singletonMap("key", "value")))));
+        assertSameAsGson(respondOK(Money.of(3)));
+    }
+
+    @Test
+    public void readTransfer() throws IOException {
+        final Transfer transfer = codec.readTransfer(utf8(
+                " {\"fromAcct\": 1, \"unknown\": {\"nested\": [true, null, \"\\\"}\"]}, \"toAcct\": \"2\",\n"
+                        + " \"amount\": 10.5} "));
+
+        assertThat(transfer.getFromAcct(), equalTo(1L));
+        assertThat(transfer.getToAcct(), equalTo(2L));
+        assertThat(transfer.getAmount(), equalTo(Money.ofMinorUnits(1050L)));
+    }
+
+    @Test
+    public void readTransfer_gsonOutput() throws IOException {
+        final BalanceController.TransferDTO transferDTO = new BalanceController.TransferDTO();
+        transferDTO.fromAcct = Long.MAX_VALUE;
+        transferDTO.amount = Money.ofMinorUnits(1L);
+
+        final Transfer transfer = codec.readTransfer(utf8(gson.toJson(transferDTO)));
+
+        assertThat(transfer.getFromAcct(), equalTo(Long.MAX_VALUE));
+        assertThat(transfer.getToAcct(), nullValue());
+        assertThat(transfer.getAmount(), equalTo(Money.ofMinorUnits(1L)));
+    }
+
+    @Test
+    public void readTransfer_empty() throws IOException {
+        assertThat(codec.readTransfer(utf8("")), nullValue());
+        assertThat(codec.readTransfer(utf8(" null ")), nullValue());
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void readTransfer_malformed() throws IOException {
+        codec.readTransfer(utf8("{\"fromAcct\": 1"));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void readTransfer_notALong() throws IOException {
+        codec.readTransfer(utf8("{\"fromAcct\": 1.5}"));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void readTransfer_trailingContent() throws IOException {
+        codec.readTransfer(utf8("{} {}"));
+    }
+
+    @Test(timeout = 1_000L, expected = JsonSyntaxException.class)
+    public void readTransfer_hugeExponent() throws IOException {
+        codec.readTransfer(utf8("{\"fromAcct\":1,\"toAcct\":2,\"amount\":1e99999999}"));
+    }
+
+    @Test
+    public void readTransfers() throws IOException {
+        final List<Transfer> transfers = codec.readTransfers(utf8(
+                "[{\"fromAcct\":1,\"toAcct\":2,\"amount\":1}, null, {}]"));
+
+        assertThat(transfers.size(), equalTo(3));
+        assertThat(transfers.get(0).getToAcct(), equalTo(2L));
+        assertThat(transfers.get(1), nullValue());
+        assertThat(transfers.get(2).getAmount(), nullValue());
+        assertThat(codec.readTransfers(utf8("[]")).size(), equalTo(0));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void readTransfers_notAnArray() throws IOException {
+        codec.readTransfers(utf8("{}"));
+    }
+}
@@ -0,0 +1,47 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import spark.Request;
+import spark.Response;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MetricsControllerTest {
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+
+    private final MetricsController controller = new MetricsController(registry, new Gson());
+
+    @Test
+    public void metrics_json() {
+        registry.gauge("test_gauge", "test", () -> 3L);
+        final Request req = mock(Request.class);
+        final Response res = mock(Response.class);
+
+        final String body = controller.metrics(req, res);
+
+        verify(res).type(AccountController.APPLICATION_JSON);
+        assertThat(body, startsWith("{\"status\":200"));
+        assertThat(body, containsString("\"test_gauge\":3"));
+    }
+
+    @Test
+    public void metrics_prometheus() {
+        registry.gauge("test_gauge", "test", () -> 3L);
+        final Request req = mock(Request.class);
+        final Response res = mock(Response.class);
+        when(req.queryParams("format")).thenReturn("prometheus");
+
+        final String body = controller.metrics(req, res);
+
+        verify(res).type(MetricsController.PROMETHEUS_TEXT);
+        assertThat(body, containsString("test_gauge 3\n"));
+    }
+}
@@ -0,0 +1,51 @@
+package org.vilutis.lt.revolut.backend.api;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import spark.Request;
+import spark.Response;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StatsControllerTest {
+
+    private final AccountDao accountDAO = mock(AccountDao.class);
+
+    private final StatsController controller = new StatsController(accountDAO);
+
+    @Test
+    public void stats() {
+        when(accountDAO.getLedgerSummary()).thenReturn(new LedgerSummary(2, Money.of(15), Money.of(5), Money.of(10),
+                Collections.singletonMap("p50", Money.of(5))));
+        final Response res = mock(Response.class);
+
+        final StandardResponse response = controller.stats(mock(Request.class), res);
+
+        verify(res).status(HttpServletResponse.SC_OK);
+        final String json = new JsonCodec(new Gson()).toJson(response);
+        assertThat(json, containsString("\"accountCount\":2"));
+        assertThat(json, containsString("\"totalBalance\":15.00"));
+        assertThat(json, containsString("\"percentiles\":{\"p50\":5.00}"));
+    }
+
+    @Test
+    public void stats_notKept() {
+        final Response res = mock(Response.class);
+
+        final StandardResponse response = controller.stats(mock(Request.class), res);
+
+        verify(res).status(HttpServletResponse.SC_NOT_IMPLEMENTED);
+        assertThat(response.status, equalTo(HttpServletResponse.SC_NOT_IMPLEMENTED));
+    }
+}
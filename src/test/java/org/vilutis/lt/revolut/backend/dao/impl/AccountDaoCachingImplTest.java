@@ -0,0 +1,115 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AccountDaoCachingImplTest {
+
+    private static AccountDao backingStore;
+
+    private static AccountDaoCachingImpl accountDAO;
+
+    @BeforeClass
+    public static void setUp() {
+        backingStore = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"));
+        accountDAO = new AccountDaoCachingImpl(backingStore, 1024);
+    }
+
+    @Test
+    public void findByAccountNumber_cached() {
+        final Account account = accountDAO.create("cached");
+
+        accountDAO.findByAccountNumber(account.getAccountNumber());
+        final long hits = accountDAO.getHits();
+        final Account cached = accountDAO.findByAccountNumber(account.getAccountNumber());
+
+        assertThat("second lookup must be a hit", accountDAO.getHits(), equalTo(hits + 1));
+        assertThat("accountName must match", cached.getAccountName(), equalTo("cached"));
+    }
+
+    @Test
+    public void findByAccountNumber_returnsCopy() {
+        final Account account = accountDAO.create("copy");
+        accountDAO.findByAccountNumber(account.getAccountNumber()).setBalance(Money.of(10));
+
+        assertThat("cached balance must not change",
+                accountDAO.findByAccountNumber(account.getAccountNumber()).getBalance().signum(), equalTo(0));
+    }
+
+    @Test
+    public void findByAccountNumber_notFound() {
+        assertThat("result must be null", accountDAO.findByAccountNumber(Long.MIN_VALUE), nullValue());
+    }
+
+    @Test
+    public void deposit_invalidates() {
+        final Account account = accountDAO.create("deposit");
+        accountDAO.findByAccountNumber(account.getAccountNumber());
+
+        accountDAO.deposit(account.getAccountNumber(), Money.of(10));
+
+        assertThat("balance must not be stale", accountDAO.findByAccountNumber(account.getAccountNumber())
+                .getBalance(), equalTo(Money.ofMinorUnits(1000L)));
+    }
+
+    @Test
+    public void transferBalance_invalidates() {
+        final Account from = accountDAO.create("from");
+        final Account to = accountDAO.create("to");
+        accountDAO.deposit(from.getAccountNumber(), Money.of(10));
+        accountDAO.findByAccountNumber(from.getAccountNumber());
+        accountDAO.findByAccountNumber(to.getAccountNumber());
+
+        accountDAO.transferBalance(from.getAccountNumber(), to.getAccountNumber(), Money.of(1));
+        accountDAO.transferBalances(Collections.singletonList(
+                new Transfer(from.getAccountNumber(), to.getAccountNumber(), Money.of(1))));
+
+        assertThat("FROM balance must not be stale", accountDAO.findByAccountNumber(from.getAccountNumber())
+                .getBalance(), equalTo(Money.ofMinorUnits(800L)));
+        assertThat("TO balance must not be stale", accountDAO.findByAccountNumber(to.getAccountNumber())
+                .getBalance(), equalTo(Money.ofMinorUnits(200L)));
+    }
+
+    @Test
+    public void withdraw_failed_invalidates() {
+        final Account account = accountDAO.create("withdraw");
+        accountDAO.findByAccountNumber(account.getAccountNumber());
+        // changed behind the cache, so the cached balance is stale until invalidated
+        backingStore.deposit(account.getAccountNumber(), Money.of(1));
+
+        try {
+            accountDAO.withdraw(account.getAccountNumber(), Money.of(10));
+            fail("withdrawal must fail - not enough funds");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        final long misses = accountDAO.getMisses();
+        assertThat("balance must be reloaded", accountDAO.findByAccountNumber(account.getAccountNumber())
+                .getBalance(), equalTo(Money.ofMinorUnits(100L)));
+        assertThat("account must be loaded from the delegate", accountDAO.getMisses(), equalTo(misses + 1));
+    }
+
+    @Test
+    public void smallerThanSegments() {
+        final AccountDaoCachingImpl smallCache = new AccountDaoCachingImpl(backingStore, 1);
+        final Account account = smallCache.create("small");
+
+        smallCache.findByAccountNumber(account.getAccountNumber());
+        smallCache.findByAccountNumber(account.getAccountNumber());
+
+        assertThat("second lookup must be a hit", smallCache.getHits(), equalTo(1L));
+    }
+}
@@ -0,0 +1,263 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.journal.JournalEntry;
+import org.vilutis.lt.revolut.backend.journal.MappedJournal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AccountDaoEventSourcedImplTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path journalDirectory;
+
+    private Path snapshotDirectory;
+
+    private MappedJournal journal;
+
+    private AccountDaoEventSourcedImpl open() throws IOException {
+        if (journalDirectory == null) {
+            journalDirectory = folder.newFolder().toPath();
+            snapshotDirectory = folder.newFolder().toPath();
+        }
+        journal = new MappedJournal(journalDirectory);
+        return new AccountDaoEventSourcedImpl(journal, snapshotDirectory, 16, 60_000L);
+    }
+
+    /**
+     * @param clean whether to close the DAO, which takes a final snapshot, or to only close the journal as if crashed
+     */
+    private void stop(AccountDaoEventSourcedImpl accountDAO, boolean clean) {
+        if (clean) {
+            accountDAO.close();
+        }
+        journal.close();
+    }
+
+    @Test
+    public void create_deposit_transfer_withdraw() throws IOException {
+        final AccountDaoEventSourcedImpl accountDAO = open();
+        final Account from = accountDAO.create("from");
+        final Account to = accountDAO.create("to");
+
+        assertThat(to.getAccountNumber(), equalTo(from.getAccountNumber() + 1));
+        assertThat(accountDAO.deposit(from.getAccountNumber(), Money.of(10)).getBalance(), equalTo(Money.of(10)));
+        accountDAO.transferBalance(from.getAccountNumber(), to.getAccountNumber(), Money.parse("2.5"));
+        assertThat(accountDAO.withdraw(to.getAccountNumber(), Money.of(1)).getBalance(), equalTo(Money.parse("1.5")));
+
+        assertThat(accountDAO.findByAccountNumber(from.getAccountNumber()).getBalance(), equalTo(Money.parse("7.5")));
+        assertThat(accountDAO.findAllAfter(from.getAccountNumber(), 10).size(), equalTo(1));
+        assertThat(accountDAO.findByAccountNumber(Long.MIN_VALUE), nullValue());
+        assertThat(journal.getLastSequence(), equalTo(5L));
+        stop(accountDAO, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void withdraw_notEnough() throws IOException {
+        final AccountDaoEventSourcedImpl accountDAO = open();
+        try {
+            accountDAO.withdraw(accountDAO.create("poor").getAccountNumber(), Money.of(1));
+        } finally {
+            assertThat("rejected withdrawal must not be journaled", journal.getLastSequence(), equalTo(1L));
+            stop(accountDAO, true);
+        }
+    }
+
+    @Test
+    public void transferBalances_rejectsOneByOne() throws IOException {
+        final AccountDaoEventSourcedImpl accountDAO = open();
+        final Long from = accountDAO.create("from").getAccountNumber();
+        final Long to = accountDAO.create("to").getAccountNumber();
+        accountDAO.deposit(from, Money.of(5));
+
+        final List<TransferResult> results = accountDAO.transferBalances(Arrays.asList(
+                new Transfer(from, to, Money.of(3)), new Transfer(from, to, Money.of(3)),
+                new Transfer(to, from, Money.of(1))));
+
+        assertThat(results.stream().map(TransferResult::isApplied).collect(Collectors.toList()),
+                equalTo(Arrays.asList(true, false, true)));
+        assertThat(accountDAO.findByAccountNumber(to).getBalance(), equalTo(Money.of(2)));
+        stop(accountDAO, true);
+    }
+
+    @Test
+    public void createAll_recover() throws IOException {
+        AccountDaoEventSourcedImpl accountDAO = open();
+        final Long single = accountDAO.create("single").getAccountNumber();
+        final List<String> names = Stream.iterate(0, i -> i + 1).limit(AccountDaoJdbcImpl.CREATE_CHUNK_SIZE + 1)
+                .map(i -> "bulk-" + i).collect(Collectors.toList());
+        final List<Account> created = new ArrayList<>();
+
+        assertThat(accountDAO.createAll(names.iterator(), created::add), equalTo((long) names.size()));
+        assertThat(created.get(0).getAccountNumber(), equalTo(single + 1));
+        accountDAO.deposit(created.get(names.size() - 1).getAccountNumber(), Money.of(5));
+        accountDAO.snapshot();
+        accountDAO.deposit(created.get(0).getAccountNumber(), Money.of(3));
+        stop(accountDAO, false);
+
+        accountDAO = open();
+        assertThat(accountDAO.exportAll(account -> { }), equalTo(names.size() + 1L));
+        assertThat(accountDAO.findByAccountNumber(created.get(0).getAccountNumber()).getBalance(),
+                equalTo(Money.of(3)));
+        assertThat(accountDAO.findByAccountNumber(created.get(names.size() - 1).getAccountNumber()).getAccountName(),
+                equalTo("bulk-" + (names.size() - 1)));
+        assertThat(accountDAO.findByAccountNumber(created.get(names.size() - 1).getAccountNumber()).getBalance(),
+                equalTo(Money.of(5)));
+        stop(accountDAO, true);
+    }
+
+    @Test
+    public void recover_fromJournal() throws IOException {
+        AccountDaoEventSourcedImpl accountDAO = open();
+        final Long first = accountDAO.create("first").getAccountNumber();
+        final Long second = accountDAO.create("second").getAccountNumber();
+        accountDAO.deposit(first, Money.of(10));
+        accountDAO.transferBalance(first, second, Money.of(4));
+        accountDAO.update(Account.from(second, "renamed", Money.of(5)));
+        stop(accountDAO, false);
+
+        accountDAO = open();
+        assertThat(accountDAO.findByAccountNumber(first).getBalance(), equalTo(Money.of(6)));
+        assertThat(accountDAO.findByAccountNumber(second).getAccountName(), equalTo("renamed"));
+        assertThat(accountDAO.findByAccountNumber(second).getBalance(), equalTo(Money.of(5)));
+        assertThat("account numbers must not be reused", accountDAO.create("third").getAccountNumber(),
+                equalTo(second + 1));
+        stop(accountDAO, true);
+    }
+
+    @Test
+    public void recover_fromSnapshotAndJournalTail() throws IOException {
+        AccountDaoEventSourcedImpl accountDAO = open();
+        final Long first = accountDAO.create("first").getAccountNumber();
+        accountDAO.deposit(first, Money.of(10));
+        assertThat(accountDAO.snapshot(), equalTo(2L));
+        accountDAO.withdraw(first, Money.of(3));
+        final Long second = accountDAO.create("second").getAccountNumber();
+        stop(accountDAO, false);
+
+        accountDAO = open();
+        assertThat(accountDAO.findByAccountNumber(first).getBalance(), equalTo(Money.of(7)));
+        assertThat(accountDAO.findByAccountNumber(second).getAccountName(), equalTo("second"));
+        stop(accountDAO, true);
+
+        accountDAO = open();
+        assertThat(accountDAO.findByAccountNumber(first).getBalance(), equalTo(Money.of(7)));
+        assertThat(accountDAO.exportAll(account -> { }), equalTo(2L));
+        stop(accountDAO, true);
+    }
+
+    @Test
+    public void recover_skipsEntriesAlreadyInSnapshot() throws IOException {
+        AccountDaoEventSourcedImpl accountDAO = open();
+        final Long account = accountDAO.create("fuzzy").getAccountNumber();
+        accountDAO.deposit(account, Money.of(1));
+        accountDAO.snapshot();
+        stop(accountDAO, false);
+
+        // a snapshot copying an account after an entry past its sequence number had been applied
+        journal = new MappedJournal(journalDirectory);
+        journal.append(JournalEntry.deposit(account, Money.of(2)));
+        new AccountSnapshots(snapshotDirectory).write(2L,
+                Stream.of(new AccountState(account, "fuzzy", 300L, 3L)).iterator());
+        journal.append(JournalEntry.deposit(account, Money.of(4)));
+        journal.close();
+
+        accountDAO = open();
+        assertThat(accountDAO.findByAccountNumber(account).getBalance(), equalTo(Money.of(7)));
+        stop(accountDAO, true);
+    }
+
+    @Test
+    public void recover_corruptSnapshot() throws IOException {
+        AccountDaoEventSourcedImpl accountDAO = open();
+        final Long account = accountDAO.create("corrupt").getAccountNumber();
+        accountDAO.deposit(account, Money.of(1));
+        accountDAO.snapshot();
+        accountDAO.deposit(account, Money.of(2));
+        stop(accountDAO, true);
+
+        final Path latest;
+        try (Stream<Path> files = Files.list(snapshotDirectory)) {
+            latest = files.sorted().reduce((first, second) -> second).get();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(latest.toFile(), "rw")) {
+            file.seek(20);
+            file.write(0x7F);
+        }
+
+        accountDAO = open();
+        assertThat(accountDAO.findByAccountNumber(account).getBalance(), equalTo(Money.of(3)));
+        stop(accountDAO, true);
+    }
+
+    @Test
+    public void snapshot_concurrentWrites() throws Exception {
+        AccountDaoEventSourcedImpl accountDAO = open();
+        final Long[] accounts = new Long[8];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = accountDAO.create("concurrent-" + i).getAccountNumber();
+            accountDAO.deposit(accounts[i], Money.of(100));
+        }
+
+        final AccountDaoEventSourcedImpl dao = accountDAO;
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 400; i++) {
+            final int index = i;
+            executor.submit(() -> {
+                try {
+                    dao.transferBalance(accounts[index % accounts.length], accounts[(index + 3) % accounts.length],
+                            Money.ofMinorUnits(1 + index % 7));
+                } catch (IllegalArgumentException e) {
+                    // not enough money, fine
+                }
+            });
+            if (i % 50 == 0) {
+                executor.submit(dao::snapshot);
+            }
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES), equalTo(true));
+
+        final long[] balances = new long[accounts.length];
+        for (int i = 0; i < accounts.length; i++) {
+            balances[i] = accountDAO.findByAccountNumber(accounts[i]).getBalance().getMinorUnits();
+        }
+        stop(accountDAO, false);
+
+        accountDAO = open();
+        for (int i = 0; i < accounts.length; i++) {
+            assertThat(accountDAO.findByAccountNumber(accounts[i]).getBalance().getMinorUnits(),
+                    equalTo(balances[i]));
+        }
+        stop(accountDAO, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresDurableJournal() throws IOException {
+        new AccountDaoEventSourcedImpl(Journal.NONE, folder.newFolder().toPath());
+    }
+}
@@ -0,0 +1,133 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vilutis.lt.revolut.backend.dao.AccountDao;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AccountDaoInMemoryImplTest {
+
+    private static AccountDao backingStore;
+
+    private static AccountDaoInMemoryImpl accountDAO;
+
+    @BeforeClass
+    public static void setUp() {
+        backingStore = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"));
+        accountDAO = new AccountDaoInMemoryImpl(backingStore, 16, 60_000L);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        accountDAO.close();
+    }
+
+    @Test
+    public void create() {
+        final Account account = accountDAO.create("create");
+
+        assertThat("accountNumber must be not null", account.getAccountNumber(), notNullValue());
+        assertThat("account must be stored in the backing store",
+                backingStore.findByAccountNumber(account.getAccountNumber()), notNullValue());
+    }
+
+    @Test
+    public void loadsExistingAccounts() {
+        final Account existing = backingStore.create("existing");
+        backingStore.deposit(existing.getAccountNumber(), Money.of(10));
+
+        try (AccountDaoInMemoryImpl reloaded = new AccountDaoInMemoryImpl(backingStore, 16, 60_000L)) {
+            final Account account = reloaded.findByAccountNumber(existing.getAccountNumber());
+
+            assertThat("balance must be loaded", account.getBalance(), equalTo(Money.ofMinorUnits(1000L)));
+        }
+    }
+
+    @Test
+    public void findByAccountNumber_notFound() {
+        assertThat("result must be null", accountDAO.findByAccountNumber(Long.MIN_VALUE), nullValue());
+    }
+
+    @Test
+    public void findByAccountNumber_returnsCopy() {
+        final Account account = accountDAO.create("copy");
+        accountDAO.findByAccountNumber(account.getAccountNumber()).setBalance(Money.of(10));
+
+        assertThat("stored balance must not change", accountDAO.findByAccountNumber(account.getAccountNumber())
+                .getBalance().signum(), equalTo(0));
+    }
+
+    @Test
+    public void transferBalance_flush() {
+        final Account fromAcct = accountDAO.create("from");
+        final Account toAcct = accountDAO.create("to");
+        accountDAO.deposit(fromAcct.getAccountNumber(), Money.of(100L));
+
+        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.of(10));
+
+        assertThat("FROM balance must be updated in memory",
+                accountDAO.findByAccountNumber(fromAcct.getAccountNumber()).getBalance(),
+                equalTo(Money.ofMinorUnits(9000L)));
+        assertThat("TO balance is not written before flush",
+                backingStore.findByAccountNumber(toAcct.getAccountNumber()).getBalance().signum(), equalTo(0));
+
+        accountDAO.flush();
+
+        assertThat("FROM balance must be updated in DB",
+                backingStore.findByAccountNumber(fromAcct.getAccountNumber()).getBalance(),
+                equalTo(Money.ofMinorUnits(9000L)));
+        assertThat("TO balance must be updated in DB",
+                backingStore.findByAccountNumber(toAcct.getAccountNumber()).getBalance(),
+                equalTo(Money.ofMinorUnits(1000L)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transferBalance_notEnoughFunds() {
+        Account fromAcct = accountDAO.create("from2");
+        Account toAcct = accountDAO.create("to2");
+
+        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.of(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void withdraw_notEnoughFunds() {
+        Account account = accountDAO.create("withdraw");
+
+        accountDAO.withdraw(account.getAccountNumber(), Money.of(1));
+    }
+
+    @Test
+    public void transferBalance_stressTwoWay() throws InterruptedException {
+        final Account one = accountDAO.create("stress_one");
+        final Account two = accountDAO.create("stress_two");
+        accountDAO.deposit(one.getAccountNumber(), Money.of(1_000_000L));
+        accountDAO.deposit(two.getAccountNumber(), Money.of(1_000_000L));
+
+        final ExecutorService pool = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < 10_000; i++) {
+            pool.submit(() -> accountDAO.transferBalance(one.getAccountNumber(), two.getAccountNumber(),
+                    Money.of(10)));
+            pool.submit(() -> accountDAO.transferBalance(two.getAccountNumber(), one.getAccountNumber(),
+                    Money.of(1)));
+        }
+        pool.shutdown();
+        assertThat("transfers must not dead-lock", pool.awaitTermination(30, TimeUnit.SECONDS), equalTo(true));
+
+        assertThat(accountDAO.findByAccountNumber(one.getAccountNumber()).getBalance()
+                .compareTo(Money.of(1_000_000L - 90_000L)), equalTo(0));
+        assertThat(accountDAO.findByAccountNumber(two.getAccountNumber()).getBalance()
+                .compareTo(Money.of(1_000_000L + 90_000L)), equalTo(0));
+    }
+}
@@ -2,17 +2,48 @@ package org.vilutis.lt.revolut.backend.dao.impl;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.vilutis.lt.revolut.backend.dao.AccountDao;
 import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.journal.JournalEntry;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
 import org.vilutis.lt.revolut.backend.storage.DBStorage;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class AccountDaoJdbcImplTest {
 
@@ -43,6 +74,62 @@ public class AccountDaoJdbcImplTest {
         accountDAO.create(null);
     }
 
+    @Test
+    public void create_numbersFromBlock() {
+        final AccountDao dao = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"));
+        final Account first = dao.create("create_numbersFromBlock");
+        final Account second = dao.create("create_numbersFromBlock");
+
+        assertThat("account numbers must come from the same block", second.getAccountNumber(),
+                equalTo(first.getAccountNumber() + 1));
+        final Long other = accountDAO.create("create").getAccountNumber();
+        assertThat("other instances must not reuse the block",
+                other < first.getAccountNumber() || other > second.getAccountNumber());
+    }
+
+    @Test
+    public void createAll() {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < AccountDaoJdbcImpl.CREATE_CHUNK_SIZE * 2 + 10; i++) {
+            names.add("createAll-" + i);
+        }
+        final List<Account> created = new ArrayList<>();
+
+        assertThat(accountDAO.createAll(names.iterator(), created::add), equalTo((long) names.size()));
+
+        assertThat(created.size(), equalTo(names.size()));
+        for (int i = 0; i < names.size(); i++) {
+            assertThat("accounts must be returned in the order of names", created.get(i).getAccountName(),
+                    equalTo(names.get(i)));
+            if (i > 0) {
+                assertThat("account numbers must be ascending",
+                        created.get(i).getAccountNumber() > created.get(i - 1).getAccountNumber());
+            }
+        }
+        final Account last = accountDAO.findByAccountNumber(created.get(names.size() - 1).getAccountNumber());
+        assertThat(last.getAccountName(), equalTo(names.get(names.size() - 1)));
+        assertThat(last.getBalance(), equalTo(Money.ZERO));
+    }
+
+    @Test
+    public void createAll_emptyName() {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < AccountDaoJdbcImpl.CREATE_CHUNK_SIZE; i++) {
+            names.add("createAll_emptyName-" + i);
+        }
+        names.add("");
+        final List<Account> created = new ArrayList<>();
+
+        try {
+            accountDAO.createAll(names.iterator(), created::add);
+            fail("empty account name must be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat("the chunk before the invalid name must stay created", created.size(),
+                    equalTo(AccountDaoJdbcImpl.CREATE_CHUNK_SIZE));
+            assertThat(accountDAO.findByAccountNumber(created.get(0).getAccountNumber()), notNullValue());
+        }
+    }
+
     @Test
     public void findByAccountNumber() {
         final Account account = accountDAO.create("findByAccountNumber");
@@ -72,26 +159,62 @@ public class AccountDaoJdbcImplTest {
         assertThat("there must be a single result", result.size(), equalTo(1));
     }
 
+    @Test
+    public void findAllAfter_paging() {
+        final Account first = accountDAO.create("findAllAfter_first");
+        final Account second = accountDAO.create("findAllAfter_second");
+
+        final ArrayList<Account> result = accountDAO.findAllAfter(first.getAccountNumber(), 1);
+
+        assertThat("there must be a single result", result.size(), equalTo(1));
+        assertThat("page must start right after the given account", result.get(0).getAccountNumber(),
+                equalTo(second.getAccountNumber()));
+    }
+
+    @Test
+    public void findAllAfter_firstPage() {
+        accountDAO.create("findAllAfter_one");
+        accountDAO.create("findAllAfter_two");
+
+        final ArrayList<Account> result = accountDAO.findAllAfter(null, 2);
+
+        assertThat("there must be two results", result.size(), equalTo(2));
+        assertThat("results must be ordered by accountNumber",
+                result.get(0).getAccountNumber() < result.get(1).getAccountNumber());
+    }
+
+    @Test
+    public void exportAll() {
+        final Account account = accountDAO.create("exportAll");
+        final ArrayList<Account> exported = new ArrayList<>();
+
+        final long count = accountDAO.exportAll(exported::add);
+
+        assertThat("count must match", count, equalTo((long) exported.size()));
+        assertThat("created account must be exported", exported.stream()
+                .anyMatch(exportedAccount -> exportedAccount.getAccountNumber().equals(account.getAccountNumber())));
+    }
+
     @Test
     public void transferBalance() {
         Account fromAcct = accountDAO.create("from");
-        fromAcct.setBalance(100D);
+        fromAcct.setBalance(Money.of(100));
         fromAcct = accountDAO.update(fromAcct);
 
         Account toAcct = accountDAO.create("to");
 
-        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), BigDecimal.TEN.setScale(2));
+        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.of(10));
 
         fromAcct = accountDAO.findByAccountNumber(fromAcct.getAccountNumber());
         toAcct = accountDAO.findByAccountNumber(toAcct.getAccountNumber());
 
-        assertThat("FROM balance must be updated in DB", fromAcct.getBalance(), equalTo(BigDecimal.valueOf(9000L, 2)));
-        assertThat("TO balance must be updated in DB", toAcct.getBalance(), equalTo(BigDecimal.valueOf(1000L, 2)));
+        assertThat("FROM balance must be updated in DB", fromAcct.getBalance(), equalTo(Money.ofMinorUnits(9000L)));
+        assertThat("TO balance must be updated in DB", toAcct.getBalance(), equalTo(Money.ofMinorUnits(1000L)));
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void transferBalance_fakeAcct() {
-        accountDAO.transferBalance(98765432L, 98765433L, BigDecimal.TEN.setScale(2));
+        accountDAO.transferBalance(98765432L, 98765433L, Money.of(10));
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -99,7 +222,7 @@ public class AccountDaoJdbcImplTest {
         Account fromAcct = accountDAO.create("from_zeroAmount");
         Account toAcct = accountDAO.create("to_zeroAmount");
 
-        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), BigDecimal.ZERO.setScale(2));
+        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.ZERO);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -108,7 +231,7 @@ public class AccountDaoJdbcImplTest {
         Account toAcct = accountDAO.create("to_negativeAmount");
 
         accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(),
-                BigDecimal.TEN.negate().setScale(2));
+                Money.of(10).negate());
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -116,17 +239,373 @@ public class AccountDaoJdbcImplTest {
         Account fromAcct = accountDAO.create("from2");
         Account toAcct = accountDAO.create("to2");
 
-        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), BigDecimal.TEN.setScale(2));
+        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.of(10));
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void transferBalance_amountScaleInvalid() {
         Account fromAcct = accountDAO.create("from3");
-        fromAcct.setBalance(100D);
+        fromAcct.setBalance(Money.of(100));
         fromAcct = accountDAO.update(fromAcct);
 
         Account toAcct = accountDAO.create("to3");
 
-        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), BigDecimal.TEN.setScale(3));
+        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.parse("10.001"));
+    }
+
+    @Test
+    public void withdraw() {
+        final Account account = accountDAO.create("withdraw");
+        accountDAO.deposit(account.getAccountNumber(), Money.of(10));
+
+        final Account updated = accountDAO.withdraw(account.getAccountNumber(), Money.of(1));
+
+        assertThat("balance must be returned", updated.getBalance(), equalTo(Money.ofMinorUnits(900L)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void withdraw_notEnoughFunds() {
+        final Account account = accountDAO.create("withdraw_notEnoughFunds");
+
+        accountDAO.withdraw(account.getAccountNumber(), Money.of(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void withdraw_fakeAcct() {
+        accountDAO.withdraw(98765432L, Money.of(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deposit_fakeAcct() {
+        accountDAO.deposit(98765432L, Money.of(1));
+    }
+
+    @Test
+    public void transferBalance_fakeToAcct_rollback() {
+        final Account fromAcct = accountDAO.create("from_fakeTo");
+        accountDAO.deposit(fromAcct.getAccountNumber(), Money.of(10));
+
+        try {
+            accountDAO.transferBalance(fromAcct.getAccountNumber(), 98765432L, Money.of(1));
+            fail("transfer to a missing account must fail");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), equalTo("'to' Account not found"));
+        }
+
+        assertThat("FROM balance must be rolled back",
+                accountDAO.findByAccountNumber(fromAcct.getAccountNumber()).getBalance(),
+                equalTo(Money.ofMinorUnits(1000L)));
+    }
+
+    @Test
+    public void transferBalances() {
+        Account first = accountDAO.create("batch_first");
+        Account second = accountDAO.create("batch_second");
+        Account third = accountDAO.create("batch_third");
+        accountDAO.deposit(first.getAccountNumber(), Money.of(10));
+
+        final ArrayList<TransferResult> results = accountDAO.transferBalances(Arrays.asList(
+                new Transfer(first.getAccountNumber(), second.getAccountNumber(), Money.of(10)),
+                // spends the money received by the previous transfer
+                new Transfer(second.getAccountNumber(), third.getAccountNumber(), Money.of(1)),
+                new Transfer(first.getAccountNumber(), third.getAccountNumber(), Money.of(1)),
+                new Transfer(first.getAccountNumber(), 98765432L, Money.of(1)),
+                new Transfer(second.getAccountNumber(), third.getAccountNumber(), Money.ZERO)));
+
+        assertThat("there must be a result for every transfer", results.size(), equalTo(5));
+        assertThat("transfer must be applied", results.get(0).isApplied(), equalTo(true));
+        assertThat("transfer must be applied", results.get(1).isApplied(), equalTo(true));
+        assertThat("transfer must be rejected", results.get(2).getMessage(),
+                equalTo("From account balance is not enough for transfer"));
+        assertThat("transfer must be rejected", results.get(3).isApplied(), equalTo(false));
+        assertThat("transfer must be rejected", results.get(4).getMessage(), equalTo("amount must be positive"));
+
+        first = accountDAO.findByAccountNumber(first.getAccountNumber());
+        second = accountDAO.findByAccountNumber(second.getAccountNumber());
+        third = accountDAO.findByAccountNumber(third.getAccountNumber());
+
+        assertThat("first balance must be updated in DB", first.getBalance(), equalTo(Money.ofMinorUnits(0L)));
+        assertThat("second balance must be updated in DB", second.getBalance(), equalTo(Money.ofMinorUnits(900L)));
+        assertThat("third balance must be updated in DB", third.getBalance(), equalTo(Money.ofMinorUnits(100L)));
+    }
+
+    @Test
+    public void transferBalances_empty() {
+        assertThat("result must be empty", accountDAO.transferBalances(new ArrayList<>()).size(), equalTo(0));
+    }
+
+    @Test
+    public void transferBalance_journal() {
+        final Journal journal = mock(Journal.class);
+        final AccountDao journaledDAO = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"), journal);
+        final Account fromAcct = journaledDAO.create("journalFrom");
+        final Account toAcct = journaledDAO.create("journalTo");
+
+        journaledDAO.deposit(fromAcct.getAccountNumber(), Money.of(10));
+        journaledDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.of(1));
+        journaledDAO.withdraw(toAcct.getAccountNumber(), Money.of(1));
+
+        final ArgumentCaptor<JournalEntry> entries = ArgumentCaptor.forClass(JournalEntry.class);
+        verify(journal, times(3)).append(entries.capture());
+        assertThat(entries.getAllValues().get(0).getType(), equalTo(JournalEntry.Type.DEPOSIT));
+        assertThat(entries.getAllValues().get(1).getType(), equalTo(JournalEntry.Type.TRANSFER));
+        assertThat(entries.getAllValues().get(1).getFromAcct(), equalTo(fromAcct.getAccountNumber()));
+        assertThat(entries.getAllValues().get(1).getAmount(), equalTo(Money.parse("1.00")));
+        assertThat(entries.getAllValues().get(2).getType(), equalTo(JournalEntry.Type.WITHDRAWAL));
+    }
+
+    @Test
+    public void transferBalance_journalFailure_committed() {
+        final Journal journal = mock(Journal.class);
+        final AccountDao journaledDAO = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"), journal);
+        final Account fromAcct = accountDAO.create("journalFailureFrom");
+        final Account toAcct = accountDAO.create("journalFailureTo");
+        accountDAO.deposit(fromAcct.getAccountNumber(), Money.of(10));
+        when(journal.append(any(JournalEntry.class))).thenThrow(new UncheckedIOException(new IOException("disk")));
+
+        journaledDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.of(1));
+
+        assertThat("transfer is journaled once committed, so it stands even if the journal fails",
+                accountDAO.findByAccountNumber(fromAcct.getAccountNumber()).getBalance(),
+                equalTo(Money.parse("9.00")));
+    }
+
+    @Test
+    public void transferBalance_rollback_notJournaled() {
+        final Journal journal = mock(Journal.class);
+        final AccountDao journaledDAO = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"), journal);
+        final Account fromAcct = accountDAO.create("notJournaledFrom");
+        accountDAO.deposit(fromAcct.getAccountNumber(), Money.of(10));
+
+        try {
+            journaledDAO.transferBalance(fromAcct.getAccountNumber(), Long.MAX_VALUE, Money.of(1));
+            fail("transfer to a missing account must fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        verify(journal, never()).append(any(JournalEntry.class));
+    }
+
+    @Test
+    public void transferBalance_updatesOnly() throws SQLException {
+        final DBStorage countingStorage = spy(new DBStorage("/test.db.properties"));
+        final AccountDaoJdbcImpl countedDAO = new AccountDaoJdbcImpl(countingStorage);
+        final Account fromAcct = accountDAO.create("updatesOnlyFrom");
+        final Account toAcct = accountDAO.create("updatesOnlyTo");
+        accountDAO.deposit(fromAcct.getAccountNumber(), Money.of(10));
+        clearInvocations(countingStorage);
+
+        countedDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.of(1));
+
+        verify(countingStorage, times(2)).prepareCached(any(Connection.class), startsWith(" UPDATE "),
+                any(String[].class));
+        verify(countingStorage, never()).prepareCached(any(Connection.class), startsWith(" SELECT "));
+    }
+
+    @Test
+    public void transferBalance_retried_journaledOnce() throws SQLException {
+        final Journal journal = mock(Journal.class);
+        final DBStorage retryingStorage = spy(new DBStorage("/test.db.properties"));
+        final AccountDao journaledDAO = new AccountDaoJdbcImpl(retryingStorage, journal);
+        final Account fromAcct = accountDAO.create("retriedFrom");
+        final Account toAcct = accountDAO.create("retriedTo");
+        accountDAO.deposit(fromAcct.getAccountNumber(), Money.of(10));
+        // the second balance update times out once the first one is applied, so the whole transaction is run again
+        final AtomicInteger updates = new AtomicInteger();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        doAnswer(invocation -> {
+            if (updates.incrementAndGet() == 2 && timedOut.compareAndSet(false, true)) {
+                throw new SQLException("Timeout trying to lock table", "HYT00", 50200);
+            }
+            return invocation.callRealMethod();
+        }).when(retryingStorage).prepareCached(any(Connection.class), startsWith(" UPDATE "), any(String[].class));
+
+        journaledDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.of(1));
+
+        assertThat("transaction must have been retried", timedOut.get(), equalTo(true));
+        verify(journal, times(1)).append(any(JournalEntry.class));
+        assertThat(accountDAO.findByAccountNumber(fromAcct.getAccountNumber()).getBalance(),
+                equalTo(Money.parse("9.00")));
+    }
+
+    @Test
+    public void setSlots() {
+        final AccountDaoJdbcImpl shardingDAO = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"));
+        final Account merchant = shardingDAO.create("merchant");
+        final Account customer = shardingDAO.create("customer");
+        shardingDAO.deposit(merchant.getAccountNumber(), Money.parse("100.03"));
+
+        shardingDAO.setSlots(merchant.getAccountNumber(), 4);
+
+        assertThat(shardingDAO.findByAccountNumber(merchant.getAccountNumber()).getBalance(),
+                equalTo(Money.parse("100.03")));
+
+        for (int i = 0; i < 10; i++) {
+            shardingDAO.deposit(merchant.getAccountNumber(), Money.of(1));
+        }
+        assertThat(shardingDAO.findByAccountNumber(merchant.getAccountNumber()).getBalance(),
+                equalTo(Money.parse("110.03")));
+
+        // more than any single slot holds, so the slots are rebalanced
+        shardingDAO.transferBalance(merchant.getAccountNumber(), customer.getAccountNumber(), Money.of(105));
+        assertThat(shardingDAO.findByAccountNumber(merchant.getAccountNumber()).getBalance(),
+                equalTo(Money.parse("5.03")));
+        assertThat(shardingDAO.findByAccountNumber(customer.getAccountNumber()).getBalance(), equalTo(Money.of(105)));
+
+        shardingDAO.transferBalances(Arrays.asList(
+                new Transfer(merchant.getAccountNumber(), customer.getAccountNumber(), Money.of(5)),
+                new Transfer(customer.getAccountNumber(), merchant.getAccountNumber(), Money.of(1))));
+        assertThat(shardingDAO.findByAccountNumber(merchant.getAccountNumber()).getBalance(),
+                equalTo(Money.parse("1.03")));
+        assertThat("the account row balance is now negative, the slots must cover the withdrawal",
+                shardingDAO.withdraw(merchant.getAccountNumber(), Money.parse("1.03")).getBalance(),
+                equalTo(Money.ZERO));
+
+        shardingDAO.deposit(merchant.getAccountNumber(), Money.of(7));
+        shardingDAO.setSlots(merchant.getAccountNumber(), 0);
+        assertThat(accountDAO.findByAccountNumber(merchant.getAccountNumber()).getBalance(), equalTo(Money.of(7)));
+    }
+
+    @Test
+    public void setSlots_byAnotherInstance() {
+        final AccountDaoJdbcImpl shardingDAO = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"));
+        final Account merchant = shardingDAO.create("merchant");
+        final Account customer = shardingDAO.create("customer");
+        shardingDAO.deposit(merchant.getAccountNumber(), Money.of(10));
+        shardingDAO.setSlots(merchant.getAccountNumber(), 4);
+
+        // accountDAO was created before the account was sharded, its account row holds nothing
+        assertThat(accountDAO.withdraw(merchant.getAccountNumber(), Money.of(4)).getBalance(), equalTo(Money.of(6)));
+        accountDAO.transferBalance(merchant.getAccountNumber(), customer.getAccountNumber(), Money.of(5));
+        try {
+            accountDAO.withdraw(merchant.getAccountNumber(), Money.of(2));
+            fail("the whole balance must still be checked");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), equalTo("account balance is not enough for withdrawal"));
+        }
+
+        assertThat(shardingDAO.findByAccountNumber(merchant.getAccountNumber()).getBalance(), equalTo(Money.of(1)));
+        assertThat(shardingDAO.findByAccountNumber(customer.getAccountNumber()).getBalance(), equalTo(Money.of(5)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setSlots_notEnoughFunds() {
+        final AccountDaoJdbcImpl shardingDAO = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"));
+        final Account merchant = shardingDAO.create("merchant");
+        shardingDAO.deposit(merchant.getAccountNumber(), Money.of(10));
+        shardingDAO.setSlots(merchant.getAccountNumber(), 3);
+
+        shardingDAO.withdraw(merchant.getAccountNumber(), Money.parse("10.01"));
+    }
+
+    @Test
+    public void setSlots_update() {
+        final AccountDaoJdbcImpl shardingDAO = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"));
+        final Account merchant = shardingDAO.create("merchant");
+        shardingDAO.deposit(merchant.getAccountNumber(), Money.of(10));
+        shardingDAO.setSlots(merchant.getAccountNumber(), 3);
+
+        merchant.setBalance(Money.of(2));
+        shardingDAO.update(merchant);
+
+        assertThat(shardingDAO.findByAccountNumber(merchant.getAccountNumber()).getBalance(), equalTo(Money.of(2)));
+        assertThat("other DAO instances must see the whole balance",
+                accountDAO.findByAccountNumber(merchant.getAccountNumber()).getBalance(), equalTo(Money.of(2)));
+    }
+
+    @Test
+    public void setSlots_concurrentDeposits() throws Exception {
+        final AccountDaoJdbcImpl shardingDAO = new AccountDaoJdbcImpl(new DBStorage("/test.db.properties"));
+        final Account merchant = shardingDAO.create("merchant");
+        shardingDAO.setSlots(merchant.getAccountNumber(), 8);
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executorService.submit(() -> {
+                for (int j = 0; j < 50; j++) {
+                    shardingDAO.deposit(merchant.getAccountNumber(), Money.parse("0.01"));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        assertThat(shardingDAO.findByAccountNumber(merchant.getAccountNumber()).getBalance(), equalTo(Money.of(4)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setSlots_tooMany() {
+        new AccountDaoJdbcImpl(new DBStorage("/test.db.properties")).setSlots(1L, BalanceSlots.MAX_SLOTS + 1);
+    }
+
+    @Test
+    public void getLedgerSummary() {
+        try (DBStorage dbStorage = new DBStorage("/test.db.properties", "jdbc:h2:mem:getLedgerSummary", "ledger",
+                new MetricsRegistry())) {
+            final AccountDaoJdbcImpl dao = new AccountDaoJdbcImpl(dbStorage);
+            assertThat(dao.getLedgerSummary().getAccountCount(), equalTo(0L));
+            final Account first = dao.create("first");
+            final Account second = dao.create("second");
+            dao.createAll(Arrays.asList("third", "fourth").iterator(), account -> { });
+            dao.deposit(first.getAccountNumber(), Money.of(100));
+            dao.withdraw(first.getAccountNumber(), Money.of(10));
+            dao.transferBalance(first.getAccountNumber(), second.getAccountNumber(), Money.of(30));
+            dao.transferBalances(Arrays.asList(
+                    new Transfer(second.getAccountNumber(), first.getAccountNumber(), Money.of(5)),
+                    new Transfer(second.getAccountNumber(), first.getAccountNumber(), Money.of(500))));
+            dao.setSlots(second.getAccountNumber(), 2);
+            dao.deposit(second.getAccountNumber(), Money.of(1));
+            second.setBalance(Money.of(1_000));
+            dao.update(second);
+
+            final LedgerSummary summary = dao.getLedgerSummary();
+
+            assertThat(summary.getAccountCount(), equalTo(4L));
+            assertThat(summary.getTotalBalance(), equalTo(Money.of(1_065)));
+            assertThat(summary.getMinBalance(), equalTo(Money.ZERO));
+            assertThat("counters must match the ones rebuilt from the table", summary.toString(),
+                    equalTo(new AccountDaoJdbcImpl(dbStorage).getLedgerSummary().toString()));
+            assertThat(dao.checkLedgerStats(), equalTo(true));
+        }
+    }
+
+    @Test
+    public void getLedgerSummary_corrected() throws Exception {
+        try (DBStorage dbStorage = new DBStorage("/test.db.properties", "jdbc:h2:mem:getLedgerSummary_corrected",
+                "ledger", new MetricsRegistry())) {
+            final AccountDaoJdbcImpl dao = new AccountDaoJdbcImpl(dbStorage, Journal.NONE, 10L);
+            final Account account = dao.create("account");
+            assertThat(dao.getLedgerSummary().getAccountCount(), equalTo(1L));
+            // written around the DAO
+            dbStorage.runInTransaction(connection -> connection.createStatement().executeUpdate(
+                    "UPDATE account SET balance = 700 WHERE accountNumber = " + account.getAccountNumber()));
+
+            // corrected by the background checks, not by reading the summary
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!dao.getLedgerSummary().getTotalBalance().equals(Money.of(7)) && System.nanoTime() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertThat(dao.getLedgerSummary().getTotalBalance(), equalTo(Money.of(7)));
+        }
+    }
+
+    @Test
+    public void getLedgerSummary_scannedWhenRead() throws SQLException {
+        try (DBStorage dbStorage = spy(new DBStorage("/test.db.properties", "jdbc:h2:mem:getLedgerSummary_scanned",
+                "ledger", new MetricsRegistry()))) {
+            final AccountDaoJdbcImpl dao = new AccountDaoJdbcImpl(dbStorage);
+            final Account account = dao.create("account");
+            dao.deposit(account.getAccountNumber(), Money.of(3));
+            verify(dbStorage, never()).runSQLOnPrimary(eq("scanLedger"), any());
+
+            assertThat(dao.getLedgerSummary().getTotalBalance(), equalTo(Money.of(3)));
+            assertThat(dao.getLedgerSummary().getTotalBalance(), equalTo(Money.of(3)));
+
+            verify(dbStorage, times(1)).runSQLOnPrimary(eq("scanLedger"), any());
+        }
     }
-}
\ No newline at end of file
+}
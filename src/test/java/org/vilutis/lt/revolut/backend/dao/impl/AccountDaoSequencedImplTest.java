@@ -0,0 +1,172 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class AccountDaoSequencedImplTest {
+
+    private static DBStorage dbStorage;
+
+    private static MetricsRegistry metrics;
+
+    private static AccountDaoSequencedImpl accountDAO;
+
+    @BeforeClass
+    public static void setUp() {
+        dbStorage = new DBStorage("/test.db.properties");
+        metrics = new MetricsRegistry();
+        accountDAO = new AccountDaoSequencedImpl(dbStorage, Journal.NONE, metrics, 1024, 64, 100L);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        accountDAO.close();
+    }
+
+    @Test
+    public void transferBalance() {
+        final Account fromAcct = accountDAO.create("from");
+        final Account toAcct = accountDAO.create("to");
+        accountDAO.deposit(fromAcct.getAccountNumber(), Money.of(100L));
+
+        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.of(10));
+
+        final AccountDaoJdbcImpl jdbcDao = new AccountDaoJdbcImpl(dbStorage);
+        assertThat("FROM balance must be committed",
+                jdbcDao.findByAccountNumber(fromAcct.getAccountNumber()).getBalance(), equalTo(Money.of(90)));
+        assertThat("TO balance must be committed",
+                jdbcDao.findByAccountNumber(toAcct.getAccountNumber()).getBalance(), equalTo(Money.of(10)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transferBalance_notEnoughFunds() {
+        final Account fromAcct = accountDAO.create("from2");
+        final Account toAcct = accountDAO.create("to2");
+
+        accountDAO.transferBalance(fromAcct.getAccountNumber(), toAcct.getAccountNumber(), Money.of(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deposit_notFound() {
+        accountDAO.deposit(Long.MIN_VALUE, Money.of(1));
+    }
+
+    @Test
+    public void withdraw() {
+        final Account account = accountDAO.create("withdraw");
+        accountDAO.deposit(account.getAccountNumber(), Money.of(5));
+
+        final Account result = accountDAO.withdraw(account.getAccountNumber(), Money.of(2));
+
+        assertThat(result.getBalance(), equalTo(Money.of(3)));
+    }
+
+    @Test
+    public void transferBalances_partiallyRejected() {
+        final Account one = accountDAO.create("batch_one");
+        final Account two = accountDAO.create("batch_two");
+        accountDAO.deposit(one.getAccountNumber(), Money.of(10));
+
+        final List<TransferResult> results = accountDAO.transferBalances(Arrays.asList(
+                new Transfer(one.getAccountNumber(), two.getAccountNumber(), Money.of(10)),
+                new Transfer(one.getAccountNumber(), two.getAccountNumber(), Money.of(1))));
+
+        assertThat(results.get(0).isApplied(), equalTo(true));
+        assertThat(results.get(1).isApplied(), equalTo(false));
+        assertThat(accountDAO.findByAccountNumber(two.getAccountNumber()).getBalance(), equalTo(Money.of(10)));
+    }
+
+    @Test
+    public void transferBalances_overflowRejected() {
+        final Account one = accountDAO.create("overflow_one");
+        final Account two = accountDAO.create("overflow_two");
+        final Account full = accountDAO.create("overflow_full");
+        accountDAO.deposit(one.getAccountNumber(), Money.of(10));
+        accountDAO.deposit(full.getAccountNumber(), Money.ofMinorUnits(Long.MAX_VALUE));
+
+        final List<TransferResult> results = accountDAO.transferBalances(Arrays.asList(
+                new Transfer(one.getAccountNumber(), two.getAccountNumber(), Money.of(3)),
+                new Transfer(one.getAccountNumber(), full.getAccountNumber(), Money.of(1))));
+
+        assertThat(results.get(0).isApplied(), equalTo(true));
+        assertThat("an overflowing transfer must be rejected alone", results.get(1).isApplied(), equalTo(false));
+        final AccountDaoJdbcImpl jdbcDao = new AccountDaoJdbcImpl(dbStorage);
+        assertThat(jdbcDao.findByAccountNumber(one.getAccountNumber()).getBalance(), equalTo(Money.of(7)));
+        assertThat(jdbcDao.findByAccountNumber(two.getAccountNumber()).getBalance(), equalTo(Money.of(3)));
+        assertThat(jdbcDao.findByAccountNumber(full.getAccountNumber()).getBalance(),
+                equalTo(Money.ofMinorUnits(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void update() {
+        final Account account = accountDAO.create("update");
+        accountDAO.deposit(account.getAccountNumber(), Money.of(5));
+
+        accountDAO.update(Account.from(account.getAccountNumber(), "updated", Money.of(7)));
+        accountDAO.deposit(account.getAccountNumber(), Money.of(1));
+
+        final Account updated = accountDAO.findByAccountNumber(account.getAccountNumber());
+        assertThat(updated.getAccountName(), equalTo("updated"));
+        assertThat(updated.getBalance(), equalTo(Money.of(8)));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void update_notFound() {
+        accountDAO.update(Account.from(Long.MIN_VALUE, "missing", Money.ZERO));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void transferBalance_stressTwoWay() throws InterruptedException {
+        final Account one = accountDAO.create("stress_one");
+        final Account two = accountDAO.create("stress_two");
+        accountDAO.deposit(one.getAccountNumber(), Money.of(1_000_000L));
+        accountDAO.deposit(two.getAccountNumber(), Money.of(1_000_000L));
+
+        final ExecutorService pool = Executors.newFixedThreadPool(16);
+        for (int i = 0; i < 2_000; i++) {
+            pool.submit(() -> accountDAO.transferBalance(one.getAccountNumber(), two.getAccountNumber(),
+                    Money.of(10)));
+            pool.submit(() -> accountDAO.transferBalance(two.getAccountNumber(), one.getAccountNumber(),
+                    Money.of(1)));
+        }
+        pool.shutdown();
+        assertThat(pool.awaitTermination(30, TimeUnit.SECONDS), equalTo(true));
+
+        assertThat(accountDAO.findByAccountNumber(one.getAccountNumber()).getBalance(),
+                equalTo(Money.of(1_000_000L - 18_000L)));
+        assertThat(accountDAO.findByAccountNumber(two.getAccountNumber()).getBalance(),
+                equalTo(Money.of(1_000_000L + 18_000L)));
+
+        final Map<String, Object> batchSizes = (Map<String, Object>) ((Map<String, Object>) metrics.snapshot()
+                .get("distributions")).get("sequencer_batch_size");
+        assertThat("concurrent commands must share transactions", (Long) batchSizes.get("max") > 1, equalTo(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void close_rejectsCommands() {
+        final AccountDaoSequencedImpl closed = new AccountDaoSequencedImpl(dbStorage);
+        final Account account = closed.create("closed");
+        closed.close();
+
+        closed.deposit(account.getAccountNumber(), Money.of(1));
+    }
+}
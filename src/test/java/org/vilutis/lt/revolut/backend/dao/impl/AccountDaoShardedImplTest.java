@@ -0,0 +1,283 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.domain.Transfer;
+import org.vilutis.lt.revolut.backend.domain.TransferResult;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+import org.vilutis.lt.revolut.backend.storage.DBStorage;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+public class AccountDaoShardedImplTest {
+
+    private static final int SHARDS = 3;
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private List<DBStorage> shards;
+
+    private AccountDaoShardedImpl accountDAO;
+
+    @Before
+    public void setUp() {
+        // in-memory databases of their own, gone once their pools are closed
+        shards = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            shards.add(new DBStorage("/test.db.properties", "jdbc:h2:mem:" + testName.getMethodName() + "-" + shard,
+                    "shard-" + shard, new MetricsRegistry()));
+        }
+        accountDAO = new AccountDaoShardedImpl(shards, Journal.NONE);
+    }
+
+    @After
+    public void tearDown() {
+        accountDAO.close();
+        shards.forEach(DBStorage::close);
+    }
+
+    /**
+     * @return accounts with a balance of 100.00 on two different shards
+     */
+    private Account[] crossShardAccounts() {
+        final Account from = accountDAO.create("from");
+        Account to = accountDAO.create("to");
+        while (accountDAO.shardOf(to.getAccountNumber()) == accountDAO.shardOf(from.getAccountNumber())) {
+            to = accountDAO.create("to");
+        }
+        accountDAO.deposit(from.getAccountNumber(), Money.of(100));
+        accountDAO.deposit(to.getAccountNumber(), Money.of(100));
+        return new Account[] {from, to};
+    }
+
+    private Money balanceOf(Account account) {
+        return accountDAO.findByAccountNumber(account.getAccountNumber()).getBalance();
+    }
+
+    @Test
+    public void create_spreadAcrossShards() {
+        final Set<Integer> used = new HashSet<>();
+        for (int i = 0; i < 30; i++) {
+            final Account account = accountDAO.create("create_spreadAcrossShards");
+            used.add(accountDAO.shardOf(account.getAccountNumber()));
+            assertThat("account must be found on its shard",
+                    accountDAO.findByAccountNumber(account.getAccountNumber()).getAccountName(),
+                    equalTo("create_spreadAcrossShards"));
+        }
+        assertThat("every shard must own some accounts", used.size(), equalTo(SHARDS));
+    }
+
+    @Test
+    public void transferBalance_crossShard() {
+        final Account[] accounts = crossShardAccounts();
+
+        accountDAO.transferBalance(accounts[0].getAccountNumber(), accounts[1].getAccountNumber(),
+                Money.of(30));
+
+        assertThat(balanceOf(accounts[0]), equalTo(Money.of(70)));
+        assertThat(balanceOf(accounts[1]), equalTo(Money.of(130)));
+        for (AccountDaoJdbcImpl shardDao : Arrays.asList(accountDAO.shardDaoOf(accounts[0].getAccountNumber()),
+                accountDAO.shardDaoOf(accounts[1].getAccountNumber()))) {
+            assertThat("completed sides must be deleted", shardDao.findPrepared().isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void transferBalance_crossShard_notEnough() {
+        final Account[] accounts = crossShardAccounts();
+        try {
+            accountDAO.transferBalance(accounts[0].getAccountNumber(), accounts[1].getAccountNumber(),
+                    Money.ofMinorUnits(10001));
+            fail("the transfer must be rejected");
+        } catch (IllegalArgumentException expected) {
+            // not prepared
+        }
+        assertThat(balanceOf(accounts[0]), equalTo(Money.of(100)));
+        assertThat(balanceOf(accounts[1]), equalTo(Money.of(100)));
+    }
+
+    @Test
+    public void transferBalance_crossShard_toNotFound() {
+        final Account from = accountDAO.create("from");
+        accountDAO.deposit(from.getAccountNumber(), Money.of(100));
+        long missing = from.getAccountNumber() + 1000;
+        while (accountDAO.shardOf(missing) == accountDAO.shardOf(from.getAccountNumber())) {
+            missing++;
+        }
+        try {
+            accountDAO.transferBalance(from.getAccountNumber(), missing, Money.of(10));
+            fail("the transfer must be rejected");
+        } catch (IllegalArgumentException expected) {
+            // the debit is aborted
+        }
+        assertThat("the prepared debit must be refunded", balanceOf(from), equalTo(Money.of(100)));
+        assertThat(accountDAO.shardDaoOf(from.getAccountNumber()).findPrepared().isEmpty(), is(true));
+    }
+
+    @Test
+    public void transferBalance_crossShard_completeFailed() throws Exception {
+        final Account[] accounts = crossShardAccounts();
+        // the first side to complete fails once the decision is recorded
+        final AtomicBoolean failed = new AtomicBoolean();
+        final List<DBStorage> failingShards = new ArrayList<>();
+        for (DBStorage shard : shards) {
+            final DBStorage failingShard = spy(shard);
+            doAnswer(invocation -> {
+                if (failed.compareAndSet(false, true)) {
+                    throw new SQLException("Connection is closed");
+                }
+                return invocation.callRealMethod();
+            }).when(failingShard).runInTransaction(eq("commitPrepared"), any());
+            failingShards.add(failingShard);
+        }
+        accountDAO.close();
+        accountDAO = new AccountDaoShardedImpl(failingShards, Journal.NONE, 10L);
+
+        accountDAO.transferBalance(accounts[0].getAccountNumber(), accounts[1].getAccountNumber(), Money.of(30));
+
+        assertThat("completing must have failed", failed.get(), is(true));
+        final long deadline = System.currentTimeMillis() + 5_000L;
+        while (!balanceOf(accounts[1]).equals(Money.of(130)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat("the credit must be completed in the background", balanceOf(accounts[1]),
+                equalTo(Money.of(130)));
+        assertThat(balanceOf(accounts[0]), equalTo(Money.of(70)));
+        for (AccountDaoJdbcImpl shardDao : Arrays.asList(accountDAO.shardDaoOf(accounts[0].getAccountNumber()),
+                accountDAO.shardDaoOf(accounts[1].getAccountNumber()))) {
+            assertThat("completed sides must be deleted", shardDao.findPrepared().isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void recover_notDecided() {
+        final Account[] accounts = crossShardAccounts();
+        // crashed after preparing both sides
+        accountDAO.shardDaoOf(accounts[0].getAccountNumber())
+                .prepareDebit("recover_notDecided", accounts[0].getAccountNumber(), Money.of(40));
+        accountDAO.shardDaoOf(accounts[1].getAccountNumber())
+                .prepareCredit("recover_notDecided", accounts[1].getAccountNumber(), Money.of(40));
+        assertThat("the debit is withdrawn when prepared", balanceOf(accounts[0]), equalTo(Money.of(60)));
+
+        accountDAO.close();
+        accountDAO = new AccountDaoShardedImpl(shards, Journal.NONE);
+
+        assertThat("the transfer must be aborted", balanceOf(accounts[0]), equalTo(Money.of(100)));
+        assertThat(balanceOf(accounts[1]), equalTo(Money.of(100)));
+    }
+
+    @Test
+    public void recover_decided() throws Exception {
+        final Account[] accounts = crossShardAccounts();
+        // crashed after recording the decision, one side completed
+        accountDAO.shardDaoOf(accounts[0].getAccountNumber())
+                .prepareDebit("recover_decided", accounts[0].getAccountNumber(), Money.of(40));
+        accountDAO.shardDaoOf(accounts[1].getAccountNumber())
+                .prepareCredit("recover_decided", accounts[1].getAccountNumber(), Money.of(40));
+        shards.get(0).runInTransaction(connection -> connection.createStatement()
+                .executeUpdate("INSERT INTO transfer_decision ( transferId ) VALUES ( 'recover_decided' )"));
+        accountDAO.shardDaoOf(accounts[0].getAccountNumber())
+                .commitPrepared("recover_decided", accounts[0].getAccountNumber());
+
+        accountDAO.close();
+        accountDAO = new AccountDaoShardedImpl(shards, Journal.NONE);
+
+        assertThat("the transfer must be committed", balanceOf(accounts[0]), equalTo(Money.of(60)));
+        assertThat(balanceOf(accounts[1]), equalTo(Money.of(140)));
+        assertThat("the decision must be forgotten", shards.get(0).runSQLOnPrimary("count", connection -> {
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM transfer_decision")) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }), equalTo(0L));
+    }
+
+    @Test
+    public void transferBalances_crossShard() {
+        final Account[] accounts = crossShardAccounts();
+
+        final List<TransferResult> results = accountDAO.transferBalances(Arrays.asList(
+                new Transfer(accounts[0].getAccountNumber(), accounts[1].getAccountNumber(), Money.of(60)),
+                new Transfer(accounts[0].getAccountNumber(), accounts[1].getAccountNumber(), Money.of(60)),
+                new Transfer(accounts[1].getAccountNumber(), accounts[0].getAccountNumber(), Money.of(10))));
+
+        assertThat(results.get(0).isApplied(), is(true));
+        assertThat("the second transfer must be rejected", results.get(1).isApplied(), is(false));
+        assertThat(results.get(2).isApplied(), is(true));
+        assertThat(balanceOf(accounts[0]), equalTo(Money.of(50)));
+        assertThat(balanceOf(accounts[1]), equalTo(Money.of(150)));
+    }
+
+    @Test
+    public void findAll_mergedInOrder() {
+        final List<Long> created = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            created.add(accountDAO.create("findAll_mergedInOrder").getAccountNumber());
+        }
+
+        final List<Long> pages = new ArrayList<>();
+        for (int page = 0; page < 3; page++) {
+            accountDAO.findAll(page, 10).forEach(account -> pages.add(account.getAccountNumber()));
+        }
+        assertThat(pages, equalTo(created));
+
+        final List<Long> keyset = new ArrayList<>();
+        List<Account> page = accountDAO.findAllAfter(null, 10);
+        while (!page.isEmpty()) {
+            page.forEach(account -> keyset.add(account.getAccountNumber()));
+            page = accountDAO.findAllAfter(keyset.get(keyset.size() - 1), 10);
+        }
+        assertThat(keyset, equalTo(created));
+
+        final List<Long> exported = new ArrayList<>();
+        assertThat(accountDAO.exportAll(account -> exported.add(account.getAccountNumber())), equalTo(25L));
+        assertThat(exported, equalTo(created));
+    }
+
+    @Test
+    public void createAll() {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < AccountDaoJdbcImpl.CREATE_CHUNK_SIZE + 10; i++) {
+            names.add("createAll-" + i);
+        }
+        final List<Account> created = new ArrayList<>();
+
+        assertThat(accountDAO.createAll(names.iterator(), created::add), equalTo((long) names.size()));
+
+        for (int i = 0; i < names.size(); i++) {
+            assertThat("accounts must be returned in the order of the names", created.get(i).getAccountName(),
+                    equalTo(names.get(i)));
+            if (i > 0) {
+                assertThat(created.get(i).getAccountNumber() > created.get(i - 1).getAccountNumber(), is(true));
+            }
+        }
+        final Account last = created.get(created.size() - 1);
+        assertThat(accountDAO.findByAccountNumber(last.getAccountNumber()).getAccountName(),
+                equalTo(last.getAccountName()));
+    }
+}
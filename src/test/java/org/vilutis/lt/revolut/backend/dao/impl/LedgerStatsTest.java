@@ -0,0 +1,112 @@
+package org.vilutis.lt.revolut.backend.dao.impl;
+
+import org.junit.Test;
+import org.vilutis.lt.revolut.backend.domain.LedgerSummary;
+import org.vilutis.lt.revolut.backend.domain.Money;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LedgerStatsTest {
+
+    @Test
+    public void buckets() {
+        for (long balance : new long[] {0, 1, 63, 64, 65, 100, 1_000, 123_456_789L, Long.MAX_VALUE / 3,
+                Long.MAX_VALUE}) {
+            final int bucket = LedgerStats.bucketOf(balance);
+            assertThat(balance + " must be in its bucket",
+                    LedgerStats.lowestOf(bucket) <= balance && balance <= LedgerStats.highestOf(bucket));
+            assertThat(balance + " must be within 1/" + LedgerStats.SUB_BUCKETS,
+                    LedgerStats.highestOf(bucket) - LedgerStats.lowestOf(bucket)
+                            <= Math.max(0, balance / LedgerStats.SUB_BUCKETS));
+        }
+        assertThat("negative balances are counted as zero", LedgerStats.bucketOf(-100), equalTo(0));
+    }
+
+    @Test
+    public void summary() {
+        final LedgerStats stats = new LedgerStats();
+        stats.created(100);
+        // balances 1.00 to 100.00
+        for (int i = 1; i <= 100; i++) {
+            stats.changed(0, i * 100L);
+        }
+
+        final LedgerSummary summary = stats.summary();
+
+        assertThat(summary.getAccountCount(), equalTo(100L));
+        assertThat(summary.getTotalBalance(), equalTo(Money.of(5050)));
+        assertThat(summary.getMinBalance(), equalTo(Money.of(1)));
+        assertWithin(summary.getMaxBalance(), Money.of(100));
+        assertWithin(summary.getPercentiles().get("p50"), Money.of(50));
+        assertWithin(summary.getPercentiles().get("p90"), Money.of(90));
+        assertWithin(summary.getPercentiles().get("p99.9"), Money.of(100));
+    }
+
+    private static void assertWithin(Money actual, Money expected) {
+        final long error = Math.abs(actual.getMinorUnits() - expected.getMinorUnits());
+        assertThat(actual + " must be within 1/" + LedgerStats.SUB_BUCKETS + " of " + expected,
+                error <= expected.getMinorUnits() / LedgerStats.SUB_BUCKETS);
+    }
+
+    @Test
+    public void summary_empty() {
+        final LedgerSummary summary = new LedgerStats().summary();
+
+        assertThat(summary.getAccountCount(), equalTo(0L));
+        assertThat(summary.getTotalBalance(), equalTo(Money.ZERO));
+        assertThat(summary.getMinBalance(), nullValue());
+        assertThat(summary.getPercentiles().get("p50"), nullValue());
+    }
+
+    @Test
+    public void summaryOf_merged() {
+        final LedgerStats first = new LedgerStats();
+        first.counted(100);
+        final LedgerStats second = new LedgerStats();
+        second.counted(300);
+        second.counted(500);
+
+        final LedgerSummary summary = LedgerStats.summaryOf(Arrays.asList(first, second));
+
+        assertThat(summary.getAccountCount(), equalTo(3L));
+        assertThat(summary.getTotalBalance(), equalTo(Money.of(9)));
+        assertThat(summary.getMinBalance(), equalTo(Money.of(1)));
+    }
+
+    @Test
+    public void check_correctsRepeatedDifference() {
+        final LedgerStats stats = new LedgerStats();
+        stats.counted(100);
+        final LedgerStats scanned = new LedgerStats();
+        scanned.counted(100);
+        scanned.counted(200);
+
+        assertThat(stats.check(scanned), is(false));
+        assertThat("a difference seen once may be a write in flight", stats.summary().getAccountCount(),
+                equalTo(1L));
+
+        assertThat(stats.check(scanned), is(false));
+        assertThat(stats.getCorrections(), equalTo(1L));
+        assertThat(stats.summary().getAccountCount(), equalTo(2L));
+        assertThat(stats.summary().getTotalBalance(), equalTo(Money.of(3)));
+
+        assertThat(stats.check(scanned), is(true));
+    }
+
+    @Test
+    public void check_ignoresChangingDifference() {
+        final LedgerStats stats = new LedgerStats();
+        final LedgerStats scanned = new LedgerStats();
+        scanned.counted(100);
+        stats.check(scanned);
+        scanned.counted(100);
+        stats.check(scanned);
+
+        assertThat(stats.getCorrections(), equalTo(0L));
+    }
+}
@@ -0,0 +1,110 @@
+package org.vilutis.lt.revolut.backend.domain;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MoneyTest {
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void parse() {
+        assertThat(Money.parse("10").getMinorUnits(), equalTo(1000L));
+        assertThat(Money.parse("10.5").getMinorUnits(), equalTo(1050L));
+        assertThat(Money.parse("-0.05").getMinorUnits(), equalTo(-5L));
+        assertThat(Money.parse(".5").getMinorUnits(), equalTo(50L));
+        assertThat(Money.parse("1.2300").getMinorUnits(), equalTo(123L));
+        assertThat(Money.parse("1.5E2").getMinorUnits(), equalTo(15000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_scaleInvalid() {
+        Money.parse("10.001");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_invalid() {
+        Money.parse("1O");
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void parse_overflow() {
+        Money.parse("92233720368547758.08");
+    }
+
+    @Test(timeout = 1_000L, expected = ArithmeticException.class)
+    public void parse_hugeExponent() {
+        Money.parse("1e99999999");
+    }
+
+    @Test(timeout = 1_000L, expected = IllegalArgumentException.class)
+    public void parse_hugeNegativeExponent() {
+        Money.parse("1e-99999999");
+    }
+
+    @Test(timeout = 1_000L)
+    public void parse_zeroHugeExponent() {
+        assertThat(Money.parse("0e99999999"), equalTo(Money.ZERO));
+    }
+
+    @Test(timeout = 1_000L, expected = JsonSyntaxException.class)
+    public void json_hugeExponent() {
+        gson.fromJson("1e99999999", Money.class);
+    }
+
+    @Test
+    public void of() {
+        assertThat(Money.of(10), equalTo(Money.ofMinorUnits(1000)));
+        assertThat(Money.of(new BigDecimal("10.50")), equalTo(Money.ofMinorUnits(1050)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void of_scaleInvalid() {
+        Money.of(new BigDecimal("0.001"));
+    }
+
+    @Test
+    public void arithmetic() {
+        final Money amount = Money.parse("10.50");
+        assertThat(amount.plus(Money.parse("0.50")), equalTo(Money.of(11)));
+        assertThat(amount.minus(Money.of(11)), equalTo(Money.parse("-0.50")));
+        assertThat(amount.negate().isNegative(), equalTo(true));
+        assertThat(amount.isGreaterThanOrEqualTo(Money.parse("10.50")), equalTo(true));
+        assertThat(amount.toBigDecimal(), equalTo(new BigDecimal("10.50")));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void plus_overflow() {
+        Money.ofMinorUnits(Long.MAX_VALUE).plus(Money.ofMinorUnits(1));
+    }
+
+    @Test
+    public void toStringFormat() {
+        assertThat(Money.ZERO.toString(), equalTo("0.00"));
+        assertThat(Money.parse("-0.5").toString(), equalTo("-0.50"));
+        assertThat(Money.parse("-12.05").toString(), equalTo("-12.05"));
+        assertThat(Money.ofMinorUnits(Long.MIN_VALUE).toString(), equalTo("-92233720368547758.08"));
+    }
+
+    @Test
+    public void json() {
+        final Account account = Account.from(1L, "json", Money.parse("10.5"));
+
+        final String json = gson.toJson(account);
+
+        assertThat(json.contains("\"balance\":10.50"), equalTo(true));
+        assertThat(gson.fromJson(json, Account.class).getBalance(), equalTo(Money.parse("10.50")));
+        assertThat(gson.fromJson("\"0.01\"", Money.class), equalTo(Money.ofMinorUnits(1)));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void json_overflow() {
+        gson.fromJson("100000000000000000000", Money.class);
+    }
+}
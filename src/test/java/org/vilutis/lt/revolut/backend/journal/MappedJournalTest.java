@@ -0,0 +1,198 @@
+package org.vilutis.lt.revolut.backend.journal;
+
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MappedJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void append_replay() throws IOException {
+        try (MappedJournal journal = new MappedJournal(folder.newFolder().toPath())) {
+            assertThat(journal.append(JournalEntry.transfer(1L, 2L, Money.parse("10.5"))), equalTo(1L));
+            assertThat(journal.append(JournalEntry.deposit(3L, Money.of(1))), equalTo(2L));
+            assertThat(journal.append(JournalEntry.withdrawal(4L, Money.parse("0.01"))), equalTo(3L));
+
+            final List<JournalEntry> entries = new ArrayList<>();
+            assertThat(journal.replay(1L, entries::add), equalTo(3L));
+
+            assertThat(entries.get(0).getType(), equalTo(JournalEntry.Type.TRANSFER));
+            assertThat(entries.get(0).getFromAcct(), equalTo(1L));
+            assertThat(entries.get(0).getToAcct(), equalTo(2L));
+            assertThat(entries.get(0).getAmount(), equalTo(Money.parse("10.50")));
+            assertThat(entries.get(1).getType(), equalTo(JournalEntry.Type.DEPOSIT));
+            assertThat(entries.get(1).getToAcct(), equalTo(3L));
+            assertThat(entries.get(2).getType(), equalTo(JournalEntry.Type.WITHDRAWAL));
+            assertThat(entries.get(2).getSequence(), equalTo(3L));
+            assertThat(entries.get(2).getAmount(), equalTo(Money.parse("0.01")));
+        }
+    }
+
+    @Test
+    public void append_replay_accountChanges() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        final String name = "J\u016Bra\u0161ius";
+        try (MappedJournal journal = new MappedJournal(directory, MappedJournal.RECORD_SIZE * 10, 4, 0L)) {
+            journal.append(JournalEntry.accountCreated(7L, name));
+            journal.append(JournalEntry.deposit(7L, Money.of(1)));
+            journal.append(JournalEntry.accountUpdated(7L, "renamed", Money.parse("2.50")));
+        }
+
+        try (MappedJournal journal = new MappedJournal(directory, MappedJournal.RECORD_SIZE * 10, 4, 0L)) {
+            assertThat("last sequence must be recovered", journal.getLastSequence(), equalTo(3L));
+
+            final List<JournalEntry> entries = new ArrayList<>();
+            assertThat(journal.replay(2L, entries::add), equalTo(2L));
+            assertThat(entries.get(0).getAccountName(), nullValue());
+            assertThat(entries.get(1).getType(), equalTo(JournalEntry.Type.ACCOUNT_UPDATED));
+            assertThat(entries.get(1).getAccountName(), equalTo("renamed"));
+            assertThat(entries.get(1).getAmount(), equalTo(Money.parse("2.50")));
+
+            entries.clear();
+            journal.replay(1L, entries::add);
+            assertThat(entries.get(0).getType(), equalTo(JournalEntry.Type.ACCOUNT_CREATED));
+            assertThat(entries.get(0).getToAcct(), equalTo(7L));
+            assertThat(entries.get(0).getAccountName(), equalTo(name));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void append_entryLargerThanSegment() throws IOException {
+        final char[] name = new char[MappedJournal.RECORD_SIZE];
+        Arrays.fill(name, 'x');
+        try (MappedJournal journal = new MappedJournal(folder.newFolder().toPath(), MappedJournal.RECORD_SIZE, 4, 0L)) {
+            journal.append(JournalEntry.accountCreated(1L, new String(name)));
+        }
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        try (MappedJournal journal = new MappedJournal(directory)) {
+            journal.append(JournalEntry.deposit(1L, Money.of(1)));
+            journal.append(JournalEntry.deposit(1L, Money.of(10)));
+        }
+
+        try (MappedJournal journal = new MappedJournal(directory)) {
+            assertThat("last sequence must be recovered", journal.getLastSequence(), equalTo(2L));
+            assertThat("sequence must continue", journal.append(JournalEntry.deposit(1L, Money.of(1))),
+                    equalTo(3L));
+            assertThat(journal.replay(0L, entry -> { }), equalTo(3L));
+        }
+    }
+
+    @Test
+    public void reopen_tornRecord() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        try (MappedJournal journal = new MappedJournal(directory)) {
+            journal.append(JournalEntry.deposit(1L, Money.of(1)));
+            journal.append(JournalEntry.deposit(1L, Money.of(10)));
+        }
+        try (RandomAccessFile segment = new RandomAccessFile(segmentFiles(directory).get(0).toFile(), "rw")) {
+            segment.seek(MappedJournal.RECORD_SIZE + MappedJournal.RECORD_SIZE - 1);
+            segment.write(0xFF);
+        }
+
+        try (MappedJournal journal = new MappedJournal(directory)) {
+            assertThat("torn record must be dropped", journal.getLastSequence(), equalTo(1L));
+            assertThat("torn record must be overwritten", journal.append(JournalEntry.deposit(1L, Money.of(1))),
+                    equalTo(2L));
+            assertThat(journal.replay(0L, entry -> { }), equalTo(2L));
+        }
+    }
+
+    @Test
+    public void segmentRollOver() throws IOException {
+        final Path directory = folder.newFolder().toPath();
+        try (MappedJournal journal = new MappedJournal(directory, MappedJournal.RECORD_SIZE * 10, 4, 0L)) {
+            for (int i = 0; i < 25; i++) {
+                journal.append(JournalEntry.deposit(1L, Money.of(i + 1)));
+            }
+
+            assertThat("segments must roll over", segmentFiles(directory).size(), equalTo(3));
+
+            final List<JournalEntry> entries = new ArrayList<>();
+            assertThat(journal.replay(17L, entries::add), equalTo(9L));
+            assertThat(entries.get(0).getSequence(), equalTo(17L));
+            assertThat(entries.get(0).getAmount(), equalTo(Money.parse("17.00")));
+        }
+
+        try (MappedJournal journal = new MappedJournal(directory, MappedJournal.RECORD_SIZE * 10, 4, 0L)) {
+            assertThat(journal.getLastSequence(), equalTo(25L));
+            assertThat(journal.replay(1L, entry -> { }), equalTo(25L));
+        }
+    }
+
+    @Test
+    public void replay_indexed() throws IOException {
+        final int count = MappedJournal.INDEX_INTERVAL * 3;
+        try (MappedJournal journal = new MappedJournal(folder.newFolder().toPath())) {
+            final List<JournalEntry> batch = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                batch.add(JournalEntry.transfer(i, i + 1, Money.of(1)));
+            }
+            journal.appendAll(batch);
+
+            final long from = MappedJournal.INDEX_INTERVAL * 2 + 10;
+            final List<JournalEntry> entries = new ArrayList<>();
+            assertThat(journal.replay(from, entries::add), equalTo(count - from + 1));
+            assertThat(entries.get(0).getSequence(), equalTo(from));
+            assertThat(entries.get(0).getFromAcct(), equalTo(from - 1));
+        }
+    }
+
+    @Test
+    public void groupCommit() throws InterruptedException, IOException {
+        final Set<Long> sequences = ConcurrentHashMap.newKeySet();
+        try (MappedJournal journal = new MappedJournal(folder.newFolder().toPath(), 1024 * 1024, 64, 1000L)) {
+            final ExecutorService pool = Executors.newFixedThreadPool(16);
+            for (int i = 0; i < 1000; i++) {
+                pool.submit(() -> sequences.add(journal.append(JournalEntry.deposit(1L, Money.of(1)))));
+            }
+            pool.shutdown();
+            assertThat(pool.awaitTermination(30, TimeUnit.SECONDS), equalTo(true));
+
+            assertThat("every entry must get its own sequence", sequences.size(), equalTo(1000));
+            assertThat(journal.getAppendCount(), equalTo(1000L));
+            assertThat("concurrent appends must share fsyncs", journal.getCommitCount() < 1000L, equalTo(true));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void append_closed() throws IOException {
+        final MappedJournal journal = new MappedJournal(folder.newFolder().toPath());
+        journal.close();
+
+        journal.append(JournalEntry.deposit(1L, Money.of(1)));
+    }
+
+    private static List<Path> segmentFiles(Path directory) throws IOException {
+        final List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.toString().endsWith(".log")).sorted().forEach(segments::add);
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,89 @@
+package org.vilutis.lt.revolut.backend.metrics;
+
+import org.junit.Test;
+import spark.Request;
+import spark.Response;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class MetricsRegistryTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void snapshot() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final HistogramFamily family = registry.histograms("test_duration_seconds", "test", "action");
+        family.recordNanos("fast", TimeUnit.MICROSECONDS.toNanos(100));
+        family.recordNanos("fast", TimeUnit.MICROSECONDS.toNanos(300));
+        family.recordNanos("slow", TimeUnit.MINUTES.toNanos(5));
+        registry.gauge("test_gauge", "test", () -> 42L);
+        registry.gauges("test_pool_gauge", "test", "pool").set("primary", () -> 3L);
+        registry.gauges("test_pool_gauge", "test", "pool").set("replica-1", () -> 5L);
+
+        final Map<String, Object> snapshot = registry.snapshot();
+
+        final Map<String, Object> histograms = (Map<String, Object>) snapshot.get("histograms");
+        final Map<String, Object> actions = (Map<String, Object>) histograms.get("test_duration_seconds");
+        final Map<String, Object> fast = (Map<String, Object>) actions.get("fast");
+        final Map<String, Object> slow = (Map<String, Object>) actions.get("slow");
+        assertThat(fast.get("count"), equalTo(2L));
+        assertThat(fast.get("maxMicros"), equalTo(300L));
+        final long slowMax = (Long) slow.get("maxMicros");
+        assertThat("too high values must be clamped", slowMax >= LatencyHistogram.HIGHEST_TRACKABLE_MICROS
+                && slowMax <= LatencyHistogram.HIGHEST_TRACKABLE_MICROS * 1.001, equalTo(true));
+        final Map<String, Object> gauges = (Map<String, Object>) snapshot.get("gauges");
+        assertThat(gauges.get("test_gauge"), equalTo(42L));
+        final Map<String, Object> pools = (Map<String, Object>) gauges.get("test_pool_gauge");
+        assertThat(pools.get("primary"), equalTo(3L));
+        assertThat(pools.get("replica-1"), equalTo(5L));
+    }
+
+    @Test
+    public void toPrometheus() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.histograms("test_duration_seconds", "Test latency", "route")
+                .recordNanos("GET /api/\"x\"", TimeUnit.MILLISECONDS.toNanos(2));
+        registry.gauge("test_gauge", "Test gauge", () -> 7L);
+        registry.gauges("test_pool_gauge", "Test pool gauge", "pool").set("shard-1", () -> 4L);
+        registry.counters("test_total", "Test counter", "action").increment("retry");
+        registry.distribution("test_batch_size", "Test distribution", 100).recordValue(3);
+
+        final String text = registry.toPrometheus();
+
+        assertThat(text, containsString("# TYPE test_duration_seconds summary\n"));
+        assertThat(text, containsString("test_duration_seconds{route=\"GET /api/\\\"x\\\"\",quantile=\"0.99\"} 0.002"));
+        assertThat(text, containsString("test_duration_seconds_count{route=\"GET /api/\\\"x\\\"\"} 1\n"));
+        assertThat(text, containsString("# TYPE test_gauge gauge\ntest_gauge 7\n"));
+        assertThat(text, containsString("# TYPE test_pool_gauge gauge\ntest_pool_gauge{pool=\"shard-1\"} 4\n"));
+        assertThat(text, containsString("# TYPE test_total counter\ntest_total{action=\"retry\"} 1\n"));
+        assertThat(text, containsString("test_batch_size{quantile=\"0.5\"} 3\n"));
+        assertThat(text, containsString("test_batch_size_count 1\n"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void routeMetrics() throws Exception {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final RouteMetrics routeMetrics = new RouteMetrics(registry);
+        final Request req = mock(Request.class);
+        final Response res = mock(Response.class);
+
+        routeMetrics.before.handle(req, res);
+        routeMetrics.named("GET /test", (request, response) -> "OK").handle(req, res);
+        routeMetrics.after.handle(req, res);
+
+        routeMetrics.before.handle(req, res);
+        routeMetrics.after.handle(req, res);
+
+        final Map<String, Object> routes = (Map<String, Object>) ((Map<String, Object>) registry.snapshot()
+                .get("histograms")).get("http_request_duration_seconds");
+        assertThat(((Map<String, Object>) routes.get("GET /test")).get("count"), equalTo(1L));
+        assertThat(((Map<String, Object>) routes.get(RouteMetrics.UNMATCHED)).get("count"), equalTo(1L));
+    }
+}
@@ -0,0 +1,115 @@
+package org.vilutis.lt.revolut.backend.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long WINDOW_NANOS = 1000L;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Runs a window of operations of the given latency, keeping up to the given number of them in flight at once
+     */
+    private void window(ConcurrencyLimiter limiter, int concurrency, long latencyNanos) {
+        clock.addAndGet(WINDOW_NANOS);
+        int samples = 0;
+        while (samples < ConcurrencyLimiter.MIN_WINDOW_SAMPLES) {
+            int acquired = 0;
+            while (acquired < concurrency && limiter.tryAcquire()) {
+                acquired++;
+            }
+            for (int i = 0; i < acquired; i++) {
+                limiter.release(latencyNanos);
+                samples++;
+            }
+        }
+    }
+
+    @Test
+    public void tryAcquire_rejectsAtLimit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, WINDOW_NANOS, clock::get);
+
+        assertThat(limiter.tryAcquire(), is(true));
+        assertThat(limiter.tryAcquire(), is(true));
+        assertThat(limiter.tryAcquire(), is(false));
+        assertThat(limiter.getInFlight(), equalTo(2));
+        assertThat(limiter.getRejected(), equalTo(1L));
+
+        limiter.release(100L);
+
+        assertThat(limiter.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void release_growsWhileLatencyIsSteady() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 50, WINDOW_NANOS, clock::get);
+
+        for (int i = 0; i < 50; i++) {
+            window(limiter, limiter.getLimit(), 1000L);
+        }
+
+        assertThat(limiter.getLimit(), equalTo(50));
+        assertThat(limiter.getLongTermLatencyNanos(), equalTo(1000L));
+    }
+
+    @Test
+    public void release_doesNotGrowWhileUnderused() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 50, WINDOW_NANOS, clock::get);
+
+        for (int i = 0; i < 50; i++) {
+            window(limiter, 2, 1000L);
+        }
+
+        assertThat(limiter.getLimit(), equalTo(10));
+    }
+
+    @Test
+    public void release_shrinksWhenLatencyRises() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 2, 20, WINDOW_NANOS, clock::get);
+        for (int i = 0; i < 5; i++) {
+            window(limiter, limiter.getLimit(), 1000L);
+        }
+        assertThat(limiter.getLimit(), equalTo(20));
+
+        for (int i = 0; i < 10; i++) {
+            window(limiter, limiter.getLimit(), 10_000L);
+        }
+
+        assertThat("limit " + limiter.getLimit(), limiter.getLimit() < 10, is(true));
+
+        // still getting slower, down to the minimum
+        long latencyNanos = 10_000L;
+        for (int i = 0; i < 40; i++) {
+            latencyNanos += latencyNanos / 2;
+            window(limiter, limiter.getLimit(), latencyNanos);
+        }
+
+        assertThat(limiter.getLimit(), equalTo(2));
+    }
+
+    @Test
+    public void release_recoversWhenLatencyDrops() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 2, 20, WINDOW_NANOS, clock::get);
+        for (int i = 0; i < 20; i++) {
+            window(limiter, limiter.getLimit(), 10_000L);
+        }
+        for (int i = 0; i < 30; i++) {
+            window(limiter, limiter.getLimit(), 100_000L);
+        }
+        final int overloadedLimit = limiter.getLimit();
+        assertThat("limit " + overloadedLimit, overloadedLimit < 20, is(true));
+
+        for (int i = 0; i < 50; i++) {
+            window(limiter, limiter.getLimit(), 10_000L);
+        }
+
+        assertThat(limiter.getLimit(), equalTo(20));
+    }
+}
@@ -0,0 +1,63 @@
+package org.vilutis.lt.revolut.backend.server;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class VirtualThreadPoolTest {
+
+    @Test
+    public void execute() throws Exception {
+        Assume.assumeTrue("virtual threads not supported", VirtualThreadPool.isSupported());
+
+        final VirtualThreadPool pool = new VirtualThreadPool("test-");
+        pool.start();
+
+        // more blocked tasks than any platform thread pool of this application would run at once
+        final int tasks = 1000;
+        final CountDownLatch started = new CountDownLatch(tasks);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < tasks; i++) {
+            pool.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        assertThat(started.await(10, TimeUnit.SECONDS), equalTo(true));
+        assertThat(pool.getThreads(), equalTo(tasks));
+
+        release.countDown();
+        pool.stop();
+        pool.join();
+        assertThat(pool.getThreads(), equalTo(0));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void execute_stopped() throws Exception {
+        Assume.assumeTrue("virtual threads not supported", VirtualThreadPool.isSupported());
+
+        final VirtualThreadPool pool = new VirtualThreadPool("test-");
+        pool.start();
+        pool.stop();
+
+        pool.execute(() -> { });
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void create_unsupported() {
+        Assume.assumeTrue("virtual threads supported", !VirtualThreadPool.isSupported());
+
+        new VirtualThreadPool("test-");
+    }
+}
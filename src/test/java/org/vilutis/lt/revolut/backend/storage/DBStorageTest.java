@@ -0,0 +1,220 @@
+package org.vilutis.lt.revolut.backend.storage;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DBStorageTest {
+
+    private static DBStorage dbStorage;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUp() {
+        dbStorage = new DBStorage("/test.db.properties", 2);
+    }
+
+    @Test
+    public void prepareCached_reusedAcrossBorrows() throws SQLException {
+        final long hits = dbStorage.getStatementCacheHits();
+
+        dbStorage.runSQL(connection -> {
+            final PreparedStatement statement = dbStorage.prepareCached(connection, "SELECT 1");
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next();
+            }
+        });
+        final int value = dbStorage.runSQL(connection -> {
+            final PreparedStatement statement = dbStorage.prepareCached(connection, "SELECT 1");
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        });
+
+        assertThat("statement must still be usable after the connection was returned to the pool", value,
+                equalTo(1));
+        assertThat("statement must be reused", dbStorage.getStatementCacheHits() > hits);
+    }
+
+    @Test
+    public void prepareCached_sameStatementWithinTransaction() throws SQLException {
+        dbStorage.runInTransaction(connection -> {
+            assertThat(dbStorage.prepareCached(connection, "SELECT 2"),
+                    sameInstance(dbStorage.prepareCached(connection, "SELECT 2")));
+            return true;
+        });
+    }
+
+    @Test
+    public void prepareCached_returningColumns() throws SQLException {
+        final long balance = dbStorage.runInTransaction(connection -> {
+            connection.createStatement().execute("CREATE TABLE IF NOT EXISTS returning ( id INT, balance BIGINT )");
+            connection.createStatement().execute("INSERT INTO returning VALUES ( 1, 5 )");
+            final String update = "UPDATE returning SET balance = balance + ? WHERE id = 1";
+            final PreparedStatement statement = dbStorage.prepareCached(connection, update, new String[] {"balance"});
+            assertThat("must not be the statement cached without returned columns", statement,
+                    not(sameInstance(dbStorage.prepareCached(connection, update))));
+            statement.setLong(1, 2L);
+            statement.executeUpdate();
+            try (ResultSet rs = statement.getGeneratedKeys()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+
+        assertThat(balance, equalTo(7L));
+    }
+
+    @Test
+    public void prepareCached_bounded() throws SQLException {
+        final long evictions = dbStorage.getStatementCacheEvictions();
+        final long misses = dbStorage.getStatementCacheMisses();
+
+        dbStorage.runSQL(connection -> {
+            dbStorage.prepareCached(connection, "SELECT 3");
+            dbStorage.prepareCached(connection, "SELECT 4");
+            dbStorage.prepareCached(connection, "SELECT 5");
+            return true;
+        });
+
+        assertThat("every statement must be prepared", dbStorage.getStatementCacheMisses() - misses,
+                equalTo(3L));
+        assertThat("least recently used statements must be evicted",
+                dbStorage.getStatementCacheEvictions() > evictions);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void runSQL_recordsMetrics() throws SQLException {
+        final MetricsRegistry metrics = new MetricsRegistry();
+        final DBStorage measuredStorage = new DBStorage("/test.db.properties", 2, metrics);
+
+        measuredStorage.runSQL("probe", connection -> true);
+        measuredStorage.runInTransaction("probe", connection -> true);
+        measuredStorage.runInTransaction(connection -> true);
+
+        final Map<String, Object> snapshot = metrics.snapshot();
+        final Map<String, Object> histograms = (Map<String, Object>) snapshot.get("histograms");
+        assertThat(countOf(histograms, "db_sql_duration_seconds", "probe"), equalTo(1L));
+        assertThat(countOf(histograms, "db_transaction_duration_seconds", "probe"), equalTo(1L));
+        assertThat(countOf(histograms, "db_transaction_duration_seconds", DBStorage.UNNAMED_ACTION), equalTo(1L));
+        assertThat("pool wait time must be recorded",
+                ((Map<String, Object>) histograms.get("db_pool_wait_duration_seconds")).isEmpty(), equalTo(false));
+        final Map<String, Object> activeConnections = (Map<String, Object>) ((Map<String, Object>) snapshot
+                .get("gauges")).get("db_pool_active_connections");
+        assertThat("pool gauges must be labelled by pool", activeConnections.size(), equalTo(1));
+        assertThat(activeConnections.values().iterator().next(), equalTo(0L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void runInTransaction_retriesLockTimeout() throws SQLException {
+        final MetricsRegistry metrics = new MetricsRegistry();
+        final DBStorage retryingStorage = new DBStorage("/test.db.properties", 2, metrics,
+                new RetryPolicy(3, 0, 0, 0, 10));
+        final AtomicInteger attempts = new AtomicInteger();
+
+        final boolean result = retryingStorage.runInTransaction("probe", connection -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new SQLException("Timeout trying to lock table", "HYT00", 50200);
+            }
+            return true;
+        });
+
+        assertThat(result, equalTo(true));
+        assertThat(attempts.get(), equalTo(2));
+        final Map<String, Object> counters = (Map<String, Object>) metrics.snapshot().get("counters");
+        assertThat(((Map<String, Object>) counters.get("db_transaction_retries_total")).get("probe"), equalTo(1L));
+    }
+
+    @Test
+    public void runInTransaction_retriesLimited() {
+        final DBStorage retryingStorage = new DBStorage("/test.db.properties", 2, new MetricsRegistry(),
+                new RetryPolicy(3, 0, 0, 0, 10));
+        final AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            retryingStorage.runInTransaction(connection -> {
+                attempts.incrementAndGet();
+                throw new SQLException("Deadlock detected", "40001", 40001);
+            });
+            fail("the last failure must be thrown");
+        } catch (SQLException e) {
+            assertThat(e.getErrorCode(), equalTo(40001));
+        }
+        assertThat(attempts.get(), equalTo(3));
+    }
+
+    @Test
+    public void runInTransaction_notRetryable() {
+        final AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            dbStorage.runInTransaction(connection -> {
+                attempts.incrementAndGet();
+                throw new SQLException("Unique index or primary key violation", "23505", 23505);
+            });
+            fail("the failure must be thrown");
+        } catch (SQLException e) {
+            assertThat(e.getErrorCode(), equalTo(23505));
+        }
+        assertThat(attempts.get(), equalTo(1));
+    }
+
+    @Test
+    public void fileProfile_durable() throws IOException, SQLException {
+        final Properties properties = new Properties();
+        try (InputStream in = getClass().getResourceAsStream("/file.db.properties")) {
+            properties.load(in);
+        }
+        final Path directory = folder.newFolder().toPath();
+        properties.setProperty("jdbcUrl", properties.getProperty("jdbcUrl")
+                .replace("./data/", directory.toAbsolutePath() + "/"));
+        final Path propertyFile = directory.resolve("db.properties");
+        try (OutputStream out = Files.newOutputStream(propertyFile)) {
+            properties.store(out, null);
+        }
+
+        try (DBStorage fileStorage = new DBStorage(propertyFile.toString())) {
+            fileStorage.runSQL(connection -> connection.createStatement()
+                    .executeUpdate("INSERT INTO account ( accountName ) VALUES ( 'durable' )"));
+        }
+
+        try (DBStorage fileStorage = new DBStorage(propertyFile.toString())) {
+            final String name = fileStorage.runSQL(connection -> {
+                try (ResultSet rs = connection.createStatement().executeQuery("SELECT accountName FROM account")) {
+                    return rs.next() ? rs.getString(1) : null;
+                }
+            });
+            assertThat("account must survive closing the database", name, equalTo("durable"));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object countOf(Map<String, Object> histograms, String family, String action) {
+        return ((Map<String, Object>) ((Map<String, Object>) histograms.get(family)).get(action)).get("count");
+    }
+}
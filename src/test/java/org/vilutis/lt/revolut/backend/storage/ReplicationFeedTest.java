@@ -0,0 +1,243 @@
+package org.vilutis.lt.revolut.backend.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestName;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoCachingImpl;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoJdbcImpl;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoSequencedImpl;
+import org.vilutis.lt.revolut.backend.domain.Account;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.journal.Journal;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ReplicationFeedTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private String propertyFile;
+
+    private List<String> replicaUrls;
+
+    private DBStorage dbStorage;
+
+    @Before
+    public void setUp() throws IOException {
+        // in-memory databases of their own, gone once their pools are closed
+        final Properties properties = new Properties();
+        properties.setProperty("jdbcUrl", "jdbc:h2:mem:" + testName.getMethodName());
+        properties.setProperty("maximumPoolSize", "4");
+        final Path file = folder.newFile().toPath();
+        try (OutputStream out = Files.newOutputStream(file)) {
+            properties.store(out, null);
+        }
+        propertyFile = file.toString();
+        replicaUrls = Arrays.asList("jdbc:h2:mem:" + testName.getMethodName() + "-replica1",
+                "jdbc:h2:mem:" + testName.getMethodName() + "-replica2");
+    }
+
+    @After
+    public void tearDown() {
+        if (dbStorage != null) {
+            dbStorage.close();
+        }
+    }
+
+    private DBStorage openWithReplicas() {
+        dbStorage = new DBStorage(propertyFile, DBStorage.DEFAULT_STATEMENT_CACHE_SIZE, new MetricsRegistry(),
+                new RetryPolicy(), replicaUrls, 0);
+        return dbStorage;
+    }
+
+    private static void execute(DBStorage storage, String... sql) throws SQLException {
+        storage.runInTransaction(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String each : sql) {
+                    statement.execute(each);
+                }
+            }
+            return true;
+        });
+    }
+
+    private static long query(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private long queryReplica(int replica, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(replicaUrls.get(replica))) {
+            return query(connection, sql);
+        }
+    }
+
+    @Test
+    public void replicate() throws SQLException {
+        openWithReplicas();
+        execute(dbStorage, "INSERT INTO account ( accountNumber, accountName, balance ) VALUES ( 1, 'first', 100 )",
+                "INSERT INTO account ( accountNumber, accountName, balance ) VALUES ( 2, 'second', 200 )");
+        execute(dbStorage, "UPDATE account SET balance = balance - 50 WHERE accountNumber = 1",
+                "UPDATE account SET balance = balance + 50 WHERE accountNumber = 2");
+        assertThat("every transaction takes the next position", dbStorage.getSessionPosition(), equalTo(2L));
+        assertThat(queryReplica(0, "SELECT COUNT(*) FROM account"), equalTo(0L));
+
+        assertThat(dbStorage.replicate(), equalTo(2L));
+
+        for (int replica = 0; replica < replicaUrls.size(); replica++) {
+            assertThat(queryReplica(replica, "SELECT balance FROM account WHERE accountNumber = 1"), equalTo(50L));
+            assertThat(queryReplica(replica, "SELECT balance FROM account WHERE accountNumber = 2"), equalTo(250L));
+        }
+        assertThat("applied log entries must be deleted",
+                dbStorage.runSQLOnPrimary("count", connection -> query(connection,
+                        "SELECT COUNT(*) FROM replication_log")), equalTo(0L));
+    }
+
+    @Test
+    public void replicate_slots() throws SQLException {
+        openWithReplicas();
+        execute(dbStorage, "INSERT INTO account ( accountNumber, accountName, slots ) VALUES ( 1, 'hot', 2 )",
+                "INSERT INTO account_slot ( accountNumber, slot, balance ) VALUES ( 1, 0, 10 )",
+                "INSERT INTO account_slot ( accountNumber, slot, balance ) VALUES ( 1, 1, 20 )");
+        dbStorage.replicate();
+        assertThat(queryReplica(1, "SELECT SUM(balance) FROM account_slot"), equalTo(30L));
+
+        execute(dbStorage, "DELETE FROM account_slot WHERE slot = 1", "UPDATE account SET slots = 1");
+        dbStorage.replicate();
+
+        assertThat(queryReplica(1, "SELECT SUM(balance) FROM account_slot"), equalTo(10L));
+        assertThat(queryReplica(1, "SELECT slots FROM account"), equalTo(1L));
+    }
+
+    @Test
+    public void replicate_rolledBackNotLogged() throws SQLException {
+        openWithReplicas();
+        try {
+            dbStorage.runInTransaction(connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("INSERT INTO account ( accountNumber, accountName ) VALUES ( 1, 'first' )");
+                }
+                throw new IllegalArgumentException("rolled back");
+            });
+            fail("the transaction must fail");
+        } catch (IllegalArgumentException expected) {
+            // rolled back
+        }
+        execute(dbStorage, "INSERT INTO account ( accountNumber, accountName ) VALUES ( 2, 'second' )");
+
+        assertThat(dbStorage.getSessionPosition(), equalTo(1L));
+        dbStorage.replicate();
+        assertThat(queryReplica(0, "SELECT COUNT(*) FROM account"), equalTo(1L));
+        assertThat(queryReplica(0, "SELECT accountNumber FROM account"), equalTo(2L));
+    }
+
+    @Test
+    public void runSQL_readYourWrites() throws SQLException {
+        openWithReplicas();
+        execute(dbStorage, "INSERT INTO account ( accountNumber, accountName ) VALUES ( 1, 'first' )");
+
+        assertThat("replicas are behind, the primary must be read",
+                dbStorage.runSQL("count", connection -> query(connection, "SELECT COUNT(*) FROM account")),
+                equalTo(1L));
+
+        dbStorage.startSession(0);
+        assertThat("any replica may be read without a session position",
+                dbStorage.runSQL("count", connection -> query(connection, "SELECT COUNT(*) FROM account")),
+                equalTo(0L));
+
+        dbStorage.replicate();
+        dbStorage.startSession(1);
+        assertThat(dbStorage.runSQL("count", connection -> query(connection, "SELECT COUNT(*) FROM account")),
+                equalTo(1L));
+    }
+
+    @Test
+    public void onPrimary() throws SQLException {
+        openWithReplicas();
+        execute(dbStorage, "INSERT INTO account ( accountNumber, accountName ) VALUES ( 1, 'first' )");
+        dbStorage.startSession(0);
+
+        assertThat("the primary must be read whatever the session position", dbStorage.onPrimary(() -> {
+            try {
+                return dbStorage.runSQL("count", connection -> query(connection, "SELECT COUNT(*) FROM account"));
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }), equalTo(1L));
+        assertThat("the session position must be restored", dbStorage.getSessionPosition(), equalTo(0L));
+    }
+
+    @Test
+    public void onPrimary_cacheNotRefilledFromReplica() throws SQLException {
+        openWithReplicas();
+        final AccountDaoJdbcImpl accountDAO = new AccountDaoJdbcImpl(dbStorage);
+        final Account account = accountDAO.create("cached");
+        dbStorage.replicate();
+        final AccountDaoCachingImpl cachingDAO = new AccountDaoCachingImpl(accountDAO, 1024, dbStorage);
+        cachingDAO.deposit(account.getAccountNumber(), Money.of(10));
+
+        // a request without a replication position, served by a replica which has not seen the deposit
+        dbStorage.startSession(0);
+
+        assertThat(cachingDAO.findByAccountNumber(account.getAccountNumber()).getBalance(), equalTo(Money.of(10)));
+        assertThat("the cached balance must be the current one",
+                cachingDAO.findByAccountNumber(account.getAccountNumber()).getBalance(), equalTo(Money.of(10)));
+    }
+
+    @Test
+    public void advanceSession_sequencerReadYourWrites() throws SQLException {
+        openWithReplicas();
+        try (AccountDaoSequencedImpl accountDAO = new AccountDaoSequencedImpl(dbStorage, Journal.NONE,
+                new MetricsRegistry(), 16, 16, 0L)) {
+            final Account account = accountDAO.create("sequenced");
+            dbStorage.replicate();
+            dbStorage.startSession(0);
+
+            // committed by the sequencer thread
+            accountDAO.deposit(account.getAccountNumber(), Money.of(10));
+
+            assertThat("the session must cover the deposit", dbStorage.getSessionPosition(), equalTo(2L));
+            assertThat(accountDAO.findByAccountNumber(account.getAccountNumber()).getBalance(),
+                    equalTo(Money.of(10)));
+        }
+    }
+
+    @Test
+    public void copyAll() throws SQLException {
+        try (DBStorage withoutReplicas = new DBStorage(propertyFile)) {
+            execute(withoutReplicas, "INSERT INTO account ( accountNumber, accountName ) VALUES ( 1, 'first' )",
+                    "INSERT INTO account_slot ( accountNumber, slot, balance ) VALUES ( 1, 0, 10 )");
+
+            openWithReplicas();
+
+            assertThat(queryReplica(0, "SELECT COUNT(*) FROM account"), equalTo(1L));
+            assertThat(queryReplica(1, "SELECT SUM(balance) FROM account_slot"), equalTo(10L));
+            assertThat(dbStorage.getSessionPosition(), equalTo(0L));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.vilutis.lt.revolut.backend.storage;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RetryPolicyTest {
+
+    private static final SQLException LOCK_TIMEOUT = new SQLException("Timeout trying to lock table", "HYT00", 50200);
+
+    @Test
+    public void isRetryable() {
+        assertThat(RetryPolicy.isRetryable(LOCK_TIMEOUT), equalTo(true));
+        assertThat(RetryPolicy.isRetryable(new SQLException("Deadlock detected", "40001", 40001)), equalTo(true));
+        assertThat(RetryPolicy.isRetryable(new SQLException("Concurrent update", "90131", 90131)), equalTo(true));
+        assertThat(RetryPolicy.isRetryable(new SQLException("Syntax error", "42000", 42000)), equalTo(false));
+
+        final SQLException batchFailure = new SQLException("Batch failed", "HY000", 50000);
+        batchFailure.setNextException(new SQLException("Deadlock detected", "40001", 40001));
+        assertThat("chained failures must be classified", RetryPolicy.isRetryable(batchFailure), equalTo(true));
+    }
+
+    @Test
+    public void shouldRetry_maxAttempts() {
+        final RetryPolicy retryPolicy = new RetryPolicy(3, 0, 0, 0, 10);
+
+        assertThat(retryPolicy.shouldRetry(LOCK_TIMEOUT, 1), equalTo(true));
+        assertThat(retryPolicy.shouldRetry(LOCK_TIMEOUT, 2), equalTo(true));
+        assertThat(retryPolicy.shouldRetry(LOCK_TIMEOUT, 3), equalTo(false));
+    }
+
+    @Test
+    public void shouldRetry_budget() {
+        final RetryPolicy retryPolicy = new RetryPolicy(10, 0, 0, 0.5, 1);
+
+        assertThat(retryPolicy.shouldRetry(LOCK_TIMEOUT, 1), equalTo(true));
+        assertThat("the budget must be spent", retryPolicy.shouldRetry(LOCK_TIMEOUT, 1), equalTo(false));
+
+        retryPolicy.onTransaction();
+        assertThat("half a retry must not be enough", retryPolicy.shouldRetry(LOCK_TIMEOUT, 1), equalTo(false));
+        retryPolicy.onTransaction();
+        assertThat(retryPolicy.shouldRetry(LOCK_TIMEOUT, 1), equalTo(true));
+    }
+
+    @Test
+    public void backoffMillis() {
+        final RetryPolicy retryPolicy = new RetryPolicy(10, 2, 10, 0, 0);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(retryPolicy.backoffMillis(1) <= 2, equalTo(true));
+            assertThat(retryPolicy.backoffMillis(3) <= 8, equalTo(true));
+            assertThat(retryPolicy.backoffMillis(10) <= 10, equalTo(true));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.vilutis.lt.revolut.backend.storage;
+
+import org.junit.Test;
+import org.vilutis.lt.revolut.backend.dao.impl.AccountDaoJdbcImpl;
+import org.vilutis.lt.revolut.backend.domain.Money;
+import org.vilutis.lt.revolut.backend.metrics.MetricsRegistry;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SchemaMigratorTest {
+
+    // the schema.sql run on every connection before migrations were introduced
+    private static final String LEGACY_SCHEMA = "CREATE TABLE IF NOT EXISTS account ( "
+            + " accountNumber IDENTITY NOT NULL PRIMARY KEY, "
+            + " accountName VARCHAR NOT NULL, "
+            + " balance DECIMAL(20, 2) DEFAULT 0.00 )";
+
+    private static Connection connect(String name) throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+    }
+
+    private static int count(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    public void migrate_runsScriptsOnce() throws SQLException {
+        try (Connection connection = connect("migrate_runsScriptsOnce")) {
+            final int applied = new SchemaMigrator().migrate(connection);
+
+            assertThat("all scripts must run on an empty database", applied > 0);
+            assertThat(count(connection, "SELECT COUNT(*) FROM schema_version"), equalTo(applied));
+            assertThat(count(connection, "SELECT COUNT(*) FROM account"), equalTo(0));
+
+            assertThat("applied scripts must not run again", new SchemaMigrator().migrate(connection), equalTo(0));
+        }
+    }
+
+    @Test
+    public void migrate_existingSchema() throws SQLException {
+        try (Connection connection = connect("migrate_existingSchema")) {
+            // a database created by running the initial script on every connection, before migrations
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("RUNSCRIPT FROM 'classpath:" + SchemaMigrator.LOCATION + "V1.sql'");
+                statement.execute("INSERT INTO account ( accountName ) VALUES ( 'existing' )");
+            }
+
+            new SchemaMigrator().migrate(connection);
+
+            assertThat("existing accounts must be kept", count(connection, "SELECT COUNT(*) FROM account"),
+                    equalTo(1));
+            assertThat(count(connection, "SELECT COUNT(*) FROM schema_version WHERE version = 1"), equalTo(1));
+            assertThat("account numbers must continue after the existing accounts",
+                    count(connection, "SELECT NEXT VALUE FOR account_number_seq"), equalTo(2));
+        }
+    }
+
+    @Test
+    public void migrate_legacySchema() throws SQLException {
+        final String url = "jdbc:h2:mem:migrate_legacySchema;DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url)) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(LEGACY_SCHEMA);
+                statement.execute("INSERT INTO account ( accountName, balance ) VALUES ( 'rich', 1234567.89 )");
+                statement.execute("INSERT INTO account ( accountName, balance ) VALUES ( 'cents', 0.05 )");
+                statement.execute("INSERT INTO account ( accountName, balance ) VALUES ( 'unset', NULL )");
+            }
+
+            new SchemaMigrator().migrate(connection);
+
+            assertThat("balances must be converted to minor units",
+                    count(connection, "SELECT balance FROM account WHERE accountNumber = 1"), equalTo(123456789));
+            assertThat(count(connection, "SELECT balance FROM account WHERE accountNumber = 2"), equalTo(5));
+            assertThat(count(connection, "SELECT balance FROM account WHERE accountNumber = 3"), equalTo(0));
+            assertThat(count(connection, "SELECT SUM(slots) FROM account"), equalTo(0));
+            assertThat(count(connection, "SELECT COUNT(*) FROM account_slot"), equalTo(0));
+            assertThat("converted accounts must not be converted again", new SchemaMigrator().migrate(connection),
+                    equalTo(0));
+            assertThat(count(connection, "SELECT balance FROM account WHERE accountNumber = 2"), equalTo(5));
+        }
+
+        try (DBStorage dbStorage = new DBStorage("/test.db.properties", url, "legacy", new MetricsRegistry())) {
+            final AccountDaoJdbcImpl accountDAO = new AccountDaoJdbcImpl(dbStorage);
+
+            assertThat(accountDAO.findByAccountNumber(1L).getBalance(), equalTo(Money.parse("1234567.89")));
+            accountDAO.transferBalance(1L, 2L, Money.parse("0.95"));
+            assertThat(accountDAO.findByAccountNumber(2L).getBalance(), equalTo(Money.of(1)));
+        }
+    }
+
+    @Test
+    public void migrate_legacySchemaInterrupted() throws SQLException {
+        try (Connection connection = connect("migrate_legacySchemaInterrupted")) {
+            // the process died after the balance was converted, before the slots column was added
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(LEGACY_SCHEMA);
+                statement.execute("INSERT INTO account ( accountName, balance ) VALUES ( 'cents', 0.05 )");
+                statement.execute("ALTER TABLE account ADD COLUMN balanceMinorUnits BIGINT");
+                statement.execute("UPDATE account SET balanceMinorUnits = 5");
+                statement.execute("ALTER TABLE account DROP COLUMN balance");
+            }
+
+            new SchemaMigrator().migrate(connection);
+
+            assertThat(count(connection, "SELECT balance FROM account WHERE accountNumber = 1"), equalTo(5));
+            assertThat(count(connection, "SELECT slots FROM account WHERE accountNumber = 1"), equalTo(0));
+        }
+    }
+}